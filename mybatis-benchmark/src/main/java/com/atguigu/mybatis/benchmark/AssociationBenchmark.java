@@ -0,0 +1,98 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.atguigu.mybatis.bean.Department;
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.DepartmentMapper;
+import com.atguigu.mybatis.dao.EmployeeMapperPlus;
+
+/**
+ * 关联查询的两种写法对比：
+ * 		嵌套结果集（一条join）：getEmpAndDept / getDeptByIdPlus
+ * 		分步查询（select=，延迟加载）：getEmpByIdStep / getDeptByIdStep
+ * 分步查询的方法里会访问一次关联属性，触发延迟加载，这样两边拿到的数据是一样的
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class AssociationBenchmark {
+
+	@Param({"LOCAL_ONLY", "SECOND_LEVEL"})
+	public CacheMode cacheMode;
+
+	@Param({"1000"})
+	public int employees;
+
+	private SqlSessionFactory factory;
+
+	@Setup
+	public void setUp() throws Exception {
+		factory = BenchmarkDatabase.create("association_" + cacheMode, cacheMode, employees);
+	}
+
+	@Benchmark
+	public Employee empAndDeptNested() {
+		SqlSession session = factory.openSession();
+		try {
+			return session.getMapper(EmployeeMapperPlus.class).getEmpAndDept(MapperBenchmark.hotId());
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public void empAndDeptStep(Blackhole bh) {
+		SqlSession session = factory.openSession();
+		try {
+			Employee employee = session.getMapper(EmployeeMapperPlus.class).getEmpByIdStep(MapperBenchmark.hotId());
+			bh.consume(employee.getDept());
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public void deptWithEmpsNested(Blackhole bh) {
+		SqlSession session = factory.openSession();
+		try {
+			Department dept = session.getMapper(DepartmentMapper.class).getDeptByIdPlus(deptId());
+			bh.consume(dept.getEmps().size());
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public void deptWithEmpsStep(Blackhole bh) {
+		SqlSession session = factory.openSession();
+		try {
+			Department dept = session.getMapper(DepartmentMapper.class).getDeptByIdStep(deptId());
+			bh.consume(dept.getEmps().size());
+		} finally {
+			session.close();
+		}
+	}
+
+	private static int deptId() {
+		return MapperBenchmark.hotId() % BenchmarkDatabase.DEPARTMENTS + 1;
+	}
+}
@@ -0,0 +1,109 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+/**
+ * 基准测试用的H2内存库（MySQL模式）：
+ * 		建表、灌数据，并按照CacheMode构建SqlSessionFactory
+ */
+public final class BenchmarkDatabase {
+
+	public static final String CONFIG = "benchmark-config.xml";
+	public static final int DEPARTMENTS = 10;
+
+	private BenchmarkDatabase() {
+	}
+
+	public static SqlSessionFactory create(String name, CacheMode cacheMode, int employees)
+			throws IOException, SQLException {
+		return create(CONFIG, name, cacheMode, employees);
+	}
+
+	public static SqlSessionFactory create(String config, String name, CacheMode cacheMode, int employees)
+			throws IOException, SQLException {
+		Properties props = new Properties();
+		props.setProperty("jdbc.url", url(name));
+		Reader reader = Resources.getResourceAsReader(config);
+		SqlSessionFactory factory;
+		try {
+			factory = new SqlSessionFactoryBuilder().build(reader, props);
+		} finally {
+			reader.close();
+		}
+		Configuration configuration = factory.getConfiguration();
+		configuration.setCacheEnabled(cacheMode == CacheMode.SECOND_LEVEL);
+
+		SqlSession session = factory.openSession();
+		try {
+			Connection conn = session.getConnection();
+			runSchema(conn);
+			seed(conn, employees);
+			conn.commit();
+		} finally {
+			session.close();
+		}
+		return factory;
+	}
+
+	public static String url(String name) {
+		return "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+	}
+
+	private static void runSchema(Connection conn) throws IOException {
+		ScriptRunner runner = new ScriptRunner(conn);
+		runner.setLogWriter(null);
+		runner.setStopOnError(true);
+		Reader schema = Resources.getResourceAsReader("schema.sql");
+		try {
+			runner.runScript(schema);
+		} finally {
+			schema.close();
+		}
+	}
+
+	private static void seed(Connection conn, int employees) throws SQLException {
+		PreparedStatement dept = conn.prepareStatement("insert into tbl_dept(id,dept_name) values(?,?)");
+		try {
+			for (int i = 1; i <= DEPARTMENTS; i++) {
+				dept.setInt(1, i);
+				dept.setString(2, "dept" + i);
+				dept.addBatch();
+			}
+			dept.executeBatch();
+		} finally {
+			dept.close();
+		}
+
+		PreparedStatement emp = conn.prepareStatement(
+				"insert into tbl_employee(id,last_name,gender,email,d_id,empStatus) values(?,?,?,?,?,?)");
+		try {
+			for (int i = 1; i <= employees; i++) {
+				emp.setInt(1, i);
+				emp.setString(2, "emp" + i);
+				emp.setString(3, i % 2 == 0 ? "0" : "1");
+				emp.setString(4, "emp" + i + "@atguigu.com");
+				emp.setInt(5, i % DEPARTMENTS + 1);
+				emp.setInt(6, 100);
+				emp.addBatch();
+				if (i % 10000 == 0) {
+					emp.executeBatch();
+				}
+			}
+			emp.executeBatch();
+		} finally {
+			emp.close();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.atguigu.mybatis.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 运行全部基准测试，并打开GC分配统计（gc.alloc.rate.norm即每次操作分配的字节数）
+ *
+ * 	mvn -f mybatislearn/pom.xml install
+ * 	mvn -f mybatis-benchmark/pom.xml package
+ * 	java -cp mybatis-benchmark/target/benchmarks.jar com.atguigu.mybatis.benchmark.BenchmarkRunner [正则]
+ *
+ * 也可以直接用JMH自带的入口：java -jar benchmarks.jar MapperBenchmark -prof gc
+ * SampleTime模式的输出里有p0.99，Throughput模式给出每微秒的操作数
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : "com.atguigu.mybatis.benchmark.*")
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
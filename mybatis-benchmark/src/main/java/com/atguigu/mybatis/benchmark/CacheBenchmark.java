@@ -0,0 +1,106 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.Cache;
+import org.mybatis.caches.ehcache.EhcacheCache;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atguigu.mybatis.cache.TinyLfuCache;
+import com.atguigu.mybatis.cache.offheap.OffHeapCache;
+
+/**
+ * 二级缓存本身的并发读写：8个线程，80%的访问落在HOT_KEYS个热点key上，其余分散在KEYS个key上，
+ * 未命中时放入（和CachingExecutor的用法一样）
+ * 比较EhcacheCache（ehcache.xml：10000条、LRU）、TinyLfuCache（按字节数）
+ * 和OffHeapCache（堆外64M + 1M前端缓存，每次未命中都要编码，前端缓存未命中要解码）的吞吐和命中率
+ * （命中率看结果里的hits、misses两列）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(2)
+public class CacheBenchmark {
+
+	static final int HOT_KEYS = 1000;
+	static final int KEYS = 1000000;
+
+	@Param({"ehcache", "tinylfu", "offheap"})
+	public String cache;
+
+	private Cache delegate;
+
+	@Setup
+	public void setUp() {
+		if ("ehcache".equals(cache)) {
+			delegate = new EhcacheCache("benchmark_" + cache);
+		} else if ("offheap".equals(cache)) {
+			OffHeapCache offHeap = new OffHeapCache("benchmark_" + cache);
+			offHeap.setMaxBytes(64L * 1024 * 1024);
+			offHeap.setFrontMaxBytes(1024 * 1024);
+			offHeap.initialize();
+			delegate = offHeap;
+		} else {
+			TinyLfuCache tinyLfu = new TinyLfuCache("benchmark_" + cache);
+			tinyLfu.setMaxBytes(8L * 1024 * 1024);
+			tinyLfu.initialize();
+			delegate = tinyLfu;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		delegate.clear();
+	}
+
+	@Benchmark
+	public Object getOrPut(Counters counters) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Integer key = random.nextInt(10) < 8 ? random.nextInt(HOT_KEYS) : HOT_KEYS + random.nextInt(KEYS);
+		Object value = delegate.getObject(key);
+		if (value == null) {
+			counters.misses++;
+			value = Collections.singletonList(key);
+			delegate.putObject(key, value);
+		} else {
+			counters.hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * 每个线程的命中、未命中次数，JMH汇总后和吞吐一起输出（三种缓存用同一种方式统计）
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+
+		public long hits;
+		public long misses;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			hits = 0;
+			misses = 0;
+		}
+	}
+}
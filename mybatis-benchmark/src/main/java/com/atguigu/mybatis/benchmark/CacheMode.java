@@ -0,0 +1,11 @@
+package com.atguigu.mybatis.benchmark;
+
+/**
+ * 基准测试的缓存配置
+ */
+public enum CacheMode {
+	/** 只有一级缓存（cacheEnabled=false，不经过CachingExecutor） */
+	LOCAL_ONLY,
+	/** 开启二级缓存，使用EmployeeMapper.xml中声明的&lt;cache&gt; */
+	SECOND_LEVEL
+}
@@ -0,0 +1,150 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PoolState;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.atguigu.mybatis.datasource.FastPooledDataSource;
+import com.atguigu.mybatis.datasource.PoolSnapshot;
+
+/**
+ * 连接池借出/归还的争用：64个线程抢POOL_SIZE个连接（H2内存库，不执行sql）
+ * 		pool=pooled：MyBatis的PooledDataSource（一把锁 + wait/notifyAll）
+ * 		pool=fast：FastPooledDataSource（无锁的空闲队列 + CAS）
+ * 		work：拿着连接时消耗的CPU（Blackhole.consumeCPU的token数），0时只测连接池本身
+ * 		leakDetectionThreshold：fast的泄漏检测（毫秒，0不检测），看打开以后借出/归还慢了多少；pooled忽略
+ *
+ * SampleTime模式的p0.99就是借连接的尾延迟；结果里还有两列（见Counters）：
+ * 		waitMs：借连接等待的总毫秒数（pooled只统计排过队的请求，fast统计所有getConnection）
+ * 		leaks：fast报告的泄漏次数，连接都及时归还了，应该是0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(2)
+public class ConnectionPoolBenchmark {
+
+	static final int POOL_SIZE = 16;
+
+	@Param({"pooled", "fast"})
+	public String pool;
+
+	@Param({"0", "200"})
+	public int work;
+
+	@Param({"0", "60000"})
+	public long leakDetectionThreshold;
+
+	private DataSource dataSource;
+
+	@Setup
+	public void setUp() throws SQLException {
+		String url = BenchmarkDatabase.url("pool_" + pool);
+		if ("fast".equals(pool)) {
+			FastPooledDataSource fast = new FastPooledDataSource("org.h2.Driver", url, "sa", "");
+			fast.setMaximumPoolSize(POOL_SIZE);
+			fast.setMinimumIdle(POOL_SIZE);
+			fast.setLeakDetectionThreshold(leakDetectionThreshold);
+			dataSource = fast;
+		} else {
+			PooledDataSource pooled = new PooledDataSource("org.h2.Driver", url, "sa", "");
+			pooled.setPoolMaximumActiveConnections(POOL_SIZE);
+			pooled.setPoolMaximumIdleConnections(POOL_SIZE);
+			dataSource = pooled;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (dataSource instanceof FastPooledDataSource) {
+			((FastPooledDataSource) dataSource).close();
+		} else {
+			((PooledDataSource) dataSource).forceCloseAll();
+		}
+	}
+
+	double waitMillis() {
+		if (dataSource instanceof FastPooledDataSource) {
+			PoolSnapshot snapshot = ((FastPooledDataSource) dataSource).snapshot();
+			return snapshot.getWaitTime().getMean() * snapshot.getWaitTime().getCount() / 1000;
+		}
+		PoolState state = ((PooledDataSource) dataSource).getPoolState();
+		return state.getAverageWaitTime() * state.getHadToWaitCount();
+	}
+
+	long leaks() {
+		return dataSource instanceof FastPooledDataSource ? ((FastPooledDataSource) dataSource).snapshot().getLeaks() : 0;
+	}
+
+	@Benchmark
+	public boolean borrow(Counters counters) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			Blackhole.consumeCPU(work);
+			return connection.getAutoCommit();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * 连接池的计数，JMH汇总后和吞吐一起输出
+	 * 		计数是整个连接池的，只由第一个线程在每次迭代结束时报告这次迭代的增量，其他线程是0（JMH按线程求和）
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+
+		public long waitMs;
+		public long leaks;
+
+		/** 第一个线程才有，其他线程是null */
+		private ConnectionPoolBenchmark reporter;
+		private double waitMillisAtStart;
+		private long leaksAtStart;
+
+		@Setup(Level.Iteration)
+		public void start(ConnectionPoolBenchmark benchmark, ThreadParams thread) {
+			waitMs = 0;
+			leaks = 0;
+			reporter = thread.getThreadIndex() == 0 ? benchmark : null;
+			if (reporter != null) {
+				waitMillisAtStart = reporter.waitMillis();
+				leaksAtStart = reporter.leaks();
+			}
+		}
+
+		@TearDown(Level.Iteration)
+		public void stop() {
+			if (reporter != null) {
+				waitMs = Math.round(reporter.waitMillis() - waitMillisAtStart);
+				leaks = reporter.leaks() - leaksAtStart;
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.scripting.CompiledSqlSource;
+
+/**
+ * EmployeeMapperDynamicSQL的动态语句生成BoundSql的开销（不访问数据库）：
+ * 		compiled=false：MyBatis的DynamicSqlSource（每次OGNL求值、拼SQL、解析#{}）
+ * 		compiled=true：CompiledSqlSource（预编译的条件 + 按形状缓存的SQL文本）
+ * 两种都用同一棵SqlNode树，只是外面包的SqlSource不同
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class DynamicSqlBenchmark {
+
+	private static final String NAMESPACE = "com.atguigu.mybatis.dao.EmployeeMapperDynamicSQL.";
+
+	@Param({"false", "true"})
+	public boolean compiled;
+
+	private SqlSource conditionIf;
+	private SqlSource conditionChoose;
+	private SqlSource conditionForeach;
+	private SqlSource innerParameter;
+
+	private Employee employee;
+	private Map<String, Object> ids;
+
+	@Setup
+	public void setUp() throws Exception {
+		Configuration configuration = BenchmarkDatabase.create("scripting_" + compiled, CacheMode.LOCAL_ONLY, 0)
+				.getConfiguration();
+		conditionIf = sqlSource(configuration, "getEmpsByConditionIf");
+		conditionChoose = sqlSource(configuration, "getEmpsByConditionChoose");
+		conditionForeach = sqlSource(configuration, "getEmpsByConditionForeach");
+		innerParameter = sqlSource(configuration, "getEmpsTestInnerParameter");
+		employee = new Employee(1, "%e%", null, "0");
+		ids = new HashMap<String, Object>();
+		ids.put("ids", Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+	}
+
+	private SqlSource sqlSource(Configuration configuration, String id) {
+		SqlSource sqlSource = configuration.getMappedStatement(NAMESPACE + id).getSqlSource();
+		if (!compiled) {
+			return sqlSource;
+		}
+		SqlNode rootSqlNode = (SqlNode) SystemMetaObject.forObject(sqlSource).getValue("rootSqlNode");
+		return new CompiledSqlSource(configuration, rootSqlNode);
+	}
+
+	@Benchmark
+	public BoundSql conditionIf() {
+		return conditionIf.getBoundSql(employee);
+	}
+
+	@Benchmark
+	public BoundSql conditionChoose() {
+		return conditionChoose.getBoundSql(employee);
+	}
+
+	@Benchmark
+	public BoundSql conditionForeach() {
+		return conditionForeach.getBoundSql(ids);
+	}
+
+	@Benchmark
+	public BoundSql innerParameter() {
+		return innerParameter.getBoundSql(employee);
+	}
+}
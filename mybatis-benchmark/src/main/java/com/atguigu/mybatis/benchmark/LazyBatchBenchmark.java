@@ -0,0 +1,89 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.atguigu.mybatis.bean.Department;
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.DepartmentMapper;
+import com.atguigu.mybatis.dao.EmployeeMapperPlus;
+import com.atguigu.mybatis.lazy.BatchLazyLoadingProxyFactory;
+
+/**
+ * 遍历分步查询的列表并访问每个元素的延迟属性：
+ * 		batched=false：默认的JavassistProxyFactory，每个元素一次分步查询（N+1）
+ * 		batched=true：BatchLazyLoadingProxyFactory，第一次访问时一条in查询
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LazyBatchBenchmark {
+
+	@Param({"false", "true"})
+	public boolean batched;
+
+	@Param({"1000"})
+	public int employees;
+
+	private SqlSessionFactory factory;
+
+	@Setup
+	public void setUp() throws Exception {
+		factory = BenchmarkDatabase.create("lazy_" + batched, CacheMode.LOCAL_ONLY, employees);
+		if (batched) {
+			Configuration configuration = factory.getConfiguration();
+			configuration.getVariables().setProperty(
+					BatchLazyLoadingProxyFactory.PREFIX + "com.atguigu.mybatis.dao.EmployeeMapperPlus.getEmpsByDeptId",
+					"com.atguigu.mybatis.dao.EmployeeMapperPlus.getEmpsByDeptIds:dept.id");
+			configuration.getVariables().setProperty(
+					BatchLazyLoadingProxyFactory.PREFIX + "com.atguigu.mybatis.dao.DepartmentMapper.getDeptById",
+					"com.atguigu.mybatis.dao.DepartmentMapper.getDeptsByIds:id");
+			configuration.setProxyFactory(new BatchLazyLoadingProxyFactory());
+		}
+	}
+
+	@Benchmark
+	public void deptsWithEmps(Blackhole bh) {
+		SqlSession session = factory.openSession();
+		try {
+			List<Department> depts = session.getMapper(DepartmentMapper.class).getDeptsStep();
+			for (Department dept : depts) {
+				bh.consume(dept.getEmps().size());
+			}
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public void empsWithDept(Blackhole bh) {
+		SqlSession session = factory.openSession();
+		try {
+			List<Employee> emps = session.getMapper(EmployeeMapperPlus.class).getEmpsStep();
+			for (Employee emp : emps) {
+				bh.consume(emp.getDept());
+			}
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.EmployeeMapper;
+
+/**
+ * EmployeeMapper的单表查询：每次操作都是一个完整的会话（open -> 查询 -> close），
+ * 和业务代码里的用法一致；SECOND_LEVEL下关闭会话时结果进入二级缓存
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MapperBenchmark {
+
+	/** 热点id的个数，getEmpById在这个范围内随机 */
+	static final int HOT_IDS = 100;
+
+	@Param({"LOCAL_ONLY", "SECOND_LEVEL"})
+	public CacheMode cacheMode;
+
+	@Param({"1000"})
+	public int employees;
+
+	private SqlSessionFactory factory;
+
+	@Setup
+	public void setUp() throws Exception {
+		factory = BenchmarkDatabase.create("mapper_" + cacheMode, cacheMode, employees);
+	}
+
+	@Benchmark
+	public Employee getEmpById() {
+		SqlSession session = factory.openSession();
+		try {
+			return session.getMapper(EmployeeMapper.class).getEmpById(hotId());
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<Employee> getEmps() {
+		SqlSession session = factory.openSession();
+		try {
+			return session.getMapper(EmployeeMapper.class).getEmps();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<Employee> getEmpsByLastNameLike() {
+		SqlSession session = factory.openSession();
+		try {
+			return session.getMapper(EmployeeMapper.class).getEmpsByLastNameLike("%99%");
+		} finally {
+			session.close();
+		}
+	}
+
+	static int hotId() {
+		return ThreadLocalRandom.current().nextInt(HOT_IDS) + 1;
+	}
+}
@@ -0,0 +1,99 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.EmployeeMapper;
+import com.atguigu.mybatis.page.KeysetPage;
+import com.atguigu.mybatis.page.KeysetPaging;
+import com.github.pagehelper.PageHelper;
+
+/**
+ * offset分页（PageHelper）和keyset分页（KeysetPaging）在第1、1000、100000页的对比，每页10条：
+ * 		offsetWithCount：PageHelper.startPage(page, size)，count(*) + limit offset,size
+ * 		offsetNoCount：PageHelper.startPage(page, size, false)，只有limit offset,size
+ * 		keyset/keysetWithCount：where id > afterId order by id limit size+1
+ *
+ * 种子数据的id从1连续递增，所以第page页的afterId就是(page-1)*size，
+ * 等价于客户端一页一页翻到这里时保存下来的nextAfterId
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PagingBenchmark {
+
+	static final int PAGE_SIZE = 10;
+
+	@Param({"1", "1000", "100000"})
+	public int page;
+
+	@Param({"1000000"})
+	public int employees;
+
+	private SqlSessionFactory factory;
+
+	@Setup
+	public void setUp() throws Exception {
+		factory = BenchmarkDatabase.create("paging_" + page, CacheMode.LOCAL_ONLY, employees);
+	}
+
+	@Benchmark
+	public List<Employee> offsetWithCount() {
+		SqlSession session = factory.openSession();
+		try {
+			PageHelper.startPage(page, PAGE_SIZE).setOrderBy("id");
+			return session.getMapper(EmployeeMapper.class).getEmps();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public List<Employee> offsetNoCount() {
+		SqlSession session = factory.openSession();
+		try {
+			PageHelper.startPage(page, PAGE_SIZE, false).setOrderBy("id");
+			return session.getMapper(EmployeeMapper.class).getEmps();
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public KeysetPage<Employee> keyset() {
+		return keyset(false);
+	}
+
+	@Benchmark
+	public KeysetPage<Employee> keysetWithCount() {
+		return keyset(true);
+	}
+
+	private KeysetPage<Employee> keyset(boolean count) {
+		SqlSession session = factory.openSession();
+		try {
+			Integer afterId = page == 1 ? null : (page - 1) * PAGE_SIZE;
+			return KeysetPaging.employees(session.getMapper(EmployeeMapper.class), afterId, PAGE_SIZE, count);
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.EmployeeMapper;
+import com.atguigu.mybatis.datasource.routing.ReadWriteRoutingDataSource;
+import com.atguigu.mybatis.datasource.routing.ReadWriteRoutingInterceptor;
+
+/**
+ * 读写分离的开销：两个H2内存库分别做主库和从库（数据一样，从库里id=1的email改成"replica"用来区分；
+ * 		benchmark-config.xml没有打开驼峰映射，getEmpById查不出lastName，所以标记用email）
+ * 		routing=false：直接用主库
+ * 		routing=true：ReadWriteRoutingDataSource + ReadWriteRoutingInterceptor
+ *
+ * Setup里先检查一遍路由：查询读到从库，事务里写过之后读到主库，不对时直接失败
+ * 结果里的primary、replica、fallbacks三列是发到主库、从库的语句数和从库连不上改用主库的次数（见Counters）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(2)
+public class ReadWriteRoutingBenchmark {
+
+	static final String REPLICA_MARK = "replica";
+
+	@Param({"false", "true"})
+	public boolean routing;
+
+	@Param({"1000"})
+	public int employees;
+
+	private SqlSessionFactory factory;
+	private ReadWriteRoutingDataSource routingDataSource;
+
+	@Setup
+	public void setUp() throws Exception {
+		SqlSessionFactory primary = BenchmarkDatabase.create("rw_primary_" + routing, CacheMode.LOCAL_ONLY, employees);
+		if (!routing) {
+			factory = primary;
+			return;
+		}
+		SqlSessionFactory replica = BenchmarkDatabase.create("rw_replica", CacheMode.LOCAL_ONLY, employees);
+		DataSource replicaDataSource = replica.getConfiguration().getEnvironment().getDataSource();
+		mark(replicaDataSource);
+
+		Configuration configuration = primary.getConfiguration();
+		routingDataSource = new ReadWriteRoutingDataSource(configuration.getEnvironment().getDataSource(),
+				Collections.singletonList(replicaDataSource));
+		configuration.setEnvironment(new Environment("rw", new JdbcTransactionFactory(), routingDataSource));
+		configuration.addInterceptor(new ReadWriteRoutingInterceptor());
+		factory = new DefaultSqlSessionFactory(configuration);
+		check();
+	}
+
+	private static void mark(DataSource replica) throws SQLException {
+		Connection connection = replica.getConnection();
+		try {
+			Statement statement = connection.createStatement();
+			statement.executeUpdate("update tbl_employee set email = '" + REPLICA_MARK + "' where id = 1");
+			statement.close();
+			if (!connection.getAutoCommit()) {
+				connection.commit();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	private void check() {
+		SqlSession session = factory.openSession();
+		try {
+			EmployeeMapper mapper = session.getMapper(EmployeeMapper.class);
+			Employee employee = mapper.getEmpById(1);
+			if (!REPLICA_MARK.equals(employee.getEmail())) {
+				throw new IllegalStateException("select should go to the replica: " + employee);
+			}
+			Employee other = mapper.getEmpById(2);
+			mapper.updateEmp(other);
+			if (REPLICA_MARK.equals(mapper.getEmpById(1).getEmail())) {
+				throw new IllegalStateException("select after a write in the same transaction should stay on the primary");
+			}
+			session.rollback();
+		} finally {
+			session.close();
+		}
+		routingDataSource.resetStats();
+	}
+
+	@Benchmark
+	public Employee getEmpById(Counters counters) {
+		SqlSession session = factory.openSession();
+		try {
+			return session.getMapper(EmployeeMapper.class).getEmpById(MapperBenchmark.hotId());
+		} finally {
+			session.close();
+		}
+	}
+
+	/** 先写再读：两条语句都在主库上 */
+	@Benchmark
+	public Employee updateThenRead(Counters counters) {
+		SqlSession session = factory.openSession();
+		try {
+			EmployeeMapper mapper = session.getMapper(EmployeeMapper.class);
+			int id = MapperBenchmark.hotId();
+			mapper.updateEmp(new Employee(id, "emp" + id, "emp" + id + "@atguigu.com", "1"));
+			Employee employee = mapper.getEmpById(id);
+			session.commit();
+			return employee;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * ReadWriteRoutingDataSource的语句计数，JMH汇总后和吞吐一起输出；routing=false时都是0
+	 * 		计数是整个数据源的，只由第一个线程在每次迭代结束时报告这次迭代的增量，其他线程是0（JMH按线程求和）
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+
+		public long primary;
+		public long replica;
+		public long fallbacks;
+
+		/** 第一个线程并且routing=true时才有，其他是null */
+		private ReadWriteRoutingDataSource reporter;
+		private long primaryAtStart;
+		private long replicaAtStart;
+		private long fallbacksAtStart;
+
+		@Setup(Level.Iteration)
+		public void start(ReadWriteRoutingBenchmark benchmark, ThreadParams thread) {
+			primary = 0;
+			replica = 0;
+			fallbacks = 0;
+			reporter = thread.getThreadIndex() == 0 ? benchmark.routingDataSource : null;
+			if (reporter != null) {
+				primaryAtStart = reporter.getPrimaryStatements();
+				replicaAtStart = reporter.getReplicaStatements();
+				fallbacksAtStart = reporter.getFallbacks();
+			}
+		}
+
+		@TearDown(Level.Iteration)
+		public void stop() {
+			if (reporter != null) {
+				primary = reporter.getPrimaryStatements() - primaryAtStart;
+				replica = reporter.getReplicaStatements() - replicaAtStart;
+				fallbacks = reporter.getFallbacks() - fallbacksAtStart;
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.atguigu.mybatis.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.EmployeeMapper;
+import com.atguigu.mybatis.resultmap.CompiledResultMappingInterceptor;
+
+/**
+ * 100万行getEmps的结果映射：
+ * 		compiled=false：DefaultResultSetHandler（MetaObject + 按列名读取）
+ * 		compiled=true：CompiledResultMappingInterceptor（按列号读取 + 直接调用setter）
+ * 每次操作都是整表扫描，gc.alloc.rate.norm可以看出每行少分配了多少
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ResultMappingBenchmark {
+
+	@Param({"false", "true"})
+	public boolean compiled;
+
+	@Param({"1000000"})
+	public int employees;
+
+	private SqlSessionFactory factory;
+
+	@Setup
+	public void setUp() throws Exception {
+		factory = BenchmarkDatabase.create("mapping_" + compiled, CacheMode.LOCAL_ONLY, employees);
+		if (compiled) {
+			factory.getConfiguration().addInterceptor(new CompiledResultMappingInterceptor());
+		}
+	}
+
+	@Benchmark
+	public List<Employee> getEmps() {
+		SqlSession session = factory.openSession();
+		try {
+			return session.getMapper(EmployeeMapper.class).getEmps();
+		} finally {
+			session.close();
+		}
+	}
+}
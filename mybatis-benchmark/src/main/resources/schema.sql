@@ -0,0 +1,18 @@
+drop table if exists tbl_employee;
+drop table if exists tbl_dept;
+
+create table tbl_dept(
+	id int primary key auto_increment,
+	dept_name varchar(255)
+);
+
+create table tbl_employee(
+	id int primary key auto_increment,
+	last_name varchar(255),
+	gender char(1),
+	email varchar(255),
+	d_id int,
+	empStatus int
+);
+
+create index idx_employee_d_id on tbl_employee(d_id);
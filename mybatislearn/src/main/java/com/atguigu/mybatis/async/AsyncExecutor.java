@@ -0,0 +1,111 @@
+package com.atguigu.mybatis.async;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 异步Mapper用的有界执行器：
+ * 		同时执行的任务最多maxConcurrency个（Semaphore），排队的最多maxQueued个，再多的直接拒绝（RejectedExecutionException），
+ * 		不会因为调用方发得太快把内存和连接池压垮
+ *
+ * 运行在JDK 21+时每个任务一个虚拟线程（等连接、等数据库返回时不占平台线程）；
+ * 		否则是maxConcurrency个守护线程的线程池
+ */
+final class AsyncExecutor {
+
+	private static final Log log = LogFactory.getLog(AsyncExecutor.class);
+
+	private final ExecutorService executor;
+	private final boolean virtual;
+	private final Semaphore permits;
+	private final int limit;
+	/** 已接受还没结束的任务（执行中 + 排队） */
+	private final AtomicInteger pending = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+
+	AsyncExecutor(String name, int maxConcurrency, int maxQueued, boolean virtualThreads) {
+		ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+		if (virtualExecutor != null) {
+			this.executor = virtualExecutor;
+			this.virtual = true;
+		} else {
+			AtomicInteger sequence = new AtomicInteger();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), r -> {
+						Thread thread = new Thread(r, name + "-" + sequence.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+			this.virtual = false;
+		}
+		this.permits = new Semaphore(maxConcurrency);
+		this.limit = maxConcurrency + maxQueued;
+	}
+
+	/** Executors.newVirtualThreadPerTaskExecutor()是JDK 21的方法，代码按Java 8编译，只能反射调用 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			log.debug("Virtual threads are not available, falling back to a thread pool: " + e);
+			return null;
+		}
+	}
+
+	void execute(final Runnable task) {
+		if (pending.incrementAndGet() > limit) {
+			pending.decrementAndGet();
+			rejected.increment();
+			throw new RejectedExecutionException("Too many pending async mapper calls: " + limit);
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					permits.acquireUninterruptibly();
+					try {
+						task.run();
+					} finally {
+						permits.release();
+					}
+				} finally {
+					pending.decrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// 已经shutdown
+			pending.decrementAndGet();
+			rejected.increment();
+			throw e;
+		}
+	}
+
+	boolean isVirtual() {
+		return virtual;
+	}
+
+	int getPending() {
+		return pending.get();
+	}
+
+	long getRejected() {
+		return rejected.sum();
+	}
+
+	void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,26 @@
+package com.atguigu.mybatis.async;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标在异步Mapper接口上，指定它借用哪个同步Mapper的sql语句：
+ * 		异步接口的方法按方法名找到 value().getName() + "." + 方法名 这个语句
+ *
+ * 	@AsyncMapper(EmployeeMapper.class)
+ * 	public interface EmployeeMapperAsync {
+ * 		CompletableFuture<Employee> getEmpById(Integer id);
+ * 	}
+ *
+ * 不标时用异步接口自己的全类名作为namespace
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface AsyncMapper {
+
+	Class<?> value();
+}
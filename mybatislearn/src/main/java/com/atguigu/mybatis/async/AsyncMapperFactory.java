@@ -0,0 +1,191 @@
+package com.atguigu.mybatis.async;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+/**
+ * 返回CompletableFuture的Mapper：
+ * 		EmployeeMapperAsync mapper = asyncMapperFactory.getMapper(EmployeeMapperAsync.class);
+ * 		CompletableFuture<Employee> emp = mapper.getEmpById(1);
+ * 		CompletableFuture<Department> dept = deptMapper.getDeptById(1);	//两个查询并行执行
+ * 		emp.thenCombine(dept, ...)
+ *
+ * 1、每次调用一个SqlSession：在工作线程上打开、执行、（增删改）提交、关闭；
+ * 		所以一级缓存不共享，多次调用之间也没有事务，需要事务的还是用同步Mapper
+ * 2、同时执行的调用最多maxConcurrency个（默认10，和连接池的最大连接数一致，多了也只是在连接池里排队），
+ * 		排队的最多maxQueued个，超过时返回的future直接以RejectedExecutionException失败
+ * 3、JDK 21+上用虚拟线程执行（virtualThreads=false可以关掉），否则用maxConcurrency个平台线程
+ * 4、future在开始执行之前被cancel，就不再执行
+ *
+ * 注意：不要在回调里同步等待另一个异步调用的结果（join/get），平台线程都被占满时会互相等死
+ */
+public class AsyncMapperFactory {
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 10;
+	public static final int DEFAULT_MAX_QUEUED = 1000;
+
+	private final SqlSessionFactory sqlSessionFactory;
+	private final ConcurrentMap<Class<?>, Object> mappers = new ConcurrentHashMap<Class<?>, Object>();
+	private String name = "mybatis-async";
+	private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+	private int maxQueued = DEFAULT_MAX_QUEUED;
+	private boolean virtualThreads = true;
+	private volatile AsyncExecutor executor;
+
+	public AsyncMapperFactory(SqlSessionFactory sqlSessionFactory) {
+		this.sqlSessionFactory = sqlSessionFactory;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T getMapper(Class<T> mapperInterface) {
+		Object mapper = mappers.get(mapperInterface);
+		if (mapper == null) {
+			mapper = Proxy.newProxyInstance(mapperInterface.getClassLoader(), new Class<?>[] {mapperInterface},
+					new AsyncMapperProxy(this, mapperInterface, resolve(mapperInterface)));
+			Object existing = mappers.putIfAbsent(mapperInterface, mapper);
+			if (existing != null) {
+				mapper = existing;
+			}
+		}
+		return (T) mapper;
+	}
+
+	private Map<Method, AsyncMethod> resolve(Class<?> mapperInterface) {
+		if (!mapperInterface.isInterface()) {
+			throw new BindingException("Type " + mapperInterface + " is not an interface");
+		}
+		AsyncMapper target = mapperInterface.getAnnotation(AsyncMapper.class);
+		String namespace = target == null ? mapperInterface.getName() : target.value().getName();
+		Configuration configuration = sqlSessionFactory.getConfiguration();
+		Map<Method, AsyncMethod> methods = new HashMap<Method, AsyncMethod>();
+		for (Method method : mapperInterface.getMethods()) {
+			if (Modifier.isStatic(method.getModifiers())) {
+				continue;
+			}
+			if (!Modifier.isAbstract(method.getModifiers())) {
+				throw new BindingException("Async mapper method '" + method + "' must be abstract");
+			}
+			methods.put(method, new AsyncMethod(configuration, namespace, method));
+		}
+		return Collections.unmodifiableMap(methods);
+	}
+
+	CompletableFuture<Object> submit(final AsyncMethod method, final Object[] args) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		try {
+			executor().execute(() -> {
+				if (future.isDone()) {
+					return;
+				}
+				try {
+					future.complete(execute(method, args));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private Object execute(AsyncMethod method, Object[] args) {
+		SqlSession session = sqlSessionFactory.openSession();
+		try {
+			Object result = method.execute(session, args);
+			if (method.isWrite()) {
+				session.commit();
+			}
+			return result;
+		} finally {
+			session.close();
+		}
+	}
+
+	private AsyncExecutor executor() {
+		AsyncExecutor current = executor;
+		if (current == null) {
+			synchronized (this) {
+				current = executor;
+				if (current == null) {
+					current = new AsyncExecutor(name, maxConcurrency, maxQueued, virtualThreads);
+					executor = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/** 不再接受新的调用，已提交的会执行完 */
+	public synchronized void close() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	public SqlSessionFactory getSqlSessionFactory() {
+		return sqlSessionFactory;
+	}
+
+	/** 执行中和排队中的调用数 */
+	public int getPending() {
+		AsyncExecutor current = executor;
+		return current == null ? 0 : current.getPending();
+	}
+
+	public long getRejected() {
+		AsyncExecutor current = executor;
+		return current == null ? 0 : current.getRejected();
+	}
+
+	/** 第一次调用之后才知道：是否用上了虚拟线程 */
+	public boolean isUsingVirtualThreads() {
+		AsyncExecutor current = executor;
+		return current != null && current.isVirtual();
+	}
+
+	public synchronized void setName(String name) {
+		checkNotStarted();
+		this.name = name;
+	}
+
+	public synchronized void setMaxConcurrency(int maxConcurrency) {
+		if (maxConcurrency <= 0) {
+			throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+		}
+		checkNotStarted();
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	public synchronized void setMaxQueued(int maxQueued) {
+		if (maxQueued < 0) {
+			throw new IllegalArgumentException("maxQueued must not be negative: " + maxQueued);
+		}
+		checkNotStarted();
+		this.maxQueued = maxQueued;
+	}
+
+	public synchronized void setVirtualThreads(boolean virtualThreads) {
+		checkNotStarted();
+		this.virtualThreads = virtualThreads;
+	}
+
+	private void checkNotStarted() {
+		if (executor != null) {
+			throw new IllegalStateException("AsyncMapperFactory is already in use");
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.atguigu.mybatis.async;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * 异步Mapper接口的动态代理：每次调用交给AsyncMapperFactory提交到工作线程，马上返回CompletableFuture
+ */
+class AsyncMapperProxy implements InvocationHandler {
+
+	private final AsyncMapperFactory factory;
+	private final Class<?> mapperInterface;
+	private final Map<Method, AsyncMethod> methods;
+
+	AsyncMapperProxy(AsyncMapperFactory factory, Class<?> mapperInterface, Map<Method, AsyncMethod> methods) {
+		this.factory = factory;
+		this.mapperInterface = mapperInterface;
+		this.methods = methods;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (Object.class.equals(method.getDeclaringClass())) {
+			return method.invoke(this, args);
+		}
+		return factory.submit(methods.get(method), args);
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncMapperProxy[" + mapperInterface.getName() + "]";
+	}
+}
@@ -0,0 +1,149 @@
+package com.atguigu.mybatis.async;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.ibatis.annotations.MapKey;
+import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.ParamNameResolver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * 异步Mapper的一个方法：返回值CompletableFuture<X>，按X决定调用SqlSession的哪个方法
+ * 		select：X是集合或数组 ==> selectList；X是Map且方法上有@MapKey ==> selectMap；其他 ==> selectOne
+ * 		insert/update/delete：X只能是Integer、Long、Boolean、Void（和同步Mapper的规则一样）
+ *
+ * 创建Mapper时就解析所有方法，语句不存在、返回值不支持时直接抛BindingException
+ */
+final class AsyncMethod {
+
+	private final String statement;
+	private final SqlCommandType type;
+	private final Class<?> resultType;
+	private final boolean many;
+	private final String mapKey;
+	private final ParamNameResolver paramNameResolver;
+	/** RowBounds参数的位置，没有时是-1 */
+	private final int rowBoundsIndex;
+
+	AsyncMethod(Configuration configuration, String namespace, Method method) {
+		this.statement = namespace + "." + method.getName();
+		if (!configuration.hasStatement(statement)) {
+			throw new BindingException("Invalid bound statement (not found): " + statement);
+		}
+		Class<?> returnType = method.getReturnType();
+		if (returnType == Object.class || !returnType.isAssignableFrom(CompletableFuture.class)) {
+			throw new BindingException("Async mapper method '" + method + "' must return CompletableFuture");
+		}
+		this.type = configuration.getMappedStatement(statement).getSqlCommandType();
+		this.resultType = resultType(method);
+		this.many = Collection.class.isAssignableFrom(resultType) || resultType.isArray();
+		MapKey mapKey = method.getAnnotation(MapKey.class);
+		this.mapKey = mapKey != null && Map.class.isAssignableFrom(resultType) ? mapKey.value() : null;
+		this.paramNameResolver = new ParamNameResolver(configuration, method);
+		this.rowBoundsIndex = indexOf(method.getParameterTypes(), RowBounds.class);
+		if (indexOf(method.getParameterTypes(), ResultHandler.class) >= 0) {
+			throw new BindingException("Async mapper method '" + method + "' cannot take a ResultHandler");
+		}
+		if (type == SqlCommandType.SELECT) {
+			// 游标要在SqlSession关闭之前读完，而SqlSession在任务结束时就关闭了
+			if (Cursor.class.isAssignableFrom(resultType)) {
+				throw new BindingException("Async mapper method '" + method + "' cannot return a Cursor");
+			}
+		} else if (type == SqlCommandType.INSERT || type == SqlCommandType.UPDATE || type == SqlCommandType.DELETE) {
+			if (resultType != Void.class && resultType != Integer.class && resultType != Long.class
+					&& resultType != Boolean.class) {
+				throw new BindingException("Async mapper method '" + method + "' has an unsupported return type: "
+						+ resultType);
+			}
+		} else {
+			throw new BindingException("Unknown execution method for: " + statement);
+		}
+	}
+
+	/** CompletableFuture<X>里的X；没写泛型时是Object */
+	private static Class<?> resultType(Method method) {
+		Type type = method.getGenericReturnType();
+		if (!(type instanceof ParameterizedType)) {
+			return Object.class;
+		}
+		Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+		if (argument instanceof ParameterizedType) {
+			argument = ((ParameterizedType) argument).getRawType();
+		}
+		return argument instanceof Class ? (Class<?>) argument : Object.class;
+	}
+
+	private static int indexOf(Class<?>[] parameterTypes, Class<?> type) {
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (type.isAssignableFrom(parameterTypes[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** 在调用线程之外的工作线程上执行，session由调用者打开和关闭 */
+	Object execute(SqlSession session, Object[] args) {
+		Object parameter = paramNameResolver.getNamedParams(args);
+		RowBounds rowBounds = rowBoundsIndex < 0 ? RowBounds.DEFAULT : (RowBounds) args[rowBoundsIndex];
+		switch (type) {
+		case INSERT:
+			return rowCount(session.insert(statement, parameter));
+		case UPDATE:
+			return rowCount(session.update(statement, parameter));
+		case DELETE:
+			return rowCount(session.delete(statement, parameter));
+		default:
+			if (mapKey != null) {
+				return session.selectMap(statement, parameter, mapKey, rowBounds);
+			}
+			if (many) {
+				List<Object> list = session.selectList(statement, parameter, rowBounds);
+				return resultType.isArray() ? toArray(list) : list;
+			}
+			return session.selectOne(statement, parameter);
+		}
+	}
+
+	private Object toArray(List<Object> list) {
+		Object array = Array.newInstance(resultType.getComponentType(), list.size());
+		for (int i = 0; i < list.size(); i++) {
+			Array.set(array, i, list.get(i));
+		}
+		return array;
+	}
+
+	boolean isWrite() {
+		return type != SqlCommandType.SELECT;
+	}
+
+	private Object rowCount(int rows) {
+		if (resultType == Integer.class) {
+			return rows;
+		}
+		if (resultType == Long.class) {
+			return (long) rows;
+		}
+		if (resultType == Boolean.class) {
+			return rows > 0;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return statement;
+	}
+}
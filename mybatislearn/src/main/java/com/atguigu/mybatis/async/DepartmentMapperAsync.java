@@ -0,0 +1,16 @@
+package com.atguigu.mybatis.async;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.atguigu.mybatis.bean.Department;
+import com.atguigu.mybatis.dao.DepartmentMapper;
+
+//DepartmentMapper的异步版本，用AsyncMapperFactory.getMapper获取
+@AsyncMapper(DepartmentMapper.class)
+public interface DepartmentMapperAsync {
+
+	public CompletableFuture<Department> getDeptById(Integer id);
+
+	public CompletableFuture<List<Department>> getDeptsByIds(List<Integer> ids);
+}
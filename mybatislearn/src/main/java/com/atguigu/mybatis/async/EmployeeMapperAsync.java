@@ -0,0 +1,23 @@
+package com.atguigu.mybatis.async;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.EmployeeMapper;
+
+//EmployeeMapper的异步版本，用AsyncMapperFactory.getMapper获取，方法名对应EmployeeMapper.xml里的语句
+//不能放在dao包里：<package name="com.atguigu.mybatis.dao"/>会把它当成Mapper注册
+@AsyncMapper(EmployeeMapper.class)
+public interface EmployeeMapperAsync {
+
+	public CompletableFuture<Employee> getEmpById(Integer id);
+
+	public CompletableFuture<List<Employee>> getEmps();
+
+	public CompletableFuture<List<Employee>> getEmpsByLastNameLike(String lastName);
+
+	public CompletableFuture<Long> countEmps();
+
+	public CompletableFuture<Boolean> updateEmp(Employee employee);
+}
@@ -0,0 +1,69 @@
+package com.atguigu.mybatis.batch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次BulkInserter.insert的汇总；maxChunkNanos远大于平均值时说明有块卡住了（锁等待、刷盘等）
+ */
+public class BulkInsertResult {
+
+	private final BulkInserter.Mode mode;
+	private int chunks;
+	private long rows;
+	private long estimatedBytes;
+	private long generatedKeys;
+	private long elapsedNanos;
+	private long maxChunkNanos;
+
+	public BulkInsertResult(BulkInserter.Mode mode) {
+		this.mode = mode;
+	}
+
+	void add(ChunkStats stats) {
+		chunks++;
+		rows += stats.getRows();
+		estimatedBytes += stats.getEstimatedBytes();
+		generatedKeys += stats.getGeneratedKeys();
+		elapsedNanos += stats.getElapsedNanos();
+		maxChunkNanos = Math.max(maxChunkNanos, stats.getElapsedNanos());
+	}
+
+	public BulkInserter.Mode getMode() {
+		return mode;
+	}
+
+	public int getChunks() {
+		return chunks;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	public long getGeneratedKeys() {
+		return generatedKeys;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public long getMaxChunkNanos() {
+		return maxChunkNanos;
+	}
+
+	public double getRowsPerSecond() {
+		return elapsedNanos == 0 ? 0 : rows * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkInsertResult [mode=" + mode + ", chunks=" + chunks + ", rows=" + rows + ", generatedKeys="
+				+ generatedKeys + ", elapsedMillis=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+				+ ", maxChunkMillis=" + TimeUnit.NANOSECONDS.toMillis(maxChunkNanos) + "]";
+	}
+}
@@ -0,0 +1,163 @@
+package com.atguigu.mybatis.batch;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.EmployeeMapperDynamicSQL;
+
+/**
+ * 分块批量保存Employee：
+ * 		addEmps：一条foreach拼出来的insert，行数没有上限，大了会超过max_allowed_packet
+ * 		BATCH执行器：10000行攒到最后一次性flush + commit，事务和undo都很大
+ * BulkInserter按行数（chunkRows）和估算的语句大小（maxPacketBytes）切块，每块执行完立即提交，
+ * 所以导入100万行时每块的耗时基本一致，不会越导越慢或者整体超时
+ *
+ * 两种写法：
+ * 1、MULTI_VALUES：每块一条多值insert（addEmpsChunk），REUSE执行器复用整块大小相同的语句
+ * 2、JDBC_BATCH：每块用BATCH执行器执行单行insert（addEmpRow）再flushStatements；
+ * 		只有连接属性rewriteBatchedStatements=true时驱动才会把一批改写成多值insert，否则还是一行一次往返
+ * AUTO：看连接的url里有没有rewriteBatchedStatements=true来选择
+ *
+ * 两种写法都开启了useGeneratedKeys，每块提交后其中每个Employee的id都已回填
+ * 中途失败时之前的块已经提交，异常信息里带着失败的块号和已提交的行数，可以从那里继续
+ */
+public class BulkInserter {
+
+	public enum Mode {
+		AUTO, MULTI_VALUES, JDBC_BATCH
+	}
+
+	public static final int DEFAULT_CHUNK_ROWS = 1000;
+	/** MySQL 5.7默认的max_allowed_packet是4M，留出1M余量 */
+	public static final int DEFAULT_MAX_PACKET_BYTES = 3 * 1024 * 1024;
+	/** insert into tbl_employee(...) values 这部分 */
+	static final int STATEMENT_OVERHEAD = 128;
+	/** 每行的括号、逗号、引号以及d_id */
+	static final int ROW_OVERHEAD = 32;
+
+	private final SqlSessionFactory sqlSessionFactory;
+	private int chunkRows = DEFAULT_CHUNK_ROWS;
+	private int maxPacketBytes = DEFAULT_MAX_PACKET_BYTES;
+	private Mode mode = Mode.AUTO;
+	private ChunkListener listener;
+
+	public BulkInserter(SqlSessionFactory sqlSessionFactory) {
+		this.sqlSessionFactory = sqlSessionFactory;
+	}
+
+	public void setChunkRows(int chunkRows) {
+		if (chunkRows <= 0) {
+			throw new IllegalArgumentException("chunkRows must be positive: " + chunkRows);
+		}
+		this.chunkRows = chunkRows;
+	}
+
+	public void setMaxPacketBytes(int maxPacketBytes) {
+		if (maxPacketBytes <= STATEMENT_OVERHEAD) {
+			throw new IllegalArgumentException("maxPacketBytes is too small: " + maxPacketBytes);
+		}
+		this.maxPacketBytes = maxPacketBytes;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public void setListener(ChunkListener listener) {
+		this.listener = listener;
+	}
+
+	public BulkInsertResult insert(Iterable<Employee> employees) {
+		return insert(employees.iterator());
+	}
+
+	public BulkInsertResult insert(Iterator<Employee> employees) {
+		Mode resolved = resolveMode(mode, sqlSessionFactory);
+		BulkInsertResult result = new BulkInsertResult(resolved);
+		SqlSession session = sqlSessionFactory.openSession(executorType(resolved));
+		try {
+			Chunker chunker = new Chunker(employees, chunkRows, maxPacketBytes);
+			while (chunker.hasNext()) {
+				flush(session, resolved, chunker.next(), result);
+			}
+			return result;
+		} finally {
+			session.close();
+		}
+	}
+
+	private void flush(SqlSession session, Mode mode, Chunk chunk, BulkInsertResult result) {
+		long start = System.nanoTime();
+		try {
+			write(session, mode, chunk.rows);
+			session.commit();
+		} catch (RuntimeException e) {
+			throw new PersistenceException("Bulk insert failed at chunk " + chunk.index + ", "
+					+ result.getRows() + " rows already committed", e);
+		}
+		chunk.elapsedNanos = System.nanoTime() - start;
+		ChunkStats stats = chunk.stats();
+		result.add(stats);
+		if (listener != null) {
+			listener.onChunk(stats);
+		}
+	}
+
+	static Mode resolveMode(Mode mode, SqlSessionFactory sqlSessionFactory) {
+		if (mode != Mode.AUTO) {
+			return mode;
+		}
+		return rewriteBatchedStatements(sqlSessionFactory) ? Mode.JDBC_BATCH : Mode.MULTI_VALUES;
+	}
+
+	/**
+	 * 执行一块，不提交
+	 */
+	static void write(SqlSession session, Mode mode, List<Employee> chunk) {
+		EmployeeMapperDynamicSQL mapper = session.getMapper(EmployeeMapperDynamicSQL.class);
+		if (mode == Mode.JDBC_BATCH) {
+			for (Employee employee : chunk) {
+				mapper.addEmpRow(employee);
+			}
+			session.flushStatements();
+		} else {
+			mapper.addEmpsChunk(chunk);
+		}
+	}
+
+	static ExecutorType executorType(Mode mode) {
+		return mode == Mode.JDBC_BATCH ? ExecutorType.BATCH : ExecutorType.REUSE;
+	}
+
+	/**
+	 * 按每个字符3个字节（utf8）估算，宁大勿小
+	 */
+	static int estimate(Employee employee) {
+		return ROW_OVERHEAD + 3 * (length(employee.getLastName()) + length(employee.getEmail())
+				+ length(employee.getGender()));
+	}
+
+	static boolean rewriteBatchedStatements(SqlSessionFactory sqlSessionFactory) {
+		SqlSession session = sqlSessionFactory.openSession();
+		try {
+			String url = session.getConnection().getMetaData().getURL();
+			return url != null && url.toLowerCase(Locale.ENGLISH).contains("rewritebatchedstatements=true");
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not read the JDBC url", e);
+		} finally {
+			session.close();
+		}
+	}
+
+	private static int length(String value) {
+		return value == null ? 0 : value.length();
+	}
+}
@@ -0,0 +1,57 @@
+package com.atguigu.mybatis.batch;
+
+import java.util.BitSet;
+import java.util.List;
+
+import com.atguigu.mybatis.bean.Employee;
+
+/**
+ * Chunker切出来的一块：块号、数据以及估算的语句大小
+ * 		keyless：切块时id为null、要靠useGeneratedKeys回填的行；调用方自己给了id的行不算生成的主键，回滚后也不清掉
+ */
+final class Chunk {
+
+	final int index;
+	final List<Employee> rows;
+	final long estimatedBytes;
+	private final BitSet keyless = new BitSet();
+	/** 执行 + 提交的累计耗时 */
+	long elapsedNanos;
+
+	Chunk(int index, List<Employee> rows, long estimatedBytes) {
+		this.index = index;
+		this.rows = rows;
+		this.estimatedBytes = estimatedBytes;
+		for (int i = 0; i < rows.size(); i++) {
+			if (rows.get(i).getId() == null) {
+				keyless.set(i);
+			}
+		}
+	}
+
+	/**
+	 * 提交之后由数据库回填了id的行数
+	 */
+	int generatedKeys() {
+		int keys = 0;
+		for (int i = keyless.nextSetBit(0); i >= 0; i = keyless.nextSetBit(i + 1)) {
+			if (rows.get(i).getId() != null) {
+				keys++;
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * 回滚后已经回填的id不再有效，恢复成切块时的样子
+	 */
+	void clearGeneratedIds() {
+		for (int i = keyless.nextSetBit(0); i >= 0; i = keyless.nextSetBit(i + 1)) {
+			rows.get(i).setId(null);
+		}
+	}
+
+	ChunkStats stats() {
+		return new ChunkStats(index, rows.size(), estimatedBytes, generatedKeys(), elapsedNanos);
+	}
+}
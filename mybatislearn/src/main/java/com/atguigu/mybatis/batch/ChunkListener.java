@@ -0,0 +1,9 @@
+package com.atguigu.mybatis.batch;
+
+/**
+ * 每提交一块回调一次，可以用来打印进度或者做监控
+ */
+public interface ChunkListener {
+
+	void onChunk(ChunkStats stats);
+}
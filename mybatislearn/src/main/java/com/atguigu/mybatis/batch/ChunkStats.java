@@ -0,0 +1,57 @@
+package com.atguigu.mybatis.batch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一块数据的刷新统计：
+ * 		estimatedBytes：按BulkInserter的估算，发送给数据库的语句大小
+ * 		generatedKeys：传入时id为null、提交之后已经回填的行数，调用方自己给了id的行不算
+ * 		elapsedNanos：执行 + 提交的耗时
+ */
+public class ChunkStats {
+
+	private final int index;
+	private final int rows;
+	private final long estimatedBytes;
+	private final int generatedKeys;
+	private final long elapsedNanos;
+
+	public ChunkStats(int index, int rows, long estimatedBytes, int generatedKeys, long elapsedNanos) {
+		this.index = index;
+		this.rows = rows;
+		this.estimatedBytes = estimatedBytes;
+		this.generatedKeys = generatedKeys;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	public int getGeneratedKeys() {
+		return generatedKeys;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public double getRowsPerSecond() {
+		return elapsedNanos == 0 ? 0 : rows * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkStats [index=" + index + ", rows=" + rows + ", estimatedBytes=" + estimatedBytes
+				+ ", generatedKeys=" + generatedKeys + ", elapsedMillis="
+				+ TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "]";
+	}
+}
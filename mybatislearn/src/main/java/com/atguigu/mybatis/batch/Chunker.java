@@ -0,0 +1,63 @@
+package com.atguigu.mybatis.batch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+
+import com.atguigu.mybatis.bean.Employee;
+
+/**
+ * 把Employee的数据源按行数和估算的语句大小切块，两个条件先到哪个就在哪里切
+ */
+final class Chunker implements Iterator<Chunk> {
+
+	private final Iterator<Employee> source;
+	private final int chunkRows;
+	private final int maxPacketBytes;
+	/** 上一块多读出来的一行 */
+	private Employee carry;
+	private int index;
+
+	Chunker(Iterator<Employee> source, int chunkRows, int maxPacketBytes) {
+		this.source = source;
+		this.chunkRows = chunkRows;
+		this.maxPacketBytes = maxPacketBytes;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return carry != null || source.hasNext();
+	}
+
+	@Override
+	public Chunk next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		List<Employee> rows = new ArrayList<Employee>(chunkRows);
+		long bytes = BulkInserter.STATEMENT_OVERHEAD;
+		while (rows.size() < chunkRows && (carry != null || source.hasNext())) {
+			Employee employee = carry != null ? carry : source.next();
+			carry = null;
+			int size = BulkInserter.estimate(employee);
+			if (BulkInserter.STATEMENT_OVERHEAD + size > maxPacketBytes) {
+				throw new PersistenceException("Row is larger than maxPacketBytes (" + maxPacketBytes + "): " + employee);
+			}
+			if (bytes + size > maxPacketBytes) {
+				carry = employee;
+				break;
+			}
+			rows.add(employee);
+			bytes += size;
+		}
+		return new Chunk(index++, rows, bytes);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
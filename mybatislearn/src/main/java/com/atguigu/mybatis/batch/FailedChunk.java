@@ -0,0 +1,45 @@
+package com.atguigu.mybatis.batch;
+
+import java.util.List;
+
+import com.atguigu.mybatis.bean.Employee;
+
+/**
+ * 重试之后仍然失败的一块：数据原样保留（id已清空），可以修正后再交给加载器
+ */
+public class FailedChunk {
+
+	private final int index;
+	private final List<Employee> rows;
+	private final int attempts;
+	private final RuntimeException cause;
+
+	public FailedChunk(int index, List<Employee> rows, int attempts, RuntimeException cause) {
+		this.index = index;
+		this.rows = rows;
+		this.attempts = attempts;
+		this.cause = cause;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public List<Employee> getRows() {
+		return rows;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public RuntimeException getCause() {
+		return cause;
+	}
+
+	@Override
+	public String toString() {
+		return "FailedChunk [index=" + index + ", rows=" + rows.size() + ", attempts=" + attempts + ", cause="
+				+ cause + "]";
+	}
+}
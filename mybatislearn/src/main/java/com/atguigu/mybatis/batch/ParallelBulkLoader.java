@@ -0,0 +1,305 @@
+package com.atguigu.mybatis.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import com.atguigu.mybatis.bean.Employee;
+
+/**
+ * 多线程分块加载Employee：
+ * 		调用线程按BulkInserter的规则切块，放进容量固定的队列；
+ * 		threads个worker各自持有一个SqlSession（JDBC_BATCH模式下就是openSession(ExecutorType.BATCH)），
+ * 		从队列里取块执行，每commitInterval块提交一次，互不影响
+ *
+ * 失败处理：某一块执行或者提交失败时，关闭这个worker的会话（还没提交的所有块随之回滚），
+ * 		然后把这些块逐块单独重试：每次重试都开一个新的会话（从连接池重新借连接，出错的连接可能已经断了），
+ * 		每块一个事务，最多maxRetries次，间隔逐次加长；之后的块也用新的会话执行；
+ * 		仍然失败的块记到ParallelLoadResult.getFailures()，加载继续进行，不会中止整个导入
+ *
+ * 注意：
+ * 1、每个worker同时最多占用一个连接，threads不要超过连接池的最大连接数，否则worker会排队等连接
+ * 2、listener会在worker线程上被并发调用
+ * 3、数据源不需要线程安全，只在调用线程上读取
+ */
+public class ParallelBulkLoader {
+
+	public static final int DEFAULT_THREADS = 4;
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	public static final long DEFAULT_RETRY_BACKOFF_MILLIS = 100;
+
+	/** 通知worker结束 */
+	private static final Chunk END = new Chunk(-1, Collections.<Employee>emptyList(), 0);
+
+	private final SqlSessionFactory sqlSessionFactory;
+	private int threads = DEFAULT_THREADS;
+	private int chunkRows = BulkInserter.DEFAULT_CHUNK_ROWS;
+	private int maxPacketBytes = BulkInserter.DEFAULT_MAX_PACKET_BYTES;
+	private int commitInterval = 1;
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private long retryBackoffMillis = DEFAULT_RETRY_BACKOFF_MILLIS;
+	private BulkInserter.Mode mode = BulkInserter.Mode.AUTO;
+	private ChunkListener listener;
+
+	public ParallelBulkLoader(SqlSessionFactory sqlSessionFactory) {
+		this.sqlSessionFactory = sqlSessionFactory;
+	}
+
+	public void setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive: " + threads);
+		}
+		this.threads = threads;
+	}
+
+	public void setChunkRows(int chunkRows) {
+		if (chunkRows <= 0) {
+			throw new IllegalArgumentException("chunkRows must be positive: " + chunkRows);
+		}
+		this.chunkRows = chunkRows;
+	}
+
+	public void setMaxPacketBytes(int maxPacketBytes) {
+		if (maxPacketBytes <= BulkInserter.STATEMENT_OVERHEAD) {
+			throw new IllegalArgumentException("maxPacketBytes is too small: " + maxPacketBytes);
+		}
+		this.maxPacketBytes = maxPacketBytes;
+	}
+
+	/**
+	 * 每个worker执行多少块提交一次
+	 */
+	public void setCommitInterval(int commitInterval) {
+		if (commitInterval <= 0) {
+			throw new IllegalArgumentException("commitInterval must be positive: " + commitInterval);
+		}
+		this.commitInterval = commitInterval;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("maxRetries must not be negative: " + maxRetries);
+		}
+		this.maxRetries = maxRetries;
+	}
+
+	public void setRetryBackoffMillis(long retryBackoffMillis) {
+		this.retryBackoffMillis = retryBackoffMillis;
+	}
+
+	public void setMode(BulkInserter.Mode mode) {
+		this.mode = mode;
+	}
+
+	public void setListener(ChunkListener listener) {
+		this.listener = listener;
+	}
+
+	public ParallelLoadResult load(Iterable<Employee> employees) {
+		return load(employees.iterator());
+	}
+
+	public ParallelLoadResult load(Iterator<Employee> employees) {
+		long start = System.nanoTime();
+		BulkInserter.Mode resolved = BulkInserter.resolveMode(mode, sqlSessionFactory);
+		ParallelLoadResult result = new ParallelLoadResult(resolved, threads);
+		BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(threads * 2);
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new LoaderThreadFactory());
+		List<Future<Void>> workers = new ArrayList<Future<Void>>(threads);
+		try {
+			for (int i = 0; i < threads; i++) {
+				workers.add(executor.submit(new Worker(queue, resolved, result)));
+			}
+			// 数据源出错时也要等worker把手里的块提交完再抛出
+			RuntimeException sourceFailure = null;
+			try {
+				Chunker chunker = new Chunker(employees, chunkRows, maxPacketBytes);
+				while (chunker.hasNext()) {
+					put(queue, chunker.next(), workers);
+				}
+			} catch (RuntimeException e) {
+				sourceFailure = e;
+			}
+			for (int i = 0; i < threads; i++) {
+				put(queue, END, workers);
+			}
+			for (Future<Void> worker : workers) {
+				worker.get();
+			}
+			if (sourceFailure != null) {
+				throw sourceFailure;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException("Interrupted while loading, " + result.getCommitted().getRows()
+					+ " rows already committed", e);
+		} catch (ExecutionException e) {
+			throw new PersistenceException("Loader worker failed, " + result.getCommitted().getRows()
+					+ " rows already committed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		result.setWallNanos(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * 队列满时等待；worker意外退出时不再等待，直接把它的异常抛出去
+	 */
+	private static void put(BlockingQueue<Chunk> queue, Chunk chunk, List<Future<Void>> workers)
+			throws InterruptedException, ExecutionException {
+		while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+			for (Future<Void> worker : workers) {
+				if (worker.isDone()) {
+					worker.get();
+					throw new PersistenceException("Loader worker exited before the load finished");
+				}
+			}
+		}
+	}
+
+	private class Worker implements Callable<Void> {
+
+		private final BlockingQueue<Chunk> queue;
+		private final BulkInserter.Mode mode;
+		private final ParallelLoadResult result;
+		/** 已执行还没提交的块 */
+		private final List<Chunk> pending = new ArrayList<Chunk>();
+		/** 出错后换成新的会话 */
+		private SqlSession session;
+
+		Worker(BlockingQueue<Chunk> queue, BulkInserter.Mode mode, ParallelLoadResult result) {
+			this.queue = queue;
+			this.mode = mode;
+			this.result = result;
+		}
+
+		@Override
+		public Void call() throws InterruptedException {
+			try {
+				for (Chunk chunk = queue.take(); chunk != END; chunk = queue.take()) {
+					pending.add(chunk);
+					long start = System.nanoTime();
+					try {
+						BulkInserter.write(session(), mode, chunk.rows);
+					} catch (RuntimeException e) {
+						recover(e);
+						continue;
+					}
+					chunk.elapsedNanos += System.nanoTime() - start;
+					if (pending.size() >= commitInterval) {
+						commit();
+					}
+				}
+				if (!pending.isEmpty()) {
+					commit();
+				}
+				return null;
+			} finally {
+				if (session != null) {
+					session.close();
+				}
+			}
+		}
+
+		private SqlSession session() {
+			if (session == null) {
+				session = openSession();
+			}
+			return session;
+		}
+
+		private void commit() throws InterruptedException {
+			long start = System.nanoTime();
+			try {
+				session.commit();
+			} catch (RuntimeException e) {
+				recover(e);
+				return;
+			}
+			// 提交的耗时算在触发提交的最后一块上
+			pending.get(pending.size() - 1).elapsedNanos += System.nanoTime() - start;
+			for (Chunk chunk : pending) {
+				committed(chunk);
+			}
+			pending.clear();
+		}
+
+		/**
+		 * 关闭出错的会话（close时回滚，连接断了也只是记日志），这个事务里的所有块都没有写进去，逐块单独重试
+		 */
+		private void recover(RuntimeException cause) throws InterruptedException {
+			session.close();
+			session = null;
+			for (Chunk chunk : pending) {
+				retry(chunk, cause);
+			}
+			pending.clear();
+		}
+
+		private void retry(Chunk chunk, RuntimeException cause) throws InterruptedException {
+			RuntimeException last = cause;
+			for (int attempt = 1; attempt <= maxRetries; attempt++) {
+				Thread.sleep(retryBackoffMillis * attempt);
+				chunk.clearGeneratedIds();
+				long start = System.nanoTime();
+				SqlSession retrySession = null;
+				try {
+					retrySession = openSession();
+					BulkInserter.write(retrySession, mode, chunk.rows);
+					retrySession.commit();
+					chunk.elapsedNanos = System.nanoTime() - start;
+					committed(chunk);
+					return;
+				} catch (RuntimeException e) {
+					last = e;
+				} finally {
+					if (retrySession != null) {
+						retrySession.close();
+					}
+				}
+			}
+			chunk.clearGeneratedIds();
+			result.failed(new FailedChunk(chunk.index, chunk.rows, maxRetries + 1, last));
+		}
+
+		private SqlSession openSession() {
+			return sqlSessionFactory.openSession(BulkInserter.executorType(mode));
+		}
+
+		private void committed(Chunk chunk) {
+			ChunkStats stats = chunk.stats();
+			result.committed(stats);
+			if (listener != null) {
+				listener.onChunk(stats);
+			}
+		}
+	}
+
+	private static class LoaderThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger sequence = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "bulk-loader-" + sequence.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.atguigu.mybatis.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParallelBulkLoader的汇总：
+ * 		committed：所有worker已提交的块，elapsedNanos是各块耗时之和
+ * 		failures：重试之后仍然失败的块
+ * 		wallNanos：整个加载的墙钟时间
+ */
+public class ParallelLoadResult {
+
+	private final int threads;
+	private final BulkInsertResult committed;
+	private final List<FailedChunk> failures = new ArrayList<FailedChunk>();
+	private long wallNanos;
+
+	public ParallelLoadResult(BulkInserter.Mode mode, int threads) {
+		this.threads = threads;
+		this.committed = new BulkInsertResult(mode);
+	}
+
+	synchronized void committed(ChunkStats stats) {
+		committed.add(stats);
+	}
+
+	synchronized void failed(FailedChunk chunk) {
+		failures.add(chunk);
+	}
+
+	void setWallNanos(long wallNanos) {
+		this.wallNanos = wallNanos;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public synchronized BulkInsertResult getCommitted() {
+		return committed;
+	}
+
+	public synchronized List<FailedChunk> getFailures() {
+		return Collections.unmodifiableList(new ArrayList<FailedChunk>(failures));
+	}
+
+	public synchronized long getFailedRows() {
+		long rows = 0;
+		for (FailedChunk chunk : failures) {
+			rows += chunk.getRows().size();
+		}
+		return rows;
+	}
+
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	public synchronized double getRowsPerSecond() {
+		return wallNanos == 0 ? 0 : committed.getRows() * (double) TimeUnit.SECONDS.toNanos(1) / wallNanos;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ParallelLoadResult [threads=" + threads + ", committed=" + committed + ", failedChunks="
+				+ failures.size() + ", wallMillis=" + TimeUnit.NANOSECONDS.toMillis(wallNanos) + "]";
+	}
+}
@@ -1,49 +1,38 @@
 package com.atguigu.mybatis.bean;
 
-import com.sun.org.apache.bcel.internal.generic.RETURN;
+import com.atguigu.mybatis.typehandler.CodeEnum;
+import com.atguigu.mybatis.typehandler.CodeEnumTable;
 
 /**
  * 希望数据库保存的是100,200这些状态码，而不是默认0,1或者枚举的名
  * @author lfy
  *
  */
-public enum EmpStatus {
+public enum EmpStatus implements CodeEnum {
 	LOGIN(100,"用户登录"),LOGOUT(200,"用户登出"),REMOVE(300,"用户不存在");
 	
 	
-	private Integer code;
-	private String msg;
-	private EmpStatus(Integer code,String msg){
+	private static final CodeEnumTable<EmpStatus> TABLE = CodeEnumTable.of(EmpStatus.class);
+	
+	private final int code;
+	private final String msg;
+	private EmpStatus(int code,String msg){
 		this.code = code;
 		this.msg = msg;
 	}
-	public Integer getCode() {
+	@Override
+	public int getCode() {
 		return code;
 	}
 	
-	public void setCode(Integer code) {
-		this.code = code;
-	}
 	public String getMsg() {
 		return msg;
 	}
-	public void setMsg(String msg) {
-		this.msg = msg;
-	}
 	
-	//按照状态码返回枚举对象
-	public static EmpStatus getEmpStatusByCode(Integer code){
-		switch (code) {
-			case 100:
-				return LOGIN;
-			case 200:
-				return LOGOUT;	
-			case 300:
-				return REMOVE;
-			default:
-				return LOGOUT;
-		}
+	//按照状态码返回枚举对象；查不到时返回LOGOUT（兼容旧行为，TypeHandler不走这里）
+	public static EmpStatus getEmpStatusByCode(int code){
+		EmpStatus status = TABLE.lookup(code);
+		return status != null ? status : LOGOUT;
 	}
 	
-	
 }
@@ -10,6 +10,8 @@ public class Employee {
 	private String email;
 	private String gender;
 	private Department dept;
+	//员工状态，数据库里存的是状态码（MyEnumEmpStatusTypeHandler）
+	private EmpStatus empStatus = EmpStatus.LOGOUT;
 	
 	public Employee() {
 		super();
@@ -31,6 +33,14 @@ public class Employee {
 	
 	
 
+	public EmpStatus getEmpStatus() {
+		return empStatus;
+	}
+
+	public void setEmpStatus(EmpStatus empStatus) {
+		this.empStatus = empStatus;
+	}
+
 	public Department getDept() {
 		return dept;
 	}
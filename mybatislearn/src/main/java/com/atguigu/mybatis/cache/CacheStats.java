@@ -0,0 +1,74 @@
+package com.atguigu.mybatis.cache;
+
+/**
+ * TinyLfuCache某一时刻的统计
+ */
+public class CacheStats {
+
+	private final String id;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long expirations;
+	private final int entries;
+	private final long weightedBytes;
+	private final long maxBytes;
+
+	public CacheStats(String id, long hits, long misses, long evictions, long expirations, int entries,
+			long weightedBytes, long maxBytes) {
+		this.id = id;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.entries = entries;
+		this.weightedBytes = weightedBytes;
+		this.maxBytes = maxBytes;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/** 因为超出字节上限被淘汰的条目数 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/** 因为超过存活时间被移除的条目数 */
+	public long getExpirations() {
+		return expirations;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	public long getWeightedBytes() {
+		return weightedBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public double getHitRatio() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats [id=" + id + ", hits=" + hits + ", misses=" + misses + ", hitRatio="
+				+ String.format("%.4f", getHitRatio()) + ", evictions=" + evictions + ", expirations=" + expirations
+				+ ", entries=" + entries + ", weightedBytes=" + weightedBytes + ", maxBytes=" + maxBytes + "]";
+	}
+}
@@ -0,0 +1,112 @@
+package com.atguigu.mybatis.cache;
+
+import java.util.Arrays;
+
+/**
+ * TinyLFU的访问频率估计：Count-Min Sketch，每个计数器4位（最大15），一个long放16个计数器
+ * 		每个key在4个long中各加一个计数器，频率取4个中的最小值；
+ * 		总共累加了sampleSize次之后所有计数器减半，让过去的热点逐渐冷下来
+ * 只在持有TinyLfuCache的策略锁时访问
+ */
+final class FrequencySketch {
+
+	private static final long[] SEEDS = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK = 0x1111111111111111L;
+	/** 最多2^24个long（128M），再多的条目共用计数器 */
+	private static final int MAXIMUM_CAPACITY = 1 << 24;
+
+	private long[] table;
+	private int tableMask;
+	private int sampleSize;
+	private int size;
+
+	FrequencySketch() {
+		ensureCapacity(64);
+	}
+
+	/**
+	 * 按预计的条目数扩容，扩容后重新计数
+	 */
+	void ensureCapacity(int maximumSize) {
+		int capacity = tableSizeFor(Math.min(Math.max(maximumSize, 64), MAXIMUM_CAPACITY));
+		if (table != null && table.length >= capacity) {
+			return;
+		}
+		table = new long[capacity];
+		tableMask = capacity - 1;
+		sampleSize = 10 * capacity;
+		size = 0;
+	}
+
+	int capacity() {
+		return table.length;
+	}
+
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && ++size == sampleSize) {
+			reset();
+		}
+	}
+
+	void clear() {
+		Arrays.fill(table, 0L);
+		size = 0;
+	}
+
+	private boolean incrementAt(int index, int counter) {
+		int offset = counter << 2;
+		long mask = 0xfL << offset;
+		if ((table[index] & mask) != mask) {
+			table[index] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	/** 所有计数器减半；奇数计数器减半时丢掉的1按size的1/4扣除 */
+	private void reset() {
+		int odd = 0;
+		for (int i = 0; i < table.length; i++) {
+			odd += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size = (size >>> 1) - (odd >>> 2);
+	}
+
+	private int indexOf(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return (int) h & tableMask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+
+	private static int tableSizeFor(int n) {
+		return Integer.highestOneBit(n - 1) << 1;
+	}
+}
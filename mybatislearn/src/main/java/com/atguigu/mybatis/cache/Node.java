@@ -0,0 +1,41 @@
+package com.atguigu.mybatis.cache;
+
+/**
+ * 缓存中的一个条目，同时是两条链表上的节点：
+ * 		访问顺序（所在的WINDOW/PROBATION/PROTECTED队列）和写入顺序（用于过期）
+ * 链表字段只在持有TinyLfuCache的策略锁时访问
+ */
+final class Node {
+
+	static final int WINDOW = 0;
+	static final int PROBATION = 1;
+	static final int PROTECTED = 2;
+
+	final Object key;
+	final Object value;
+	final int weight;
+	/** System.nanoTime()的截止时间；Long.MAX_VALUE表示不过期 */
+	final long expiresAt;
+	/** 写入时的System.currentTimeMillis()，快照恢复时保留原值 */
+	final long writeTime;
+
+	int queue = WINDOW;
+	/** 已经加入链表（put的加锁部分执行过），被移除后置为false */
+	boolean linked;
+	Node prev;
+	Node next;
+	Node writePrev;
+	Node writeNext;
+
+	Node(Object key, Object value, int weight, long expiresAt, long writeTime) {
+		this.key = key;
+		this.value = value;
+		this.weight = weight;
+		this.expiresAt = expiresAt;
+		this.writeTime = writeTime;
+	}
+
+	boolean isExpired(long now) {
+		return now - expiresAt >= 0;
+	}
+}
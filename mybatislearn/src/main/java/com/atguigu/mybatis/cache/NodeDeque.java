@@ -0,0 +1,91 @@
+package com.atguigu.mybatis.cache;
+
+/**
+ * 侵入式双向链表：writeOrder为false时使用Node.prev/next，为true时使用writePrev/writeNext，
+ * 一个节点可以同时在一条访问顺序链表和写入顺序链表上，移动和删除都是O(1)
+ */
+final class NodeDeque {
+
+	private final boolean writeOrder;
+	private Node first;
+	private Node last;
+
+	NodeDeque(boolean writeOrder) {
+		this.writeOrder = writeOrder;
+	}
+
+	Node peekFirst() {
+		return first;
+	}
+
+	Node next(Node node) {
+		return writeOrder ? node.writeNext : node.next;
+	}
+
+	void linkLast(Node node) {
+		setPrev(node, last);
+		setNext(node, null);
+		if (last == null) {
+			first = node;
+		} else {
+			setNext(last, node);
+		}
+		last = node;
+	}
+
+	void unlink(Node node) {
+		Node prev = prev(node);
+		Node next = next(node);
+		if (prev == null) {
+			first = next;
+		} else {
+			setNext(prev, next);
+		}
+		if (next == null) {
+			last = prev;
+		} else {
+			setPrev(next, prev);
+		}
+		setPrev(node, null);
+		setNext(node, null);
+	}
+
+	void moveToLast(Node node) {
+		if (node != last) {
+			unlink(node);
+			linkLast(node);
+		}
+	}
+
+	void clear() {
+		Node node = first;
+		while (node != null) {
+			Node next = next(node);
+			setPrev(node, null);
+			setNext(node, null);
+			node = next;
+		}
+		first = null;
+		last = null;
+	}
+
+	private Node prev(Node node) {
+		return writeOrder ? node.writePrev : node.prev;
+	}
+
+	private void setPrev(Node node, Node prev) {
+		if (writeOrder) {
+			node.writePrev = prev;
+		} else {
+			node.prev = prev;
+		}
+	}
+
+	private void setNext(Node node, Node next) {
+		if (writeOrder) {
+			node.writeNext = next;
+		} else {
+			node.next = next;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.atguigu.mybatis.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 默认的Weigher：遍历结果对象图估算堆内存（按64位JVM、压缩指针粗略计算）
+ * 		String、包装类型、日期按固定公式；集合、Map、数组逐个元素累加；
+ * 		JavaBean按字段累加并继续遍历引用的对象（dept.emps这样的循环引用只算一次）
+ * JDK、MyBatis、javassist自己的类（比如延迟加载代理里的handler）只算对象头，不往里遍历；
+ * 一个条目最多遍历MAX_OBJECTS个对象，超过后按已遍历部分的平均大小外推
+ */
+public class ObjectSizeEstimator implements Weigher {
+
+	static final int MAX_OBJECTS = 10000;
+	private static final int OBJECT_HEADER = 16;
+	private static final int REFERENCE = 4;
+	/** ConcurrentHashMap中一个条目的开销加上Node本身 */
+	private static final int ENTRY_OVERHEAD = 96;
+	/** CacheKey里有语句id、sql、参数等，按固定值估算 */
+	private static final int KEY_SIZE = 256;
+
+	private static final String[] OPAQUE_PACKAGES = { "java.", "javax.", "sun.", "com.sun.", "jdk.",
+			"org.apache.ibatis.", "javassist.", "net.sf.cglib." };
+
+	private final ConcurrentMap<Class<?>, Field[]> fields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+	@Override
+	public int weigh(Object key, Object value) {
+		long size = ENTRY_OVERHEAD + KEY_SIZE + sizeOf(value);
+		return (int) Math.min(Integer.MAX_VALUE, size);
+	}
+
+	public long sizeOf(Object root) {
+		if (root == null) {
+			return 0;
+		}
+		IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+		Deque<Object> pending = new ArrayDeque<Object>();
+		pending.push(root);
+		visited.put(root, Boolean.TRUE);
+		long size = 0;
+		int objects = 0;
+		while (!pending.isEmpty()) {
+			if (objects == MAX_OBJECTS) {
+				return size + size / objects * pending.size();
+			}
+			Object object = pending.pop();
+			objects++;
+			size += shallowSize(object, pending, visited);
+		}
+		return size;
+	}
+
+	private long shallowSize(Object object, Deque<Object> pending, IdentityHashMap<Object, Boolean> visited) {
+		Class<?> type = object.getClass();
+		if (object instanceof String) {
+			return align(OBJECT_HEADER + 8) + align(OBJECT_HEADER + ((String) object).length() * 2L);
+		}
+		if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+			return 24;
+		}
+		if (object instanceof Date) {
+			return 24;
+		}
+		if (type.isEnum() || object instanceof Class) {
+			return 0;
+		}
+		if (type.isArray()) {
+			Class<?> component = type.getComponentType();
+			if (component.isPrimitive()) {
+				return align(OBJECT_HEADER + (long) Array.getLength(object) * primitiveSize(component));
+			}
+			Object[] array = (Object[]) object;
+			for (Object element : array) {
+				push(element, pending, visited);
+			}
+			return align(OBJECT_HEADER + (long) array.length * REFERENCE);
+		}
+		if (object instanceof Collection) {
+			Collection<?> collection = (Collection<?>) object;
+			for (Object element : collection) {
+				push(element, pending, visited);
+			}
+			return align(OBJECT_HEADER + 16) + align(OBJECT_HEADER + (long) collection.size() * REFERENCE);
+		}
+		if (object instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) object;
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				push(entry.getKey(), pending, visited);
+				push(entry.getValue(), pending, visited);
+			}
+			return align(OBJECT_HEADER + 32) + (long) map.size() * 40;
+		}
+		if (opaque(type)) {
+			return OBJECT_HEADER;
+		}
+		long size = OBJECT_HEADER;
+		for (Field field : fields(type)) {
+			Class<?> fieldType = field.getType();
+			if (fieldType.isPrimitive()) {
+				size += primitiveSize(fieldType);
+				continue;
+			}
+			size += REFERENCE;
+			try {
+				push(field.get(object), pending, visited);
+			} catch (IllegalAccessException e) {
+				// 读不到的字段只算引用
+			}
+		}
+		return align(size);
+	}
+
+	private static void push(Object object, Deque<Object> pending, IdentityHashMap<Object, Boolean> visited) {
+		if (object != null && visited.put(object, Boolean.TRUE) == null) {
+			pending.push(object);
+		}
+	}
+
+	/**
+	 * 非static的字段，包括父类的；setAccessible失败的字段不读取
+	 */
+	private Field[] fields(Class<?> type) {
+		Field[] result = fields.get(type);
+		if (result == null) {
+			List<Field> list = new ArrayList<Field>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					if (!field.getType().isPrimitive() && opaque(c)) {
+						continue;
+					}
+					try {
+						field.setAccessible(true);
+						list.add(field);
+					} catch (RuntimeException e) {
+						// JDK 9以后模块不开放的字段
+					}
+				}
+			}
+			result = list.toArray(new Field[list.size()]);
+			fields.putIfAbsent(type, result);
+		}
+		return result;
+	}
+
+	private static boolean opaque(Class<?> type) {
+		String name = type.getName();
+		for (String prefix : OPAQUE_PACKAGES) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int primitiveSize(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		}
+		if (type == int.class || type == float.class) {
+			return 4;
+		}
+		if (type == short.class || type == char.class) {
+			return 2;
+		}
+		return 1;
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+}
@@ -0,0 +1,80 @@
+package com.atguigu.mybatis.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 记录读命中的有损缓冲区：按线程分成多段环形数组，读线程只做一次CAS，满了直接丢弃这次记录
+ * 		（丢掉的只是一次访问计数，不影响正确性）；由拿到策略锁的线程批量取出，更新LRU顺序和频率
+ */
+final class ReadBuffer {
+
+	private static final int BUFFER_SIZE = 16;
+	private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+	/** 一段缓冲区里攒了这么多条就尝试整理 */
+	private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+
+	ReadBuffer() {
+		int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe();
+		}
+		this.stripeMask = stripes - 1;
+	}
+
+	/**
+	 * @return 需要整理（缓冲区快满了）
+	 */
+	boolean offer(Node node) {
+		Stripe stripe = stripes[probe() & stripeMask];
+		long head = stripe.reads.get();
+		long tail = stripe.writes.get();
+		long size = tail - head;
+		if (size >= BUFFER_SIZE) {
+			return true;
+		}
+		if (stripe.writes.compareAndSet(tail, tail + 1)) {
+			stripe.slots.lazySet((int) (tail & BUFFER_MASK), node);
+			return size + 1 >= DRAIN_THRESHOLD;
+		}
+		return false;
+	}
+
+	/**
+	 * 只由持有策略锁的线程调用
+	 */
+	void drain(Consumer<Node> consumer) {
+		for (Stripe stripe : stripes) {
+			long head = stripe.reads.get();
+			long tail = stripe.writes.get();
+			for (; head < tail; head++) {
+				int index = (int) (head & BUFFER_MASK);
+				Node node = stripe.slots.get(index);
+				if (node == null) {
+					// 写入方已经占了位置但还没放进来
+					break;
+				}
+				stripe.slots.lazySet(index, null);
+				consumer.accept(node);
+			}
+			stripe.reads.lazySet(head);
+		}
+	}
+
+	private static int probe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private static final class Stripe {
+		final AtomicLong reads = new AtomicLong();
+		final AtomicLong writes = new AtomicLong();
+		final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<Node>(BUFFER_SIZE);
+	}
+}
@@ -0,0 +1,250 @@
+package com.atguigu.mybatis.cache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.PluginException;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import com.atguigu.mybatis.cache.offheap.BinaryCodec;
+import com.atguigu.mybatis.cache.offheap.OffHeapCache;
+
+/**
+ * 合并并发的相同查询（single-flight）：多个会话同时用同一个CacheKey查询、二级缓存又没有命中时，
+ * 		只有第一个（leader）真正执行，其他的（follower）等它查完直接拿结果，数据库只查一次
+ * 		缓存刚被TableInvalidationInterceptor按主键失效时，热点员工的getEmpById最容易出现这种情况
+ *
+ * 1、follower拿到的结果：缓存是只读的（TinyLfuCache、OffHeapCache默认）时直接共用，和二级缓存命中时一样；
+ * 		readOnly="false"（SerializedCache）、OffHeapCache的readOnly=false时，
+ * 		leader在返回之前用BinaryCodec编码一次（只在有follower时），每个follower解码出自己的一份
+ * 2、leader失败、等待超时、结果拷贝不了时，follower自己再查一次
+ * 3、不合并的情况：有ResultHandler、不是select、flushCache="true"、会话里有还没提交的修改
+ * 		（它自己能看到未提交的数据，不能和别人共用结果）、同一个线程里嵌套的相同查询，
+ * 		没有二级缓存或者useCache="false"的语句：TableInvalidationInterceptor不给它们的CacheKey加版本号，
+ * 		合并的话写入之后开始的查询可能拿到写入之前开始的查询的结果
+ *
+ * 配置：注册在TableInvalidationInterceptor之前（离CachingExecutor更近），CacheKey里已经带上版本号，
+ * 		写入之后开始的查询不会拿到写入之前开始的查询的结果
+ * 	<plugin interceptor="com.atguigu.mybatis.cache.SingleFlightInterceptor">
+ * 		<property name="timeoutMillis" value="30000"/>
+ * 	</plugin>
+ */
+@Intercepts({
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+	@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+	@Signature(type = Executor.class, method = "commit", args = boolean.class),
+	@Signature(type = Executor.class, method = "rollback", args = boolean.class),
+	@Signature(type = Executor.class, method = "close", args = boolean.class)
+})
+public class SingleFlightInterceptor implements Interceptor {
+
+	public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+	private final ConcurrentMap<CacheKey, Flight> flights = new ConcurrentHashMap<CacheKey, Flight>();
+	/** 有未提交修改的会话；会话没有关闭就被回收时自动去掉 */
+	private final Map<Executor, Boolean> dirty = Collections.synchronizedMap(new WeakHashMap<Executor, Boolean>());
+	/** 语句id ==> 它的二级缓存是否只读 */
+	private final ConcurrentMap<String, Boolean> readOnly = new ConcurrentHashMap<String, Boolean>();
+	private final BinaryCodec codec = new BinaryCodec();
+
+	private final LongAdder leaders = new LongAdder();
+	private final LongAdder followers = new LongAdder();
+	private final LongAdder fallbacks = new LongAdder();
+
+	private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		String method = invocation.getMethod().getName();
+		Executor executor = (Executor) invocation.getTarget();
+		if ("query".equals(method)) {
+			return query(invocation, executor);
+		}
+		if ("update".equals(method)) {
+			dirty.put(executor, Boolean.TRUE);
+			return invocation.proceed();
+		}
+		try {
+			return invocation.proceed();
+		} finally {
+			// commit、rollback、close之后会话里不再有未提交的修改
+			dirty.remove(executor);
+		}
+	}
+
+	private Object query(Invocation invocation, Executor executor) throws Throwable {
+		Object[] args = invocation.getArgs();
+		MappedStatement ms = (MappedStatement) args[0];
+		if (args[3] != null || ms.getCache() == null || !ms.isUseCache()
+				|| ms.getSqlCommandType() != SqlCommandType.SELECT || ms.isFlushCacheRequired()
+				|| dirty.containsKey(executor)) {
+			return invocation.proceed();
+		}
+		Object parameter = args[1];
+		RowBounds rowBounds = (RowBounds) args[2];
+		CacheKey key;
+		BoundSql boundSql;
+		if (args.length == 4) {
+			// 和CachingExecutor一样先算出CacheKey，再调用6个参数的query
+			boundSql = ms.getBoundSql(parameter);
+			key = executor.createCacheKey(ms, parameter, rowBounds, boundSql);
+		} else {
+			key = (CacheKey) args[4];
+			boundSql = (BoundSql) args[5];
+		}
+		if (key == CacheKey.NULL_CACHE_KEY) {
+			return invocation.proceed();
+		}
+		// 里面的插件可能还会往CacheKey里加东西，map里放一份拷贝
+		CacheKey flightKey = copy(key);
+		Flight flight = new Flight();
+		Flight existing = flights.putIfAbsent(flightKey, flight);
+		if (existing == null) {
+			leaders.increment();
+			try {
+				Object result = executor.query(ms, parameter, rowBounds, null, key, boundSql);
+				publish(flight, ms, result);
+				return result;
+			} finally {
+				// 失败时什么都没有发布，follower会自己查
+				flights.remove(flightKey, flight);
+				flight.done.countDown();
+			}
+		}
+		if (existing.thread != Thread.currentThread()) {
+			existing.followers.incrementAndGet();
+			if (existing.done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				Object result = existing.result;
+				if (result == null && existing.encoded != null) {
+					result = codec.decode(existing.encoded);
+				}
+				if (result != null) {
+					followers.increment();
+					return result;
+				}
+			}
+		}
+		fallbacks.increment();
+		return executor.query(ms, parameter, rowBounds, null, key, boundSql);
+	}
+
+	/**
+	 * 在leader把结果交给调用方之前发布：只读时直接共用对象，否则编码一份
+	 * 		（调用方拿到结果以后可能会修改它，不能让follower之后再去拷贝）
+	 */
+	private void publish(Flight flight, MappedStatement ms, Object result) {
+		if (isReadOnly(ms)) {
+			flight.result = result;
+		} else if (flight.followers.get() > 0) {
+			try {
+				flight.encoded = codec.encode(result);
+			} catch (BinaryCodec.UnsupportedValueException e) {
+				// follower自己查
+			}
+		}
+	}
+
+	private boolean isReadOnly(MappedStatement ms) {
+		Boolean cached = readOnly.get(ms.getId());
+		if (cached == null) {
+			cached = isReadOnly(ms.getCache());
+			readOnly.put(ms.getId(), cached);
+		}
+		return cached;
+	}
+
+	private static boolean isReadOnly(Cache cache) {
+		Cache current = cache;
+		while (true) {
+			if (current instanceof SerializedCache) {
+				return false;
+			}
+			if (current instanceof OffHeapCache) {
+				return ((OffHeapCache) current).isReadOnly();
+			}
+			MetaObject metaObject = SystemMetaObject.forObject(current);
+			if (!metaObject.hasGetter("delegate")) {
+				return true;
+			}
+			current = (Cache) metaObject.getValue("delegate");
+		}
+	}
+
+	private static CacheKey copy(CacheKey key) {
+		try {
+			return key.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new PluginException("Could not copy cache key " + key, e);
+		}
+	}
+
+	/** 真正执行了的查询数 */
+	public long getLeaders() {
+		return leaders.sum();
+	}
+
+	/** 拿到别人查询结果、没有访问数据库的查询数 */
+	public long getFollowers() {
+		return followers.sum();
+	}
+
+	/** 遇到相同的查询但没能共用结果、自己又查了一次的次数 */
+	public long getFallbacks() {
+		return fallbacks.sum();
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		if (target instanceof Executor) {
+			return Plugin.wrap(target, this);
+		}
+		return target;
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+		String timeout = properties.getProperty("timeoutMillis");
+		if (timeout != null) {
+			timeoutMillis = Long.parseLong(timeout.trim());
+		}
+	}
+
+	/**
+	 * 一次正在执行的查询；result、encoded在done之前写入，follower在done之后读
+	 * 		leader发布之后才加入的follower什么都拿不到，自己再查一次
+	 */
+	private static final class Flight {
+
+		final Thread thread = Thread.currentThread();
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicInteger followers = new AtomicInteger();
+		Object result;
+		byte[] encoded;
+	}
+}
@@ -0,0 +1,28 @@
+package com.atguigu.mybatis.cache;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * 可以保存到快照文件、启动时再恢复的二级缓存
+ * 		CacheSnapshot通过它遍历和恢复条目，写入时间用来判断条目是否太旧
+ */
+public interface SnapshotCache extends Cache {
+
+	/**
+	 * 遍历没有过期的条目，不保证和并发的写入一致
+	 */
+	void forEachEntry(EntryVisitor visitor);
+
+	/**
+	 * 放入快照中的条目，保留原来的写入时间（过期时间也从那时算起）
+	 */
+	void restoreEntry(Object key, Object value, long writeTime);
+
+	interface EntryVisitor {
+
+		/**
+		 * @param writeTime 写入时的System.currentTimeMillis()
+		 */
+		void visit(Object key, Object value, long writeTime);
+	}
+}
@@ -0,0 +1,476 @@
+package com.atguigu.mybatis.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 从BoundSql的sql（#{}已经换成?）中找出读写的表和主键条件；不是完整的sql解析器，只认识常见的写法：
+ * 		select ... from a [as] x [left] join b y on ... where x.id = ?
+ * 		insert [ignore] into a(...) values(...) / insert into a select ...
+ * 		update a set ... where id = ?
+ * 		delete from a where id in (?, ?)
+ * 子查询、union中的表也算作读；有子查询、多表、or条件时不做主键识别，按整张表处理
+ */
+final class SqlTableParser {
+
+	/** 可以作为表名后面的别名之外的关键字 */
+	private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList("where", "join", "left", "right",
+			"inner", "outer", "cross", "natural", "straight_join", "on", "using", "group", "order", "limit", "union",
+			"set", "values", "value", "select", "for", "lock", "having", "window", "partition", "use", "force",
+			"ignore", "into"));
+	private static final Set<String> INSERT_MODIFIERS = new HashSet<String>(Arrays.asList("low_priority", "delayed",
+			"high_priority", "ignore", "quick"));
+	/** where条件在这些词处结束 */
+	private static final Set<String> WHERE_END = new HashSet<String>(Arrays.asList("order", "limit", "group",
+			"having", "for", "union", "lock"));
+
+	private SqlTableParser() {
+	}
+
+	/**
+	 * @param keyColumns 表名 ==> 主键列名（小写），没有的表用defaultKeyColumn
+	 */
+	static SqlTables parse(String sql, Map<String, String> keyColumns, String defaultKeyColumn) {
+		List<Token> tokens = tokenize(sql);
+		int start = 0;
+		while (start < tokens.size() && tokens.get(start).is("(")) {
+			start++;
+		}
+		if (start == tokens.size() || tokens.get(start).type != Token.WORD) {
+			return SqlTables.UNKNOWN;
+		}
+		String first = tokens.get(start).text;
+		Parser parser = new Parser(tokens, keyColumns, defaultKeyColumn);
+		if ("select".equals(first) || "with".equals(first)) {
+			return parser.select();
+		}
+		if ("insert".equals(first) || "replace".equals(first)) {
+			return parser.insert(start + 1);
+		}
+		if ("update".equals(first)) {
+			return parser.update(start + 1);
+		}
+		if ("delete".equals(first)) {
+			return parser.delete(start + 1);
+		}
+		return SqlTables.UNKNOWN;
+	}
+
+	private static final class Parser {
+
+		private final List<Token> tokens;
+		private final Map<String, String> keyColumns;
+		private final String defaultKeyColumn;
+		private final Set<String> tables = new LinkedHashSet<String>();
+		/** 别名 ==> 表名 */
+		private final Map<String, String> aliases = new HashMap<String, String>();
+
+		Parser(List<Token> tokens, Map<String, String> keyColumns, String defaultKeyColumn) {
+			this.tokens = tokens;
+			this.keyColumns = keyColumns;
+			this.defaultKeyColumn = defaultKeyColumn;
+		}
+
+		SqlTables select() {
+			int selects = 0;
+			for (int i = 0; i < tokens.size(); i++) {
+				Token token = tokens.get(i);
+				if (token.isWord("select")) {
+					selects++;
+				} else if (token.isWord("from")) {
+					tableList(i + 1, true);
+				} else if (token.isWord("join")) {
+					tableList(i + 1, false);
+				}
+			}
+			if (tables.isEmpty()) {
+				return SqlTables.UNKNOWN;
+			}
+			return result(SqlTables.Kind.SELECT, tables, selects == 1 && tables.size() == 1);
+		}
+
+		SqlTables insert(int i) {
+			while (i < tokens.size() && (tokens.get(i).isWord("into") || INSERT_MODIFIERS.contains(tokens.get(i).text))) {
+				i++;
+			}
+			String table = table(i);
+			if (table == null) {
+				return SqlTables.UNKNOWN;
+			}
+			Set<String> written = new LinkedHashSet<String>();
+			written.add(table);
+			// 新插入的行的主键要等执行之后从参数中取（useGeneratedKeys/selectKey）
+			return new SqlTables(SqlTables.Kind.INSERT, written, null, null, null);
+		}
+
+		SqlTables update(int i) {
+			while (i < tokens.size() && INSERT_MODIFIERS.contains(tokens.get(i).text)) {
+				i++;
+			}
+			tableList(i, true);
+			for (int j = i; j < tokens.size() && !tokens.get(j).isWord("set"); j++) {
+				if (tokens.get(j).isWord("join")) {
+					tableList(j + 1, false);
+				}
+			}
+			if (tables.isEmpty()) {
+				return SqlTables.UNKNOWN;
+			}
+			return result(SqlTables.Kind.UPDATE, new LinkedHashSet<String>(tables), single() && !setsKey());
+		}
+
+		/**
+		 * update ... set id = ?：主键本身变了，按整张表处理
+		 */
+		private boolean setsKey() {
+			String table = tables.iterator().next();
+			String keyColumn = keyColumns.containsKey(table) ? keyColumns.get(table) : defaultKeyColumn;
+			boolean set = false;
+			for (int i = 0; i + 1 < tokens.size(); i++) {
+				Token token = tokens.get(i);
+				if (token.isWord("where")) {
+					return false;
+				}
+				set |= token.isWord("set");
+				if (set && token.isWord(keyColumn) && tokens.get(i + 1).is("=")) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		SqlTables delete(int i) {
+			while (i < tokens.size() && INSERT_MODIFIERS.contains(tokens.get(i).text)) {
+				i++;
+			}
+			if (i >= tokens.size() || !tokens.get(i).isWord("from")) {
+				// delete a, b from a join b ...：按涉及的所有表处理
+				for (int j = i; j < tokens.size(); j++) {
+					if (tokens.get(j).isWord("from") || tokens.get(j).isWord("join")) {
+						tableList(j + 1, tokens.get(j).isWord("from"));
+					}
+				}
+				return tables.isEmpty() ? SqlTables.UNKNOWN
+						: new SqlTables(SqlTables.Kind.DELETE, new LinkedHashSet<String>(tables), null, null, null);
+			}
+			tableList(i + 1, true);
+			if (tables.isEmpty()) {
+				return SqlTables.UNKNOWN;
+			}
+			return result(SqlTables.Kind.DELETE, new LinkedHashSet<String>(tables), single());
+		}
+
+		/**
+		 * 增删改里出现select（子查询）时也不做主键识别
+		 */
+		private boolean single() {
+			if (tables.size() != 1) {
+				return false;
+			}
+			for (Token token : tokens) {
+				if (token.isWord("select")) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private SqlTables result(SqlTables.Kind kind, Set<String> tables, boolean keyCandidate) {
+			if (keyCandidate) {
+				String table = tables.iterator().next();
+				List<Token> values = keyValues(table);
+				if (values != null) {
+					int[] parameters = new int[values.size()];
+					Object[] literals = new Object[values.size()];
+					for (int i = 0; i < parameters.length; i++) {
+						Token value = values.get(i);
+						parameters[i] = value.type == Token.PARAMETER ? value.parameter : -1;
+						literals[i] = value.literal;
+					}
+					return new SqlTables(kind, tables, table, parameters, literals);
+				}
+			}
+			return new SqlTables(kind, tables, null, null, null);
+		}
+
+		/**
+		 * 逗号分隔的表名列表（from a, b）或者join后面的一个表；from (子查询)跳过，子查询里的表由外层循环处理
+		 */
+		private void tableList(int i, boolean commaSeparated) {
+			while (i < tokens.size()) {
+				String table = table(i);
+				if (table == null) {
+					return;
+				}
+				tables.add(table);
+				aliases.put(table, table);
+				i = skipName(i);
+				if (i < tokens.size() && tokens.get(i).isWord("as")) {
+					i++;
+				}
+				if (i < tokens.size() && tokens.get(i).type == Token.WORD && !RESERVED.contains(tokens.get(i).text)) {
+					aliases.put(tokens.get(i).text, table);
+					i++;
+				}
+				if (!commaSeparated || i >= tokens.size() || !tokens.get(i).is(",")) {
+					return;
+				}
+				i++;
+			}
+		}
+
+		/**
+		 * 库名.表名只取表名
+		 */
+		private String table(int i) {
+			if (i >= tokens.size() || tokens.get(i).type != Token.WORD || RESERVED.contains(tokens.get(i).text)) {
+				return null;
+			}
+			String name = tokens.get(i).text;
+			while (i + 2 < tokens.size() && tokens.get(i + 1).is(".") && tokens.get(i + 2).type == Token.WORD) {
+				i += 2;
+				name = tokens.get(i).text;
+			}
+			return name;
+		}
+
+		private int skipName(int i) {
+			i++;
+			while (i + 1 < tokens.size() && tokens.get(i).is(".") && tokens.get(i + 1).type == Token.WORD) {
+				i += 2;
+			}
+			return i;
+		}
+
+		/**
+		 * where条件中（只有and连接，没有or）的 [别名.]主键 = 值 或者 主键 in (值, ...)
+		 * @return 值（?或字面量），没有这样的条件时返回null
+		 */
+		private List<Token> keyValues(String table) {
+			int where = -1;
+			int depth = 0;
+			for (int i = 0; i < tokens.size(); i++) {
+				Token token = tokens.get(i);
+				depth += token.is("(") ? 1 : token.is(")") ? -1 : 0;
+				if (depth == 0 && token.isWord("where")) {
+					where = i;
+					break;
+				}
+			}
+			if (where < 0) {
+				return null;
+			}
+			List<List<Token>> conjuncts = new ArrayList<List<Token>>();
+			List<Token> current = new ArrayList<Token>();
+			boolean between = false;
+			depth = 0;
+			for (int i = where + 1; i < tokens.size(); i++) {
+				Token token = tokens.get(i);
+				if (token.isWord("or")) {
+					return null;
+				}
+				if (depth == 0 && (token.is(";") || token.type == Token.WORD && WHERE_END.contains(token.text))) {
+					break;
+				}
+				depth += token.is("(") ? 1 : token.is(")") ? -1 : 0;
+				if (token.isWord("between")) {
+					between = true;
+				}
+				if (depth == 0 && token.isWord("and")) {
+					if (between) {
+						// between x and y中的and
+						between = false;
+					} else {
+						conjuncts.add(current);
+						current = new ArrayList<Token>();
+						continue;
+					}
+				}
+				current.add(token);
+			}
+			conjuncts.add(current);
+			String keyColumn = keyColumns.containsKey(table) ? keyColumns.get(table) : defaultKeyColumn;
+			for (List<Token> conjunct : conjuncts) {
+				List<Token> values = keyValues(conjunct, table, keyColumn);
+				if (values != null) {
+					return values;
+				}
+			}
+			return null;
+		}
+
+		private List<Token> keyValues(List<Token> conjunct, String table, String keyColumn) {
+			int column = column(conjunct, 0, table, keyColumn);
+			if (column > 0) {
+				if (conjunct.size() == column + 2 && conjunct.get(column).is("=") && conjunct.get(column + 1).isValue()) {
+					return Arrays.asList(conjunct.get(column + 1));
+				}
+				if (column + 3 < conjunct.size() && conjunct.get(column).isWord("in") && conjunct.get(column + 1).is("(")
+						&& conjunct.get(conjunct.size() - 1).is(")")) {
+					List<Token> values = new ArrayList<Token>();
+					for (int i = column + 2; i < conjunct.size() - 1; i += 2) {
+						Token separator = conjunct.get(i + 1);
+						if (!conjunct.get(i).isValue() || !(separator.is(",") || i + 1 == conjunct.size() - 1)) {
+							return null;
+						}
+						values.add(conjunct.get(i));
+					}
+					return values;
+				}
+				return null;
+			}
+			// ? = id
+			if (conjunct.size() >= 3 && conjunct.get(0).isValue() && conjunct.get(1).is("=")
+					&& column(conjunct, 2, table, keyColumn) == conjunct.size()) {
+				return Arrays.asList(conjunct.get(0));
+			}
+			return null;
+		}
+
+		/**
+		 * @return 从i开始是[别名.]主键列时返回列名之后的位置，否则返回-1
+		 */
+		private int column(List<Token> conjunct, int i, String table, String keyColumn) {
+			if (i + 2 < conjunct.size() && conjunct.get(i).type == Token.WORD && conjunct.get(i + 1).is(".")) {
+				if (!table.equals(aliases.get(conjunct.get(i).text))) {
+					return -1;
+				}
+				i += 2;
+			}
+			if (i < conjunct.size() && conjunct.get(i).isWord(keyColumn)) {
+				return i + 1;
+			}
+			return -1;
+		}
+	}
+
+	static List<Token> tokenize(String sql) {
+		List<Token> tokens = new ArrayList<Token>();
+		int parameter = 0;
+		int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-' || c == '#') {
+				while (i < length && sql.charAt(i) != '\n') {
+					i++;
+				}
+			} else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? length : end + 2;
+			} else if (c == '\'') {
+				StringBuilder value = new StringBuilder();
+				i++;
+				while (i < length) {
+					char ch = sql.charAt(i);
+					if (ch == '\\' && i + 1 < length) {
+						value.append(sql.charAt(i + 1));
+						i += 2;
+					} else if (ch == '\'' && i + 1 < length && sql.charAt(i + 1) == '\'') {
+						value.append('\'');
+						i += 2;
+					} else if (ch == '\'') {
+						i++;
+						break;
+					} else {
+						value.append(ch);
+						i++;
+					}
+				}
+				tokens.add(Token.literal(value.toString()));
+			} else if (c == '`' || c == '"' || c == '[') {
+				char close = c == '[' ? ']' : c;
+				int end = sql.indexOf(close, i + 1);
+				if (end < 0) {
+					end = length;
+				}
+				tokens.add(Token.word(sql.substring(i + 1, end)));
+				i = end + 1;
+			} else if (Character.isDigit(c)) {
+				int end = i;
+				while (end < length && (Character.isDigit(sql.charAt(end)) || sql.charAt(end) == '.')) {
+					end++;
+				}
+				String number = sql.substring(i, end);
+				tokens.add(Token.literal(number.indexOf('.') < 0 ? (Object) Long.valueOf(number) : number));
+				i = end;
+			} else if (Character.isLetter(c) || c == '_' || c == '$') {
+				int end = i;
+				while (end < length && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_'
+						|| sql.charAt(end) == '$')) {
+					end++;
+				}
+				tokens.add(Token.word(sql.substring(i, end)));
+				i = end;
+			} else if (c == '?') {
+				tokens.add(Token.parameter(parameter++));
+				i++;
+			} else if ((c == '<' || c == '>' || c == '!') && i + 1 < length
+					&& (sql.charAt(i + 1) == '=' || c == '<' && sql.charAt(i + 1) == '>')) {
+				tokens.add(Token.symbol(sql.substring(i, i + 2)));
+				i += 2;
+			} else {
+				tokens.add(Token.symbol(String.valueOf(c)));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	static final class Token {
+
+		static final int WORD = 0;
+		static final int SYMBOL = 1;
+		static final int LITERAL = 2;
+		static final int PARAMETER = 3;
+
+		final int type;
+		final String text;
+		final Object literal;
+		final int parameter;
+
+		private Token(int type, String text, Object literal, int parameter) {
+			this.type = type;
+			this.text = text;
+			this.literal = literal;
+			this.parameter = parameter;
+		}
+
+		static Token word(String text) {
+			return new Token(WORD, text.toLowerCase(Locale.ENGLISH), null, -1);
+		}
+
+		static Token symbol(String text) {
+			return new Token(SYMBOL, text, null, -1);
+		}
+
+		static Token literal(Object value) {
+			return new Token(LITERAL, null, value, -1);
+		}
+
+		static Token parameter(int index) {
+			return new Token(PARAMETER, "?", null, index);
+		}
+
+		boolean is(String symbol) {
+			return type == SYMBOL && symbol.equals(text);
+		}
+
+		boolean isWord(String word) {
+			return type == WORD && word.equals(text);
+		}
+
+		boolean isValue() {
+			return type == LITERAL || type == PARAMETER;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.atguigu.mybatis.cache;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 一条sql读写了哪些表，以及是否只涉及某张表的某几个主键（where id=? / id in (?,?)）
+ * 		主键的值在sql里是?时记下它是第几个参数，是字面量时直接记下值
+ */
+final class SqlTables {
+
+	enum Kind {
+		SELECT, INSERT, UPDATE, DELETE,
+		/** 解析不了的语句（存储过程等）：读的时候依赖所有表，写的时候让所有缓存失效 */
+		UNKNOWN
+	}
+
+	static final SqlTables UNKNOWN = new SqlTables(Kind.UNKNOWN, Collections.<String>emptySet(), null, null, null);
+
+	final Kind kind;
+	/** select时是读的表，增删改时是被修改的表（小写，不带库名） */
+	final Set<String> tables;
+	/** 只按主键访问的表；null表示没有 */
+	final String keyTable;
+	/** 主键值对应的参数序号（从0开始），字面量时为-1 */
+	final int[] keyParameters;
+	final Object[] keyLiterals;
+
+	SqlTables(Kind kind, Set<String> tables, String keyTable, int[] keyParameters, Object[] keyLiterals) {
+		this.kind = kind;
+		this.tables = tables;
+		this.keyTable = keyTable;
+		this.keyParameters = keyParameters;
+		this.keyLiterals = keyLiterals;
+	}
+
+	boolean isWrite() {
+		return kind == Kind.INSERT || kind == Kind.UPDATE || kind == Kind.DELETE;
+	}
+
+	@Override
+	public String toString() {
+		return "SqlTables [kind=" + kind + ", tables=" + tables + ", keyTable=" + keyTable + "]";
+	}
+}
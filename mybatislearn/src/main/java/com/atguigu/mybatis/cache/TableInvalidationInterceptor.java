@@ -0,0 +1,487 @@
+package com.atguigu.mybatis.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+
+/**
+ * 按表、按主键失效二级缓存，代替增删改时清空整个namespace的缓存（flushCache="true"）
+ *
+ * 1、查询：解析sql得到读了哪些表、是否只按主键查询，把这些表（或主键所在的槽）的版本号加进CacheKey；
+ * 		结果映射里分步查询（association/collection的select）读的表也加进去，
+ * 		分步查询是动态sql、解析不了时，这条查询在任何写入之后都失效（相当于原来的清空缓存）
+ * 2、增删改：解析sql得到改了哪张表、是否只改了某几个主键；执行后把对应的版本号加一，
+ * 		事务提交时再加一次（提交前别的会话可能按新版本号缓存了提交前的数据）
+ * 3、版本号变了，同样的查询就对应新的CacheKey，旧条目不会再被读到，由缓存按TinyLFU/过期时间淘汰
+ *
+ * 效果：更新tbl_employee的id=1不影响缓存中的getDeptById、getEmpById(2)；
+ * 		getEmps这种整表查询仍然会失效；别的namespace（EmployeeMapperPlus等）改了tbl_employee也会让这里的缓存失效
+ *
+ * 配置：
+ * 1、写语句保持默认的flushCache="true"：执行时换成flushCacheRequired=false的副本交给CachingExecutor，
+ * 		不再清空整个namespace（一级缓存仍由BaseExecutor清空）；去掉这个插件就回到MyBatis原来的行为
+ * 2、注册在其他Executor插件（PageInterceptor）之前，这样PageHelper生成的count查询也会带上版本号
+ * 	<plugin interceptor="com.atguigu.mybatis.cache.TableInvalidationInterceptor">
+ * 		<!-- 主键列，默认id；也可以按表指定：keyColumn.tbl_dept=id -->
+ * 		<property name="keyColumn" value="id"/>
+ * 	</plugin>
+ */
+@Intercepts({
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+	@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+	@Signature(type = Executor.class, method = "commit", args = boolean.class),
+	@Signature(type = Executor.class, method = "rollback", args = boolean.class),
+	@Signature(type = Executor.class, method = "close", args = boolean.class)
+})
+public class TableInvalidationInterceptor implements Interceptor {
+
+	/** 解析结果最多缓存多少条sql（动态sql可能生成很多不同的语句） */
+	static final int MAX_PARSED = 1024;
+	/** 一个事务里一张表按主键修改超过这么多行时按整张表处理 */
+	static final int MAX_PENDING_KEYS = 1000;
+
+	private final TableVersions versions = new TableVersions();
+	private final ConcurrentMap<String, SqlTables> parsed = new ConcurrentHashMap<String, SqlTables>();
+	/** 查询语句id ==> 分步查询读的表 */
+	private final ConcurrentMap<String, Set<String>> nested = new ConcurrentHashMap<String, Set<String>>();
+	private final Map<String, String> keyColumns = new HashMap<String, String>();
+	private String defaultKeyColumn = "id";
+	/** Executor（一个会话） ==> 还没有提交的修改；会话没有关闭就被回收时自动去掉 */
+	private final Map<Executor, Pending> pending = Collections.synchronizedMap(new WeakHashMap<Executor, Pending>());
+	/** 写语句 ==> 不清空namespace的副本；重新加载配置后旧的语句自动去掉 */
+	private final Map<MappedStatement, MappedStatement> withoutFlush =
+			Collections.synchronizedMap(new WeakHashMap<MappedStatement, MappedStatement>());
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		String method = invocation.getMethod().getName();
+		Executor executor = (Executor) invocation.getTarget();
+		if ("query".equals(method)) {
+			return query(invocation, executor);
+		}
+		if ("update".equals(method)) {
+			return update(invocation, executor);
+		}
+		if ("commit".equals(method)) {
+			Object result = invocation.proceed();
+			apply(pending.remove(executor));
+			return result;
+		}
+		if ("rollback".equals(method)) {
+			try {
+				return invocation.proceed();
+			} finally {
+				pending.remove(executor);
+			}
+		}
+		// close(false)时CachingExecutor会把查询结果放进二级缓存，之后再加一次版本号
+		boolean forceRollback = (Boolean) invocation.getArgs()[0];
+		try {
+			return invocation.proceed();
+		} finally {
+			Pending changes = pending.remove(executor);
+			if (!forceRollback) {
+				apply(changes);
+			}
+		}
+	}
+
+	private Object query(Invocation invocation, Executor executor) throws Throwable {
+		Object[] args = invocation.getArgs();
+		MappedStatement ms = (MappedStatement) args[0];
+		if (ms.getCache() == null || !ms.isUseCache()) {
+			return invocation.proceed();
+		}
+		Object parameter = args[1];
+		if (args.length == 4) {
+			// 和CachingExecutor一样先算出CacheKey，加上版本号后调用6个参数的query
+			RowBounds rowBounds = (RowBounds) args[2];
+			BoundSql boundSql = ms.getBoundSql(parameter);
+			CacheKey key = executor.createCacheKey(ms, parameter, rowBounds, boundSql);
+			stamp(key, ms, boundSql, parameter);
+			return executor.query(ms, parameter, rowBounds, (ResultHandler<?>) args[3], key, boundSql);
+		}
+		CacheKey key = (CacheKey) args[4];
+		if (key != CacheKey.NULL_CACHE_KEY) {
+			stamp(key, ms, (BoundSql) args[5], parameter);
+		}
+		return invocation.proceed();
+	}
+
+	private void stamp(CacheKey key, MappedStatement ms, BoundSql boundSql, Object parameter) {
+		SqlTables tables = tables(boundSql.getSql());
+		Set<String> nestedTables = nestedTables(ms);
+		key.update(versions.unknownWrites());
+		if (tables.kind != SqlTables.Kind.SELECT || nestedTables == UNRESOLVED) {
+			key.update(versions.anyWrites());
+			return;
+		}
+		for (String name : nestedTables) {
+			TableVersions.Table table = versions.table(name);
+			key.update(table.all.get());
+			key.update(table.scan.get());
+		}
+		Object[] keys = tables.keyTable == null ? null : keyValues(ms, boundSql, parameter, tables);
+		for (String name : tables.tables) {
+			TableVersions.Table table = versions.table(name);
+			key.update(table.all.get());
+			if (keys != null && name.equals(tables.keyTable)) {
+				for (Object value : keys) {
+					key.update(table.row(value));
+				}
+			} else {
+				key.update(table.scan.get());
+			}
+		}
+	}
+
+	/**
+	 * 顺着resultMap（嵌套的resultMap、discriminator的case）找到所有分步查询，合并它们读的表
+	 */
+	private Set<String> nestedTables(MappedStatement ms) {
+		Set<String> tables = nested.get(ms.getId());
+		if (tables == null) {
+			tables = new HashSet<String>();
+			Set<String> visited = new HashSet<String>();
+			for (ResultMap resultMap : ms.getResultMaps()) {
+				if (!collectNested(ms.getConfiguration(), resultMap, tables, visited)) {
+					tables = UNRESOLVED;
+					break;
+				}
+			}
+			nested.put(ms.getId(), tables);
+		}
+		return tables;
+	}
+
+	private boolean collectNested(Configuration configuration, ResultMap resultMap, Set<String> tables, Set<String> visited) {
+		if (!visited.add(resultMap.getId())) {
+			return true;
+		}
+		for (ResultMapping mapping : resultMap.getResultMappings()) {
+			if (mapping.getNestedResultMapId() != null
+					&& !collectNested(configuration, configuration.getResultMap(mapping.getNestedResultMapId()), tables, visited)) {
+				return false;
+			}
+			String queryId = mapping.getNestedQueryId();
+			if (queryId == null || !visited.add(queryId)) {
+				continue;
+			}
+			if (!configuration.hasStatement(queryId)) {
+				return false;
+			}
+			MappedStatement query = configuration.getMappedStatement(queryId);
+			SqlTables queryTables = staticTables(query);
+			if (queryTables == null || queryTables.kind != SqlTables.Kind.SELECT) {
+				return false;
+			}
+			tables.addAll(queryTables.tables);
+			for (ResultMap queryResultMap : query.getResultMaps()) {
+				if (!collectNested(configuration, queryResultMap, tables, visited)) {
+					return false;
+				}
+			}
+		}
+		Discriminator discriminator = resultMap.getDiscriminator();
+		if (discriminator != null) {
+			for (String caseResultMapId : discriminator.getDiscriminatorMap().values()) {
+				if (!collectNested(configuration, configuration.getResultMap(caseResultMapId), tables, visited)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 只解析静态sql：动态sql读哪些表要看参数
+	 * @return 动态sql返回null
+	 */
+	private SqlTables staticTables(MappedStatement ms) {
+		SqlSource sqlSource = ms.getSqlSource();
+		if (!(sqlSource instanceof RawSqlSource) && !(sqlSource instanceof StaticSqlSource)) {
+			return null;
+		}
+		return tables(sqlSource.getBoundSql(null).getSql());
+	}
+
+	private Object update(Invocation invocation, Executor executor) throws Throwable {
+		MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+		Object parameter = invocation.getArgs()[1];
+		BoundSql boundSql = ms.getBoundSql(parameter);
+		SqlTables tables = tables(boundSql.getSql());
+		Object[] keys = tables.keyTable == null ? null : keyValues(ms, boundSql, parameter, tables);
+		if (ms.getCache() != null && ms.isFlushCacheRequired()) {
+			invocation.getArgs()[0] = withoutFlush(ms);
+		}
+		try {
+			return invocation.proceed();
+		} finally {
+			if (tables.kind == SqlTables.Kind.INSERT) {
+				// 自增主键或selectKey的值执行之后才回填到参数里
+				keys = generatedKeys(ms, parameter);
+			}
+			Pending change = new Pending();
+			change.add(tables, keys);
+			apply(change);
+			synchronized (pending) {
+				Pending changes = pending.get(executor);
+				if (changes == null) {
+					pending.put(executor, change);
+				} else {
+					changes.add(tables, keys);
+				}
+			}
+		}
+	}
+
+	/**
+	 * CachingExecutor.update看到flushCacheRequired就清空整个namespace，所以换成只有这一项不同的副本
+	 */
+	private MappedStatement withoutFlush(MappedStatement ms) {
+		MappedStatement copy = withoutFlush.get(ms);
+		if (copy == null) {
+			copy = new MappedStatement.Builder(ms.getConfiguration(), ms.getId(), ms.getSqlSource(), ms.getSqlCommandType())
+					.resource(ms.getResource())
+					.statementType(ms.getStatementType())
+					.resultSetType(ms.getResultSetType())
+					.fetchSize(ms.getFetchSize())
+					.timeout(ms.getTimeout())
+					.lang(ms.getLang())
+					.parameterMap(ms.getParameterMap())
+					.resultMaps(ms.getResultMaps())
+					.cache(ms.getCache())
+					.flushCacheRequired(false)
+					.useCache(ms.isUseCache())
+					.resultOrdered(ms.isResultOrdered())
+					.keyGenerator(ms.getKeyGenerator())
+					.keyProperty(join(ms.getKeyProperties()))
+					.keyColumn(join(ms.getKeyColumns()))
+					.databaseId(ms.getDatabaseId())
+					.resultSets(join(ms.getResultSets()))
+					.build();
+			withoutFlush.put(ms, copy);
+		}
+		return copy;
+	}
+
+	private static String join(String[] values) {
+		if (values == null) {
+			return null;
+		}
+		StringBuilder joined = new StringBuilder();
+		for (String value : values) {
+			if (joined.length() > 0) {
+				joined.append(',');
+			}
+			joined.append(value);
+		}
+		return joined.toString();
+	}
+
+	private SqlTables tables(String sql) {
+		SqlTables tables = parsed.get(sql);
+		if (tables == null) {
+			tables = SqlTableParser.parse(sql, keyColumns, defaultKeyColumn);
+			if (parsed.size() >= MAX_PARSED) {
+				parsed.clear();
+			}
+			parsed.put(sql, tables);
+		}
+		return tables;
+	}
+
+	/**
+	 * 和DefaultParameterHandler取参数值的方式一样
+	 * @return 有取不到的值时返回null（按整张表处理）
+	 */
+	private static Object[] keyValues(MappedStatement ms, BoundSql boundSql, Object parameter, SqlTables tables) {
+		Configuration configuration = ms.getConfiguration();
+		List<ParameterMapping> mappings = boundSql.getParameterMappings();
+		Object[] values = new Object[tables.keyParameters.length];
+		for (int i = 0; i < values.length; i++) {
+			int index = tables.keyParameters[i];
+			Object value;
+			if (index < 0) {
+				value = tables.keyLiterals[i];
+			} else if (index >= mappings.size() || mappings.get(index).getMode() == ParameterMode.OUT) {
+				return null;
+			} else {
+				String property = mappings.get(index).getProperty();
+				if (boundSql.hasAdditionalParameter(property)) {
+					value = boundSql.getAdditionalParameter(property);
+				} else if (parameter == null) {
+					value = null;
+				} else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+					value = parameter;
+				} else {
+					value = configuration.newMetaObject(parameter).getValue(property);
+				}
+			}
+			if (value == null) {
+				return null;
+			}
+			values[i] = value;
+		}
+		return values;
+	}
+
+	/**
+	 * 和Jdbc3KeyGenerator找参数对象的方式一样：单个对象，或者Map中的collection/array
+	 */
+	private static Object[] generatedKeys(MappedStatement ms, Object parameter) {
+		String[] keyProperties = ms.getKeyProperties();
+		if (keyProperties == null || keyProperties.length != 1 || parameter == null) {
+			return null;
+		}
+		Collection<?> rows;
+		if (parameter instanceof Map && ((Map<?, ?>) parameter).containsKey("collection")) {
+			rows = (Collection<?>) ((Map<?, ?>) parameter).get("collection");
+		} else if (parameter instanceof Map && ((Map<?, ?>) parameter).containsKey("array")) {
+			rows = Arrays.asList((Object[]) ((Map<?, ?>) parameter).get("array"));
+		} else {
+			rows = Collections.singletonList(parameter);
+		}
+		Object[] keys = new Object[rows.size()];
+		int i = 0;
+		for (Object row : rows) {
+			if (row == null) {
+				return null;
+			}
+			MetaObject metaObject = ms.getConfiguration().newMetaObject(row);
+			if (!metaObject.hasGetter(keyProperties[0])) {
+				return null;
+			}
+			Object key = metaObject.getValue(keyProperties[0]);
+			if (key == null) {
+				return null;
+			}
+			keys[i++] = key;
+		}
+		return keys;
+	}
+
+	private void apply(Pending changes) {
+		if (changes == null) {
+			return;
+		}
+		if (changes.unknown) {
+			versions.unknownWrite();
+		}
+		for (String table : changes.tables) {
+			versions.tableWrite(table);
+		}
+		for (Map.Entry<String, Set<Object>> entry : changes.rows.entrySet()) {
+			versions.rowWrite(entry.getKey(), entry.getValue().toArray());
+		}
+	}
+
+	/**
+	 * 当前的版本号，和二级缓存的条目一起保存到快照（见snapshot.CacheSnapshot）
+	 */
+	public void writeVersions(DataOutput out) throws IOException {
+		versions.writeTo(out);
+	}
+
+	public void readVersions(DataInput in) throws IOException {
+		versions.readFrom(in);
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		if (target instanceof Executor) {
+			return Plugin.wrap(target, this);
+		}
+		return target;
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+		for (String name : properties.stringPropertyNames()) {
+			String value = properties.getProperty(name).trim().toLowerCase(Locale.ENGLISH);
+			if ("keyColumn".equals(name)) {
+				defaultKeyColumn = value;
+			} else if (name.startsWith("keyColumn.")) {
+				keyColumns.put(name.substring("keyColumn.".length()).toLowerCase(Locale.ENGLISH), value);
+			}
+		}
+	}
+
+	/**
+	 * 一个事务中的修改：整张表的、按主键的、解析不了的
+	 */
+	/** 分步查询读了哪些表不知道 */
+	private static final Set<String> UNRESOLVED = Collections.unmodifiableSet(new HashSet<String>());
+
+	private static final class Pending {
+
+		boolean unknown;
+		final Set<String> tables = new HashSet<String>();
+		final Map<String, Set<Object>> rows = new HashMap<String, Set<Object>>();
+
+		void add(SqlTables changed, Object[] keys) {
+			if (changed.kind == SqlTables.Kind.UNKNOWN || changed.kind == SqlTables.Kind.SELECT) {
+				unknown = true;
+				return;
+			}
+			for (String table : changed.tables) {
+				if (tables.contains(table)) {
+					continue;
+				}
+				Set<Object> tableRows = rows.get(table);
+				if (keys == null || tableRows != null && tableRows.size() + keys.length > MAX_PENDING_KEYS) {
+					rows.remove(table);
+					tables.add(table);
+					continue;
+				}
+				if (tableRows == null) {
+					tableRows = new LinkedHashSet<Object>();
+					rows.put(table, tableRows);
+				}
+				for (Object key : keys) {
+					tableRows.add(TableVersions.normalize(key));
+				}
+			}
+		}
+	}
+}
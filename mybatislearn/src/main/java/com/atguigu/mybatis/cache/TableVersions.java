@@ -0,0 +1,163 @@
+package com.atguigu.mybatis.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 每张表的版本号，写入时加一，查询时把依赖的版本号加进CacheKey：
+ * 		版本变了以后同样的查询算出的CacheKey不同，旧条目不会再被命中，由缓存自己淘汰或过期
+ *
+ * 		all：不知道改了哪些行（没有主键条件的增删改），所有读这张表的查询都依赖它
+ * 		scan：任何一次修改都会加一，除了按主键查询以外的查询依赖它
+ * 		rows：按主键修改时只加对应的槽，按主键查询依赖all和自己的槽；
+ * 			槽的个数固定（ROW_SLOTS），不同主键落到同一个槽只是多失效一些，不会读到旧数据
+ */
+final class TableVersions {
+
+	static final int ROW_SLOTS = 4096;
+
+	/** 解析不了的写语句，所有查询都依赖 */
+	private final AtomicLong unknownWrites = new AtomicLong();
+	/** 任何写语句，解析不了的查询依赖 */
+	private final AtomicLong anyWrites = new AtomicLong();
+	private final ConcurrentMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+
+	long unknownWrites() {
+		return unknownWrites.get();
+	}
+
+	long anyWrites() {
+		return anyWrites.get();
+	}
+
+	Table table(String name) {
+		Table table = tables.get(name);
+		if (table == null) {
+			Table created = new Table();
+			table = tables.putIfAbsent(name, created);
+			if (table == null) {
+				table = created;
+			}
+		}
+		return table;
+	}
+
+	void unknownWrite() {
+		anyWrites.incrementAndGet();
+		unknownWrites.incrementAndGet();
+	}
+
+	void tableWrite(String name) {
+		anyWrites.incrementAndGet();
+		table(name).all.incrementAndGet();
+	}
+
+	void rowWrite(String name, Object[] keys) {
+		anyWrites.incrementAndGet();
+		Table table = table(name);
+		table.scan.incrementAndGet();
+		for (Object key : keys) {
+			table.rows.incrementAndGet(slot(key));
+		}
+	}
+
+	/**
+	 * 保存到缓存快照：快照里的CacheKey带着当时的版本号，恢复条目之前版本号也要恢复，
+	 * 		否则重启后版本号从0开始，会和快照里旧的CacheKey重合
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeLong(unknownWrites.get());
+		out.writeLong(anyWrites.get());
+		out.writeInt(tables.size());
+		for (Map.Entry<String, Table> entry : tables.entrySet()) {
+			Table table = entry.getValue();
+			out.writeUTF(entry.getKey());
+			out.writeLong(table.all.get());
+			out.writeLong(table.scan.get());
+			int changed = 0;
+			for (int i = 0; i < ROW_SLOTS; i++) {
+				if (table.rows.get(i) != 0) {
+					changed++;
+				}
+			}
+			out.writeInt(changed);
+			for (int i = 0; i < ROW_SLOTS && changed > 0; i++) {
+				long version = table.rows.get(i);
+				if (version != 0) {
+					out.writeShort(i);
+					out.writeLong(version);
+					changed--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 只会把版本号往大调，恢复之前已经发生的写入不会丢
+	 */
+	void readFrom(DataInput in) throws IOException {
+		raise(unknownWrites, in.readLong());
+		raise(anyWrites, in.readLong());
+		int count = in.readInt();
+		for (int t = 0; t < count; t++) {
+			Table table = table(in.readUTF());
+			raise(table.all, in.readLong());
+			raise(table.scan, in.readLong());
+			int changed = in.readInt();
+			for (int i = 0; i < changed; i++) {
+				int slot = in.readShort() & 0xFFFF;
+				long version = in.readLong();
+				long current;
+				do {
+					current = table.rows.get(slot);
+				} while (current < version && !table.rows.compareAndSet(slot, current, version));
+			}
+		}
+	}
+
+	private static void raise(AtomicLong counter, long value) {
+		long current;
+		do {
+			current = counter.get();
+		} while (current < value && !counter.compareAndSet(current, value));
+	}
+
+	/**
+	 * 参数可能是Integer、Long或者字符串，统一成Long再算槽
+	 */
+	static Object normalize(Object key) {
+		if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+			return ((Number) key).longValue();
+		}
+		if (key instanceof String) {
+			try {
+				return Long.valueOf((String) key);
+			} catch (NumberFormatException e) {
+				return key;
+			}
+		}
+		return key;
+	}
+
+	static int slot(Object key) {
+		int h = normalize(key).hashCode() * 0x9e3779b9;
+		return (h ^ (h >>> 16)) & (ROW_SLOTS - 1);
+	}
+
+	static final class Table {
+
+		final AtomicLong all = new AtomicLong();
+		final AtomicLong scan = new AtomicLong();
+		final AtomicLongArray rows = new AtomicLongArray(ROW_SLOTS);
+
+		long row(Object key) {
+			return rows.get(slot(key));
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package com.atguigu.mybatis.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * 二级缓存：W-TinyLFU淘汰策略，按估算的字节数限制大小，每个条目有自己的过期时间
+ *
+ * 1、读：ConcurrentHashMap.get，不加锁；命中记录到有损的ReadBuffer，攒够了由某个线程tryLock后批量整理
+ * 2、写（put/remove/clear）：先改ConcurrentHashMap，再在策略锁里维护链表和字节数
+ * 3、淘汰：新条目先进WINDOW（1%），从WINDOW挤出来的进PROBATION，
+ * 		超出上限时和PROBATION最老的条目比较访问频率（FrequencySketch），频率低的被淘汰；
+ * 		PROBATION中再次被访问的条目升到PROTECTED（主区的80%）
+ * 4、过期：写入时记下截止时间，读到过期的条目按未命中处理，由整理时按写入顺序移除
+ *
+ * 和PerpetualCache一样由MyBatis直接把结果对象交给调用方（不做序列化拷贝），和原来的EhcacheCache内存部分一致
+ *
+ * 配置（替换原来的EhcacheCache）：
+ * 	<cache type="com.atguigu.mybatis.cache.TinyLfuCache">
+ * 		<property name="maxBytes" value="67108864"/>
+ * 		<property name="timeToLiveSeconds" value="120"/>
+ * 		<property name="weigher" value="com.atguigu.mybatis.cache.ObjectSizeEstimator"/>
+ * 	</cache>
+ * 统计：TinyLfuCache.getCache(namespace).getStats()
+ * 关闭时可以把条目保存到快照文件，下次启动时恢复（见snapshot.WarmStartSqlSessionFactoryBuilder）
+ */
+public class TinyLfuCache implements SnapshotCache, InitializingObject {
+
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	static final double WINDOW_PERCENT = 0.01;
+	static final double PROTECTED_PERCENT = 0.8;
+	/** 候选频率低于这个值时不做随机准入 */
+	private static final int ADMIT_HASHDOS_THRESHOLD = 6;
+
+	/** 按id登记的实例；MyBatis会在外面包一层LoggingCache，通过这里拿到统计 */
+	private static final ConcurrentMap<String, TinyLfuCache> CACHES = new ConcurrentHashMap<String, TinyLfuCache>();
+
+	private final String id;
+	private final ConcurrentMap<Object, Node> data = new ConcurrentHashMap<Object, Node>();
+	private final ReadBuffer readBuffer = new ReadBuffer();
+	private final Consumer<Node> onAccess = new Consumer<Node>() {
+		@Override
+		public void accept(Node node) {
+			onAccess(node);
+		}
+	};
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private long timeToLiveNanos;
+	private Weigher weigher = new ObjectSizeEstimator();
+
+	// 以下只在持有evictionLock时访问
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final FrequencySketch sketch = new FrequencySketch();
+	private final NodeDeque window = new NodeDeque(false);
+	private final NodeDeque probation = new NodeDeque(false);
+	private final NodeDeque protectedQueue = new NodeDeque(false);
+	private final NodeDeque writeOrder = new NodeDeque(true);
+	private long windowMax;
+	private long protectedMax;
+	private long windowBytes;
+	private long protectedBytes;
+	/** 读线程也会读这个值（getStats），所以是volatile */
+	private volatile long weightedBytes;
+
+	public TinyLfuCache(String id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Cache instances require an ID");
+		}
+		this.id = id;
+		initialize();
+	}
+
+	/**
+	 * MyBatis设置完<property>之后调用
+	 */
+	@Override
+	public void initialize() {
+		evictionLock.lock();
+		try {
+			windowMax = Math.max(1, (long) (maxBytes * WINDOW_PERCENT));
+			protectedMax = (long) ((maxBytes - windowMax) * PROTECTED_PERCENT);
+			evict();
+		} finally {
+			evictionLock.unlock();
+		}
+		CACHES.put(id, this);
+	}
+
+	public static TinyLfuCache getCache(String id) {
+		return CACHES.get(id);
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public Object getObject(Object key) {
+		Node node = data.get(key);
+		if (node == null) {
+			misses.increment();
+			return null;
+		}
+		if (node.isExpired(System.nanoTime())) {
+			// 交给整理时移除，读线程不加锁
+			misses.increment();
+			afterRead(node);
+			return null;
+		}
+		hits.increment();
+		afterRead(node);
+		return node.value;
+	}
+
+	/**
+	 * TransactionalCache提交时会为未命中的key放入null，这里按删除处理
+	 */
+	@Override
+	public void putObject(Object key, Object value) {
+		if (value == null) {
+			removeObject(key);
+			return;
+		}
+		long expiresAt = timeToLiveNanos > 0 ? System.nanoTime() + timeToLiveNanos : Long.MAX_VALUE;
+		put(key, value, expiresAt, System.currentTimeMillis());
+	}
+
+	@Override
+	public void forEachEntry(EntryVisitor visitor) {
+		long now = System.nanoTime();
+		for (Node node : data.values()) {
+			if (!node.isExpired(now)) {
+				visitor.visit(node.key, node.value, node.writeTime);
+			}
+		}
+	}
+
+	/**
+	 * 过期时间从原来的写入时间算起，已经过期的不再放入
+	 */
+	@Override
+	public void restoreEntry(Object key, Object value, long writeTime) {
+		long expiresAt = Long.MAX_VALUE;
+		if (timeToLiveNanos > 0) {
+			long age = TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - writeTime));
+			if (age >= timeToLiveNanos) {
+				return;
+			}
+			expiresAt = System.nanoTime() + timeToLiveNanos - age;
+		}
+		put(key, value, expiresAt, writeTime);
+	}
+
+	private void put(Object key, Object value, long expiresAt, long writeTime) {
+		int weight = weigher.weigh(key, value);
+		if (weight < 0) {
+			throw new CacheException("Weigher returned a negative weight " + weight + " for cache " + id);
+		}
+		if (weight > maxBytes) {
+			// 比整个缓存还大，放进去也会马上被淘汰
+			removeObject(key);
+			return;
+		}
+		Node node = new Node(key, value, weight, expiresAt, writeTime);
+		Node old = data.put(key, node);
+		evictionLock.lock();
+		try {
+			if (old != null) {
+				unlink(old);
+			}
+			// 加锁之前可能已经被并发的remove/put替换掉了，这时不再加入链表
+			if (data.get(key) == node) {
+				node.linked = true;
+				window.linkLast(node);
+				writeOrder.linkLast(node);
+				windowBytes += weight;
+				weightedBytes += weight;
+				sketch.increment(key);
+			}
+			maintenance();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	public Object removeObject(Object key) {
+		Node node = data.remove(key);
+		if (node == null) {
+			return null;
+		}
+		evictionLock.lock();
+		try {
+			unlink(node);
+		} finally {
+			evictionLock.unlock();
+		}
+		return node.value;
+	}
+
+	@Override
+	public void clear() {
+		evictionLock.lock();
+		try {
+			data.clear();
+			readBuffer.drain(new Consumer<Node>() {
+				@Override
+				public void accept(Node node) {
+				}
+			});
+			// 读线程手里可能还拿着旧节点，之后进入ReadBuffer时不能再动链表
+			for (Node node = writeOrder.peekFirst(); node != null; node = writeOrder.next(node)) {
+				node.linked = false;
+			}
+			for (NodeDeque deque : new NodeDeque[] { window, probation, protectedQueue, writeOrder }) {
+				deque.clear();
+			}
+			windowBytes = 0;
+			protectedBytes = 0;
+			weightedBytes = 0;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return data.size();
+	}
+
+	/**
+	 * MyBatis 3.2.6以后不再使用
+	 */
+	@Override
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	public CacheStats getStats() {
+		return new CacheStats(id, hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), data.size(),
+				weightedBytes, maxBytes);
+	}
+
+	public void resetStats() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+		expirations.reset();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new CacheException("maxBytes must be positive for cache " + id);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+		this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+	}
+
+	public void setWeigher(String weigher) {
+		try {
+			this.weigher = (Weigher) Resources.classForName(weigher).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new CacheException("Could not create weigher '" + weigher + "' for cache " + id, e);
+		}
+	}
+
+	private void afterRead(Node node) {
+		if (readBuffer.offer(node) && evictionLock.tryLock()) {
+			try {
+				maintenance();
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * 持有evictionLock：处理攒下的读记录，移除过期条目，再按字节上限淘汰
+	 */
+	private void maintenance() {
+		readBuffer.drain(onAccess);
+		expire();
+		evict();
+		if (data.size() > sketch.capacity()) {
+			sketch.ensureCapacity(data.size() * 2);
+		}
+	}
+
+	private void onAccess(Node node) {
+		if (!node.linked) {
+			return;
+		}
+		if (node.isExpired(System.nanoTime())) {
+			remove(node, expirations);
+			return;
+		}
+		sketch.increment(node.key);
+		if (node.queue == Node.WINDOW) {
+			window.moveToLast(node);
+		} else if (node.queue == Node.PROBATION) {
+			probation.unlink(node);
+			node.queue = Node.PROTECTED;
+			protectedQueue.linkLast(node);
+			protectedBytes += node.weight;
+			demoteProtected();
+		} else {
+			protectedQueue.moveToLast(node);
+		}
+	}
+
+	/** PROTECTED超出配额时把最久没访问的降回PROBATION */
+	private void demoteProtected() {
+		while (protectedBytes > protectedMax) {
+			Node node = protectedQueue.peekFirst();
+			protectedQueue.unlink(node);
+			protectedBytes -= node.weight;
+			node.queue = Node.PROBATION;
+			probation.linkLast(node);
+		}
+	}
+
+	/**
+	 * 所有条目的存活时间相同，写入顺序就是过期顺序，从头开始移除到第一个没过期的为止
+	 */
+	private void expire() {
+		if (timeToLiveNanos <= 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		Node node = writeOrder.peekFirst();
+		while (node != null && node.isExpired(now)) {
+			Node next = writeOrder.next(node);
+			remove(node, expirations);
+			node = next;
+		}
+	}
+
+	private void evict() {
+		// WINDOW超出配额的条目进入PROBATION，作为淘汰的候选
+		Node candidate = null;
+		while (windowBytes > windowMax) {
+			Node node = window.peekFirst();
+			window.unlink(node);
+			windowBytes -= node.weight;
+			node.queue = Node.PROBATION;
+			probation.linkLast(node);
+			if (candidate == null) {
+				candidate = node;
+			}
+		}
+		while (weightedBytes > maxBytes) {
+			Node victim = probation.peekFirst();
+			if (victim == null || victim == candidate || candidate == null) {
+				if (victim == null) {
+					victim = protectedQueue.peekFirst() != null ? protectedQueue.peekFirst() : window.peekFirst();
+					if (victim == null) {
+						break;
+					}
+				}
+				if (victim == candidate) {
+					candidate = probation.next(candidate);
+				}
+				remove(victim, evictions);
+			} else if (admit(candidate.key, victim.key)) {
+				remove(victim, evictions);
+			} else {
+				Node next = probation.next(candidate);
+				remove(candidate, evictions);
+				candidate = next;
+			}
+		}
+	}
+
+	/**
+	 * 候选的访问频率高于牺牲者时接纳；频率较高但不占优时以1/128的概率接纳，
+	 * 避免攻击者用固定的高频key把热点条目一直挡在外面
+	 */
+	private boolean admit(Object candidateKey, Object victimKey) {
+		int candidateFrequency = sketch.frequency(candidateKey);
+		int victimFrequency = sketch.frequency(victimKey);
+		if (candidateFrequency > victimFrequency) {
+			return true;
+		}
+		if (candidateFrequency < ADMIT_HASHDOS_THRESHOLD) {
+			return false;
+		}
+		return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+	}
+
+	/**
+	 * 从ConcurrentHashMap（仍然是这个节点时）和链表中移除
+	 */
+	private void remove(Node node, LongAdder counter) {
+		data.remove(node.key, node);
+		unlink(node);
+		counter.increment();
+	}
+
+	private void unlink(Node node) {
+		if (!node.linked) {
+			return;
+		}
+		node.linked = false;
+		if (node.queue == Node.WINDOW) {
+			window.unlink(node);
+			windowBytes -= node.weight;
+		} else if (node.queue == Node.PROBATION) {
+			probation.unlink(node);
+		} else {
+			protectedQueue.unlink(node);
+			protectedBytes -= node.weight;
+		}
+		writeOrder.unlink(node);
+		weightedBytes -= node.weight;
+	}
+}
@@ -0,0 +1,15 @@
+package com.atguigu.mybatis.cache;
+
+/**
+ * 计算一个缓存条目大约占多少字节，TinyLfuCache按字节总数而不是条目数限制大小
+ *
+ * 自定义实现需要有public无参构造器：
+ * 		<property name="weigher" value="com.xxx.MyWeigher"/>
+ */
+public interface Weigher {
+
+	/**
+	 * @return 估算的字节数，不能为负数
+	 */
+	int weigh(Object key, Object value);
+}
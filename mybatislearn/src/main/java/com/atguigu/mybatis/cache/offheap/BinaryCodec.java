@@ -0,0 +1,539 @@
+package com.atguigu.mybatis.cache.offheap;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.executor.loader.WriteReplaceInterface;
+
+/**
+ * 二级缓存值的二进制编码，代替SerializedCache用的java.io.Serializable：
+ * 		Employee、Department不需要实现Serializable，编码结果也比ObjectOutputStream小得多（没有类描述信息）
+ *
+ * 1、每个值以一个字节的标记开头，整数用zigzag变长编码，字符串用UTF-8
+ * 2、普通JavaBean按类登记一个编号，字段按名字排序后依次写值；解码时用无参构造器创建再给字段赋值
+ * 3、List/Set/Map解码成ArrayList/LinkedHashSet/LinkedHashMap（MyBatis的结果列表本来就是ArrayList）
+ * 4、同一个对象第二次出现时只写引用编号，dept.emps里的emp.dept这种循环引用解码后还是同一个对象
+ *
+ * 编不了的值（延迟加载的代理对象、不认识的JDK类型、数组等）抛出UnsupportedValueException，由调用方决定怎么处理
+ */
+public class BinaryCodec {
+
+	static final int NULL = 0;
+	static final int TRUE = 1;
+	static final int FALSE = 2;
+	static final int INT = 3;
+	static final int LONG = 4;
+	static final int SHORT = 5;
+	static final int BYTE = 6;
+	static final int CHAR = 7;
+	static final int FLOAT = 8;
+	static final int DOUBLE = 9;
+	static final int STRING = 10;
+	static final int BIG_DECIMAL = 11;
+	static final int BIG_INTEGER = 12;
+	static final int DATE = 13;
+	static final int SQL_DATE = 14;
+	static final int SQL_TIME = 15;
+	static final int TIMESTAMP = 16;
+	static final int BYTES = 17;
+	static final int ENUM = 18;
+	static final int LIST = 19;
+	static final int SET = 20;
+	static final int MAP = 21;
+	static final int BEAN = 22;
+	static final int REF = 23;
+
+	/** 集合嵌套太深多半是没有被识别出来的循环，直接放弃 */
+	private static final int MAX_DEPTH = 64;
+
+	private static final ClassLayout UNSUPPORTED = new ClassLayout(-1, null, null, null);
+
+	private final ConcurrentMap<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<Class<?>, ClassLayout>();
+	private final List<ClassLayout> layoutsById = new CopyOnWriteArrayList<ClassLayout>();
+
+	public byte[] encode(Object value) {
+		ByteOutput out = new ByteOutput(128);
+		write(out, value, new IdentityHashMap<Object, Integer>(), 0);
+		return out.toByteArray();
+	}
+
+	public Object decode(byte[] bytes) {
+		return read(new ByteInput(bytes), new ArrayList<Object>(), 0);
+	}
+
+	private void write(ByteOutput out, Object value, IdentityHashMap<Object, Integer> refs, int depth) {
+		if (depth > MAX_DEPTH) {
+			throw new UnsupportedValueException("Object graph deeper than " + MAX_DEPTH);
+		}
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			out.writeString((String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(INT);
+			out.writeZigZag((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeZigZag((Long) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeZigZag((Short) value);
+		} else if (value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		} else if (value instanceof Character) {
+			out.writeByte(CHAR);
+			out.writeVarInt((Character) value);
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeInt(Float.floatToIntBits((Float) value));
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeLong(Double.doubleToLongBits((Double) value));
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			byte[] unscaled = decimal.unscaledValue().toByteArray();
+			out.writeByte(BIG_DECIMAL);
+			out.writeZigZag(decimal.scale());
+			out.writeVarInt(unscaled.length);
+			out.writeBytes(unscaled);
+		} else if (value instanceof BigInteger) {
+			byte[] bytes = ((BigInteger) value).toByteArray();
+			out.writeByte(BIG_INTEGER);
+			out.writeVarInt(bytes.length);
+			out.writeBytes(bytes);
+		} else if (value instanceof java.util.Date) {
+			writeDate(out, (java.util.Date) value);
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			out.writeByte(BYTES);
+			out.writeVarInt(bytes.length);
+			out.writeBytes(bytes);
+		} else if (value instanceof Enum) {
+			Enum<?> constant = (Enum<?>) value;
+			out.writeByte(ENUM);
+			out.writeVarInt(layout(constant.getDeclaringClass()).id);
+			out.writeVarInt(constant.ordinal());
+		} else {
+			writeObject(out, value, refs, depth);
+		}
+	}
+
+	private void writeDate(ByteOutput out, java.util.Date date) {
+		Class<?> type = date.getClass();
+		if (type == java.sql.Timestamp.class) {
+			java.sql.Timestamp timestamp = (java.sql.Timestamp) date;
+			out.writeByte(TIMESTAMP);
+			out.writeZigZag(timestamp.getTime());
+			out.writeVarInt(timestamp.getNanos());
+		} else if (type == java.sql.Date.class) {
+			out.writeByte(SQL_DATE);
+			out.writeZigZag(date.getTime());
+		} else if (type == java.sql.Time.class) {
+			out.writeByte(SQL_TIME);
+			out.writeZigZag(date.getTime());
+		} else if (type == java.util.Date.class) {
+			out.writeByte(DATE);
+			out.writeZigZag(date.getTime());
+		} else {
+			throw new UnsupportedValueException("Unsupported date type " + type.getName());
+		}
+	}
+
+	/**
+	 * 集合和JavaBean：先登记引用编号再写内容，解码时按同样的顺序登记
+	 */
+	private void writeObject(ByteOutput out, Object value, IdentityHashMap<Object, Integer> refs, int depth) {
+		Integer ref = refs.get(value);
+		if (ref != null) {
+			out.writeByte(REF);
+			out.writeVarInt(ref);
+			return;
+		}
+		if (value instanceof List || value instanceof Set) {
+			Collection<?> collection = (Collection<?>) value;
+			refs.put(value, refs.size());
+			out.writeByte(value instanceof List ? LIST : SET);
+			out.writeVarInt(collection.size());
+			for (Object element : collection) {
+				write(out, element, refs, depth + 1);
+			}
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			refs.put(value, refs.size());
+			out.writeByte(MAP);
+			out.writeVarInt(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				write(out, entry.getKey(), refs, depth + 1);
+				write(out, entry.getValue(), refs, depth + 1);
+			}
+		} else {
+			ClassLayout layout = layout(value.getClass());
+			if (layout == UNSUPPORTED) {
+				throw new UnsupportedValueException("Cannot encode " + value.getClass().getName());
+			}
+			refs.put(value, refs.size());
+			out.writeByte(BEAN);
+			out.writeVarInt(layout.id);
+			try {
+				for (Field field : layout.fields) {
+					write(out, field.get(value), refs, depth + 1);
+				}
+			} catch (IllegalAccessException e) {
+				throw new CacheException("Could not read fields of " + layout.type.getName(), e);
+			}
+		}
+	}
+
+	private Object read(ByteInput in, List<Object> refs, int depth) {
+		if (depth > MAX_DEPTH) {
+			throw new CacheException("Object graph deeper than " + MAX_DEPTH);
+		}
+		int tag = in.readByte();
+		switch (tag) {
+		case NULL:
+			return null;
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case INT:
+			return (int) in.readZigZag();
+		case LONG:
+			return in.readZigZag();
+		case SHORT:
+			return (short) in.readZigZag();
+		case BYTE:
+			return (byte) in.readByte();
+		case CHAR:
+			return (char) in.readVarInt();
+		case FLOAT:
+			return Float.intBitsToFloat(in.readInt());
+		case DOUBLE:
+			return Double.longBitsToDouble(in.readLong());
+		case STRING:
+			return in.readString();
+		case BIG_DECIMAL: {
+			int scale = (int) in.readZigZag();
+			return new BigDecimal(new BigInteger(in.readBytes(in.readVarInt())), scale);
+		}
+		case BIG_INTEGER:
+			return new BigInteger(in.readBytes(in.readVarInt()));
+		case DATE:
+			return new java.util.Date(in.readZigZag());
+		case SQL_DATE:
+			return new java.sql.Date(in.readZigZag());
+		case SQL_TIME:
+			return new java.sql.Time(in.readZigZag());
+		case TIMESTAMP: {
+			java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readZigZag());
+			timestamp.setNanos(in.readVarInt());
+			return timestamp;
+		}
+		case BYTES:
+			return in.readBytes(in.readVarInt());
+		case ENUM: {
+			ClassLayout layout = compatible(layoutById(in.readVarInt()));
+			int ordinal = in.readVarInt();
+			Object constant = ordinal < layout.constants.length ? layout.constants[ordinal] : null;
+			if (constant == null) {
+				throw new CacheException("Enum constant #" + ordinal + " of " + layout.name + " no longer exists");
+			}
+			return constant;
+		}
+		case LIST: {
+			int size = in.readVarInt();
+			List<Object> list = new ArrayList<Object>(size);
+			refs.add(list);
+			for (int i = 0; i < size; i++) {
+				list.add(read(in, refs, depth + 1));
+			}
+			return list;
+		}
+		case SET: {
+			int size = in.readVarInt();
+			Set<Object> set = new LinkedHashSet<Object>(Math.max(16, size * 4 / 3 + 1));
+			refs.add(set);
+			for (int i = 0; i < size; i++) {
+				set.add(read(in, refs, depth + 1));
+			}
+			return set;
+		}
+		case MAP: {
+			int size = in.readVarInt();
+			Map<Object, Object> map = new LinkedHashMap<Object, Object>(Math.max(16, size * 4 / 3 + 1));
+			refs.add(map);
+			for (int i = 0; i < size; i++) {
+				Object key = read(in, refs, depth + 1);
+				map.put(key, read(in, refs, depth + 1));
+			}
+			return map;
+		}
+		case BEAN:
+			return readBean(in, compatible(layoutById(in.readVarInt())), refs, depth);
+		case REF:
+			return refs.get(in.readVarInt());
+		default:
+			throw new CacheException("Unknown tag " + tag + " in cache entry");
+		}
+	}
+
+	private Object readBean(ByteInput in, ClassLayout layout, List<Object> refs, int depth) {
+		try {
+			Object bean = layout.constructor.newInstance();
+			refs.add(bean);
+			for (Field field : layout.fields) {
+				Object value = read(in, refs, depth + 1);
+				// 基本类型的字段不能赋null，保留默认值
+				if (value != null || !field.getType().isPrimitive()) {
+					field.set(bean, value);
+				}
+			}
+			return bean;
+		} catch (ReflectiveOperationException e) {
+			throw new CacheException("Could not decode " + layout.type.getName(), e);
+		}
+	}
+
+	private ClassLayout layoutById(int id) {
+		if (id < 0 || id >= layoutsById.size()) {
+			throw new CacheException("Unknown class id " + id + " in cache entry");
+		}
+		return layoutsById.get(id);
+	}
+
+	private static ClassLayout compatible(ClassLayout layout) {
+		if (layout.type == null) {
+			throw new CacheException("Class " + layout.name + " is missing or changed since the entry was encoded");
+		}
+		return layout;
+	}
+
+	/**
+	 * 类编号表：编号只对这个codec有效，保存编码结果（快照文件）时要把它一起保存
+	 */
+	public byte[] encodeLayouts() {
+		ByteOutput out = new ByteOutput(256);
+		List<ClassLayout> snapshot = new ArrayList<ClassLayout>(layoutsById);
+		out.writeVarInt(snapshot.size());
+		for (ClassLayout layout : snapshot) {
+			out.writeString(layout.name);
+			String[] members = layout.members();
+			out.writeVarInt(members.length);
+			for (String member : members) {
+				out.writeString(member);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * 按类名和字段名（枚举按常量名）重新对应到当前的类：
+	 * 		类不存在或者字段变了的编号标记为不兼容，用到它的值解码时抛出CacheException，其他值不受影响
+	 */
+	public static BinaryCodec decodeLayouts(byte[] bytes) {
+		BinaryCodec codec = new BinaryCodec();
+		ByteInput in = new ByteInput(bytes);
+		int count = in.readVarInt();
+		for (int id = 0; id < count; id++) {
+			String name = in.readString();
+			String[] members = new String[in.readVarInt()];
+			for (int i = 0; i < members.length; i++) {
+				members[i] = in.readString();
+			}
+			ClassLayout layout = codec.resolve(id, name, members);
+			codec.layoutsById.add(layout);
+			if (layout.type != null) {
+				codec.layouts.put(layout.type, layout);
+			}
+		}
+		return codec;
+	}
+
+	private ClassLayout resolve(int id, String name, String[] members) {
+		ClassLayout incompatible = new ClassLayout(id, name);
+		Class<?> type;
+		try {
+			type = Class.forName(name, false, BinaryCodec.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return incompatible;
+		}
+		if (type.isEnum()) {
+			ClassLayout layout = new ClassLayout(id, type, null, null);
+			layout.constants = new Object[members.length];
+			for (Object constant : type.getEnumConstants()) {
+				int ordinal = Arrays.asList(members).indexOf(((Enum<?>) constant).name());
+				if (ordinal >= 0) {
+					layout.constants[ordinal] = constant;
+				}
+			}
+			return layout;
+		}
+		ClassLayout current = isEncodableBean(type) ? newBeanLayout(id, type) : null;
+		if (current == null || !Arrays.equals(current.members(), members)) {
+			return incompatible;
+		}
+		return current;
+	}
+
+	ClassLayout layout(Class<?> type) {
+		ClassLayout layout = layouts.get(type);
+		return layout != null ? layout : register(type);
+	}
+
+	/**
+	 * 第一次遇到某个类时登记编号；编号只在这个codec实例里有效
+	 */
+	private synchronized ClassLayout register(Class<?> type) {
+		ClassLayout layout = layouts.get(type);
+		if (layout != null) {
+			return layout;
+		}
+		if (type.isEnum()) {
+			layout = new ClassLayout(layoutsById.size(), type, null, null);
+			layout.constants = type.getEnumConstants();
+		} else {
+			layout = isEncodableBean(type) ? newBeanLayout(layoutsById.size(), type) : null;
+			if (layout == null) {
+				layouts.put(type, UNSUPPORTED);
+				return UNSUPPORTED;
+			}
+		}
+		layoutsById.add(layout);
+		layouts.put(type, layout);
+		return layout;
+	}
+
+	/**
+	 * @return 没有无参构造器时返回null
+	 */
+	private static ClassLayout newBeanLayout(int id, Class<?> type) {
+		try {
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return new ClassLayout(id, type, constructor, fieldsOf(type));
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 只处理有无参构造器的普通类；延迟加载代理（实现了WriteReplaceInterface）和JDK里的类不处理
+	 */
+	private static boolean isEncodableBean(Class<?> type) {
+		if (type.isArray() || type.isInterface() || type.isPrimitive() || type.isAnonymousClass()
+				|| Modifier.isAbstract(type.getModifiers())) {
+			return false;
+		}
+		if (WriteReplaceInterface.class.isAssignableFrom(type)) {
+			return false;
+		}
+		String name = type.getName();
+		return !name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("sun.")
+				&& !name.startsWith("org.apache.ibatis.");
+	}
+
+	/**
+	 * 包括父类的非static、非transient字段，按“类名.字段名”排序，保证布局稳定
+	 */
+	private static Field[] fieldsOf(Class<?> type) {
+		List<Field> fields = new ArrayList<Field>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+					continue;
+				}
+				field.setAccessible(true);
+				fields.add(field);
+			}
+		}
+		Field[] sorted = fields.toArray(new Field[fields.size()]);
+		Arrays.sort(sorted, new Comparator<Field>() {
+			@Override
+			public int compare(Field a, Field b) {
+				int c = a.getDeclaringClass().getName().compareTo(b.getDeclaringClass().getName());
+				return c != 0 ? c : a.getName().compareTo(b.getName());
+			}
+		});
+		return sorted;
+	}
+
+	static final class ClassLayout {
+
+		final int id;
+		final String name;
+		/** 从快照读出来、和当前的类对不上时为null */
+		final Class<?> type;
+		final Constructor<?> constructor;
+		final Field[] fields;
+		Object[] constants;
+
+		ClassLayout(int id, Class<?> type, Constructor<?> constructor, Field[] fields) {
+			this.id = id;
+			this.name = type != null ? type.getName() : null;
+			this.type = type;
+			this.constructor = constructor;
+			this.fields = fields;
+		}
+
+		ClassLayout(int id, String name) {
+			this.id = id;
+			this.name = name;
+			this.type = null;
+			this.constructor = null;
+			this.fields = null;
+		}
+
+		/** 字段是“类名.字段名”，枚举是常量名 */
+		String[] members() {
+			if (constants != null) {
+				String[] names = new String[constants.length];
+				for (int i = 0; i < constants.length; i++) {
+					names[i] = constants[i] != null ? ((Enum<?>) constants[i]).name() : "";
+				}
+				return names;
+			}
+			if (fields == null) {
+				return new String[0];
+			}
+			String[] names = new String[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				names[i] = fields[i].getDeclaringClass().getName() + "." + fields[i].getName();
+			}
+			return names;
+		}
+	}
+
+	/**
+	 * 值里有编不了的对象
+	 */
+	public static class UnsupportedValueException extends CacheException {
+
+		private static final long serialVersionUID = 1L;
+
+		public UnsupportedValueException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.atguigu.mybatis.cache.offheap;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * 和ByteOutput对应的读取
+ */
+final class ByteInput {
+
+	private final byte[] buffer;
+	private int position;
+
+	ByteInput(byte[] buffer) {
+		this.buffer = buffer;
+	}
+
+	int readByte() {
+		check(1);
+		return buffer[position++];
+	}
+
+	byte[] readBytes(int length) {
+		check(length);
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer, position, bytes, 0, length);
+		position += length;
+		return bytes;
+	}
+
+	String readString() {
+		return new String(readBytes(readVarInt()), StandardCharsets.UTF_8);
+	}
+
+	long readVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new CacheException("Malformed variable-length integer at " + position);
+	}
+
+	int readVarInt() {
+		return (int) readVarLong();
+	}
+
+	long readZigZag() {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	long readLong() {
+		check(8);
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		return value;
+	}
+
+	int readInt() {
+		check(4);
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		return value;
+	}
+
+	private void check(int length) {
+		if (position + length > buffer.length) {
+			throw new CacheException("Truncated cache entry: need " + length + " bytes at " + position
+					+ " of " + buffer.length);
+		}
+	}
+}
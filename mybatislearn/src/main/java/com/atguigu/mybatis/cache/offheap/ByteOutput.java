@@ -0,0 +1,77 @@
+package com.atguigu.mybatis.cache.offheap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * BinaryCodec编码时用的可增长字节数组；整数用变长编码（小的数占1个字节）
+ */
+final class ByteOutput {
+
+	private byte[] buffer;
+	private int size;
+
+	ByteOutput(int initialCapacity) {
+		buffer = new byte[initialCapacity];
+	}
+
+	void writeByte(int b) {
+		ensure(1);
+		buffer[size++] = (byte) b;
+	}
+
+	void writeBytes(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, size, bytes.length);
+		size += bytes.length;
+	}
+
+	void writeString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length);
+		writeBytes(bytes);
+	}
+
+	/** 无符号变长整数，每个字节7位 */
+	void writeVarLong(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[size++] = (byte) value;
+	}
+
+	void writeVarInt(int value) {
+		writeVarLong(value & 0xFFFFFFFFL);
+	}
+
+	/** 有符号数先做zigzag，-1这样的小负数也只占1个字节 */
+	void writeZigZag(long value) {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	void writeLong(long value) {
+		ensure(8);
+		for (int i = 56; i >= 0; i -= 8) {
+			buffer[size++] = (byte) (value >>> i);
+		}
+	}
+
+	void writeInt(int value) {
+		ensure(4);
+		for (int i = 24; i >= 0; i -= 8) {
+			buffer[size++] = (byte) (value >>> i);
+		}
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	private void ensure(int extra) {
+		if (size + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+		}
+	}
+}
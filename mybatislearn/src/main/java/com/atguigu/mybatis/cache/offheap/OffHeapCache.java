@@ -0,0 +1,299 @@
+package com.atguigu.mybatis.cache.offheap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.CacheException;
+
+import com.atguigu.mybatis.cache.CacheStats;
+import com.atguigu.mybatis.cache.SnapshotCache;
+import com.atguigu.mybatis.cache.TinyLfuCache;
+
+/**
+ * 二级缓存：值用BinaryCodec编码后放在堆外的直接内存里，前面加一层堆上的TinyLfuCache存放热点对象
+ * 		几百万个条目在堆上只占索引的两个long数组，不会增加GC的负担
+ *
+ * 1、读：先查前端缓存；没有再查堆外，命中后解码并放进前端缓存
+ * 		放进去之后检查写入计数，读堆外期间有过写入/删除/清空时再删掉，免得把旧对象留在前端缓存里
+ * 2、写：编码后写到堆外，写入计数加一，再从前端缓存删掉旧对象
+ * 3、编不了的值（延迟加载的代理对象等）只放在前端缓存里，计入rejected
+ * 4、淘汰：堆外按slab先进先出（见OffHeapStore），前端缓存自己按W-TinyLFU淘汰
+ *
+ * readOnly=false时不使用前端缓存，每次读都解码出一个新对象，
+ * 		代替原来<cache readOnly="false">用SerializedCache（Java序列化）做的拷贝，Employee也不用再实现Serializable
+ *
+ * 配置（不通过MyBatis直接new的时候，设置完属性要调用initialize()，之前不能使用）：
+ * 	<cache type="com.atguigu.mybatis.cache.offheap.OffHeapCache">
+ * 		<property name="maxBytes" value="268435456"/>
+ * 		<property name="slabBytes" value="16777216"/>
+ * 		<property name="frontMaxBytes" value="16777216"/>
+ * 		<property name="timeToLiveSeconds" value="120"/>
+ * 	</cache>
+ * 直接内存的上限由-XX:MaxDirectMemorySize控制，所有namespace的maxBytes加起来不能超过它
+ * 统计：OffHeapCache.getCache(namespace).getStats()
+ */
+public class OffHeapCache implements SnapshotCache, InitializingObject {
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	public static final int DEFAULT_SLAB_BYTES = 16 * 1024 * 1024;
+	public static final long DEFAULT_FRONT_MAX_BYTES = 16L * 1024 * 1024;
+
+	private static final ConcurrentMap<String, OffHeapCache> CACHES = new ConcurrentHashMap<String, OffHeapCache>();
+
+	private final String id;
+	private final BinaryCodec codec = new BinaryCodec();
+	private OffHeapStore store;
+	private TinyLfuCache front;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	/** 写入、删除、清空的次数，读堆外之后往前端缓存放对象时用来发现并发的修改 */
+	private final AtomicLong writes = new AtomicLong();
+
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private int slabBytes = DEFAULT_SLAB_BYTES;
+	private long frontMaxBytes = DEFAULT_FRONT_MAX_BYTES;
+	private long timeToLiveMillis;
+	private boolean readOnly = true;
+
+	public OffHeapCache(String id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Cache instances require an ID");
+		}
+		this.id = id;
+	}
+
+	/**
+	 * MyBatis设置完<property>之后调用（CacheBuilder），堆外索引和前端缓存只在这里创建；
+	 * 		slab在第一次写入时才分配，这里只建索引
+	 */
+	@Override
+	public void initialize() {
+		if (slabBytes > maxBytes) {
+			slabBytes = (int) maxBytes;
+		}
+		store = new OffHeapStore(slabBytes, (int) Math.max(2, maxBytes / slabBytes), timeToLiveMillis);
+		front = null;
+		if (readOnly && frontMaxBytes > 0) {
+			front = new TinyLfuCache(id + ".front");
+			front.setMaxBytes(frontMaxBytes);
+			if (timeToLiveMillis > 0) {
+				front.setTimeToLiveSeconds(TimeUnit.MILLISECONDS.toSeconds(timeToLiveMillis));
+			}
+			front.initialize();
+		}
+		CACHES.put(id, this);
+	}
+
+	public static OffHeapCache getCache(String id) {
+		return CACHES.get(id);
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public Object getObject(Object key) {
+		if (front != null) {
+			Object value = front.getObject(key);
+			if (value != null) {
+				hits.increment();
+				return value;
+			}
+		}
+		long version = writes.get();
+		byte[] keyBytes = keyBytes(key);
+		byte[] bytes = store.get(hash(keyBytes), keyBytes, System.currentTimeMillis());
+		if (bytes == null) {
+			misses.increment();
+			return null;
+		}
+		Object value = codec.decode(bytes);
+		hits.increment();
+		if (front != null) {
+			front.putObject(key, value);
+			// 写入方先改堆外、计数加一，再删前端缓存：它的删除可能在上面的put之前，这里就看得到计数变了
+			if (writes.get() != version) {
+				front.removeObject(key);
+			}
+		}
+		return value;
+	}
+
+	@Override
+	public void putObject(Object key, Object value) {
+		if (value == null) {
+			// TransactionalCache会把查不到结果的key写成null，和TinyLfuCache一样按删除处理
+			removeObject(key);
+			return;
+		}
+		put(key, value, System.currentTimeMillis());
+	}
+
+	/**
+	 * 堆外的key是CacheKey.toString()，遍历时给出的key就是这个字符串，恢复时toString()不变
+	 */
+	@Override
+	public void forEachEntry(final EntryVisitor visitor) {
+		store.forEach(new OffHeapStore.RecordVisitor() {
+			@Override
+			public void visit(byte[] key, byte[] value, long writeTime) {
+				visitor.visit(new String(key, StandardCharsets.UTF_8), codec.decode(value), writeTime);
+			}
+		}, System.currentTimeMillis());
+	}
+
+	@Override
+	public void restoreEntry(Object key, Object value, long writeTime) {
+		if (timeToLiveMillis > 0 && System.currentTimeMillis() - writeTime >= timeToLiveMillis) {
+			return;
+		}
+		put(key, value, writeTime);
+	}
+
+	private void put(Object key, Object value, long writeTime) {
+		byte[] keyBytes = keyBytes(key);
+		long hash = hash(keyBytes);
+		boolean stored;
+		try {
+			stored = store.put(hash, keyBytes, codec.encode(value), writeTime);
+		} catch (BinaryCodec.UnsupportedValueException e) {
+			stored = false;
+		}
+		if (stored) {
+			writes.incrementAndGet();
+			if (front != null) {
+				front.removeObject(key);
+			}
+			return;
+		}
+		// 堆外放不下，旧值也不能留着
+		rejected.increment();
+		store.remove(hash);
+		writes.incrementAndGet();
+		if (front != null) {
+			front.putObject(key, value);
+		}
+	}
+
+	@Override
+	public Object removeObject(Object key) {
+		store.remove(hash(keyBytes(key)));
+		writes.incrementAndGet();
+		if (front != null) {
+			front.removeObject(key);
+		}
+		return null;
+	}
+
+	@Override
+	public void clear() {
+		store.clear();
+		writes.incrementAndGet();
+		if (front != null) {
+			front.clear();
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return store.size();
+	}
+
+	/**
+	 * 和TinyLfuCache一样自己处理并发
+	 */
+	@Override
+	public ReadWriteLock getReadWriteLock() {
+		return null;
+	}
+
+	/**
+	 * entries和weightedBytes是堆外部分；weightedBytes包括还没被回收的旧记录
+	 */
+	public CacheStats getStats() {
+		return new CacheStats(id, hits.sum(), misses.sum(), store.evictions(), 0, store.size(), store.usedBytes(),
+				maxBytes);
+	}
+
+	/** 前端缓存的统计，readOnly=false或frontMaxBytes=0时为null */
+	public CacheStats getFrontStats() {
+		return front != null ? front.getStats() : null;
+	}
+
+	/** 编不了或者比一个slab还大、没能放进堆外的次数 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	public void resetStats() {
+		hits.reset();
+		misses.reset();
+		rejected.reset();
+		store.resetStats();
+		if (front != null) {
+			front.resetStats();
+		}
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new CacheException("maxBytes must be positive for cache " + id);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	public void setSlabBytes(int slabBytes) {
+		if (slabBytes < 1024) {
+			throw new CacheException("slabBytes must be at least 1024 for cache " + id);
+		}
+		this.slabBytes = slabBytes;
+	}
+
+	/** 0表示不要前端缓存 */
+	public void setFrontMaxBytes(long frontMaxBytes) {
+		this.frontMaxBytes = frontMaxBytes;
+	}
+
+	public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+		this.timeToLiveMillis = TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+	}
+
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * 和mybatis-redis一样用CacheKey.toString()做key：里面有statement id、分页参数、sql和参数值
+	 */
+	private static byte[] keyBytes(Object key) {
+		return key.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** FNV-1a再打散一次；0表示索引里的空位，换成1 */
+	static long hash(byte[] bytes) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : bytes) {
+			h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb33fe66b1cf5L;
+		h ^= h >>> 33;
+		return h != 0 ? h : 1;
+	}
+}
@@ -0,0 +1,377 @@
+package com.atguigu.mybatis.cache.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 堆外存储：按顺序追加写入的直接内存块（slab）+ 只用long数组的索引
+ *
+ * 1、记录格式：[int 记录长度][long key哈希][long 写入时间][int key长度][key字节][值字节]
+ * 2、写入：在allocationLock里追加到当前slab末尾，再更新索引；旧记录不回收，变成垃圾
+ * 3、当前slab写满后换下一个（循环使用）；复用一个旧slab时逐条扫描它的记录，
+ * 		索引里还指向这条记录的才删除（计入淘汰数），所以最旧的数据先被淘汰，和FIFO一样
+ * 4、索引分成SEGMENTS段，每段一把锁，开放寻址的long[]存哈希和位置；堆上没有每个条目一个的对象
+ * 5、读：在段锁里查索引、比对key字节、把值拷贝成byte[]，解码在锁外做
+ *
+ * 锁的顺序：allocationLock -> 段锁；读只拿段锁
+ */
+final class OffHeapStore {
+
+	static final int HEADER = 4 + 8 + 8 + 4;
+	static final int SEGMENTS = 64;
+
+	private final int slabBytes;
+	/** 0表示不过期 */
+	private final long timeToLiveMillis;
+	private final ByteBuffer[] slabs;
+	/** 每个slab已经写到的位置，复用时只扫描这一段 */
+	private final int[] used;
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final LongAdder evictions = new LongAdder();
+
+	// 以下只在持有allocationLock时修改
+	private final Object allocationLock = new Object();
+	private int current = -1;
+	private int writeOffset;
+	/** 所有slab里已经写过的字节数（包括被覆盖的旧记录），读线程只用来做统计 */
+	private volatile long usedBytes;
+
+	OffHeapStore(int slabBytes, int slabCount, long timeToLiveMillis) {
+		this.slabBytes = slabBytes;
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.slabs = new ByteBuffer[slabCount];
+		this.used = new int[slabCount];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * @return 记录比一个slab还大时返回false，调用方按放不下处理
+	 */
+	boolean put(long hash, byte[] key, byte[] value, long writeTime) {
+		int length = HEADER + key.length + value.length;
+		if (length > slabBytes) {
+			return false;
+		}
+		synchronized (allocationLock) {
+			if (current < 0 || writeOffset + length > slabBytes) {
+				advance();
+			}
+			int offset = writeOffset;
+			ByteBuffer slab = slabs[current];
+			slab.position(offset);
+			slab.putInt(length).putLong(hash).putLong(writeTime).putInt(key.length).put(key).put(value);
+			writeOffset += length;
+			used[current] = writeOffset;
+			usedBytes += length;
+			Segment segment = segment(hash);
+			synchronized (segment) {
+				segment.put(hash, location(current, offset));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return 值的字节；没有、key不一致（哈希冲突）或者已经过期时返回null
+	 */
+	byte[] get(long hash, byte[] key, long now) {
+		Segment segment = segment(hash);
+		synchronized (segment) {
+			long location = segment.get(hash);
+			if (location == 0) {
+				return null;
+			}
+			ByteBuffer slab = slabs[slabOf(location)];
+			int offset = offsetOf(location);
+			int length = slab.getInt(offset);
+			if (isExpired(slab.getLong(offset + 12), now)) {
+				segment.remove(hash);
+				return null;
+			}
+			int keyLength = slab.getInt(offset + 20);
+			if (keyLength != key.length) {
+				return null;
+			}
+			int keyOffset = offset + HEADER;
+			for (int i = 0; i < keyLength; i++) {
+				if (slab.get(keyOffset + i) != key[i]) {
+					return null;
+				}
+			}
+			byte[] value = new byte[length - HEADER - keyLength];
+			ByteBuffer view = slab.duplicate();
+			view.position(keyOffset + keyLength);
+			view.get(value);
+			return value;
+		}
+	}
+
+	/**
+	 * 遍历没有过期的记录；每段先在锁里拷出索引，再逐条在锁里读记录，不会长时间挡住读写
+	 */
+	void forEach(RecordVisitor visitor, long now) {
+		for (Segment segment : segments) {
+			long[] hashes;
+			synchronized (segment) {
+				hashes = segment.hashes.clone();
+			}
+			for (long hash : hashes) {
+				if (hash == 0) {
+					continue;
+				}
+				byte[] key;
+				byte[] value;
+				long writeTime;
+				synchronized (segment) {
+					long location = segment.get(hash);
+					if (location == 0) {
+						continue;
+					}
+					ByteBuffer slab = slabs[slabOf(location)];
+					int offset = offsetOf(location);
+					writeTime = slab.getLong(offset + 12);
+					if (isExpired(writeTime, now)) {
+						continue;
+					}
+					int length = slab.getInt(offset);
+					ByteBuffer view = slab.duplicate();
+					view.position(offset + HEADER);
+					key = new byte[slab.getInt(offset + 20)];
+					view.get(key);
+					value = new byte[length - HEADER - key.length];
+					view.get(value);
+				}
+				visitor.visit(key, value, writeTime);
+			}
+		}
+	}
+
+	void remove(long hash) {
+		Segment segment = segment(hash);
+		synchronized (segment) {
+			segment.remove(hash);
+		}
+	}
+
+	/**
+	 * 清空索引，slab留着下次直接复用，不还给操作系统
+	 */
+	void clear() {
+		synchronized (allocationLock) {
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					segment.clear();
+				}
+			}
+			for (int i = 0; i < used.length; i++) {
+				used[i] = 0;
+			}
+			current = -1;
+			writeOffset = 0;
+			usedBytes = 0;
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	long usedBytes() {
+		return usedBytes;
+	}
+
+	long evictions() {
+		return evictions.sum();
+	}
+
+	void resetStats() {
+		evictions.reset();
+	}
+
+	/**
+	 * 换到下一个slab：第一次用到时才分配直接内存，否则淘汰它里面还有效的记录
+	 */
+	private void advance() {
+		current = (current + 1) % slabs.length;
+		if (slabs[current] == null) {
+			slabs[current] = ByteBuffer.allocateDirect(slabBytes);
+		} else {
+			recycle(current);
+		}
+		writeOffset = 0;
+	}
+
+	private void recycle(int index) {
+		ByteBuffer slab = slabs[index];
+		int offset = 0;
+		int end = used[index];
+		while (offset < end) {
+			int length = slab.getInt(offset);
+			long hash = slab.getLong(offset + 4);
+			Segment segment = segment(hash);
+			synchronized (segment) {
+				if (segment.removeIfLocation(hash, location(index, offset))) {
+					evictions.increment();
+				}
+			}
+			offset += length;
+		}
+		usedBytes -= end;
+		used[index] = 0;
+	}
+
+	private boolean isExpired(long writeTime, long now) {
+		return timeToLiveMillis > 0 && now - writeTime >= timeToLiveMillis;
+	}
+
+	private Segment segment(long hash) {
+		return segments[(int) (hash >>> 58)];
+	}
+
+	/** 位置：高32位是slab编号+1（保证不为0），低32位是偏移 */
+	static long location(int slab, int offset) {
+		return ((long) (slab + 1) << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	static int slabOf(long location) {
+		return (int) (location >>> 32) - 1;
+	}
+
+	static int offsetOf(long location) {
+		return (int) location;
+	}
+
+	interface RecordVisitor {
+
+		void visit(byte[] key, byte[] value, long writeTime);
+	}
+
+	/**
+	 * 一段索引：线性探测的开放寻址表，删除时把后面的条目往前挪，不留墓碑
+	 * 		哈希0表示空位，调用方保证哈希不为0
+	 */
+	static final class Segment {
+
+		private long[] hashes = new long[16];
+		private long[] locations = new long[16];
+		int size;
+
+		long get(long hash) {
+			int mask = hashes.length - 1;
+			for (int i = index(hash, mask);; i = (i + 1) & mask) {
+				long h = hashes[i];
+				if (h == hash) {
+					return locations[i];
+				}
+				if (h == 0) {
+					return 0;
+				}
+			}
+		}
+
+		void put(long hash, long location) {
+			int mask = hashes.length - 1;
+			for (int i = index(hash, mask);; i = (i + 1) & mask) {
+				long h = hashes[i];
+				if (h == hash) {
+					locations[i] = location;
+					return;
+				}
+				if (h == 0) {
+					hashes[i] = hash;
+					locations[i] = location;
+					if (++size > hashes.length * 3 / 4) {
+						resize();
+					}
+					return;
+				}
+			}
+		}
+
+		boolean remove(long hash) {
+			int mask = hashes.length - 1;
+			for (int i = index(hash, mask);; i = (i + 1) & mask) {
+				long h = hashes[i];
+				if (h == hash) {
+					delete(i);
+					return true;
+				}
+				if (h == 0) {
+					return false;
+				}
+			}
+		}
+
+		boolean removeIfLocation(long hash, long location) {
+			int mask = hashes.length - 1;
+			for (int i = index(hash, mask);; i = (i + 1) & mask) {
+				long h = hashes[i];
+				if (h == hash) {
+					if (locations[i] != location) {
+						return false;
+					}
+					delete(i);
+					return true;
+				}
+				if (h == 0) {
+					return false;
+				}
+			}
+		}
+
+		void clear() {
+			hashes = new long[16];
+			locations = new long[16];
+			size = 0;
+		}
+
+		private void delete(int hole) {
+			int mask = hashes.length - 1;
+			for (int i = (hole + 1) & mask; hashes[i] != 0; i = (i + 1) & mask) {
+				int ideal = index(hashes[i], mask);
+				// ideal不在(hole, i]之间时，这个条目可以挪到hole
+				boolean movable = hole <= i ? (ideal <= hole || ideal > i) : (ideal <= hole && ideal > i);
+				if (movable) {
+					hashes[hole] = hashes[i];
+					locations[hole] = locations[i];
+					hole = i;
+				}
+			}
+			hashes[hole] = 0;
+			locations[hole] = 0;
+			size--;
+		}
+
+		private void resize() {
+			long[] oldHashes = hashes;
+			long[] oldLocations = locations;
+			hashes = new long[oldHashes.length * 2];
+			locations = new long[oldHashes.length * 2];
+			int mask = hashes.length - 1;
+			for (int j = 0; j < oldHashes.length; j++) {
+				long hash = oldHashes[j];
+				if (hash != 0) {
+					int i = index(hash, mask);
+					while (hashes[i] != 0) {
+						i = (i + 1) & mask;
+					}
+					hashes[i] = hash;
+					locations[i] = oldLocations[j];
+				}
+			}
+		}
+
+		/** 段由哈希的高6位选出，这里用低位 */
+		private static int index(long hash, int mask) {
+			return (int) hash & mask;
+		}
+	}
+}
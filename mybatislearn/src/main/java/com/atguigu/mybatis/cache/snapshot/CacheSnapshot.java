@@ -0,0 +1,367 @@
+package com.atguigu.mybatis.cache.snapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import com.atguigu.mybatis.cache.SnapshotCache;
+import com.atguigu.mybatis.cache.TableInvalidationInterceptor;
+import com.atguigu.mybatis.cache.offheap.BinaryCodec;
+
+/**
+ * 二级缓存快照：关闭时把各个namespace缓存里的条目写到本地文件，启动时再放回去，避免重启后大量查询同时打到数据库
+ * 		代替原来ehcache.xml里的diskStore
+ *
+ * 文件格式（版本FORMAT_VERSION，通过内存映射读写）：
+ * 	文件头：[int MAGIC][int 版本][long 创建时间][long 尾部位置，0表示没写完][long 条目数]
+ * 	条目：[int 后面的长度][int namespace序号][long 写入时间][byte key类型][int key长度][key][值]
+ * 	尾部：namespace列表、BinaryCodec的类编号表、TableInvalidationInterceptor的版本号
+ * 	key和值都用BinaryCodec编码；CacheKey保存它的组成部分，加载时按顺序重新update出同样的CacheKey
+ *
+ * 加载时的检查：
+ * 	1、魔数、版本不对或者没写完（关闭时进程被杀）的文件整个不用
+ * 	2、快照的年龄超过maxSnapshotAgeSeconds（停机太久，数据库可能已经被改过）整个不用
+ * 	3、条目的年龄超过maxEntryAgeSeconds（可以按namespace配置）的丢掉；缓存自己的timeToLiveSeconds照样生效
+ * 	4、类变了（字段增减）、namespace不存在了的条目跳过
+ * 先写到.tmp文件再改名，写到一半不会破坏上一次的快照
+ */
+public class CacheSnapshot {
+
+	static final int MAGIC = 0x4D42434B;
+	static final int FORMAT_VERSION = 1;
+	static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8;
+
+	static final byte KEY_CACHE_KEY = 0;
+	static final byte KEY_OBJECT = 1;
+
+	public static final long DEFAULT_MAX_SNAPSHOT_AGE_SECONDS = 600;
+
+	private final File file;
+	private long maxSnapshotAgeMillis = TimeUnit.SECONDS.toMillis(DEFAULT_MAX_SNAPSHOT_AGE_SECONDS);
+	/** 0表示只按缓存自己的过期时间 */
+	private long maxEntryAgeMillis;
+	private final Map<String, Long> namespaceMaxEntryAgeMillis = new HashMap<String, Long>();
+
+	public CacheSnapshot(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * 把configuration中所有实现了SnapshotCache的二级缓存写到文件
+	 */
+	public SnapshotResult save(Configuration configuration) {
+		long start = System.currentTimeMillis();
+		Map<String, SnapshotCache> caches = caches(configuration);
+		List<String> namespaces = new ArrayList<String>(caches.keySet());
+		BinaryCodec codec = new BinaryCodec();
+		File tmp = new File(file.getPath() + ".tmp");
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new CacheException("Could not create directory " + parent);
+		}
+		EntryWriter writer;
+		long bytes;
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+			channel.truncate(0);
+			MappedOutput out = new MappedOutput(channel, HEADER_BYTES);
+			writer = new EntryWriter(out, codec);
+			for (int i = 0; i < namespaces.size(); i++) {
+				writer.namespace = i;
+				caches.get(namespaces.get(i)).forEachEntry(writer);
+			}
+			long trailerOffset = out.position();
+			byte[] trailer = trailer(namespaces, codec, interceptor(configuration));
+			out.reserve(trailer.length).put(trailer);
+			out.header().putInt(MAGIC).putInt(FORMAT_VERSION).putLong(start).putLong(trailerOffset)
+					.putLong(writer.entries);
+			bytes = out.position();
+			out.finish();
+		} catch (IOException e) {
+			throw new CacheException("Could not write cache snapshot " + tmp, e);
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new CacheException("Could not replace cache snapshot " + file, e);
+		}
+		return new SnapshotResult(file.getPath(), writer.entries, 0, writer.skipped, bytes,
+				System.currentTimeMillis() - start, null);
+	}
+
+	/**
+	 * 把快照中还有效的条目放回configuration中同名的缓存；要在执行任何查询之前调用
+	 */
+	public SnapshotResult load(Configuration configuration) {
+		long start = System.currentTimeMillis();
+		if (!file.isFile()) {
+			return rejected("no snapshot");
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			long size = channel.size();
+			if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+				return rejected("unexpected size " + size);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt() != MAGIC) {
+				return rejected("not a cache snapshot");
+			}
+			int version = buffer.getInt();
+			if (version != FORMAT_VERSION) {
+				return rejected("format version " + version + ", expected " + FORMAT_VERSION);
+			}
+			long createdAt = buffer.getLong();
+			long trailerOffset = buffer.getLong();
+			if (trailerOffset < HEADER_BYTES || trailerOffset > size) {
+				return rejected("incomplete snapshot");
+			}
+			long age = start - createdAt;
+			if (maxSnapshotAgeMillis > 0 && age > maxSnapshotAgeMillis) {
+				return rejected("snapshot is " + TimeUnit.MILLISECONDS.toSeconds(age) + "s old");
+			}
+
+			byte[] trailer = new byte[(int) (size - trailerOffset)];
+			buffer.position((int) trailerOffset);
+			buffer.get(trailer);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(trailer));
+			String[] namespaces = new String[in.readInt()];
+			for (int i = 0; i < namespaces.length; i++) {
+				namespaces[i] = in.readUTF();
+			}
+			BinaryCodec codec = BinaryCodec.decodeLayouts(readBlock(in));
+			byte[] versions = readBlock(in);
+			TableInvalidationInterceptor interceptor = interceptor(configuration);
+			if (versions.length > 0 && interceptor != null) {
+				// 先恢复版本号，快照里的CacheKey才能和之后的查询对上
+				interceptor.readVersions(new DataInputStream(new ByteArrayInputStream(versions)));
+			}
+
+			Map<String, SnapshotCache> caches = caches(configuration);
+			SnapshotCache[] targets = new SnapshotCache[namespaces.length];
+			long[] maxAges = new long[namespaces.length];
+			for (int i = 0; i < namespaces.length; i++) {
+				targets[i] = caches.get(namespaces[i]);
+				maxAges[i] = maxEntryAgeMillis(namespaces[i]);
+			}
+			int entries = 0;
+			int stale = 0;
+			int skipped = 0;
+			buffer.position(HEADER_BYTES);
+			while (buffer.position() < trailerOffset) {
+				int length = buffer.getInt();
+				int next = buffer.position() + length;
+				if (length < 4 + 8 + 1 + 4 || next > trailerOffset) {
+					// 长度不对说明文件被改坏了，后面的条目都不可信
+					skipped++;
+					break;
+				}
+				int namespace = buffer.getInt();
+				long writeTime = buffer.getLong();
+				byte keyKind = buffer.get();
+				byte[] key = new byte[buffer.getInt()];
+				buffer.get(key);
+				byte[] value = new byte[next - buffer.position()];
+				buffer.get(value);
+				if (namespace < 0 || namespace >= targets.length || targets[namespace] == null) {
+					skipped++;
+				} else if (maxAges[namespace] > 0 && start - writeTime > maxAges[namespace]) {
+					stale++;
+				} else {
+					try {
+						targets[namespace].restoreEntry(decodeKey(codec, keyKind, key), codec.decode(value), writeTime);
+						entries++;
+					} catch (CacheException e) {
+						skipped++;
+					}
+				}
+			}
+			return new SnapshotResult(file.getPath(), entries, stale, skipped, size,
+					System.currentTimeMillis() - start, null);
+		} catch (IOException e) {
+			throw new CacheException("Could not read cache snapshot " + file, e);
+		}
+	}
+
+	private SnapshotResult rejected(String reason) {
+		return new SnapshotResult(file.getPath(), 0, 0, 0, 0, 0, reason);
+	}
+
+	/**
+	 * 快照的创建时间离现在超过这个值就整个不用；0表示不限制
+	 */
+	public void setMaxSnapshotAgeSeconds(long seconds) {
+		this.maxSnapshotAgeMillis = TimeUnit.SECONDS.toMillis(seconds);
+	}
+
+	/**
+	 * 条目写入缓存的时间离现在超过这个值就丢掉；0表示不限制
+	 */
+	public void setMaxEntryAgeSeconds(long seconds) {
+		this.maxEntryAgeMillis = TimeUnit.SECONDS.toMillis(seconds);
+	}
+
+	/**
+	 * 单独设置某个namespace（缓存id）的条目年龄上限
+	 */
+	public void setMaxEntryAgeSeconds(String namespace, long seconds) {
+		namespaceMaxEntryAgeMillis.put(namespace, TimeUnit.SECONDS.toMillis(seconds));
+	}
+
+	private long maxEntryAgeMillis(String namespace) {
+		Long millis = namespaceMaxEntryAgeMillis.get(namespace);
+		return millis != null ? millis : maxEntryAgeMillis;
+	}
+
+	private static byte[] trailer(List<String> namespaces, BinaryCodec codec, TableInvalidationInterceptor interceptor)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(namespaces.size());
+		for (String namespace : namespaces) {
+			out.writeUTF(namespace);
+		}
+		writeBlock(out, codec.encodeLayouts());
+		ByteArrayOutputStream versions = new ByteArrayOutputStream();
+		if (interceptor != null) {
+			interceptor.writeVersions(new DataOutputStream(versions));
+		}
+		writeBlock(out, versions.toByteArray());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeBlock(DataOutputStream out, byte[] block) throws IOException {
+		out.writeInt(block.length);
+		out.write(block);
+	}
+
+	private static byte[] readBlock(DataInputStream in) throws IOException {
+		byte[] block = new byte[in.readInt()];
+		in.readFully(block);
+		return block;
+	}
+
+	private static Object decodeKey(BinaryCodec codec, byte keyKind, byte[] key) {
+		Object decoded = codec.decode(key);
+		if (keyKind != KEY_CACHE_KEY) {
+			return decoded;
+		}
+		CacheKey cacheKey = new CacheKey();
+		for (Object element : (List<?>) decoded) {
+			cacheKey.update(element);
+		}
+		return cacheKey;
+	}
+
+	/**
+	 * CacheKey没有公开它的组成部分，通过MetaObject读私有字段updateList
+	 */
+	@SuppressWarnings("unchecked")
+	static Object keyForEncoding(Object key) {
+		if (key instanceof CacheKey) {
+			return new ArrayList<Object>((List<Object>) SystemMetaObject.forObject(key).getValue("updateList"));
+		}
+		return key;
+	}
+
+	/**
+	 * configuration.getCaches()里同一个缓存会以全名和短名各出现一次，外面还包着LoggingCache等装饰器，
+	 * 		按id去重后沿着delegate找到实现了SnapshotCache的那一层
+	 */
+	static Map<String, SnapshotCache> caches(Configuration configuration) {
+		Map<String, SnapshotCache> caches = new LinkedHashMap<String, SnapshotCache>();
+		for (Cache cache : configuration.getCaches()) {
+			Cache current = cache;
+			while (!(current instanceof SnapshotCache)) {
+				MetaObject metaObject = SystemMetaObject.forObject(current);
+				if (!metaObject.hasGetter("delegate")) {
+					break;
+				}
+				current = (Cache) metaObject.getValue("delegate");
+			}
+			if (current instanceof SnapshotCache) {
+				caches.put(current.getId(), (SnapshotCache) current);
+			}
+		}
+		return caches;
+	}
+
+	static TableInvalidationInterceptor interceptor(Configuration configuration) {
+		for (Interceptor interceptor : configuration.getInterceptors()) {
+			if (interceptor instanceof TableInvalidationInterceptor) {
+				return (TableInvalidationInterceptor) interceptor;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 把一个缓存的条目逐条编码写到映射的文件里
+	 */
+	private static final class EntryWriter implements SnapshotCache.EntryVisitor {
+
+		private final MappedOutput out;
+		private final BinaryCodec codec;
+		int namespace;
+		int entries;
+		int skipped;
+
+		EntryWriter(MappedOutput out, BinaryCodec codec) {
+			this.out = out;
+			this.codec = codec;
+		}
+
+		@Override
+		public void visit(Object key, Object value, long writeTime) {
+			byte[] keyBytes;
+			byte[] valueBytes;
+			try {
+				keyBytes = codec.encode(keyForEncoding(key));
+				valueBytes = codec.encode(value);
+			} catch (BinaryCodec.UnsupportedValueException e) {
+				skipped++;
+				return;
+			}
+			int length = 4 + 8 + 1 + 4 + keyBytes.length + valueBytes.length;
+			// 读的时候整个文件映射成一个MappedByteBuffer，不能超过2G
+			if (out.position() + 4 + length > Integer.MAX_VALUE - MappedOutput.CHUNK_BYTES) {
+				skipped++;
+				return;
+			}
+			try {
+				out.reserve(4 + length).putInt(length).putInt(namespace).putLong(writeTime)
+						.put(key instanceof CacheKey ? KEY_CACHE_KEY : KEY_OBJECT).putInt(keyBytes.length)
+						.put(keyBytes).put(valueBytes);
+			} catch (IOException e) {
+				throw new CacheException("Could not write cache snapshot entry", e);
+			}
+			entries++;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.atguigu.mybatis.cache.snapshot;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 通过内存映射顺序写文件：每次映射CHUNK_BYTES，写满了再映射下一段，最后把文件截到实际长度
+ * 		文件头单独映射，写完所有条目以后再回填
+ */
+final class MappedOutput {
+
+	static final int CHUNK_BYTES = 64 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private MappedByteBuffer buffer;
+	/** buffer开头在文件中的位置 */
+	private long base;
+
+	MappedOutput(FileChannel channel, int headerBytes) throws IOException {
+		this.channel = channel;
+		this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes);
+		this.base = headerBytes;
+		this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, base, CHUNK_BYTES);
+	}
+
+	MappedByteBuffer header() {
+		return header;
+	}
+
+	long position() {
+		return base + buffer.position();
+	}
+
+	/**
+	 * 保证接下来的bytes个字节在同一段映射里，返回这一段
+	 */
+	MappedByteBuffer reserve(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			buffer.force();
+			base += buffer.position();
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, base, Math.max(CHUNK_BYTES, bytes));
+		}
+		return buffer;
+	}
+
+	void finish() throws IOException {
+		long end = position();
+		buffer.force();
+		header.force();
+		channel.truncate(end);
+	}
+}
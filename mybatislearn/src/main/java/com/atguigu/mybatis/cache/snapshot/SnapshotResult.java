@@ -0,0 +1,66 @@
+package com.atguigu.mybatis.cache.snapshot;
+
+/**
+ * 一次保存或加载快照的结果
+ */
+public class SnapshotResult {
+
+	private final String file;
+	private final int entries;
+	private final int stale;
+	private final int skipped;
+	private final long bytes;
+	private final long millis;
+	private final String rejected;
+
+	public SnapshotResult(String file, int entries, int stale, int skipped, long bytes, long millis, String rejected) {
+		this.file = file;
+		this.entries = entries;
+		this.stale = stale;
+		this.skipped = skipped;
+		this.bytes = bytes;
+		this.millis = millis;
+		this.rejected = rejected;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	/** 保存时是写入的条目数，加载时是放回缓存的条目数 */
+	public int getEntries() {
+		return entries;
+	}
+
+	/** 加载时超过了时间上限、被丢掉的条目数 */
+	public int getStale() {
+		return stale;
+	}
+
+	/** 编码或解码失败（类变了、延迟加载的代理对象等）以及找不到对应缓存的条目数 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	/** 整个文件没有被使用的原因（不存在、版本不对、没写完、太旧）；正常时为null */
+	public String getRejected() {
+		return rejected;
+	}
+
+	@Override
+	public String toString() {
+		if (rejected != null) {
+			return "SnapshotResult [file=" + file + ", rejected=" + rejected + "]";
+		}
+		return "SnapshotResult [file=" + file + ", entries=" + entries + ", stale=" + stale + ", skipped=" + skipped
+				+ ", bytes=" + bytes + ", millis=" + millis + "]";
+	}
+}
@@ -0,0 +1,99 @@
+package com.atguigu.mybatis.cache.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+/**
+ * 构建SqlSessionFactory时从快照恢复二级缓存，JVM关闭时再把二级缓存保存成快照
+ * 		build(InputStream)等方法最后都会调用build(Configuration)，在这里做加载
+ *
+ * 用法：
+ * 	CacheSnapshot snapshot = new CacheSnapshot(new File("/var/cache/mybatis/cache.snapshot"));
+ * 	snapshot.setMaxSnapshotAgeSeconds(600);
+ * 	SqlSessionFactory factory = new WarmStartSqlSessionFactoryBuilder(snapshot).build(inputStream);
+ *
+ * 进程被kill -9时不会保存，下次启动用的是上一次的快照，靠CacheSnapshot的年龄上限把它过滤掉
+ * 同一个快照文件（按规范路径）只注册一个关闭钩子，保存最后一次build出来的Configuration：
+ * 		多次build（测试、重新加载配置）不会堆积钩子，之前的Configuration也不会被钩子一直引用
+ */
+public class WarmStartSqlSessionFactoryBuilder extends SqlSessionFactoryBuilder {
+
+	/** 快照文件的规范路径 ==> 关闭时保存它的钩子 */
+	private static final ConcurrentMap<String, SaveHook> HOOKS = new ConcurrentHashMap<String, SaveHook>();
+
+	private final CacheSnapshot snapshot;
+	private boolean saveOnShutdown = true;
+	private volatile SnapshotResult lastLoad;
+
+	public WarmStartSqlSessionFactoryBuilder(CacheSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	@Override
+	public SqlSessionFactory build(Configuration config) {
+		SqlSessionFactory factory = super.build(config);
+		lastLoad = snapshot.load(config);
+		if (saveOnShutdown) {
+			saveOnShutdown(snapshot, config);
+		}
+		return factory;
+	}
+
+	private static void saveOnShutdown(CacheSnapshot snapshot, Configuration config) {
+		SaveHook hook = new SaveHook();
+		hook.set(snapshot, config);
+		SaveHook existing = HOOKS.putIfAbsent(canonicalPath(snapshot.getFile()), hook);
+		if (existing == null) {
+			Runtime.getRuntime().addShutdownHook(hook);
+		} else {
+			existing.set(snapshot, config);
+		}
+	}
+
+	private static String canonicalPath(File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	/** 最近一次build时加载快照的结果 */
+	public SnapshotResult getLastLoad() {
+		return lastLoad;
+	}
+
+	/** false时只加载，由调用方自己在合适的时候调用CacheSnapshot.save */
+	public void setSaveOnShutdown(boolean saveOnShutdown) {
+		this.saveOnShutdown = saveOnShutdown;
+	}
+
+	/**
+	 * 一个快照文件的关闭钩子，保存最后一次设置的Configuration
+	 */
+	private static final class SaveHook extends Thread {
+
+		private CacheSnapshot snapshot;
+		private Configuration config;
+
+		SaveHook() {
+			super("mybatis-cache-snapshot");
+		}
+
+		synchronized void set(CacheSnapshot snapshot, Configuration config) {
+			this.snapshot = snapshot;
+			this.config = config;
+		}
+
+		@Override
+		public synchronized void run() {
+			snapshot.save(config);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.atguigu.mybatis.config;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.Property;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.parsing.XNode;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 一个namespace的二级缓存配置：创建好的Cache对象拿不到当初的参数，
+ * 		所以保存快照时从<cache>元素或者@CacheNamespace注解重新读一遍，加载时按MapperBuilderAssistant.useNewCache的方式创建
+ */
+final class CacheSpec {
+
+	final String namespace;
+	final Class<?> implementation;
+	final Class<?> eviction;
+	final Long flushInterval;
+	final Integer size;
+	final boolean readWrite;
+	final boolean blocking;
+	final Properties properties;
+
+	CacheSpec(String namespace, Class<?> implementation, Class<?> eviction, Long flushInterval, Integer size,
+			boolean readWrite, boolean blocking, Properties properties) {
+		this.namespace = namespace;
+		this.implementation = implementation;
+		this.eviction = eviction;
+		this.flushInterval = flushInterval;
+		this.size = size;
+		this.readWrite = readWrite;
+		this.blocking = blocking;
+		this.properties = properties;
+	}
+
+	/** 和XMLMapperBuilder.cacheElement的默认值一致 */
+	static CacheSpec of(String namespace, XNode cache, Configuration configuration) {
+		return new CacheSpec(namespace,
+				configuration.getTypeAliasRegistry().resolveAlias(cache.getStringAttribute("type", "PERPETUAL")),
+				configuration.getTypeAliasRegistry().resolveAlias(cache.getStringAttribute("eviction", "LRU")),
+				cache.getLongAttribute("flushInterval"), cache.getIntAttribute("size"),
+				!cache.getBooleanAttribute("readOnly", false), cache.getBooleanAttribute("blocking", false),
+				cache.getChildrenAsProperties());
+	}
+
+	/** 和MapperAnnotationBuilder.parseCache的默认值一致 */
+	static CacheSpec of(String namespace, CacheNamespace cache) {
+		Properties properties = new Properties();
+		for (Property property : cache.properties()) {
+			properties.setProperty(property.name(), property.value());
+		}
+		return new CacheSpec(namespace, cache.implementation(), cache.eviction(),
+				cache.flushInterval() == 0 ? null : cache.flushInterval(), cache.size() == 0 ? null : cache.size(),
+				cache.readWrite(), cache.blocking(), properties);
+	}
+
+	@SuppressWarnings("unchecked")
+	Cache build() {
+		return new CacheBuilder(namespace)
+				.implementation(implementation == null ? PerpetualCache.class : (Class<? extends Cache>) implementation)
+				.addDecorator(eviction == null ? LruCache.class : (Class<? extends Cache>) eviction)
+				.clearInterval(flushInterval)
+				.size(size)
+				.readWrite(readWrite)
+				.blocking(blocking)
+				.properties(properties)
+				.build();
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		SnapshotIO.writeString(out, namespace);
+		SnapshotIO.writeClass(out, implementation);
+		SnapshotIO.writeClass(out, eviction);
+		SnapshotIO.writeLong(out, flushInterval);
+		SnapshotIO.writeInteger(out, size);
+		out.writeBoolean(readWrite);
+		out.writeBoolean(blocking);
+		Set<String> names = properties.stringPropertyNames();
+		out.writeInt(names.size());
+		for (String name : names) {
+			SnapshotIO.writeString(out, name);
+			SnapshotIO.writeString(out, properties.getProperty(name));
+		}
+	}
+
+	static CacheSpec read(DataInputStream in) throws IOException {
+		String namespace = SnapshotIO.readString(in);
+		Class<?> implementation = SnapshotIO.readClass(in);
+		Class<?> eviction = SnapshotIO.readClass(in);
+		Long flushInterval = SnapshotIO.readLong(in);
+		Integer size = SnapshotIO.readInteger(in);
+		boolean readWrite = in.readBoolean();
+		boolean blocking = in.readBoolean();
+		Properties properties = new Properties();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			properties.setProperty(SnapshotIO.readString(in), SnapshotIO.readString(in));
+		}
+		return new CacheSpec(namespace, implementation, eviction, flushInterval, size, readWrite, blocking, properties);
+	}
+}
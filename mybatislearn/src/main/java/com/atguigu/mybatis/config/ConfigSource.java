@@ -0,0 +1,314 @@
+package com.atguigu.mybatis.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.builder.xml.XMLMapperEntityResolver;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.io.VFS;
+import org.apache.ibatis.parsing.PropertyParser;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * 全局配置文件（mybatis-config.xml）：
+ * 1、算指纹：全局配置、<properties>引用的文件、build时传入的属性、<package>下的文件列表、快照依赖的映射文件和Mapper接口，
+ * 		任何一个变了快照就过期
+ * 2、用快照启动时改写全局配置：<typeAliases>/<typeHandlers>换成快照里逐个列出的别名和类型处理器（不再扫描包），
+ * 		去掉<mappers>（映射文件的内容由快照直接放进Configuration）
+ */
+final class ConfigSource {
+
+	private static final String NAMESPACE_PREFIX = "namespace:";
+	private static final String INTERFACE_PREFIX = "interface ";
+
+	final String resource;
+	final String environment;
+	final Properties properties;
+	private final byte[] bytes;
+	private final Document document;
+
+	private ConfigSource(String resource, String environment, Properties properties, byte[] bytes, Document document) {
+		this.resource = resource;
+		this.environment = environment;
+		this.properties = properties;
+		this.bytes = bytes;
+		this.document = document;
+	}
+
+	static ConfigSource load(String resource, String environment, Properties properties) {
+		try {
+			byte[] bytes = readFully(Resources.getResourceAsStream(resource));
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setValidating(false);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			builder.setEntityResolver(new XMLMapperEntityResolver());
+			Document document = builder.parse(new ByteArrayInputStream(bytes));
+			return new ConfigSource(resource, environment, properties, bytes, document);
+		} catch (Exception e) {
+			throw new BuilderException("Error reading MyBatis configuration " + resource, e);
+		}
+	}
+
+	/** 原样的全局配置 */
+	InputStream original() {
+		return new ByteArrayInputStream(bytes);
+	}
+
+	/**
+	 * 快照依赖的资源：映射文件，以及Mapper接口的class文件和同名XML（现在没有以后加上了也要发现）
+	 */
+	static List<String> dependencies(Collection<String> loadedResources) {
+		TreeSet<String> dependencies = new TreeSet<String>();
+		for (String loaded : loadedResources) {
+			if (loaded.startsWith(NAMESPACE_PREFIX)) {
+				continue;
+			}
+			if (loaded.startsWith(INTERFACE_PREFIX)) {
+				String path = loaded.substring(INTERFACE_PREFIX.length()).replace('.', '/');
+				dependencies.add(path + ".class");
+				dependencies.add(path + ".xml");
+			} else {
+				dependencies.add(loaded);
+			}
+		}
+		return new ArrayList<String>(dependencies);
+	}
+
+	/** 映射文件（不是namespace:、interface开头的已加载资源） */
+	static List<String> mapperXmls(Collection<String> loadedResources) {
+		List<String> xmls = new ArrayList<String>();
+		for (String loaded : loadedResources) {
+			if (!loaded.startsWith(NAMESPACE_PREFIX) && !loaded.startsWith(INTERFACE_PREFIX)) {
+				xmls.add(loaded);
+			}
+		}
+		return xmls;
+	}
+
+	static InputStream open(String resource) throws IOException {
+		return resource.contains("://") || resource.startsWith("file:") ? Resources.getUrlAsStream(resource)
+				: Resources.getResourceAsStream(resource);
+	}
+
+	byte[] fingerprint(Collection<String> dependencies) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new BuilderException(e);
+		}
+		update(digest, resource, bytes);
+		Element properties = child(document.getDocumentElement(), "properties");
+		if (properties != null) {
+			String propertiesResource = properties.getAttribute("resource");
+			String propertiesUrl = properties.getAttribute("url");
+			update(digest, propertiesResource, readQuietly(propertiesResource));
+			update(digest, propertiesUrl, readQuietly(propertiesUrl));
+		}
+		if (this.properties != null) {
+			for (String name : new TreeSet<String>(this.properties.stringPropertyNames())) {
+				update(digest, name, this.properties.getProperty(name).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		NodeList packages = document.getElementsByTagName("package");
+		for (int i = 0; i < packages.getLength(); i++) {
+			String name = ((Element) packages.item(i)).getAttribute("name");
+			update(digest, name, listing(name));
+		}
+		for (String dependency : dependencies) {
+			update(digest, dependency, readQuietly(dependency));
+		}
+		return digest.digest();
+	}
+
+	private static void update(MessageDigest digest, String name, byte[] content) {
+		digest.update(String.valueOf(name).getBytes(StandardCharsets.UTF_8));
+		if (content == null) {
+			digest.update((byte) 0);
+			return;
+		}
+		digest.update((byte) 1);
+		digest.update(content);
+	}
+
+	/** 资源不存在时返回null */
+	private static byte[] readQuietly(String resource) {
+		if (resource == null || resource.isEmpty()) {
+			return null;
+		}
+		try {
+			return readFully(open(resource));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/** 包下的文件名列表，增删了Mapper接口或者映射文件都会改变 */
+	private static byte[] listing(String packageName) {
+		try {
+			List<String> children = new ArrayList<String>(VFS.getInstance().list(packageName.replace('.', '/')));
+			Collections.sort(children);
+			StringBuilder listing = new StringBuilder();
+			for (String child : children) {
+				listing.append(child).append('\n');
+			}
+			return listing.toString().getBytes(StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 改写后的全局配置；配置里没有<typeAliases>/<typeHandlers>时快照里的别名和处理器是代码注册的，由那段代码照常注册
+	 */
+	InputStream rewritten(Map<String, Class<?>> aliases, List<Object[]> typeHandlers) {
+		Document copy = (Document) document.cloneNode(true);
+		Element root = copy.getDocumentElement();
+		Element typeAliases = child(root, "typeAliases");
+		if (typeAliases != null) {
+			removeChildren(typeAliases);
+			for (Map.Entry<String, Class<?>> alias : aliases.entrySet()) {
+				Element element = copy.createElement("typeAlias");
+				element.setAttribute("alias", alias.getKey());
+				element.setAttribute("type", alias.getValue().getName());
+				typeAliases.appendChild(element);
+			}
+		}
+		Element handlers = child(root, "typeHandlers");
+		if (handlers != null) {
+			removeChildren(handlers);
+			for (Object[] handler : typeHandlers) {
+				Element element = copy.createElement("typeHandler");
+				element.setAttribute("javaType", ((Class<?>) handler[0]).getName());
+				if (handler[1] != null) {
+					element.setAttribute("jdbcType", ((JdbcType) handler[1]).name());
+				}
+				element.setAttribute("handler", ((Class<?>) handler[2]).getName());
+				handlers.appendChild(element);
+			}
+		}
+		Element mappers = child(root, "mappers");
+		if (mappers != null) {
+			root.removeChild(mappers);
+		}
+		return new ByteArrayInputStream(serialize(copy));
+	}
+
+	/** XMLConfigBuilder会按DTD校验，DOCTYPE要原样保留 */
+	private static byte[] serialize(Document document) {
+		try {
+			Transformer transformer = TransformerFactory.newInstance().newTransformer();
+			transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+			DocumentType doctype = document.getDoctype();
+			if (doctype != null) {
+				transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, doctype.getPublicId());
+				transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, doctype.getSystemId());
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			transformer.transform(new DOMSource(document), new StreamResult(out));
+			return out.toByteArray();
+		} catch (Exception e) {
+			throw new BuilderException("Error rewriting MyBatis configuration", e);
+		}
+	}
+
+	/**
+	 * 快照的databaseId和这次连上的数据库不一致时，按原来的<mappers>解析映射文件（和XMLConfigBuilder.mapperElement一样）
+	 */
+	void parseMappers(Configuration configuration) {
+		Element mappers = child(document.getDocumentElement(), "mappers");
+		if (mappers == null) {
+			return;
+		}
+		Properties variables = configuration.getVariables();
+		NodeList children = mappers.getChildNodes();
+		try {
+			for (int i = 0; i < children.getLength(); i++) {
+				if (!(children.item(i) instanceof Element)) {
+					continue;
+				}
+				Element child = (Element) children.item(i);
+				if ("package".equals(child.getNodeName())) {
+					configuration.addMappers(attribute(child, "name", variables));
+					continue;
+				}
+				String mapperResource = attribute(child, "resource", variables);
+				String url = attribute(child, "url", variables);
+				String mapperClass = attribute(child, "class", variables);
+				if (mapperResource != null || url != null) {
+					String location = mapperResource != null ? mapperResource : url;
+					InputStream inputStream = mapperResource != null ? Resources.getResourceAsStream(mapperResource)
+							: Resources.getUrlAsStream(url);
+					new XMLMapperBuilder(inputStream, configuration, location, configuration.getSqlFragments()).parse();
+				} else if (mapperClass != null) {
+					configuration.addMapper(Resources.classForName(mapperClass));
+				}
+			}
+		} catch (Exception e) {
+			throw new BuilderException("Error parsing SQL Mapper Configuration. Cause: " + e, e);
+		}
+	}
+
+	private static String attribute(Element element, String name, Properties variables) {
+		return element.hasAttribute(name) ? PropertyParser.parse(element.getAttribute(name), variables) : null;
+	}
+
+	private static Element child(Element parent, String name) {
+		NodeList children = parent.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			if (child instanceof Element && name.equals(child.getNodeName())) {
+				return (Element) child;
+			}
+		}
+		return null;
+	}
+
+	private static void removeChildren(Element element) {
+		while (element.getFirstChild() != null) {
+			element.removeChild(element.getFirstChild());
+		}
+	}
+
+	static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.atguigu.mybatis.config;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.xml.XMLMapperEntityResolver;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.XNode;
+import org.apache.ibatis.parsing.XPathParser;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+/**
+ * 解析好的Configuration的快照：语句（包括动态SQL的SqlNode树）、resultMap、二级缓存配置、别名、类型处理器、Mapper接口，
+ * 		启动时直接放进Configuration，不用再解析映射文件（DTD校验、XPath）和扫描dao包
+ *
+ * 文件格式（版本FORMAT_VERSION，DataOutputStream）：
+ * 	头部：[int MAGIC][int 版本][MyBatis版本][指纹][依赖的资源列表][databaseId]
+ * 	全局配置部分：别名、类型处理器
+ * 	映射部分：缓存、cache-ref、parameterMap、resultMap、语句、Mapper接口、已加载的资源
+ *
+ * 什么时候不用快照（回到XML）：
+ * 	1、文件不存在、魔数/版本/MyBatis版本不对
+ * 	2、指纹变了：全局配置、properties文件、映射文件、Mapper接口的class、<package>下的文件列表（见ConfigSource）
+ * 	3、连上的数据库的databaseId和快照里的不一样（databaseId决定了哪些语句生效）
+ *
+ * 生成：启动时发现快照不能用，按XML解析完以后自动写一份（见SnapshotSqlSessionFactoryBuilder）；
+ * 		也可以在打包时运行main方法提前生成：
+ * 	java com.atguigu.mybatis.config.ConfigurationSnapshot mybatis-config.xml target/mybatis-config.snapshot [environment]
+ * 		注意databaseIdProvider要连上数据库才能确定databaseId，连不上时生成的快照在运行时会因为databaseId不同而不用
+ */
+public class ConfigurationSnapshot {
+
+	private static final Log log = LogFactory.getLog(ConfigurationSnapshot.class);
+
+	static final int MAGIC = 0x4D424346;
+	static final int FORMAT_VERSION = 1;
+
+	private final File file;
+
+	public ConfigurationSnapshot(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean exists() {
+		return file.isFile();
+	}
+
+	/**
+	 * 按XML完整解析出来的configuration写成快照；有快照恢复不了的内容时抛BuilderException，不写文件
+	 */
+	void save(Configuration configuration, ConfigSource source) {
+		if (!configuration.getIncompleteStatements().isEmpty() || !configuration.getIncompleteResultMaps().isEmpty()
+				|| !configuration.getIncompleteCacheRefs().isEmpty() || !configuration.getIncompleteMethods().isEmpty()) {
+			throw new BuilderException("Configuration has incomplete elements and cannot be saved in a snapshot");
+		}
+		Collection<String> loadedResources = loadedResources(configuration);
+		List<String> dependencies = ConfigSource.dependencies(loadedResources);
+		Collection<CacheSpec> caches = caches(configuration, loadedResources);
+		File tmp = new File(file.getPath() + ".tmp");
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new BuilderException("Could not create directory " + parent);
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			SnapshotIO.writeString(out, mybatisVersion());
+			byte[] fingerprint = source.fingerprint(dependencies);
+			out.writeInt(fingerprint.length);
+			out.write(fingerprint);
+			out.writeInt(dependencies.size());
+			for (String dependency : dependencies) {
+				SnapshotIO.writeString(out, dependency);
+			}
+			SnapshotIO.writeString(out, configuration.getDatabaseId());
+			SnapshotWriter writer = new SnapshotWriter(configuration, out);
+			writer.writeTypeAliases();
+			writer.writeTypeHandlers();
+			writer.writeCaches(caches);
+			writer.writeCacheRefs();
+			writer.writeParameterMaps();
+			writer.writeResultMaps();
+			writer.writeStatements();
+			writer.writeMappers();
+			writer.writeLoadedResources(loadedResources);
+		} catch (IOException e) {
+			tmp.delete();
+			throw new BuilderException("Could not write configuration snapshot " + tmp, e);
+		} catch (RuntimeException e) {
+			tmp.delete();
+			throw e;
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new BuilderException("Could not replace configuration snapshot " + file, e);
+		}
+	}
+
+	/**
+	 * 读快照的头部和全局配置部分；快照不存在或者过期时返回null
+	 */
+	Opened open(ConfigSource source) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (InputStream input = new FileInputStream(file)) {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(ConfigSource.readFully(input)));
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				log.debug("Ignoring configuration snapshot " + file + ": unknown format");
+				return null;
+			}
+			String version = SnapshotIO.readString(in);
+			if (!String.valueOf(mybatisVersion()).equals(String.valueOf(version))) {
+				log.debug("Ignoring configuration snapshot " + file + ": written by MyBatis " + version);
+				return null;
+			}
+			byte[] fingerprint = new byte[in.readInt()];
+			in.readFully(fingerprint);
+			String[] dependencies = new String[in.readInt()];
+			for (int i = 0; i < dependencies.length; i++) {
+				dependencies[i] = SnapshotIO.readString(in);
+			}
+			if (!Arrays.equals(fingerprint, source.fingerprint(Arrays.asList(dependencies)))) {
+				log.debug("Ignoring configuration snapshot " + file + ": configuration or mappers changed");
+				return null;
+			}
+			String databaseId = SnapshotIO.readString(in);
+			SnapshotReader reader = new SnapshotReader(in);
+			return new Opened(databaseId, reader.readTypeAliases(), reader.readTypeHandlers(), reader);
+		} catch (IOException | BuilderException e) {
+			log.debug("Ignoring configuration snapshot " + file + ": " + e);
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<String> loadedResources(Configuration configuration) {
+		return (Set<String>) SystemMetaObject.forObject(configuration).getValue("loadedResources");
+	}
+
+	/**
+	 * 每个二级缓存的配置：从映射文件的<cache>或Mapper接口的@CacheNamespace重新读出来
+	 */
+	private static Collection<CacheSpec> caches(Configuration configuration, Collection<String> loadedResources) {
+		Map<String, CacheSpec> caches = new LinkedHashMap<String, CacheSpec>();
+		for (String xml : ConfigSource.mapperXmls(loadedResources)) {
+			try (InputStream in = ConfigSource.open(xml)) {
+				XPathParser parser = new XPathParser(in, false, configuration.getVariables(),
+						new XMLMapperEntityResolver());
+				XNode mapper = parser.evalNode("/mapper");
+				XNode cache = mapper == null ? null : mapper.evalNode("cache");
+				if (cache != null) {
+					String namespace = mapper.getStringAttribute("namespace");
+					caches.put(namespace, CacheSpec.of(namespace, cache, configuration));
+				}
+			} catch (IOException e) {
+				throw new BuilderException("Could not read mapper " + xml, e);
+			}
+		}
+		for (Class<?> mapper : configuration.getMapperRegistry().getMappers()) {
+			CacheNamespace cache = mapper.getAnnotation(CacheNamespace.class);
+			if (cache != null && !caches.containsKey(mapper.getName())) {
+				caches.put(mapper.getName(), CacheSpec.of(mapper.getName(), cache));
+			}
+		}
+		for (Cache cache : SnapshotWriter.distinct(configuration.getCaches(), Cache.class)) {
+			if (!caches.containsKey(cache.getId())) {
+				throw new BuilderException("Cache " + cache.getId() + " was not declared in a mapper and cannot be saved");
+			}
+		}
+		return caches.values();
+	}
+
+	private static String mybatisVersion() {
+		return Configuration.class.getPackage().getImplementationVersion();
+	}
+
+	/** 读到全局配置部分为止的快照，映射部分等全局配置解析完再读 */
+	static final class Opened {
+
+		final String databaseId;
+		final Map<String, Class<?>> typeAliases;
+		final List<Object[]> typeHandlers;
+		final SnapshotReader reader;
+
+		Opened(String databaseId, Map<String, Class<?>> typeAliases, List<Object[]> typeHandlers,
+				SnapshotReader reader) {
+			this.databaseId = databaseId;
+			this.typeAliases = typeAliases;
+			this.typeHandlers = typeHandlers;
+			this.reader = reader;
+		}
+	}
+
+	/**
+	 * 打包时生成快照：args = 全局配置的classpath路径、快照文件[、environment]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: ConfigurationSnapshot <config resource> <snapshot file> [environment]");
+			System.exit(1);
+		}
+		ConfigSource source = ConfigSource.load(args[0], args.length > 2 ? args[2] : null, null);
+		Configuration configuration = new SqlSessionFactoryBuilder()
+				.build(source.original(), source.environment).getConfiguration();
+		ConfigurationSnapshot snapshot = new ConfigurationSnapshot(new File(args[1]));
+		snapshot.save(configuration, source);
+		System.out.println("Wrote " + snapshot.getFile() + " (" + snapshot.getFile().length() + " bytes, databaseId="
+				+ configuration.getDatabaseId() + ")");
+	}
+}
@@ -0,0 +1,293 @@
+package com.atguigu.mybatis.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.binding.MapperProxyFactory;
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.io.ResolverUtil;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * 按需构建Mapper的Configuration：
+ * 1、启动时<package>/<mapper class>注册的Mapper接口只建索引（语句id和databaseId，见StatementIndex），
+ * 		不解析映射文件，不建resultMap、缓存和语句
+ * 2、第一次用到某个namespace（getMapper、getMappedStatement、别的映射文件引用它的resultMap/cache-ref、嵌套查询）时
+ * 		才按MyBatis原来的方式（MapperRegistry.addMapper）解析这个namespace，databaseId不匹配的语句照样跳过
+ * 3、语句的SqlSource在构建namespace时和MyBatis原来一样一起编译好，按需的粒度是namespace，不是单个语句：
+ * 		构建完不再引用映射文件的DOM，可以马上回收（等到每条语句都执行过再编译的话，
+ * 		有一条语句没用过，整个映射文件的DOM就一直留在内存里）
+ *
+ * 线程安全：Configuration里的Map都是HashMap，构建namespace都在同一把锁里做，
+ * 		查询语句、resultMap、缓存时先查构建好后放进ConcurrentHashMap的结果，查不到再进锁
+ *
+ * 注意：
+ * 	1、<mapper resource>/<mapper url>注册的映射文件XMLConfigBuilder直接解析，不受影响
+ * 	2、getMappedStatements()、getCaches()、getMapperRegistry().getMappers()等只包含已经构建的namespace，
+ * 		需要完整内容（比如启动时检查所有SQL、CacheSnapshot）时先调用buildAll()
+ * 	3、SQL写错要到第一次执行时才报错，测试环境可以调用buildAll()提前发现
+ */
+public class LazyConfiguration extends Configuration {
+
+	private static final Log log = LogFactory.getLog(LazyConfiguration.class);
+
+	private final Object buildLock = new Object();
+	/** namespace -> 还没有构建的Mapper接口 */
+	private final Map<String, Class<?>> pendingMappers = new LinkedHashMap<String, Class<?>>();
+	/** 当前databaseId下生效的语句id，启动时建好 */
+	private final Set<String> statementIndex = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ConcurrentMap<String, MappedStatement> statements = new ConcurrentHashMap<String, MappedStatement>();
+	private final ConcurrentMap<String, ResultMap> resultMapCache = new ConcurrentHashMap<String, ResultMap>();
+	private final ConcurrentMap<String, Cache> cacheCache = new ConcurrentHashMap<String, Cache>();
+	private final ConcurrentMap<Class<?>, MapperProxyFactory<?>> mapperFactories = new ConcurrentHashMap<Class<?>, MapperProxyFactory<?>>();
+
+	public LazyConfiguration() {
+	}
+
+	public LazyConfiguration(Environment environment) {
+		this();
+		setEnvironment(environment);
+	}
+
+	// ----------------------------------------------- 注册：只建索引
+
+	@Override
+	public void addMappers(String packageName) {
+		addMappers(packageName, Object.class);
+	}
+
+	/** 和MapperRegistry.addMappers一样找包下的接口 */
+	@Override
+	public void addMappers(String packageName, Class<?> superType) {
+		ResolverUtil<Class<?>> resolverUtil = new ResolverUtil<Class<?>>();
+		resolverUtil.find(new ResolverUtil.IsA(superType), packageName);
+		for (Class<?> mapperClass : resolverUtil.getClasses()) {
+			addMapper(mapperClass);
+		}
+	}
+
+	@Override
+	public <T> void addMapper(Class<T> type) {
+		if (!type.isInterface()) {
+			return;
+		}
+		synchronized (buildLock) {
+			if (pendingMappers.containsKey(type.getName()) || super.hasMapper(type)) {
+				throw new BindingException("Type " + type + " is already known to the MapperRegistry.");
+			}
+			statementIndex.addAll(StatementIndex.index(type, getDatabaseId()));
+			pendingMappers.put(type.getName(), type);
+		}
+	}
+
+	// ----------------------------------------------- 查询：用到时构建
+
+	@Override
+	public boolean hasMapper(Class<?> type) {
+		if (mapperFactories.containsKey(type)) {
+			return true;
+		}
+		synchronized (buildLock) {
+			return pendingMappers.containsKey(type.getName()) || super.hasMapper(type);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T getMapper(Class<T> type, SqlSession sqlSession) {
+		MapperProxyFactory<T> factory = (MapperProxyFactory<T>) mapperFactories.get(type);
+		if (factory == null) {
+			synchronized (buildLock) {
+				build(type.getName());
+				Map<Class<?>, MapperProxyFactory<?>> knownMappers = (Map<Class<?>, MapperProxyFactory<?>>) SystemMetaObject
+						.forObject(mapperRegistry).getValue("knownMappers");
+				factory = (MapperProxyFactory<T>) knownMappers.get(type);
+				if (factory == null) {
+					throw new BindingException("Type " + type + " is not known to the MapperRegistry.");
+				}
+				mapperFactories.put(type, factory);
+			}
+		}
+		return factory.newInstance(sqlSession);
+	}
+
+	@Override
+	public boolean hasStatement(String statementName, boolean validateIncompleteStatements) {
+		if (statements.containsKey(statementName)) {
+			return true;
+		}
+		synchronized (buildLock) {
+			String namespace = namespace(statementName);
+			if (pendingMappers.containsKey(namespace)) {
+				if (!statementIndex.contains(statementName)) {
+					// 其他数据库的语句、不存在的语句：不用构建namespace就知道没有
+					return false;
+				}
+				build(namespace);
+			}
+			return super.hasStatement(statementName, validateIncompleteStatements);
+		}
+	}
+
+	@Override
+	public MappedStatement getMappedStatement(String id, boolean validateIncompleteStatements) {
+		MappedStatement ms = statements.get(id);
+		if (ms != null) {
+			return ms;
+		}
+		synchronized (buildLock) {
+			build(namespace(id));
+			ms = super.getMappedStatement(id, validateIncompleteStatements);
+			statements.put(id, ms);
+			return ms;
+		}
+	}
+
+	@Override
+	public ResultMap getResultMap(String id) {
+		ResultMap resultMap = resultMapCache.get(id);
+		if (resultMap != null) {
+			return resultMap;
+		}
+		synchronized (buildLock) {
+			build(namespace(id));
+			resultMap = super.getResultMap(id);
+			resultMapCache.put(id, resultMap);
+			return resultMap;
+		}
+	}
+
+	@Override
+	public boolean hasResultMap(String id) {
+		if (resultMapCache.containsKey(id)) {
+			return true;
+		}
+		synchronized (buildLock) {
+			build(namespace(id));
+			return super.hasResultMap(id);
+		}
+	}
+
+	@Override
+	public Cache getCache(String id) {
+		Cache cache = cacheCache.get(id);
+		if (cache != null) {
+			return cache;
+		}
+		synchronized (buildLock) {
+			build(id);
+			cache = super.getCache(id);
+			cacheCache.put(id, cache);
+			return cache;
+		}
+	}
+
+	@Override
+	public boolean hasCache(String id) {
+		if (cacheCache.containsKey(id)) {
+			return true;
+		}
+		synchronized (buildLock) {
+			build(id);
+			return super.hasCache(id);
+		}
+	}
+
+	@Override
+	public ParameterMap getParameterMap(String id) {
+		synchronized (buildLock) {
+			build(namespace(id));
+			return super.getParameterMap(id);
+		}
+	}
+
+	@Override
+	public boolean hasParameterMap(String id) {
+		synchronized (buildLock) {
+			build(namespace(id));
+			return super.hasParameterMap(id);
+		}
+	}
+
+	@Override
+	public KeyGenerator getKeyGenerator(String id) {
+		synchronized (buildLock) {
+			build(namespace(id));
+			return super.getKeyGenerator(id);
+		}
+	}
+
+	@Override
+	public boolean hasKeyGenerator(String id) {
+		synchronized (buildLock) {
+			build(namespace(id));
+			return super.hasKeyGenerator(id);
+		}
+	}
+
+	// ----------------------------------------------- 构建
+
+	/** 构建所有还没有构建的namespace */
+	public void buildAll() {
+		synchronized (buildLock) {
+			for (String namespace : new ArrayList<String>(pendingMappers.keySet())) {
+				build(namespace);
+			}
+		}
+	}
+
+	/** 还没有构建的namespace */
+	public Set<String> getPendingNamespaces() {
+		synchronized (buildLock) {
+			return Collections.unmodifiableSet(new LinkedHashSet<String>(pendingMappers.keySet()));
+		}
+	}
+
+	/** 启动时索引到的语句id（只包括当前databaseId生效的语句） */
+	public Set<String> getIndexedStatements() {
+		return Collections.unmodifiableSet(statementIndex);
+	}
+
+	/**
+	 * 调用方持有buildLock；构建中引用别的namespace（cache-ref、跨namespace的resultMap）时会递归进来，
+	 * 		先从pendingMappers里去掉，避免重复构建
+	 */
+	private void build(String namespace) {
+		Class<?> type = pendingMappers.remove(namespace);
+		if (type == null) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			super.addMapper(type);
+		} catch (RuntimeException e) {
+			throw new BuilderException("Error building mapper " + namespace + ". Cause: " + e, e);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Built mapper " + namespace + " in " + (System.nanoTime() - start) / 1000 + "us, "
+					+ pendingMappers.size() + " pending");
+		}
+	}
+
+	private static String namespace(String id) {
+		int lastDot = id.lastIndexOf('.');
+		return lastDot < 0 ? id : id.substring(0, lastDot);
+	}
+}
@@ -0,0 +1,70 @@
+package com.atguigu.mybatis.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Properties;
+
+import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+/**
+ * 用LazyConfiguration解析全局配置：Mapper接口启动时只建索引，第一次用到某个namespace时才解析它的映射文件、编译SQL
+ *
+ * 用法：
+ * 	SqlSessionFactory factory = new LazySqlSessionFactoryBuilder().build(Resources.getResourceAsStream("mybatis-config.xml"));
+ * 	((LazyConfiguration) factory.getConfiguration()).getPendingNamespaces();
+ *
+ * XMLConfigBuilder总是自己new Configuration()，这里在parse之前把它换成LazyConfiguration
+ * 		（BaseBuilder的configuration、typeAliasRegistry、typeHandlerRegistry三个字段）
+ */
+public class LazySqlSessionFactoryBuilder extends SqlSessionFactoryBuilder {
+
+	@Override
+	public SqlSessionFactory build(Reader reader, String environment, Properties properties) {
+		try {
+			return build(parse(new XMLConfigBuilder(reader, environment, properties), properties));
+		} catch (Exception e) {
+			throw ExceptionFactory.wrapException("Error building SqlSession.", e);
+		} finally {
+			ErrorContext.instance().reset();
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// Intentionally ignore. Prefer previous error.
+			}
+		}
+	}
+
+	@Override
+	public SqlSessionFactory build(InputStream inputStream, String environment, Properties properties) {
+		try {
+			return build(parse(new XMLConfigBuilder(inputStream, environment, properties), properties));
+		} catch (Exception e) {
+			throw ExceptionFactory.wrapException("Error building SqlSession.", e);
+		} finally {
+			ErrorContext.instance().reset();
+			try {
+				inputStream.close();
+			} catch (IOException e) {
+				// Intentionally ignore. Prefer previous error.
+			}
+		}
+	}
+
+	private static Configuration parse(XMLConfigBuilder parser, Properties properties) {
+		LazyConfiguration configuration = new LazyConfiguration();
+		configuration.setVariables(properties);
+		MetaObject metaObject = SystemMetaObject.forObject(parser);
+		metaObject.setValue("configuration", configuration);
+		metaObject.setValue("typeAliasRegistry", configuration.getTypeAliasRegistry());
+		metaObject.setValue("typeHandlerRegistry", configuration.getTypeHandlerRegistry());
+		return parser.parse();
+	}
+}
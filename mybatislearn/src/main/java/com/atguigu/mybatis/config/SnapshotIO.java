@@ -0,0 +1,102 @@
+package com.atguigu.mybatis.config;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * 快照文件里的基本类型：可以为null的字符串、整数、类名和枚举
+ * 		字符串：[int 字节数，-1表示null][UTF-8字节]（sql可能超过writeUTF的64K限制）
+ * 		枚举：[byte 序号，-1表示null]
+ */
+final class SnapshotIO {
+
+	private SnapshotIO() {
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeClass(DataOutputStream out, Class<?> type) throws IOException {
+		writeString(out, type == null ? null : type.getName());
+	}
+
+	static Class<?> readClass(DataInputStream in) throws IOException {
+		String name = readString(in);
+		if (name == null) {
+			return null;
+		}
+		try {
+			return Resources.classForName(name);
+		} catch (ClassNotFoundException e) {
+			throw new BuilderException("Class in configuration snapshot not found: " + name, e);
+		}
+	}
+
+	static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeInt(value);
+		}
+	}
+
+	static Integer readInteger(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readInt() : null;
+	}
+
+	static void writeLong(DataOutputStream out, Long value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeLong(value);
+		}
+	}
+
+	static Long readLong(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readLong() : null;
+	}
+
+	static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+		out.writeByte(value == null ? -1 : value.ordinal());
+	}
+
+	static <E extends Enum<E>> E readEnum(DataInputStream in, Class<E> type) throws IOException {
+		int ordinal = in.readByte();
+		return ordinal < 0 ? null : type.getEnumConstants()[ordinal];
+	}
+
+	/** 逗号分隔，和MappedStatement.Builder.keyProperty等方法的参数格式一致 */
+	static String join(String[] values) {
+		if (values == null) {
+			return null;
+		}
+		StringBuilder joined = new StringBuilder();
+		for (String value : values) {
+			if (joined.length() > 0) {
+				joined.append(',');
+			}
+			joined.append(value);
+		}
+		return joined.toString();
+	}
+}
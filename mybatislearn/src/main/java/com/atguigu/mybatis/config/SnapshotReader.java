@@ -0,0 +1,334 @@
+package com.atguigu.mybatis.config;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+import com.atguigu.mybatis.scripting.CompiledSqlSource;
+
+/**
+ * 按SnapshotWriter写入的顺序把快照读回Configuration：
+ * 		别名和类型处理器在解析全局配置之前读出来（由ConfigSource写回<typeAliases>/<typeHandlers>），
+ * 		其余部分在全局配置解析完之后直接放进Configuration，不再解析映射文件
+ */
+final class SnapshotReader {
+
+	private final DataInputStream in;
+
+	SnapshotReader(DataInputStream in) {
+		this.in = in;
+	}
+
+	Map<String, Class<?>> readTypeAliases() throws IOException {
+		int size = in.readInt();
+		Map<String, Class<?>> aliases = new LinkedHashMap<String, Class<?>>();
+		for (int i = 0; i < size; i++) {
+			aliases.put(SnapshotIO.readString(in), SnapshotIO.readClass(in));
+		}
+		return aliases;
+	}
+
+	/** [java类型, jdbc类型（可以为null）, 处理器类] */
+	List<Object[]> readTypeHandlers() throws IOException {
+		int size = in.readInt();
+		List<Object[]> handlers = new ArrayList<Object[]>(size);
+		for (int i = 0; i < size; i++) {
+			handlers.add(new Object[] {SnapshotIO.readClass(in), SnapshotIO.readEnum(in, JdbcType.class),
+					SnapshotIO.readClass(in)});
+		}
+		return handlers;
+	}
+
+	/** 全局配置解析完以后调用：缓存、resultMap、语句、Mapper接口，顺序和写入时一致 */
+	void readMappings(Configuration configuration) throws IOException {
+		int caches = in.readInt();
+		for (int i = 0; i < caches; i++) {
+			configuration.addCache(CacheSpec.read(in).build());
+		}
+		int cacheRefs = in.readInt();
+		for (int i = 0; i < cacheRefs; i++) {
+			configuration.addCacheRef(SnapshotIO.readString(in), SnapshotIO.readString(in));
+		}
+		int parameterMaps = in.readInt();
+		for (int i = 0; i < parameterMaps; i++) {
+			configuration.addParameterMap(readParameterMap(configuration));
+		}
+		int resultMaps = in.readInt();
+		for (int i = 0; i < resultMaps; i++) {
+			configuration.addResultMap(readResultMap(configuration));
+		}
+		int statements = in.readInt();
+		for (int i = 0; i < statements; i++) {
+			configuration.addMappedStatement(readStatement(configuration));
+		}
+		List<Class<?>> mappers = new ArrayList<Class<?>>();
+		int mapperCount = in.readInt();
+		for (int i = 0; i < mapperCount; i++) {
+			mappers.add(SnapshotIO.readClass(in));
+		}
+		// 先标记成已加载，addMapper时MapperAnnotationBuilder就不会再去解析XML和注解
+		int resources = in.readInt();
+		for (int i = 0; i < resources; i++) {
+			configuration.addLoadedResource(SnapshotIO.readString(in));
+		}
+		for (Class<?> mapper : mappers) {
+			configuration.addMapper(mapper);
+		}
+	}
+
+	private ParameterMap readParameterMap(Configuration configuration) throws IOException {
+		String id = SnapshotIO.readString(in);
+		Class<?> type = SnapshotIO.readClass(in);
+		return new ParameterMap.Builder(configuration, id, type, readParameterMappings(configuration)).build();
+	}
+
+	private List<ParameterMapping> readParameterMappings(Configuration configuration) throws IOException {
+		int size = in.readInt();
+		List<ParameterMapping> mappings = new ArrayList<ParameterMapping>(size);
+		for (int i = 0; i < size; i++) {
+			String property = SnapshotIO.readString(in);
+			ParameterMode mode = SnapshotIO.readEnum(in, ParameterMode.class);
+			Class<?> javaType = SnapshotIO.readClass(in);
+			JdbcType jdbcType = SnapshotIO.readEnum(in, JdbcType.class);
+			Integer numericScale = SnapshotIO.readInteger(in);
+			Class<?> handlerType = SnapshotIO.readClass(in);
+			mappings.add(new ParameterMapping.Builder(configuration, property, javaType)
+					.mode(mode)
+					.jdbcType(jdbcType)
+					.numericScale(numericScale)
+					.typeHandler(typeHandler(configuration, javaType, jdbcType, handlerType))
+					.resultMapId(SnapshotIO.readString(in))
+					.jdbcTypeName(SnapshotIO.readString(in))
+					.expression(SnapshotIO.readString(in))
+					.build());
+		}
+		return mappings;
+	}
+
+	private ResultMap readResultMap(Configuration configuration) throws IOException {
+		String id = SnapshotIO.readString(in);
+		Class<?> type = SnapshotIO.readClass(in);
+		byte autoMapping = in.readByte();
+		List<ResultMapping> mappings = readResultMappings(configuration);
+		ResultMap.Builder builder = new ResultMap.Builder(configuration, id, type, mappings,
+				autoMapping < 0 ? null : autoMapping == 1);
+		if (in.readBoolean()) {
+			ResultMapping resultMapping = readResultMapping(configuration);
+			int size = in.readInt();
+			Map<String, String> cases = new HashMap<String, String>();
+			for (int i = 0; i < size; i++) {
+				cases.put(SnapshotIO.readString(in), SnapshotIO.readString(in));
+			}
+			builder.discriminator(new Discriminator.Builder(configuration, resultMapping, cases).build());
+		}
+		return builder.build();
+	}
+
+	private List<ResultMapping> readResultMappings(Configuration configuration) throws IOException {
+		int size = in.readInt();
+		List<ResultMapping> mappings = new ArrayList<ResultMapping>(size);
+		for (int i = 0; i < size; i++) {
+			mappings.add(readResultMapping(configuration));
+		}
+		return mappings;
+	}
+
+	private ResultMapping readResultMapping(Configuration configuration) throws IOException {
+		String property = SnapshotIO.readString(in);
+		String column = SnapshotIO.readString(in);
+		Class<?> javaType = SnapshotIO.readClass(in);
+		JdbcType jdbcType = SnapshotIO.readEnum(in, JdbcType.class);
+		Class<?> handlerType = SnapshotIO.readClass(in);
+		String nestedResultMapId = SnapshotIO.readString(in);
+		String nestedQueryId = SnapshotIO.readString(in);
+		int notNullCount = in.readInt();
+		Set<String> notNullColumns = new HashSet<String>();
+		for (int i = 0; i < notNullCount; i++) {
+			notNullColumns.add(SnapshotIO.readString(in));
+		}
+		String columnPrefix = SnapshotIO.readString(in);
+		int flagCount = in.readInt();
+		List<ResultFlag> flags = new ArrayList<ResultFlag>(flagCount);
+		for (int i = 0; i < flagCount; i++) {
+			flags.add(SnapshotIO.readEnum(in, ResultFlag.class));
+		}
+		List<ResultMapping> composites = readResultMappings(configuration);
+		return new ResultMapping.Builder(configuration, property, column, javaType)
+				.jdbcType(jdbcType)
+				.typeHandler(typeHandler(configuration, javaType, jdbcType, handlerType))
+				.nestedResultMapId(nestedResultMapId)
+				.nestedQueryId(nestedQueryId)
+				.notNullColumns(notNullColumns)
+				.columnPrefix(columnPrefix)
+				.flags(flags)
+				.composites(composites)
+				.resultSet(SnapshotIO.readString(in))
+				.foreignColumn(SnapshotIO.readString(in))
+				.lazy(in.readBoolean())
+				.build();
+	}
+
+	private MappedStatement readStatement(Configuration configuration) throws IOException {
+		String id = SnapshotIO.readString(in);
+		String resource = SnapshotIO.readString(in);
+		SqlCommandType commandType = SnapshotIO.readEnum(in, SqlCommandType.class);
+		StatementType statementType = SnapshotIO.readEnum(in, StatementType.class);
+		ResultSetType resultSetType = SnapshotIO.readEnum(in, ResultSetType.class);
+		Integer fetchSize = SnapshotIO.readInteger(in);
+		Integer timeout = SnapshotIO.readInteger(in);
+		SqlSource sqlSource = readSqlSource(configuration);
+		LanguageDriver lang = languageDriver(configuration, SnapshotIO.readClass(in));
+		MappedStatement.Builder builder = new MappedStatement.Builder(configuration, id, sqlSource, commandType)
+				.resource(resource)
+				.statementType(statementType)
+				.resultSetType(resultSetType)
+				.fetchSize(fetchSize)
+				.timeout(timeout)
+				.lang(lang)
+				.parameterMap(statementParameterMap(configuration));
+		int resultMapCount = in.readInt();
+		List<ResultMap> resultMaps = new ArrayList<ResultMap>(resultMapCount);
+		for (int i = 0; i < resultMapCount; i++) {
+			resultMaps.add(in.readBoolean() ? configuration.getResultMap(SnapshotIO.readString(in))
+					: readResultMap(configuration));
+		}
+		String cacheId = SnapshotIO.readString(in);
+		return builder.resultMaps(resultMaps)
+				.cache(cacheId == null ? null : configuration.getCache(cacheId))
+				.flushCacheRequired(in.readBoolean())
+				.useCache(in.readBoolean())
+				.resultOrdered(in.readBoolean())
+				.keyGenerator(readKeyGenerator(configuration))
+				.keyProperty(SnapshotIO.readString(in))
+				.keyColumn(SnapshotIO.readString(in))
+				.databaseId(SnapshotIO.readString(in))
+				.resultSets(SnapshotIO.readString(in))
+				.build();
+	}
+
+	/** 语句的参数映射一般是内联的（id-Inline），没有注册到Configuration里 */
+	private ParameterMap statementParameterMap(Configuration configuration) throws IOException {
+		ParameterMap parameterMap = readParameterMap(configuration);
+		return configuration.hasParameterMap(parameterMap.getId())
+				? configuration.getParameterMap(parameterMap.getId()) : parameterMap;
+	}
+
+	private SqlSource readSqlSource(Configuration configuration) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case SnapshotWriter.SQL_STATIC: {
+			String sql = SnapshotIO.readString(in);
+			return new StaticSqlSource(configuration, sql, readParameterMappings(configuration));
+		}
+		case SnapshotWriter.SQL_DYNAMIC:
+			return new DynamicSqlSource(configuration, SqlNodeCodec.read(in, configuration));
+		case SnapshotWriter.SQL_COMPILED:
+			return new CompiledSqlSource(configuration, SqlNodeCodec.read(in, configuration));
+		default:
+			throw new BuilderException("Unknown SqlSource type in configuration snapshot: " + type);
+		}
+	}
+
+	private KeyGenerator readKeyGenerator(Configuration configuration) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case SnapshotWriter.KEY_NONE:
+			return NoKeyGenerator.INSTANCE;
+		case SnapshotWriter.KEY_JDBC3:
+			return Jdbc3KeyGenerator.INSTANCE;
+		case SnapshotWriter.KEY_SELECT: {
+			String keyStatementId = SnapshotIO.readString(in);
+			boolean executeBefore = in.readBoolean();
+			if (configuration.hasKeyGenerator(keyStatementId)) {
+				return configuration.getKeyGenerator(keyStatementId);
+			}
+			KeyGenerator keyGenerator = new SelectKeyGenerator(configuration.getMappedStatement(keyStatementId, false),
+					executeBefore);
+			configuration.addKeyGenerator(keyStatementId, keyGenerator);
+			return keyGenerator;
+		}
+		default:
+			throw new BuilderException("Unknown KeyGenerator type in configuration snapshot: " + type);
+		}
+	}
+
+	private static LanguageDriver languageDriver(Configuration configuration, Class<?> type) {
+		LanguageDriver driver = configuration.getLanguageRegistry().getDriver(type);
+		if (driver == null) {
+			configuration.getLanguageRegistry().register(type);
+			driver = configuration.getLanguageRegistry().getDriver(type);
+		}
+		return driver;
+	}
+
+	/**
+	 * 和解析时一样优先用TypeHandlerRegistry里注册的实例（按java类型 + jdbc类型找，类要一致），
+	 * 		找不到时按处理器类新建（EnumTypeHandler这种要传java类型的也能创建）
+	 */
+	private static TypeHandler<?> typeHandler(Configuration configuration, Class<?> javaType, JdbcType jdbcType,
+			Class<?> handlerType) {
+		if (handlerType == null) {
+			return null;
+		}
+		TypeHandlerRegistry registry = configuration.getTypeHandlerRegistry();
+		if (javaType != null) {
+			TypeHandler<?> registered = registry.getTypeHandler(javaType, jdbcType);
+			if (registered == null || registered.getClass() != handlerType) {
+				registered = registry.getTypeHandler(javaType);
+			}
+			if (registered != null && registered.getClass() == handlerType) {
+				return registered;
+			}
+		}
+		TypeHandler<?> mapped = registry.getMappingTypeHandler(asHandlerType(handlerType));
+		if (mapped != null && (javaType == null || !hasTypeConstructor(handlerType))) {
+			return mapped;
+		}
+		return registry.getInstance(javaType, handlerType);
+	}
+
+	private static boolean hasTypeConstructor(Class<?> handlerType) {
+		try {
+			handlerType.getConstructor(Class.class);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends TypeHandler<?>> asHandlerType(Class<?> handlerType) {
+		return (Class<? extends TypeHandler<?>>) handlerType;
+	}
+}
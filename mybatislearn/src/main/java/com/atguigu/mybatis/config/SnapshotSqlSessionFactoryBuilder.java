@@ -0,0 +1,143 @@
+package com.atguigu.mybatis.config;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+import com.atguigu.mybatis.datasource.FastPooledDataSource;
+import com.atguigu.mybatis.datasource.StatementCachingDataSource;
+
+/**
+ * 用ConfigurationSnapshot加快启动：
+ * 	1、快照能用：全局配置照常解析（数据源、插件、settings都要在本次启动重新创建），
+ * 		但别名和类型处理器直接用快照里的列表，不再扫描包；<mappers>去掉，映射部分从快照读进Configuration
+ * 	2、快照不存在或者过期：按原来的方式解析XML，解析完写一份新快照（saveOnMiss=false时不写）
+ * 	3、快照能用但这次连上的数据库databaseId不同：按<mappers>解析映射文件，同样重写快照
+ *
+ * 用法：
+ * 	ConfigurationSnapshot snapshot = new ConfigurationSnapshot(new File("/var/cache/mybatis/config.snapshot"));
+ * 	SqlSessionFactory factory = new SnapshotSqlSessionFactoryBuilder(snapshot).build("mybatis-config.xml");
+ *
+ * 快照按classpath路径找到映射文件算指纹，所以这里的build方法接收的是全局配置的路径，而不是InputStream
+ */
+public class SnapshotSqlSessionFactoryBuilder extends SqlSessionFactoryBuilder {
+
+	private static final Log log = LogFactory.getLog(SnapshotSqlSessionFactoryBuilder.class);
+
+	public enum Status {
+		/** 映射部分从快照读取 */
+		LOADED,
+		/** 没有快照，按XML解析 */
+		MISSING,
+		/** 快照过期（配置、映射文件、Mapper接口变了，或者快照格式、MyBatis版本不同），按XML解析 */
+		STALE,
+		/** 快照的databaseId和连上的数据库不同，按XML解析映射文件 */
+		DATABASE_CHANGED
+	}
+
+	private final ConfigurationSnapshot snapshot;
+	private boolean saveOnMiss = true;
+	private volatile Status lastStatus;
+
+	public SnapshotSqlSessionFactoryBuilder(ConfigurationSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	public SqlSessionFactory build(String resource) {
+		return build(resource, null, null);
+	}
+
+	public SqlSessionFactory build(String resource, String environment) {
+		return build(resource, environment, null);
+	}
+
+	public SqlSessionFactory build(String resource, Properties properties) {
+		return build(resource, null, properties);
+	}
+
+	public SqlSessionFactory build(String resource, String environment, Properties properties) {
+		ConfigSource source = ConfigSource.load(resource, environment, properties);
+		boolean existed = snapshot.exists();
+		ConfigurationSnapshot.Opened opened = snapshot.open(source);
+		if (opened == null) {
+			lastStatus = existed ? Status.STALE : Status.MISSING;
+			return build(parseAndSave(source));
+		}
+		Configuration configuration = new XMLConfigBuilder(
+				source.rewritten(opened.typeAliases, opened.typeHandlers), environment, properties).parse();
+		String databaseId = configuration.getDatabaseId();
+		if (databaseId == null ? opened.databaseId != null : !databaseId.equals(opened.databaseId)) {
+			log.debug("Configuration snapshot " + snapshot.getFile() + " was written for databaseId "
+					+ opened.databaseId + ", current databaseId is " + databaseId);
+			lastStatus = Status.DATABASE_CHANGED;
+			source.parseMappers(configuration);
+			save(configuration, source);
+			return build(configuration);
+		}
+		try {
+			opened.reader.readMappings(configuration);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Could not load configuration snapshot " + snapshot.getFile() + ", parsing mappers instead. Cause: " + e);
+			closeDataSource(configuration.getEnvironment());
+			lastStatus = Status.STALE;
+			return build(parseAndSave(source));
+		}
+		lastStatus = Status.LOADED;
+		return build(configuration);
+	}
+
+	private Configuration parseAndSave(ConfigSource source) {
+		Configuration configuration = new XMLConfigBuilder(source.original(), source.environment, source.properties)
+				.parse();
+		save(configuration, source);
+		return configuration;
+	}
+
+	private void save(Configuration configuration, ConfigSource source) {
+		if (!saveOnMiss) {
+			return;
+		}
+		try {
+			snapshot.save(configuration, source);
+		} catch (BuilderException e) {
+			log.warn("Could not save configuration snapshot " + snapshot.getFile() + ". Cause: " + e);
+		}
+	}
+
+	/** 读快照失败时丢掉的那个Configuration已经创建了连接池（databaseIdProvider还借过连接），关掉 */
+	private static void closeDataSource(Environment environment) {
+		if (environment == null) {
+			return;
+		}
+		DataSource dataSource = environment.getDataSource();
+		if (dataSource instanceof StatementCachingDataSource) {
+			dataSource = ((StatementCachingDataSource) dataSource).getDelegate();
+		}
+		if (dataSource instanceof FastPooledDataSource) {
+			((FastPooledDataSource) dataSource).close();
+		} else if (dataSource instanceof PooledDataSource) {
+			((PooledDataSource) dataSource).forceCloseAll();
+		}
+	}
+
+	/** 最近一次build(String...)用没用上快照 */
+	public Status getLastStatus() {
+		return lastStatus;
+	}
+
+	/** false时快照不能用也不写新的，由打包时的ConfigurationSnapshot.main生成 */
+	public void setSaveOnMiss(boolean saveOnMiss) {
+		this.saveOnMiss = saveOnMiss;
+	}
+}
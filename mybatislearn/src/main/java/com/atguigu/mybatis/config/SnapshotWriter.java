@@ -0,0 +1,351 @@
+package com.atguigu.mybatis.config;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+
+import com.atguigu.mybatis.scripting.CompiledSqlSource;
+
+/**
+ * 把解析完的Configuration里映射文件相关的部分写进快照，格式见ConfigurationSnapshot
+ *
+ * 遇到恢复不了的东西（ProviderSqlSource、自定义的KeyGenerator、还没解析完的语句等）抛BuilderException，
+ * 		这种配置不写快照，每次都按XML启动
+ */
+final class SnapshotWriter {
+
+	static final byte SQL_STATIC = 0;
+	static final byte SQL_DYNAMIC = 1;
+	static final byte SQL_COMPILED = 2;
+
+	static final byte KEY_NONE = 0;
+	static final byte KEY_JDBC3 = 1;
+	static final byte KEY_SELECT = 2;
+
+	private final Configuration configuration;
+	private final DataOutputStream out;
+
+	SnapshotWriter(Configuration configuration, DataOutputStream out) {
+		this.configuration = configuration;
+		this.out = out;
+	}
+
+	/** 全局配置里<typeAliases>注册的别名：和新建的Configuration相比多出来的 */
+	void writeTypeAliases() throws IOException {
+		Map<String, Class<?>> defaults = new Configuration().getTypeAliasRegistry().getTypeAliases();
+		Map<String, Class<?>> aliases = new LinkedHashMap<String, Class<?>>();
+		for (Map.Entry<String, Class<?>> alias : configuration.getTypeAliasRegistry().getTypeAliases().entrySet()) {
+			if (!alias.getValue().equals(defaults.get(alias.getKey()))) {
+				aliases.put(alias.getKey(), alias.getValue());
+			}
+		}
+		out.writeInt(aliases.size());
+		for (Map.Entry<String, Class<?>> alias : aliases.entrySet()) {
+			SnapshotIO.writeString(out, alias.getKey());
+			SnapshotIO.writeClass(out, alias.getValue());
+		}
+	}
+
+	/** <typeHandlers>注册的（以及解析时按需注册的枚举）类型处理器：[java类型][jdbc类型][处理器类] */
+	void writeTypeHandlers() throws IOException {
+		Map<Type, Map<JdbcType, TypeHandler<?>>> defaults = typeHandlerMap(new Configuration());
+		List<Object[]> handlers = new ArrayList<Object[]>();
+		for (Map.Entry<Type, Map<JdbcType, TypeHandler<?>>> entry : typeHandlerMap(configuration).entrySet()) {
+			Map<JdbcType, TypeHandler<?>> defaultHandlers = defaults.get(entry.getKey());
+			for (Map.Entry<JdbcType, TypeHandler<?>> handler : entry.getValue().entrySet()) {
+				TypeHandler<?> defaultHandler = defaultHandlers == null ? null : defaultHandlers.get(handler.getKey());
+				if (defaultHandler != null && defaultHandler.getClass() == handler.getValue().getClass()) {
+					continue;
+				}
+				if (!(entry.getKey() instanceof Class) || !canInstantiate(handler.getValue().getClass())) {
+					throw new BuilderException("Type handler " + handler.getValue().getClass().getName() + " for "
+							+ entry.getKey() + " cannot be saved in a configuration snapshot");
+				}
+				handlers.add(new Object[] {entry.getKey(), handler.getKey(), handler.getValue().getClass()});
+			}
+		}
+		out.writeInt(handlers.size());
+		for (Object[] handler : handlers) {
+			SnapshotIO.writeClass(out, (Class<?>) handler[0]);
+			SnapshotIO.writeEnum(out, (JdbcType) handler[1]);
+			SnapshotIO.writeClass(out, (Class<?>) handler[2]);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<Type, Map<JdbcType, TypeHandler<?>>> typeHandlerMap(Configuration configuration) {
+		return (Map<Type, Map<JdbcType, TypeHandler<?>>>) SystemMetaObject
+				.forObject(configuration.getTypeHandlerRegistry()).getValue("TYPE_HANDLER_MAP");
+	}
+
+	/** XMLConfigBuilder用TypeHandlerRegistry.getInstance创建：只认(Class)和无参的构造方法 */
+	private static boolean canInstantiate(Class<?> handlerType) {
+		try {
+			handlerType.getConstructor(Class.class);
+			return true;
+		} catch (NoSuchMethodException e) {
+			try {
+				handlerType.getConstructor();
+				return true;
+			} catch (NoSuchMethodException e2) {
+				return false;
+			}
+		}
+	}
+
+	void writeCaches(Collection<CacheSpec> caches) throws IOException {
+		out.writeInt(caches.size());
+		for (CacheSpec cache : caches) {
+			cache.write(out);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	void writeCacheRefs() throws IOException {
+		Map<String, String> cacheRefs = (Map<String, String>) SystemMetaObject.forObject(configuration)
+				.getValue("cacheRefMap");
+		out.writeInt(cacheRefs.size());
+		for (Map.Entry<String, String> cacheRef : cacheRefs.entrySet()) {
+			SnapshotIO.writeString(out, cacheRef.getKey());
+			SnapshotIO.writeString(out, cacheRef.getValue());
+		}
+	}
+
+	void writeParameterMaps() throws IOException {
+		Collection<ParameterMap> parameterMaps = distinct(configuration.getParameterMaps(), ParameterMap.class);
+		out.writeInt(parameterMaps.size());
+		for (ParameterMap parameterMap : parameterMaps) {
+			writeParameterMap(parameterMap);
+		}
+	}
+
+	private void writeParameterMap(ParameterMap parameterMap) throws IOException {
+		SnapshotIO.writeString(out, parameterMap.getId());
+		SnapshotIO.writeClass(out, parameterMap.getType());
+		writeParameterMappings(parameterMap.getParameterMappings());
+	}
+
+	private void writeParameterMappings(List<ParameterMapping> parameterMappings) throws IOException {
+		out.writeInt(parameterMappings.size());
+		for (ParameterMapping mapping : parameterMappings) {
+			SnapshotIO.writeString(out, mapping.getProperty());
+			SnapshotIO.writeEnum(out, mapping.getMode());
+			SnapshotIO.writeClass(out, mapping.getJavaType());
+			SnapshotIO.writeEnum(out, mapping.getJdbcType());
+			SnapshotIO.writeInteger(out, mapping.getNumericScale());
+			SnapshotIO.writeClass(out, mapping.getTypeHandler() == null ? null : mapping.getTypeHandler().getClass());
+			SnapshotIO.writeString(out, mapping.getResultMapId());
+			SnapshotIO.writeString(out, mapping.getJdbcTypeName());
+			SnapshotIO.writeString(out, mapping.getExpression());
+		}
+	}
+
+	void writeResultMaps() throws IOException {
+		Collection<ResultMap> resultMaps = distinct(configuration.getResultMaps(), ResultMap.class);
+		out.writeInt(resultMaps.size());
+		for (ResultMap resultMap : resultMaps) {
+			writeResultMap(resultMap);
+		}
+	}
+
+	private void writeResultMap(ResultMap resultMap) throws IOException {
+		SnapshotIO.writeString(out, resultMap.getId());
+		SnapshotIO.writeClass(out, resultMap.getType());
+		Boolean autoMapping = resultMap.getAutoMapping();
+		out.writeByte(autoMapping == null ? -1 : autoMapping ? 1 : 0);
+		writeResultMappings(resultMap.getResultMappings());
+		Discriminator discriminator = resultMap.getDiscriminator();
+		out.writeBoolean(discriminator != null);
+		if (discriminator != null) {
+			writeResultMapping(discriminator.getResultMapping());
+			Map<String, String> cases = discriminator.getDiscriminatorMap();
+			out.writeInt(cases.size());
+			for (Map.Entry<String, String> discriminatorCase : cases.entrySet()) {
+				SnapshotIO.writeString(out, discriminatorCase.getKey());
+				SnapshotIO.writeString(out, discriminatorCase.getValue());
+			}
+		}
+	}
+
+	private void writeResultMappings(List<ResultMapping> resultMappings) throws IOException {
+		out.writeInt(resultMappings.size());
+		for (ResultMapping mapping : resultMappings) {
+			writeResultMapping(mapping);
+		}
+	}
+
+	private void writeResultMapping(ResultMapping mapping) throws IOException {
+		SnapshotIO.writeString(out, mapping.getProperty());
+		SnapshotIO.writeString(out, mapping.getColumn());
+		SnapshotIO.writeClass(out, mapping.getJavaType());
+		SnapshotIO.writeEnum(out, mapping.getJdbcType());
+		SnapshotIO.writeClass(out, mapping.getTypeHandler() == null ? null : mapping.getTypeHandler().getClass());
+		SnapshotIO.writeString(out, mapping.getNestedResultMapId());
+		SnapshotIO.writeString(out, mapping.getNestedQueryId());
+		// 组合列（column="{id=dept_id}"）里的映射没有notNullColumns，读回来是空集合，效果一样
+		Set<String> notNullColumns = mapping.getNotNullColumns() == null ? Collections.<String>emptySet()
+				: mapping.getNotNullColumns();
+		out.writeInt(notNullColumns.size());
+		for (String column : notNullColumns) {
+			SnapshotIO.writeString(out, column);
+		}
+		SnapshotIO.writeString(out, mapping.getColumnPrefix());
+		out.writeInt(mapping.getFlags().size());
+		for (ResultFlag flag : mapping.getFlags()) {
+			SnapshotIO.writeEnum(out, flag);
+		}
+		writeResultMappings(mapping.getComposites());
+		SnapshotIO.writeString(out, mapping.getResultSet());
+		SnapshotIO.writeString(out, mapping.getForeignColumn());
+		out.writeBoolean(mapping.isLazy());
+	}
+
+	/** selectKey的语句排在前面：读回来时SelectKeyGenerator要引用它 */
+	void writeStatements() throws IOException {
+		List<MappedStatement> statements = new ArrayList<MappedStatement>();
+		for (MappedStatement ms : distinct(configuration.getMappedStatements(), MappedStatement.class)) {
+			if (ms.getId().endsWith(SelectKeyGenerator.SELECT_KEY_SUFFIX)) {
+				statements.add(0, ms);
+			} else {
+				statements.add(ms);
+			}
+		}
+		out.writeInt(statements.size());
+		for (MappedStatement ms : statements) {
+			writeStatement(ms);
+		}
+	}
+
+	private void writeStatement(MappedStatement ms) throws IOException {
+		SnapshotIO.writeString(out, ms.getId());
+		SnapshotIO.writeString(out, ms.getResource());
+		SnapshotIO.writeEnum(out, ms.getSqlCommandType());
+		SnapshotIO.writeEnum(out, ms.getStatementType());
+		SnapshotIO.writeEnum(out, ms.getResultSetType());
+		SnapshotIO.writeInteger(out, ms.getFetchSize());
+		SnapshotIO.writeInteger(out, ms.getTimeout());
+		writeSqlSource(ms);
+		SnapshotIO.writeClass(out, ms.getLang().getClass());
+		writeParameterMap(ms.getParameterMap());
+		out.writeInt(ms.getResultMaps().size());
+		for (ResultMap resultMap : ms.getResultMaps()) {
+			// resultType对应的内联resultMap（id-Inline）没有注册到Configuration里，整个写进去
+			boolean registered = configuration.hasResultMap(resultMap.getId())
+					&& configuration.getResultMap(resultMap.getId()) == resultMap;
+			out.writeBoolean(registered);
+			if (registered) {
+				SnapshotIO.writeString(out, resultMap.getId());
+			} else {
+				writeResultMap(resultMap);
+			}
+		}
+		SnapshotIO.writeString(out, ms.getCache() == null ? null : ms.getCache().getId());
+		out.writeBoolean(ms.isFlushCacheRequired());
+		out.writeBoolean(ms.isUseCache());
+		out.writeBoolean(ms.isResultOrdered());
+		writeKeyGenerator(ms);
+		SnapshotIO.writeString(out, SnapshotIO.join(ms.getKeyProperties()));
+		SnapshotIO.writeString(out, SnapshotIO.join(ms.getKeyColumns()));
+		SnapshotIO.writeString(out, ms.getDatabaseId());
+		SnapshotIO.writeString(out, SnapshotIO.join(ms.getResultSets()));
+	}
+
+	/**
+	 * 静态sql（RawSqlSource/StaticSqlSource）：保存解析好的sql和参数映射，加载时不用再解析#{}
+	 * 动态sql：保存SqlNode树
+	 */
+	private void writeSqlSource(MappedStatement ms) throws IOException {
+		SqlSource sqlSource = ms.getSqlSource();
+		if (sqlSource instanceof DynamicSqlSource || sqlSource instanceof CompiledSqlSource) {
+			out.writeByte(sqlSource instanceof DynamicSqlSource ? SQL_DYNAMIC : SQL_COMPILED);
+			SqlNodeCodec.write(out, (SqlNode) SystemMetaObject.forObject(sqlSource).getValue("rootSqlNode"));
+		} else if (sqlSource instanceof RawSqlSource || sqlSource instanceof StaticSqlSource) {
+			out.writeByte(SQL_STATIC);
+			BoundSql boundSql = sqlSource.getBoundSql(null);
+			SnapshotIO.writeString(out, boundSql.getSql());
+			writeParameterMappings(boundSql.getParameterMappings());
+		} else {
+			throw new BuilderException("SqlSource " + sqlSource.getClass().getName() + " of " + ms.getId()
+					+ " cannot be saved in a configuration snapshot");
+		}
+	}
+
+	private void writeKeyGenerator(MappedStatement ms) throws IOException {
+		KeyGenerator keyGenerator = ms.getKeyGenerator();
+		if (keyGenerator instanceof NoKeyGenerator) {
+			out.writeByte(KEY_NONE);
+		} else if (keyGenerator instanceof Jdbc3KeyGenerator) {
+			out.writeByte(KEY_JDBC3);
+		} else if (keyGenerator instanceof SelectKeyGenerator) {
+			out.writeByte(KEY_SELECT);
+			MappedStatement keyStatement = (MappedStatement) SystemMetaObject.forObject(keyGenerator)
+					.getValue("keyStatement");
+			SnapshotIO.writeString(out, keyStatement.getId());
+			out.writeBoolean((Boolean) SystemMetaObject.forObject(keyGenerator).getValue("executeBefore"));
+		} else {
+			throw new BuilderException("KeyGenerator " + keyGenerator.getClass().getName() + " of " + ms.getId()
+					+ " cannot be saved in a configuration snapshot");
+		}
+	}
+
+	void writeMappers() throws IOException {
+		Collection<Class<?>> mappers = configuration.getMapperRegistry().getMappers();
+		out.writeInt(mappers.size());
+		for (Class<?> mapper : mappers) {
+			SnapshotIO.writeClass(out, mapper);
+		}
+	}
+
+	void writeLoadedResources(Collection<String> loadedResources) throws IOException {
+		out.writeInt(loadedResources.size());
+		for (String resource : loadedResources) {
+			SnapshotIO.writeString(out, resource);
+		}
+	}
+
+	/**
+	 * Configuration的StrictMap里同一个对象以全名和短名各放一次；
+	 * 		短名重复时放的是StrictMap.Ambiguity，不是type类型的对象
+	 */
+	static <T> Collection<T> distinct(Collection<?> values, Class<T> type) {
+		Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+		List<T> distinct = new ArrayList<T>();
+		for (Object value : values) {
+			if (type.isInstance(value) && seen.put(value, Boolean.TRUE) == null) {
+				distinct.add(type.cast(value));
+			}
+		}
+		return distinct;
+	}
+}
@@ -0,0 +1,180 @@
+package com.atguigu.mybatis.config;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.scripting.xmltags.ChooseSqlNode;
+import org.apache.ibatis.scripting.xmltags.ForEachSqlNode;
+import org.apache.ibatis.scripting.xmltags.IfSqlNode;
+import org.apache.ibatis.scripting.xmltags.MixedSqlNode;
+import org.apache.ibatis.scripting.xmltags.SetSqlNode;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.scripting.xmltags.StaticTextSqlNode;
+import org.apache.ibatis.scripting.xmltags.TextSqlNode;
+import org.apache.ibatis.scripting.xmltags.TrimSqlNode;
+import org.apache.ibatis.scripting.xmltags.VarDeclSqlNode;
+import org.apache.ibatis.scripting.xmltags.WhereSqlNode;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 动态SQL的SqlNode树 <==> 快照里的字节：[byte 节点类型][节点的属性][子节点...]
+ * 		节点的属性都是私有字段，和SqlNodeCompiler一样用MetaObject读；读回来时用各个节点的公开构造方法重新创建
+ * 		<include>在解析时已经展开，<where>/<set>也是固定的前后缀，这里只有MyBatis自带的9种节点
+ */
+final class SqlNodeCodec {
+
+	private static final byte MIXED = 0;
+	private static final byte STATIC_TEXT = 1;
+	private static final byte TEXT = 2;
+	private static final byte IF = 3;
+	private static final byte TRIM = 4;
+	private static final byte WHERE = 5;
+	private static final byte SET = 6;
+	private static final byte FOREACH = 7;
+	private static final byte CHOOSE = 8;
+	private static final byte VAR_DECL = 9;
+	private static final byte NONE = -1;
+
+	private SqlNodeCodec() {
+	}
+
+	@SuppressWarnings("unchecked")
+	static void write(DataOutputStream out, SqlNode node) throws IOException {
+		if (node == null) {
+			out.writeByte(NONE);
+			return;
+		}
+		Class<?> type = node.getClass();
+		MetaObject metaObject = SystemMetaObject.forObject(node);
+		if (type == MixedSqlNode.class) {
+			out.writeByte(MIXED);
+			writeList(out, (List<SqlNode>) metaObject.getValue("contents"));
+		} else if (type == StaticTextSqlNode.class) {
+			out.writeByte(STATIC_TEXT);
+			SnapshotIO.writeString(out, (String) metaObject.getValue("text"));
+		} else if (type == TextSqlNode.class) {
+			out.writeByte(TEXT);
+			SnapshotIO.writeString(out, (String) metaObject.getValue("text"));
+		} else if (type == IfSqlNode.class) {
+			out.writeByte(IF);
+			SnapshotIO.writeString(out, (String) metaObject.getValue("test"));
+			write(out, (SqlNode) metaObject.getValue("contents"));
+		} else if (type == WhereSqlNode.class || type == SetSqlNode.class) {
+			out.writeByte(type == WhereSqlNode.class ? WHERE : SET);
+			write(out, (SqlNode) metaObject.getValue("contents"));
+		} else if (type == TrimSqlNode.class) {
+			out.writeByte(TRIM);
+			SnapshotIO.writeString(out, (String) metaObject.getValue("prefix"));
+			SnapshotIO.writeString(out, overrides((List<String>) metaObject.getValue("prefixesToOverride")));
+			SnapshotIO.writeString(out, (String) metaObject.getValue("suffix"));
+			SnapshotIO.writeString(out, overrides((List<String>) metaObject.getValue("suffixesToOverride")));
+			write(out, (SqlNode) metaObject.getValue("contents"));
+		} else if (type == ForEachSqlNode.class) {
+			out.writeByte(FOREACH);
+			SnapshotIO.writeString(out, (String) metaObject.getValue("collectionExpression"));
+			SnapshotIO.writeString(out, (String) metaObject.getValue("index"));
+			SnapshotIO.writeString(out, (String) metaObject.getValue("item"));
+			SnapshotIO.writeString(out, (String) metaObject.getValue("open"));
+			SnapshotIO.writeString(out, (String) metaObject.getValue("close"));
+			SnapshotIO.writeString(out, (String) metaObject.getValue("separator"));
+			write(out, (SqlNode) metaObject.getValue("contents"));
+		} else if (type == ChooseSqlNode.class) {
+			out.writeByte(CHOOSE);
+			writeList(out, (List<SqlNode>) metaObject.getValue("ifSqlNodes"));
+			write(out, (SqlNode) metaObject.getValue("defaultSqlNode"));
+		} else if (type == VarDeclSqlNode.class) {
+			out.writeByte(VAR_DECL);
+			SnapshotIO.writeString(out, (String) metaObject.getValue("name"));
+			SnapshotIO.writeString(out, (String) metaObject.getValue("expression"));
+		} else {
+			throw new BuilderException("SqlNode " + type.getName() + " cannot be saved in a configuration snapshot");
+		}
+	}
+
+	private static void writeList(DataOutputStream out, List<SqlNode> nodes) throws IOException {
+		out.writeInt(nodes.size());
+		for (SqlNode node : nodes) {
+			write(out, node);
+		}
+	}
+
+	/** TrimSqlNode解析后的列表（已经转成大写），重新用|连起来 */
+	private static String overrides(List<String> overrides) {
+		if (overrides == null) {
+			return null;
+		}
+		StringBuilder joined = new StringBuilder();
+		for (String override : overrides) {
+			if (joined.length() > 0) {
+				joined.append('|');
+			}
+			joined.append(override);
+		}
+		return joined.toString();
+	}
+
+	static SqlNode read(DataInputStream in, Configuration configuration) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case NONE:
+			return null;
+		case MIXED:
+			return new MixedSqlNode(readList(in, configuration));
+		case STATIC_TEXT:
+			return new StaticTextSqlNode(SnapshotIO.readString(in));
+		case TEXT:
+			return new TextSqlNode(SnapshotIO.readString(in));
+		case IF: {
+			String test = SnapshotIO.readString(in);
+			return new IfSqlNode(read(in, configuration), test);
+		}
+		case WHERE:
+			return new WhereSqlNode(configuration, read(in, configuration));
+		case SET:
+			return new SetSqlNode(configuration, read(in, configuration));
+		case TRIM: {
+			String prefix = SnapshotIO.readString(in);
+			String prefixesToOverride = SnapshotIO.readString(in);
+			String suffix = SnapshotIO.readString(in);
+			String suffixesToOverride = SnapshotIO.readString(in);
+			return new TrimSqlNode(configuration, read(in, configuration), prefix, prefixesToOverride, suffix,
+					suffixesToOverride);
+		}
+		case FOREACH: {
+			String collection = SnapshotIO.readString(in);
+			String index = SnapshotIO.readString(in);
+			String item = SnapshotIO.readString(in);
+			String open = SnapshotIO.readString(in);
+			String close = SnapshotIO.readString(in);
+			String separator = SnapshotIO.readString(in);
+			return new ForEachSqlNode(configuration, read(in, configuration), collection, index, item, open, close,
+					separator);
+		}
+		case CHOOSE: {
+			List<SqlNode> whens = readList(in, configuration);
+			return new ChooseSqlNode(whens, read(in, configuration));
+		}
+		case VAR_DECL: {
+			String name = SnapshotIO.readString(in);
+			return new VarDeclSqlNode(name, SnapshotIO.readString(in));
+		}
+		default:
+			throw new BuilderException("Unknown SqlNode type in configuration snapshot: " + type);
+		}
+	}
+
+	private static List<SqlNode> readList(DataInputStream in, Configuration configuration) throws IOException {
+		int size = in.readInt();
+		List<SqlNode> nodes = new ArrayList<SqlNode>(size);
+		for (int i = 0; i < size; i++) {
+			nodes.add(read(in, configuration));
+		}
+		return nodes;
+	}
+}
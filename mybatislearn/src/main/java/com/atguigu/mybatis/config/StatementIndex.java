@@ -0,0 +1,132 @@
+package com.atguigu.mybatis.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.DeleteProvider;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.InsertProvider;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.SelectProvider;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.annotations.UpdateProvider;
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.xml.XMLMapperEntityResolver;
+import org.apache.ibatis.io.Resources;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * 不解析语句，只列出一个Mapper接口会有哪些语句id：
+ * 	1、同名映射文件（和MapperAnnotationBuilder.loadXmlResource找的是同一个文件）里<select|insert|update|delete>的id，
+ * 		用SAX扫一遍，不做DTD校验、不建DOM
+ * 	2、方法上的@Select、@Insert、@Update、@Delete以及对应的Provider注解
+ *
+ * databaseId和XMLStatementBuilder.databaseIdMatchesCurrent的规则一样：
+ * 		databaseId等于当前数据库或者没写databaseId的语句才会生效，其他数据库的语句不进索引
+ */
+final class StatementIndex {
+
+	private static final Set<String> STATEMENT_ELEMENTS = new HashSet<String>();
+	private static final Set<Class<? extends Annotation>> STATEMENT_ANNOTATIONS = new HashSet<Class<? extends Annotation>>();
+
+	static {
+		STATEMENT_ELEMENTS.add("select");
+		STATEMENT_ELEMENTS.add("insert");
+		STATEMENT_ELEMENTS.add("update");
+		STATEMENT_ELEMENTS.add("delete");
+		STATEMENT_ANNOTATIONS.add(Select.class);
+		STATEMENT_ANNOTATIONS.add(Insert.class);
+		STATEMENT_ANNOTATIONS.add(Update.class);
+		STATEMENT_ANNOTATIONS.add(Delete.class);
+		STATEMENT_ANNOTATIONS.add(SelectProvider.class);
+		STATEMENT_ANNOTATIONS.add(InsertProvider.class);
+		STATEMENT_ANNOTATIONS.add(UpdateProvider.class);
+		STATEMENT_ANNOTATIONS.add(DeleteProvider.class);
+	}
+
+	private StatementIndex() {
+	}
+
+	/**
+	 * @return 当前databaseId下生效的语句id（带namespace）
+	 */
+	static Set<String> index(Class<?> type, String databaseId) {
+		Set<String> statements = new HashSet<String>();
+		String xmlResource = type.getName().replace('.', '/') + ".xml";
+		InputStream in = null;
+		try {
+			in = Resources.getResourceAsStream(type.getClassLoader(), xmlResource);
+		} catch (IOException e) {
+			// 和MapperAnnotationBuilder一样，没有同名映射文件就只看注解
+		}
+		if (in != null) {
+			try {
+				scan(in, type.getName(), databaseId, statements);
+			} catch (Exception e) {
+				throw new BuilderException("Error indexing mapper " + xmlResource + ". Cause: " + e, e);
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		for (Method method : type.getMethods()) {
+			if (method.isBridge()) {
+				continue;
+			}
+			for (Annotation annotation : method.getAnnotations()) {
+				if (STATEMENT_ANNOTATIONS.contains(annotation.annotationType())) {
+					statements.add(type.getName() + "." + method.getName());
+				}
+			}
+		}
+		return statements;
+	}
+
+	private static void scan(InputStream in, final String namespace, final String databaseId,
+			final Set<String> statements) throws Exception {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setValidating(false);
+		factory.newSAXParser().parse(in, new DefaultHandler() {
+
+			private final XMLMapperEntityResolver resolver = new XMLMapperEntityResolver();
+			private int depth;
+
+			@Override
+			public InputSource resolveEntity(String publicId, String systemId) throws SAXException {
+				return resolver.resolveEntity(publicId, systemId);
+			}
+
+			@Override
+			public void startElement(String uri, String localName, String qName, Attributes attributes) {
+				depth++;
+				if (depth != 2 || !STATEMENT_ELEMENTS.contains(qName)) {
+					return;
+				}
+				String id = attributes.getValue("id");
+				String statementDatabaseId = attributes.getValue("databaseId");
+				if (id == null || (statementDatabaseId != null && !statementDatabaseId.equals(databaseId))) {
+					return;
+				}
+				statements.add(id.startsWith(namespace + ".") ? id : namespace + "." + id);
+			}
+
+			@Override
+			public void endElement(String uri, String localName, String qName) {
+				depth--;
+			}
+		});
+	}
+}
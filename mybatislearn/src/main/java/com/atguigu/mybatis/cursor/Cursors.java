@@ -0,0 +1,104 @@
+package com.atguigu.mybatis.cursor;
+
+import java.io.IOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.PersistenceException;
+
+/**
+ * Cursor的适配工具：
+ * 1、stream：把Cursor包装成Stream，关闭Stream时关闭Cursor
+ * 2、pipe：在当前线程读游标，交给另一个线程上的consumer处理；
+ * 		中间是容量固定的队列，consumer处理不过来时读游标的线程阻塞（背压），堆内存占用与表大小无关
+ *
+ * 注意：游标依赖SqlSession打开的连接，必须在SqlSession关闭之前读完；
+ * 		MySQL流式结果集读完之前，这个连接上不能再执行其他语句
+ */
+public final class Cursors {
+
+	/** 结束标记 */
+	private static final Object END = new Object();
+
+	private Cursors() {
+	}
+
+	public static <T> Stream<T> stream(final Cursor<T> cursor) {
+		Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(cursor.iterator(), Spliterator.ORDERED);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				closeQuietly(cursor);
+			}
+		});
+	}
+
+	/**
+	 * 把游标中的每一行交给consumer，consumer在executor上运行，
+	 * 最多有capacity行在途；方法返回时游标已关闭、consumer已处理完所有行
+	 * @return 处理的行数
+	 */
+	public static <T> long pipe(Cursor<T> cursor, int capacity, final Consumer<? super T> consumer,
+			ExecutorService executor) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(capacity);
+		Future<Long> consumed = executor.submit(new Callable<Long>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public Long call() throws Exception {
+				long count = 0;
+				for (Object row = queue.take(); row != END; row = queue.take()) {
+					consumer.accept((T) row);
+					count++;
+				}
+				return count;
+			}
+		});
+		try {
+			for (T row : cursor) {
+				// consumer失败时队列可能永远不会再空出来，所以不能无限期地put
+				while (!queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+					if (consumed.isDone()) {
+						return consumed.get();
+					}
+				}
+			}
+			while (!queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+				if (consumed.isDone()) {
+					break;
+				}
+			}
+			return consumed.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			consumed.cancel(true);
+			throw new PersistenceException("Interrupted while piping cursor rows", e);
+		} catch (ExecutionException e) {
+			throw new PersistenceException("Error consuming cursor rows. Cause: " + e.getCause(), e.getCause());
+		} finally {
+			consumed.cancel(true);
+			closeQuietly(cursor);
+		}
+	}
+
+	private static void closeQuietly(Cursor<?> cursor) {
+		try {
+			cursor.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
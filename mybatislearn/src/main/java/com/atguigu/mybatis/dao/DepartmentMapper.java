@@ -1,5 +1,10 @@
 package com.atguigu.mybatis.dao;
 
+import java.util.List;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.ResultHandler;
+
 import com.atguigu.mybatis.bean.Department;
 
 public interface DepartmentMapper {
@@ -9,4 +14,16 @@ public interface DepartmentMapper {
 	public Department getDeptByIdPlus(Integer id);
 
 	public Department getDeptByIdStep(Integer id);
+
+	//查询所有部门，emps分步延迟加载
+	public List<Department> getDeptsStep();
+
+	//批量延迟加载用：按id集合查询部门
+	public List<Department> getDeptsByIds(List<Integer> ids);
+
+	//所有部门和员工按部门id排序流式读取：每读完一个部门交出一个Department，用完要关闭Cursor
+	public Cursor<Department> getDeptsWithEmpsCursor();
+
+	//同上，每个部门读完时回调一次handler
+	public void getDeptsWithEmps(ResultHandler<Department> handler);
 }
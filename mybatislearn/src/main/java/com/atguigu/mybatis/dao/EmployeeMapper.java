@@ -5,6 +5,7 @@ import java.util.Map;
 
 import com.atguigu.mybatis.bean.OraclePage;
 import org.apache.ibatis.annotations.MapKey;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.annotations.Param;
 
 import com.atguigu.mybatis.bean.Employee;
@@ -41,6 +42,14 @@ public interface EmployeeMapper {
 
 	public List<Employee> getEmps();
 
+	//流式查询全表：逐行读取，用完要关闭Cursor（或者关闭SqlSession）
+	public Cursor<Employee> getEmpsCursor();
+
+	//keyset分页：按id排序，取id大于afterId的前limit条；afterId为null表示第一页
+	public List<Employee> getEmpsAfterId(@Param("afterId") Integer afterId, @Param("limit") int limit);
+
+	public long countEmps();
+
 	public Long addEmpByBantch(Employee employee);
 	public void getPageByProcedure(OraclePage page);
 
@@ -24,4 +24,9 @@ public interface EmployeeMapperDynamicSQL {
 	
 	public void addEmps(@Param("emps") List<Employee> emps);
 
+	//分块批量保存，由BulkInserter控制每块的大小；保存后每个Employee的id都已回填
+	public void addEmpsChunk(List<Employee> emps);
+
+	public void addEmpRow(Employee emp);
+
 }
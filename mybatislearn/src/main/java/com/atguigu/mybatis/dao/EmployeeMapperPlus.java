@@ -14,4 +14,10 @@ public interface EmployeeMapperPlus {
 	
 	public List<Employee> getEmpsByDeptId(Integer deptId);
 
+	//查询所有员工，dept分步延迟加载
+	public List<Employee> getEmpsStep();
+
+	//批量延迟加载用：按部门id集合查询员工，d_id封装到dept.id用来分组
+	public List<Employee> getEmpsByDeptIds(List<Integer> deptIds);
+
 }
@@ -0,0 +1,906 @@
+package com.atguigu.mybatis.datasource;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 替代MyBatis自带POOLED的连接池（PooledDataSource的借出和归还都在一个PoolState的锁里，线程一多就排队）
+ *
+ * 1、借出和归还不加锁：
+ * 		空闲连接放在ConcurrentLinkedDeque里，后进先出（刚用过的连接更可能还活着、在缓存里）；
+ * 		连接的状态用CAS切换（见PoolEntry），连接数用CAS占位，不超过maximumPoolSize；
+ * 		连接全借出去时排队park，归还的线程把连接放回空闲队列后unpark一个等待的线程。
+ * 		不直接把连接交给等待的线程：正在运行的线程可以先拿走（插队），
+ * 		否则线程数远多于连接数时每次借出都要切换一次线程
+ * 2、快速校验：超过validationInterval没用过的连接借出前才校验，
+ * 		默认用JDBC4的Connection.isValid（MySQL驱动发一个COM_PING），配置了connectionTestQuery时执行这条sql
+ * 3、后台线程（每housekeepingPeriod毫秒）：
+ * 		补足minimumIdle个空闲连接；关闭空闲超过idleTimeout的连接（不少于minimumIdle）；
+ * 		关闭超过maxLifetime的空闲连接，正在用的归还时关闭（每个连接的寿命随机减少一点，避免同时过期）
+ * 4、泄漏检测：借出时只记下借出时间和线程，后台线程检查借出超过leakDetectionThreshold毫秒的连接，
+ * 		打印借到连接的线程当前的调用栈（每次借出只报告一次）；
+ * 		打开泄漏检测时后台线程的周期不超过leakDetectionThreshold
+ * 5、统计：snapshot()返回连接数、等待线程数和等待时间、使用时间的直方图；jmx=true时注册
+ * 		com.atguigu.mybatis:type=FastPooledDataSource,name=poolName
+ *
+ * 归还时和POOLED一样，autoCommit=false的连接先rollback，再把改过的autoCommit、readOnly、
+ * 		事务隔离级别、catalog恢复成默认值
+ *
+ * 配置（时间都是毫秒）：
+ * 	<dataSource type="com.atguigu.mybatis.datasource.FastPooledDataSourceFactory">
+ * 		<property name="driver" value="${jdbc.driver}" />
+ * 		...
+ * 		<property name="maximumPoolSize" value="10" />
+ * 		<property name="minimumIdle" value="2" />
+ * 		<property name="maxLifetime" value="1800000" />
+ * 		<property name="leakDetectionThreshold" value="60000" />
+ * 	</dataSource>
+ */
+public class FastPooledDataSource implements DataSource, FastPooledDataSourceMXBean {
+
+	private static final Log log = LogFactory.getLog(FastPooledDataSource.class);
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+	private final UnpooledDataSource dataSource;
+
+	private String poolName = "FastPool-" + POOL_NUMBER.incrementAndGet();
+	private int maximumPoolSize = 10;
+	private int minimumIdle = 2;
+	private long connectionTimeout = 30000;
+	private long idleTimeout = 600000;
+	private long maxLifetime = 1800000;
+	private long leakDetectionThreshold;
+	private long validationTimeout = 5000;
+	private long validationInterval = 500;
+	private String connectionTestQuery;
+	private long housekeepingPeriod = 30000;
+	private boolean jmx;
+
+	private final ConcurrentLinkedDeque<PoolEntry> idle = new ConcurrentLinkedDeque<PoolEntry>();
+	private final Set<PoolEntry> all = ConcurrentHashMap.newKeySet();
+	private final ConcurrentLinkedQueue<Waiter> waitQueue = new ConcurrentLinkedQueue<Waiter>();
+	private final AtomicInteger totalConnections = new AtomicInteger();
+	private final AtomicInteger waiters = new AtomicInteger();
+	private final PoolMetrics metrics = new PoolMetrics();
+	private volatile int generation;
+	private volatile boolean started;
+	private volatile boolean shutdown;
+	private ScheduledThreadPoolExecutor housekeeper;
+	private ObjectName objectName;
+
+	public FastPooledDataSource() {
+		dataSource = new UnpooledDataSource();
+	}
+
+	public FastPooledDataSource(String driver, String url, String username, String password) {
+		dataSource = new UnpooledDataSource(driver, url, username, password);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		start();
+		long begin = System.nanoTime();
+		PoolEntry entry = borrow(begin + TimeUnit.MILLISECONDS.toNanos(connectionTimeout));
+		long now = System.nanoTime();
+		metrics.recordBorrow(now - begin);
+		entry.borrowedAt = now;
+		entry.lastAccessed = now;
+		entry.broken = false;
+		if (leakDetectionThreshold > 0) {
+			entry.borrower = Thread.currentThread();
+		}
+		return new ProxyConnection(entry).proxy;
+	}
+
+	/**
+	 * 和PooledDataSource一样，不支持按用户名借连接
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("FastPooledDataSource does not support getConnection(username, password)");
+	}
+
+	private PoolEntry borrow(long deadline) throws SQLException {
+		if (shutdown) {
+			throw new SQLException("Pool " + poolName + " has been closed");
+		}
+		PoolEntry entry = pollIdleOrCreate();
+		if (entry != null) {
+			return entry;
+		}
+		waiters.incrementAndGet();
+		Waiter waiter = new Waiter(Thread.currentThread());
+		try {
+			for (;;) {
+				if (!waiter.queued) {
+					// 先排队再看空闲队列：归还的线程要么在这里被看到，要么看到这个waiter并唤醒它
+					waiter.queued = true;
+					waitQueue.offer(waiter);
+				}
+				entry = pollIdleOrCreate();
+				if (entry != null) {
+					return entry;
+				}
+				if (shutdown) {
+					throw new SQLException("Pool " + poolName + " has been closed");
+				}
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					metrics.timeouts.increment();
+					throw new SQLTransientConnectionException(poolName + " - connection is not available, request timed out after "
+							+ connectionTimeout + "ms (total=" + totalConnections.get() + ", waiting=" + waiters.get() + ")");
+				}
+				LockSupport.parkNanos(this, remaining);
+				if (Thread.interrupted()) {
+					Thread.currentThread().interrupt();
+					throw new SQLException(poolName + " - interrupted while waiting for a connection");
+				}
+			}
+		} finally {
+			waiters.decrementAndGet();
+			if (waiter.queued) {
+				waitQueue.remove(waiter);
+			}
+			// 被唤醒的可能是已经拿到连接（或超时）的线程，把唤醒传给下一个
+			if (idle.peekFirst() != null) {
+				signalWaiter();
+			}
+		}
+	}
+
+	/**
+	 * 有连接放回空闲队列或者连接数减少了：唤醒一个等待的线程
+	 */
+	private void signalWaiter() {
+		if (waiters.get() > 0) {
+			Waiter waiter = waitQueue.poll();
+			if (waiter != null) {
+				waiter.queued = false;
+				LockSupport.unpark(waiter.thread);
+			}
+		}
+	}
+
+	/**
+	 * @return 没有空闲连接并且已经到了maximumPoolSize时返回null
+	 */
+	private PoolEntry pollIdleOrCreate() throws SQLException {
+		PoolEntry entry;
+		while ((entry = idle.pollFirst()) != null) {
+			// CAS失败说明后台线程正在回收它
+			if (entry.compareAndSet(PoolEntry.IDLE, PoolEntry.IN_USE)) {
+				if (isUsable(entry)) {
+					return entry;
+				}
+				retire(entry);
+			}
+		}
+		return tryCreate(PoolEntry.IN_USE);
+	}
+
+	private PoolEntry tryCreate(int state) throws SQLException {
+		for (;;) {
+			int total = totalConnections.get();
+			if (total >= maximumPoolSize) {
+				return null;
+			}
+			if (totalConnections.compareAndSet(total, total + 1)) {
+				break;
+			}
+		}
+		try {
+			Connection connection = dataSource.getConnection();
+			long now = System.nanoTime();
+			long expiresAt = PoolEntry.NEVER;
+			if (maxLifetime > 0) {
+				long lifetime = TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+				// 最多提前2.5%过期，同时建的连接不会同时过期
+				expiresAt = now + lifetime - ThreadLocalRandom.current().nextLong(lifetime / 40 + 1);
+			}
+			PoolEntry entry = new PoolEntry(connection, now, expiresAt, generation, state);
+			all.add(entry);
+			metrics.created.increment();
+			return entry;
+		} catch (SQLException e) {
+			totalConnections.decrementAndGet();
+			throw e;
+		} catch (RuntimeException e) {
+			totalConnections.decrementAndGet();
+			throw e;
+		}
+	}
+
+	private boolean isUsable(PoolEntry entry) {
+		long now = System.nanoTime();
+		if (entry.isExpired(now) || entry.generation != generation || shutdown) {
+			return false;
+		}
+		if (now - entry.lastAccessed < TimeUnit.MILLISECONDS.toNanos(validationInterval)) {
+			return true;
+		}
+		if (validate(entry.connection)) {
+			return true;
+		}
+		metrics.validationFailures.increment();
+		return false;
+	}
+
+	private boolean validate(Connection connection) {
+		int timeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(validationTimeout));
+		try {
+			if (connectionTestQuery == null) {
+				return connection.isValid(timeoutSeconds);
+			}
+			Statement statement = connection.createStatement();
+			try {
+				statement.setQueryTimeout(timeoutSeconds);
+				statement.execute(connectionTestQuery);
+			} finally {
+				statement.close();
+			}
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+			}
+			return true;
+		} catch (Exception e) {
+			if (log.isDebugEnabled()) {
+				log.debug(poolName + " - connection " + connection + " failed validation: " + e.getMessage());
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * 由借到连接的线程在归还时调用
+	 */
+	private void release(PoolEntry entry) {
+		if (entry.borrower != null) {
+			entry.borrower = null;
+		}
+		long now = System.nanoTime();
+		metrics.recordUsage(now - entry.borrowedAt);
+		entry.lastAccessed = now;
+		if (entry.broken || entry.isExpired(now) || entry.generation != generation || shutdown) {
+			retire(entry);
+			return;
+		}
+		entry.setState(PoolEntry.IDLE);
+		idle.offerFirst(entry);
+		// close()和这次归还同时发生时，close()可能已经扫过空闲队列
+		if (shutdown && entry.compareAndSet(PoolEntry.IDLE, PoolEntry.REMOVED)) {
+			idle.remove(entry);
+			closePhysical(entry);
+			return;
+		}
+		signalWaiter();
+	}
+
+	/**
+	 * 关闭一个IN_USE状态（调用方独占）的连接
+	 */
+	private void retire(PoolEntry entry) {
+		entry.setState(PoolEntry.REMOVED);
+		closePhysical(entry);
+	}
+
+	private void closePhysical(PoolEntry entry) {
+		if (all.remove(entry)) {
+			totalConnections.decrementAndGet();
+			metrics.closed.increment();
+			// 等待的线程可以新建连接了
+			signalWaiter();
+		}
+		try {
+			entry.connection.close();
+		} catch (SQLException e) {
+			// 连接可能已经断了，忽略
+		}
+	}
+
+	private void start() {
+		if (started) {
+			return;
+		}
+		synchronized (this) {
+			if (started) {
+				return;
+			}
+			housekeeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, poolName + "-housekeeper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			long period = leakDetectionThreshold > 0 ? Math.min(housekeepingPeriod, leakDetectionThreshold)
+					: housekeepingPeriod;
+			housekeeper.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					housekeep();
+				}
+			}, 0, period, TimeUnit.MILLISECONDS);
+			if (jmx) {
+				registerMBean();
+			}
+			started = true;
+		}
+	}
+
+	/**
+	 * 后台线程：报告泄漏的连接，回收过期和空闲太久的连接，补足minimumIdle
+	 */
+	private void housekeep() {
+		try {
+			long now = System.nanoTime();
+			if (leakDetectionThreshold > 0) {
+				detectLeaks(now);
+			}
+			long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+			int removable = totalConnections.get() - minimumIdle;
+			// 从队尾（最久没用的）开始
+			Iterator<PoolEntry> iterator = idle.descendingIterator();
+			while (iterator.hasNext()) {
+				PoolEntry entry = iterator.next();
+				boolean expired = entry.isExpired(now) || entry.generation != generation;
+				boolean idleTooLong = idleTimeout > 0 && removable > 0 && now - entry.lastAccessed > idleTimeoutNanos;
+				if ((expired || idleTooLong) && entry.compareAndSet(PoolEntry.IDLE, PoolEntry.REMOVED)) {
+					idle.remove(entry);
+					closePhysical(entry);
+					removable--;
+				}
+			}
+			fillPool();
+		} catch (Throwable t) {
+			log.warn(poolName + " - housekeeping failed: " + t);
+		}
+	}
+
+	/**
+	 * 借出超过leakDetectionThreshold还没归还：打印借到连接的线程现在的调用栈
+	 * 		（借出时不再new Exception记录调用栈，借出和归还只多写一个字段）
+	 */
+	private void detectLeaks(long now) {
+		long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakDetectionThreshold);
+		for (PoolEntry entry : all) {
+			// 先读borrower：借出时先写borrowedAt再写borrower，读到这次借出的线程就能读到这次的借出时间
+			Thread thread = entry.borrower;
+			if (thread == null || entry.getState() != PoolEntry.IN_USE) {
+				continue;
+			}
+			long borrowedAt = entry.borrowedAt;
+			if (now - borrowedAt < thresholdNanos || entry.leakReportedAt == borrowedAt) {
+				continue;
+			}
+			entry.leakReportedAt = borrowedAt;
+			metrics.leaks.increment();
+			StringBuilder stack = new StringBuilder();
+			for (StackTraceElement element : thread.getStackTrace()) {
+				stack.append("\n\tat ").append(element);
+			}
+			log.warn(poolName + " - connection leak detection triggered for " + entry.connection + " on thread "
+					+ thread.getName() + ", not returned after " + TimeUnit.NANOSECONDS.toMillis(now - borrowedAt)
+					+ "ms, thread is now at:" + stack);
+		}
+	}
+
+	private void fillPool() {
+		while (!shutdown && idleCount() < minimumIdle) {
+			PoolEntry entry;
+			try {
+				entry = tryCreate(PoolEntry.IDLE);
+			} catch (SQLException e) {
+				log.warn(poolName + " - could not create connection: " + e.getMessage());
+				return;
+			}
+			if (entry == null) {
+				return;
+			}
+			// 新连接放在队尾，先用刚用过的
+			idle.offerLast(entry);
+		}
+	}
+
+	private int idleCount() {
+		int count = 0;
+		for (PoolEntry entry : all) {
+			if (entry.getState() == PoolEntry.IDLE) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 关闭所有空闲连接，正在用的归还时关闭；之后借出的都是新连接
+	 * 		（修改了url等连接属性、数据库主备切换之后调用）
+	 */
+	@Override
+	public synchronized void softEvictConnections() {
+		generation++;
+		evictIdle();
+	}
+
+	private void evictIdle() {
+		PoolEntry entry;
+		while ((entry = idle.pollFirst()) != null) {
+			if (entry.compareAndSet(PoolEntry.IDLE, PoolEntry.REMOVED)) {
+				closePhysical(entry);
+			}
+		}
+	}
+
+	/**
+	 * 关闭连接池：停掉后台线程，关闭空闲连接，正在用的归还时关闭；之后getConnection会抛异常
+	 */
+	public void close() {
+		shutdown = true;
+		synchronized (this) {
+			if (housekeeper != null) {
+				housekeeper.shutdownNow();
+			}
+			unregisterMBean();
+		}
+		evictIdle();
+		Waiter waiter;
+		while ((waiter = waitQueue.poll()) != null) {
+			waiter.queued = false;
+			LockSupport.unpark(waiter.thread);
+		}
+	}
+
+	public boolean isClosed() {
+		return shutdown;
+	}
+
+	public PoolSnapshot snapshot() {
+		int total = 0;
+		int active = 0;
+		int idleCount = 0;
+		for (PoolEntry entry : all) {
+			total++;
+			int state = entry.getState();
+			if (state == PoolEntry.IN_USE) {
+				active++;
+			} else if (state == PoolEntry.IDLE) {
+				idleCount++;
+			}
+		}
+		return metrics.snapshot(poolName, total, active, idleCount, waiters.get());
+	}
+
+	@Override
+	public PoolSnapshot getSnapshot() {
+		return snapshot();
+	}
+
+	@Override
+	public int getActiveConnections() {
+		return snapshot().getActive();
+	}
+
+	@Override
+	public int getIdleConnections() {
+		return idleCount();
+	}
+
+	@Override
+	public int getTotalConnections() {
+		return totalConnections.get();
+	}
+
+	@Override
+	public int getThreadsAwaitingConnection() {
+		return waiters.get();
+	}
+
+	@Override
+	public void resetStats() {
+		metrics.reset();
+	}
+
+	private void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("com.atguigu.mybatis:type=FastPooledDataSource,name=" + ObjectName.quote(poolName));
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (JMException e) {
+			throw new DataSourceException("Could not register FastPooledDataSource MBean '" + poolName + "'", e);
+		}
+	}
+
+	private void unregisterMBean() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			// 已经被注销了
+		}
+		objectName = null;
+	}
+
+	/**
+	 * 连接池给出的连接是代理，返回它代理的物理连接；不是这个连接池的连接原样返回
+	 */
+	public static Connection unwrapConnection(Connection connection) {
+		if (connection != null && Proxy.isProxyClass(connection.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(connection);
+			if (handler instanceof ProxyConnection) {
+				return ((ProxyConnection) handler).entry.connection;
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * 借出去的连接：close时归还；第一次修改autoCommit等设置前记下原来的值，归还时恢复
+	 */
+	private final class ProxyConnection implements InvocationHandler {
+
+		private final PoolEntry entry;
+		private final Connection connection;
+		private final Connection proxy;
+		private boolean closed;
+		private Boolean autoCommit;
+		private Boolean readOnly;
+		private Integer isolation;
+		private String catalog;
+
+		ProxyConnection(PoolEntry entry) {
+			this.entry = entry;
+			this.connection = entry.connection;
+			this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] {Connection.class}, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("toString".equals(name)) {
+				return poolName + "[" + connection + "]";
+			}
+			if ("close".equals(name)) {
+				close();
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return closed || connection.isClosed();
+			}
+			if (closed) {
+				throw new SQLException("Connection is closed");
+			}
+			try {
+				remember(name);
+				return method.invoke(connection, args);
+			} catch (Throwable t) {
+				Throwable cause = ExceptionUtil.unwrapThrowable(t);
+				if (StatementCachingDataSource.isConnectionError(cause)) {
+					entry.broken = true;
+				}
+				throw cause;
+			}
+		}
+
+		private void remember(String name) throws SQLException {
+			if ("setAutoCommit".equals(name) && autoCommit == null) {
+				autoCommit = connection.getAutoCommit();
+			} else if ("setReadOnly".equals(name) && readOnly == null) {
+				readOnly = connection.isReadOnly();
+			} else if ("setTransactionIsolation".equals(name) && isolation == null) {
+				isolation = connection.getTransactionIsolation();
+			} else if ("setCatalog".equals(name) && catalog == null) {
+				catalog = connection.getCatalog();
+			}
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				reset();
+			} catch (SQLException e) {
+				entry.broken = true;
+			}
+			release(entry);
+		}
+
+		private void reset() throws SQLException {
+			if (connection.isClosed()) {
+				entry.broken = true;
+				return;
+			}
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+			}
+			if (autoCommit != null) {
+				connection.setAutoCommit(autoCommit);
+			}
+			if (readOnly != null) {
+				connection.setReadOnly(readOnly);
+			}
+			if (isolation != null) {
+				connection.setTransactionIsolation(isolation);
+			}
+			if (catalog != null) {
+				connection.setCatalog(catalog);
+			}
+			connection.clearWarnings();
+		}
+	}
+
+	/**
+	 * 等待连接的线程；queued在唤醒时置为false，被唤醒后没拿到连接就重新排队
+	 */
+	private static final class Waiter {
+
+		final Thread thread;
+		volatile boolean queued;
+
+		Waiter(Thread thread) {
+			this.thread = thread;
+		}
+	}
+
+	/**
+	 * 修改了连接属性：已有的连接作废
+	 */
+	private void connectionPropertiesChanged() {
+		if (started) {
+			softEvictConnections();
+		}
+	}
+
+	public void setDriver(String driver) {
+		dataSource.setDriver(driver);
+		connectionPropertiesChanged();
+	}
+
+	public void setUrl(String url) {
+		dataSource.setUrl(url);
+		connectionPropertiesChanged();
+	}
+
+	public void setUsername(String username) {
+		dataSource.setUsername(username);
+		connectionPropertiesChanged();
+	}
+
+	public void setPassword(String password) {
+		dataSource.setPassword(password);
+		connectionPropertiesChanged();
+	}
+
+	public void setDriverProperties(Properties driverProperties) {
+		dataSource.setDriverProperties(driverProperties);
+		connectionPropertiesChanged();
+	}
+
+	public void setDefaultAutoCommit(boolean defaultAutoCommit) {
+		dataSource.setAutoCommit(defaultAutoCommit);
+		connectionPropertiesChanged();
+	}
+
+	public void setDefaultTransactionIsolationLevel(Integer defaultTransactionIsolationLevel) {
+		dataSource.setDefaultTransactionIsolationLevel(defaultTransactionIsolationLevel);
+		connectionPropertiesChanged();
+	}
+
+	public String getDriver() {
+		return dataSource.getDriver();
+	}
+
+	public String getUrl() {
+		return dataSource.getUrl();
+	}
+
+	public String getUsername() {
+		return dataSource.getUsername();
+	}
+
+	public String getPassword() {
+		return dataSource.getPassword();
+	}
+
+	public Properties getDriverProperties() {
+		return dataSource.getDriverProperties();
+	}
+
+	public boolean isDefaultAutoCommit() {
+		return dataSource.isAutoCommit() == null || dataSource.isAutoCommit();
+	}
+
+	public Integer getDefaultTransactionIsolationLevel() {
+		return dataSource.getDefaultTransactionIsolationLevel();
+	}
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	/** 用在后台线程名和JMX的name上，需要在第一次getConnection之前设置 */
+	public void setPoolName(String poolName) {
+		this.poolName = poolName;
+	}
+
+	public int getMaximumPoolSize() {
+		return maximumPoolSize;
+	}
+
+	public void setMaximumPoolSize(int maximumPoolSize) {
+		if (maximumPoolSize < 1) {
+			throw new IllegalArgumentException("maximumPoolSize must be at least 1");
+		}
+		this.maximumPoolSize = maximumPoolSize;
+	}
+
+	public int getMinimumIdle() {
+		return minimumIdle;
+	}
+
+	public void setMinimumIdle(int minimumIdle) {
+		this.minimumIdle = minimumIdle;
+	}
+
+	public long getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	/** 等待空闲连接的最长时间 */
+	public void setConnectionTimeout(long connectionTimeout) {
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/** 超过minimumIdle的连接空闲这么久后关闭，0表示不关闭 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public long getMaxLifetime() {
+		return maxLifetime;
+	}
+
+	/** 连接的最长寿命，要比数据库的wait_timeout短；0表示不限制 */
+	public void setMaxLifetime(long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+	}
+
+	public long getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+
+	/** 0表示不检测 */
+	public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+	}
+
+	public long getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	public void setValidationTimeout(long validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	public long getValidationInterval() {
+		return validationInterval;
+	}
+
+	/** 这么久之内用过的连接借出时不校验 */
+	public void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+
+	public String getConnectionTestQuery() {
+		return connectionTestQuery;
+	}
+
+	/** 驱动不支持Connection.isValid时设置，比如select 1 from dual */
+	public void setConnectionTestQuery(String connectionTestQuery) {
+		this.connectionTestQuery = connectionTestQuery;
+	}
+
+	public long getHousekeepingPeriod() {
+		return housekeepingPeriod;
+	}
+
+	public void setHousekeepingPeriod(long housekeepingPeriod) {
+		this.housekeepingPeriod = housekeepingPeriod;
+	}
+
+	public boolean isJmx() {
+		return jmx;
+	}
+
+	public void setJmx(boolean jmx) {
+		this.jmx = jmx;
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return dataSource.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		dataSource.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		dataSource.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return dataSource.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() {
+		return dataSource.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException(getClass().getName() + " is not a wrapper for " + iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+}
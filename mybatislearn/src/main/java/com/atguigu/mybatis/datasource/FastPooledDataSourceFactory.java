@@ -0,0 +1,14 @@
+package com.atguigu.mybatis.datasource;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
+
+/**
+ * <dataSource type="com.atguigu.mybatis.datasource.FastPooledDataSourceFactory">
+ * 		属性按名字设置到FastPooledDataSource上（和POOLED一样，driver.开头的是驱动的属性）
+ */
+public class FastPooledDataSourceFactory extends UnpooledDataSourceFactory {
+
+	public FastPooledDataSourceFactory() {
+		this.dataSource = new FastPooledDataSource();
+	}
+}
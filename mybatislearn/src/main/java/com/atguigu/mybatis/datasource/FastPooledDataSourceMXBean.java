@@ -0,0 +1,21 @@
+package com.atguigu.mybatis.datasource;
+
+/**
+ * JMX：com.atguigu.mybatis:type=FastPooledDataSource,name=配置的poolName
+ */
+public interface FastPooledDataSourceMXBean {
+
+	PoolSnapshot getSnapshot();
+
+	int getActiveConnections();
+
+	int getIdleConnections();
+
+	int getTotalConnections();
+
+	int getThreadsAwaitingConnection();
+
+	void softEvictConnections();
+
+	void resetStats();
+}
@@ -0,0 +1,70 @@
+package com.atguigu.mybatis.datasource;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接池里的一个物理连接
+ *
+ * 状态只通过CAS改变：IDLE ==> IN_USE（借出）、IDLE ==> REMOVED（后台线程回收空闲连接）；
+ * 		IN_USE的连接只有借到它的线程能改状态，所以借出和回收不会同时拿到同一个连接
+ */
+final class PoolEntry {
+
+	static final int IDLE = 0;
+	static final int IN_USE = 1;
+	static final int REMOVED = 2;
+	/** maxLifetime=0：不过期 */
+	static final long NEVER = Long.MAX_VALUE;
+
+	final Connection connection;
+	final long createdAt;
+	/** 到这个时间（System.nanoTime）之后不再使用 */
+	final long expiresAt;
+	/** 创建时连接池的代数，softEvictConnections之后旧代的连接都要回收 */
+	final int generation;
+	private final AtomicInteger state;
+	/** 最近一次借出或归还的时间，超过validationInterval没用过的连接借出前要校验 */
+	volatile long lastAccessed;
+
+	/** 最近一次借出的时间，归还时算使用时间，后台线程用它找出超过leakDetectionThreshold的连接 */
+	volatile long borrowedAt;
+	/** 借到连接的线程，开了泄漏检测才记录，归还时清空 */
+	volatile Thread borrower;
+	/** 后台线程已经报告过泄漏的那次借出（borrowedAt），同一次借出只报告一次；只有后台线程访问 */
+	long leakReportedAt;
+
+	// 以下只有借到连接的线程访问
+	/** 使用中出现过连接错误，归还时直接关闭 */
+	boolean broken;
+
+	PoolEntry(Connection connection, long createdAt, long expiresAt, int generation, int state) {
+		this.connection = connection;
+		this.createdAt = createdAt;
+		this.expiresAt = expiresAt;
+		this.generation = generation;
+		this.state = new AtomicInteger(state);
+		this.lastAccessed = createdAt;
+	}
+
+	boolean isExpired(long now) {
+		return expiresAt != NEVER && now - expiresAt >= 0;
+	}
+
+	boolean compareAndSet(int expect, int update) {
+		return state.compareAndSet(expect, update);
+	}
+
+	void setState(int update) {
+		state.set(update);
+	}
+
+	int getState() {
+		return state.get();
+	}
+
+	@Override
+	public String toString() {
+		return "PoolEntry[" + connection + "]";
+	}
+}
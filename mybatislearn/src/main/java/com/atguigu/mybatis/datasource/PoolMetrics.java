@@ -0,0 +1,71 @@
+package com.atguigu.mybatis.datasource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.atguigu.mybatis.metrics.LatencySnapshot;
+
+/**
+ * 连接池的计数器，和StatementMetrics一样：
+ * 		写入：LongAdder + HdrHistogram的Recorder（wait-free），借出/归还的路径上没有锁
+ * 		读取：snapshot()把Recorder中新记录的部分合并到累计直方图，只有读取方之间互斥
+ */
+final class PoolMetrics {
+
+	static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.HOURS.toNanos(1);
+	static final int SIGNIFICANT_DIGITS = 3;
+
+	final LongAdder borrows = new LongAdder();
+	final LongAdder timeouts = new LongAdder();
+	final LongAdder created = new LongAdder();
+	final LongAdder closed = new LongAdder();
+	final LongAdder leaks = new LongAdder();
+	final LongAdder validationFailures = new LongAdder();
+	private final Recorder waitTime = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+	private final Recorder usageTime = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+
+	// 以下只在snapshot()/reset()中访问
+	private final Histogram waitTimeTotal = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+	private final Histogram usageTimeTotal = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+	private Histogram waitTimeInterval;
+	private Histogram usageTimeInterval;
+
+	void recordBorrow(long waitNanos) {
+		borrows.increment();
+		waitTime.recordValue(clamp(waitNanos));
+	}
+
+	void recordUsage(long usageNanos) {
+		usageTime.recordValue(clamp(usageNanos));
+	}
+
+	synchronized PoolSnapshot snapshot(String poolName, int total, int active, int idle, int waiting) {
+		waitTimeInterval = waitTime.getIntervalHistogram(waitTimeInterval);
+		waitTimeTotal.add(waitTimeInterval);
+		usageTimeInterval = usageTime.getIntervalHistogram(usageTimeInterval);
+		usageTimeTotal.add(usageTimeInterval);
+		return new PoolSnapshot(poolName, total, active, idle, waiting, borrows.sum(), timeouts.sum(), created.sum(),
+				closed.sum(), leaks.sum(), validationFailures.sum(), LatencySnapshot.of(waitTimeTotal),
+				LatencySnapshot.of(usageTimeTotal));
+	}
+
+	synchronized void reset() {
+		borrows.reset();
+		timeouts.reset();
+		created.reset();
+		closed.reset();
+		leaks.reset();
+		validationFailures.reset();
+		waitTime.reset();
+		usageTime.reset();
+		waitTimeTotal.reset();
+		usageTimeTotal.reset();
+	}
+
+	private static long clamp(long nanos) {
+		return nanos < 0 ? 0 : Math.min(nanos, HIGHEST_TRACKABLE_NANOS);
+	}
+}
@@ -0,0 +1,112 @@
+package com.atguigu.mybatis.datasource;
+
+import java.beans.ConstructorProperties;
+
+import com.atguigu.mybatis.metrics.LatencySnapshot;
+
+/**
+ * FastPooledDataSource某一时刻的状态：
+ * 		连接数（total = active + idle）、等待连接的线程数、累计计数，
+ * 		等待时间（getConnection的耗时）和使用时间（从借出到归还）的直方图
+ */
+public class PoolSnapshot {
+
+	private final String poolName;
+	private final int total;
+	private final int active;
+	private final int idle;
+	private final int waiting;
+	private final long borrows;
+	private final long timeouts;
+	private final long created;
+	private final long closed;
+	private final long leaks;
+	private final long validationFailures;
+	private final LatencySnapshot waitTime;
+	private final LatencySnapshot usageTime;
+
+	@ConstructorProperties({"poolName", "total", "active", "idle", "waiting", "borrows", "timeouts", "created",
+			"closed", "leaks", "validationFailures", "waitTime", "usageTime"})
+	public PoolSnapshot(String poolName, int total, int active, int idle, int waiting, long borrows, long timeouts,
+			long created, long closed, long leaks, long validationFailures, LatencySnapshot waitTime,
+			LatencySnapshot usageTime) {
+		this.poolName = poolName;
+		this.total = total;
+		this.active = active;
+		this.idle = idle;
+		this.waiting = waiting;
+		this.borrows = borrows;
+		this.timeouts = timeouts;
+		this.created = created;
+		this.closed = closed;
+		this.leaks = leaks;
+		this.validationFailures = validationFailures;
+		this.waitTime = waitTime;
+		this.usageTime = usageTime;
+	}
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	public int getIdle() {
+		return idle;
+	}
+
+	/** 正在等待连接的线程数 */
+	public int getWaiting() {
+		return waiting;
+	}
+
+	public long getBorrows() {
+		return borrows;
+	}
+
+	/** 等待超过connectionTimeout的次数 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/** 新建的物理连接数 */
+	public long getCreated() {
+		return created;
+	}
+
+	/** 关闭的物理连接数（过期、空闲太久、校验失败、出错） */
+	public long getClosed() {
+		return closed;
+	}
+
+	/** 超过leakDetectionThreshold还没归还的次数 */
+	public long getLeaks() {
+		return leaks;
+	}
+
+	public long getValidationFailures() {
+		return validationFailures;
+	}
+
+	public LatencySnapshot getWaitTime() {
+		return waitTime;
+	}
+
+	public LatencySnapshot getUsageTime() {
+		return usageTime;
+	}
+
+	@Override
+	public String toString() {
+		return poolName + ": total=" + total + ", active=" + active + ", idle=" + idle + ", waiting=" + waiting
+				+ ", borrows=" + borrows + ", timeouts=" + timeouts + ", created=" + created + ", closed=" + closed
+				+ ", leaks=" + leaks + ", validationFailures=" + validationFailures
+				+ "\n\twait: " + waitTime + "\n\tusage: " + usageTime;
+	}
+}
@@ -0,0 +1,218 @@
+package com.atguigu.mybatis.datasource;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个物理连接上的PreparedStatement缓存：按key（SQL + prepareStatement的其他参数）做LRU，最多maxStatements个
+ *
+ * 1、取出：缓存里有空闲的直接用（命中）；没有就真正prepare一个放进缓存（未命中）；
+ * 		同一个key的语句正在被使用（比如游标还开着时又执行了同一条sql）时，新prepare一个不缓存的
+ * 2、归还：关闭还开着的ResultSet，清掉参数、批量和被改过的queryTimeout/fetchSize等，下次拿到的和新prepare的一样；
+ * 		重置失败、已经被淘汰、或者用过closeOnCompletion的语句直接真正关闭
+ * 3、淘汰：超过maxStatements时关闭最久没用的空闲语句；正在用的先移出缓存，归还时再关闭
+ * 4、失效：物理连接被关闭、出现连接错误（SQLState 08xxx）时整个缓存作废
+ *
+ * 连接池保证一个物理连接同一时间只给一个会话用，这里的锁基本不会有竞争
+ */
+final class StatementCache {
+
+	private final Connection physical;
+	private final int maxStatements;
+	private final StatementCachingDataSource owner;
+	private final LinkedHashMap<StatementKey, Entry> entries = new LinkedHashMap<StatementKey, Entry>(16, 0.75f, true);
+	private boolean invalidated;
+
+	StatementCache(Connection physical, int maxStatements, StatementCachingDataSource owner) {
+		this.physical = physical;
+		this.maxStatements = maxStatements;
+		this.owner = owner;
+	}
+
+	/**
+	 * @param prepare 在连接池给出的连接上调用的prepareStatement方法，args是它的参数
+	 */
+	Entry checkout(Connection connection, Method prepare, Object[] args) throws Exception {
+		StatementKey key = new StatementKey(args);
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && !entry.inUse && !invalidated) {
+				entry.inUse = true;
+				owner.hits.increment();
+				return entry;
+			}
+		}
+		PreparedStatement statement = (PreparedStatement) prepare.invoke(connection, args);
+		owner.misses.increment();
+		synchronized (this) {
+			if (invalidated || entries.containsKey(key)) {
+				return new Entry(key, statement, false);
+			}
+			Entry entry = new Entry(key, statement, true);
+			entries.put(key, entry);
+			evict();
+			return entry;
+		}
+	}
+
+	void checkin(Entry entry, boolean reusable) {
+		boolean keep;
+		synchronized (this) {
+			entry.inUse = false;
+			keep = entry.cached && !entry.evicted && !invalidated && reusable;
+		}
+		if (keep && reset(entry)) {
+			return;
+		}
+		synchronized (this) {
+			if (entry.cached && entries.get(entry.key) == entry) {
+				entries.remove(entry.key);
+			}
+		}
+		closeQuietly(entry.statement);
+	}
+
+	/**
+	 * 连接已经不能用了：关闭空闲的语句，正在用的在归还时关闭
+	 */
+	void invalidate() {
+		List<Entry> idle = new ArrayList<Entry>();
+		synchronized (this) {
+			if (invalidated) {
+				return;
+			}
+			invalidated = true;
+			for (Entry entry : entries.values()) {
+				if (entry.inUse) {
+					entry.evicted = true;
+				} else {
+					idle.add(entry);
+				}
+			}
+			entries.clear();
+		}
+		owner.invalidations.increment();
+		for (Entry entry : idle) {
+			closeQuietly(entry.statement);
+		}
+	}
+
+	synchronized boolean isInvalidated() {
+		return invalidated;
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	Connection getPhysical() {
+		return physical;
+	}
+
+	/** 在持有锁时调用；空闲的语句直接关闭（服务端预处理时只发一个COM_STMT_CLOSE，不等响应） */
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (entries.size() > maxStatements && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			owner.evictions.increment();
+			if (eldest.inUse) {
+				eldest.evicted = true;
+			} else {
+				closeQuietly(eldest.statement);
+			}
+		}
+	}
+
+	/**
+	 * 恢复成刚prepare出来的样子；失败时返回false，由调用方关闭
+	 */
+	private static boolean reset(Entry entry) {
+		PreparedStatement statement = entry.statement;
+		try {
+			ResultSet resultSet = statement.getResultSet();
+			if (resultSet != null) {
+				resultSet.close();
+			}
+			statement.clearParameters();
+			if (entry.batched) {
+				statement.clearBatch();
+				entry.batched = false;
+			}
+			if (entry.originals != null) {
+				for (Map.Entry<Method, Object> original : entry.originals.entrySet()) {
+					original.getKey().invoke(statement, original.getValue());
+				}
+				entry.originals = null;
+			}
+			statement.clearWarnings();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			// 连接可能已经断了，忽略
+		}
+	}
+
+	/**
+	 * 缓存里的一个语句；inUse、evicted在StatementCache的锁里读写，其他字段只有使用它的线程访问
+	 */
+	static final class Entry {
+
+		final StatementKey key;
+		final PreparedStatement statement;
+		/** false表示同一个key正在被使用时临时prepare的，归还时关闭 */
+		final boolean cached;
+		boolean inUse = true;
+		boolean evicted;
+		boolean batched;
+		/** 被改过的设置：setter ==> 原来的值 */
+		Map<Method, Object> originals;
+
+		Entry(StatementKey key, PreparedStatement statement, boolean cached) {
+			this.key = key;
+			this.statement = statement;
+			this.cached = cached;
+		}
+	}
+
+	/**
+	 * SQL的形状：SQL文本加上prepareStatement的其他参数（autoGeneratedKeys、主键列名、resultSetType等）
+	 * 		MyBatis对同一条sql用的是同一种prepare方式，一般只有SQL文本起作用
+	 */
+	static final class StatementKey {
+
+		private final Object[] args;
+		private final int hash;
+
+		StatementKey(Object[] args) {
+			this.args = args.clone();
+			this.hash = Arrays.deepHashCode(this.args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof StatementKey && Arrays.deepEquals(args, ((StatementKey) obj).args);
+		}
+	}
+}
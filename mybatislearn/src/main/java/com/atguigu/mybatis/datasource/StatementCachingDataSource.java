@@ -0,0 +1,402 @@
+package com.atguigu.mybatis.datasource;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLRecoverableException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 给连接池加上按物理连接缓存PreparedStatement的功能：同一个物理连接上，
+ * 		前一个SqlSession关闭时归还的语句，后一个SqlSession执行同样的sql时直接复用
+ * 		（SIMPLE执行器每次都要prepare，REUSE执行器也只在一个会话内复用）
+ *
+ * 1、getConnection返回连接池连接的代理，prepareStatement从StatementCache里取，
+ * 		返回的PreparedStatement也是代理，close时归还到缓存而不是真正关闭
+ * 2、物理连接用FastPooledDataSource（或PooledDataSource）的unwrapConnection找到，一个物理连接一个StatementCache（见StatementCache）
+ * 3、连接被重置时缓存作废：归还连接后物理连接被连接池关闭（空闲连接太多、forceCloseAll）、
+ * 		语句执行时出现连接错误；ping失败被连接池丢掉的连接在下次新建缓存时清理
+ *
+ * MySQL配合useServerPrepStmts=true（cachePrepStmts保持默认的false）：
+ * 		每次prepare都是一次COM_STMT_PREPARE往返，缓存命中时省掉这次往返和关闭时的COM_STMT_CLOSE
+ *
+ * 配置：<dataSource type="com.atguigu.mybatis.datasource.StatementCachingDataSourceFactory">，
+ * 		其他属性和FastPooledDataSourceFactory一样，另外可以设置statementCacheSize（每个连接最多缓存的语句数，默认64）
+ * 统计：getHits、getMisses、getEvictions、getInvalidations
+ */
+public class StatementCachingDataSource implements DataSource {
+
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+	/** 归还时需要恢复的设置，MyBatis的StatementHandler会按语句设置queryTimeout、fetchSize */
+	private static final Map<String, String> RESETTABLE = new HashMap<String, String>();
+
+	static {
+		RESETTABLE.put("setQueryTimeout", "getQueryTimeout");
+		RESETTABLE.put("setFetchSize", "getFetchSize");
+		RESETTABLE.put("setFetchDirection", "getFetchDirection");
+		RESETTABLE.put("setMaxRows", "getMaxRows");
+		RESETTABLE.put("setMaxFieldSize", "getMaxFieldSize");
+	}
+
+	private final DataSource delegate;
+	private final Map<Connection, StatementCache> caches = new IdentityHashMap<Connection, StatementCache>();
+	private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+	final LongAdder invalidations = new LongAdder();
+
+	public StatementCachingDataSource(DataSource delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return wrap(delegate.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return wrap(delegate.getConnection(username, password));
+	}
+
+	private Connection wrap(Connection connection) {
+		if (statementCacheSize <= 0) {
+			return connection;
+		}
+		Connection physical = FastPooledDataSource.unwrapConnection(PooledDataSource.unwrapConnection(connection));
+		StatementCache cache = cacheFor(physical);
+		CachingConnection handler = new CachingConnection(connection, cache);
+		handler.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, handler);
+		return handler.proxy;
+	}
+
+	private StatementCache cacheFor(Connection physical) {
+		synchronized (caches) {
+			StatementCache cache = caches.get(physical);
+			if (cache != null && !cache.isInvalidated()) {
+				return cache;
+			}
+			// 连接池新建了物理连接：之前被丢掉的连接（ping失败等）在这里清理
+			sweep();
+			cache = new StatementCache(physical, statementCacheSize, this);
+			caches.put(physical, cache);
+			return cache;
+		}
+	}
+
+	/** 在持有caches的锁时调用 */
+	private void sweep() {
+		Iterator<StatementCache> iterator = caches.values().iterator();
+		while (iterator.hasNext()) {
+			StatementCache cache = iterator.next();
+			if (cache.isInvalidated() || isClosed(cache.getPhysical())) {
+				iterator.remove();
+				cache.invalidate();
+			}
+		}
+	}
+
+	private void discard(StatementCache cache) {
+		synchronized (caches) {
+			if (caches.get(cache.getPhysical()) == cache) {
+				caches.remove(cache.getPhysical());
+			}
+		}
+		cache.invalidate();
+	}
+
+	private static boolean isClosed(Connection connection) {
+		try {
+			return connection.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	/** SQLState 08xxx：连接异常 */
+	static boolean isConnectionError(Throwable t) {
+		if (t instanceof SQLRecoverableException) {
+			return true;
+		}
+		if (t instanceof SQLException) {
+			String state = ((SQLException) t).getSQLState();
+			return state != null && state.startsWith("08");
+		}
+		return false;
+	}
+
+	/**
+	 * 作废所有连接上缓存的语句，比如在数据库上改了表结构之后
+	 */
+	public void clear() {
+		List<StatementCache> all;
+		synchronized (caches) {
+			all = new ArrayList<StatementCache>(caches.values());
+			caches.clear();
+		}
+		for (StatementCache cache : all) {
+			cache.invalidate();
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** 超过statementCacheSize被关闭的语句数 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/** 因为连接被关闭或出错而作废的缓存数 */
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	/** 所有连接上缓存着的语句数 */
+	public int getCachedStatements() {
+		int size = 0;
+		synchronized (caches) {
+			for (StatementCache cache : caches.values()) {
+				size += cache.size();
+			}
+		}
+		return size;
+	}
+
+	public void resetStats() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+		invalidations.reset();
+	}
+
+	public DataSource getDelegate() {
+		return delegate;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/** 0表示不缓存；只影响之后新建的缓存 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return delegate.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		delegate.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		delegate.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return delegate.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return delegate.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(delegate)) {
+			return iface.cast(delegate);
+		}
+		return delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+	}
+
+	/**
+	 * 连接池给出的连接的代理：拦截prepareStatement和close
+	 */
+	private final class CachingConnection implements InvocationHandler {
+
+		private final Connection connection;
+		private final StatementCache cache;
+		/** 这个会话还没有关闭的语句，连接关闭时一起归还 */
+		private final List<CachingStatement> open = new ArrayList<CachingStatement>();
+		Connection proxy;
+
+		CachingConnection(Connection connection, StatementCache cache) {
+			this.connection = connection;
+			this.cache = cache;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("toString".equals(name)) {
+				return "StatementCaching" + connection;
+			}
+			if ("prepareStatement".equals(name)) {
+				return prepare(method, args);
+			}
+			if ("close".equals(name)) {
+				close();
+				return null;
+			}
+			try {
+				return method.invoke(connection, args);
+			} catch (Throwable t) {
+				throw ExceptionUtil.unwrapThrowable(t);
+			}
+		}
+
+		private Object prepare(Method method, Object[] args) throws Throwable {
+			StatementCache.Entry entry;
+			try {
+				entry = cache.checkout(connection, method, args);
+			} catch (Throwable t) {
+				Throwable cause = ExceptionUtil.unwrapThrowable(t);
+				if (isConnectionError(cause)) {
+					discard(cache);
+				}
+				throw cause;
+			}
+			CachingStatement handler = new CachingStatement(this, entry);
+			handler.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] {PreparedStatement.class}, handler);
+			open.add(handler);
+			return handler.proxy;
+		}
+
+		private void close() throws SQLException {
+			for (CachingStatement statement : new ArrayList<CachingStatement>(open)) {
+				statement.close();
+			}
+			connection.close();
+			// 连接池可能直接关闭了物理连接（空闲连接已经够多、连接坏了等）
+			if (isClosed(cache.getPhysical())) {
+				discard(cache);
+			}
+		}
+	}
+
+	/**
+	 * 缓存里的语句的代理：每次取出都是一个新代理，关闭后旧的引用不能再影响下一个使用者
+	 */
+	private final class CachingStatement implements InvocationHandler {
+
+		private final CachingConnection connection;
+		private final StatementCache.Entry entry;
+		private boolean closed;
+		private boolean reusable = true;
+		PreparedStatement proxy;
+
+		CachingStatement(CachingConnection connection, StatementCache.Entry entry) {
+			this.connection = connection;
+			this.entry = entry;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("toString".equals(name)) {
+				return "Cached" + entry.statement;
+			}
+			if ("close".equals(name)) {
+				close();
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return closed;
+			}
+			if (closed) {
+				throw new SQLException("Statement is closed");
+			}
+			if ("getConnection".equals(name)) {
+				return connection.proxy;
+			}
+			if ("closeOnCompletion".equals(name)) {
+				reusable = false;
+			} else if ("addBatch".equals(name)) {
+				entry.batched = true;
+			} else if (RESETTABLE.containsKey(name)) {
+				remember(method);
+			}
+			try {
+				return method.invoke(entry.statement, args);
+			} catch (Throwable t) {
+				Throwable cause = ExceptionUtil.unwrapThrowable(t);
+				if (isConnectionError(cause)) {
+					discard(connection.cache);
+				}
+				throw cause;
+			}
+		}
+
+		/** 第一次修改某个设置之前记下原来的值 */
+		private void remember(Method setter) throws Exception {
+			if (entry.originals == null) {
+				entry.originals = new HashMap<Method, Object>();
+			}
+			if (!entry.originals.containsKey(setter)) {
+				Method getter = Statement.class.getMethod(RESETTABLE.get(setter.getName()));
+				entry.originals.put(setter, getter.invoke(entry.statement));
+			}
+		}
+
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			connection.open.remove(this);
+			connection.cache.checkin(entry, reusable);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.atguigu.mybatis.datasource;
+
+import java.util.Properties;
+
+/**
+ * 在FastPooledDataSource连接池外面包一层StatementCachingDataSource
+ *
+ * 	<dataSource type="com.atguigu.mybatis.datasource.StatementCachingDataSourceFactory">
+ * 		<property name="driver" value="${jdbc.driver}" />
+ * 		...（和FastPooledDataSourceFactory的属性一样）
+ * 		<property name="statementCacheSize" value="64" />
+ * 	</dataSource>
+ */
+public class StatementCachingDataSourceFactory extends FastPooledDataSourceFactory {
+
+	public static final String STATEMENT_CACHE_SIZE = "statementCacheSize";
+
+	@Override
+	public void setProperties(Properties properties) {
+		// 连接池不认识的属性会报错，先拿掉
+		Properties poolProperties = new Properties();
+		poolProperties.putAll(properties);
+		String statementCacheSize = (String) poolProperties.remove(STATEMENT_CACHE_SIZE);
+		super.setProperties(poolProperties);
+
+		StatementCachingDataSource cachingDataSource = new StatementCachingDataSource(dataSource);
+		if (statementCacheSize != null) {
+			cachingDataSource.setStatementCacheSize(Integer.parseInt(statementCacheSize.trim()));
+		}
+		dataSource = cachingDataSource;
+	}
+}
@@ -0,0 +1,22 @@
+package com.atguigu.mybatis.datasource.routing;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 覆盖ReadWriteRoutingInterceptor按SqlCommandType的默认路由，可以标在Mapper接口或方法上（方法上的优先）；
+ * 		XML映射文件里的语句按namespace找到Mapper接口，同样生效
+ *
+ * 	@DataSourceRoute(Route.PRIMARY)：不能接受复制延迟的查询，比如select ... for update、刚写完马上要读的
+ * 	@DataSourceRoute(Route.REPLICA)：只对查询有效，insert/update/delete总是发到主库
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface DataSourceRoute {
+
+	Route value();
+}
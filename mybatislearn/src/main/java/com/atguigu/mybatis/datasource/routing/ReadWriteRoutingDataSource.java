@@ -0,0 +1,562 @@
+package com.atguigu.mybatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 读写分离：一个主库加若干个从库，一个环境里只能配置一个dataSource，所以把它们包成一个
+ *
+ * 1、getConnection返回的是逻辑连接，一个SqlSession一个；真正的连接在第一次prepareStatement时才借，
+ * 		按ReadWriteRoutingInterceptor设置的路由借主库或从库的连接，一个会话最多各借一个
+ * 2、从库按最少未结束的会话选择：借出去还没还的从库连接最少的那个（一样多时轮流），
+ * 		连不上时换下一个，都连不上时用主库。
+ * 		从库连接是一个会话借一次、会话关闭时才还，所以数的是正在用这个从库的会话，不是正在执行的语句：
+ * 		会话一旦选定从库就不再换，按会话均衡正好对应选择的粒度；长会话多、查询少的从库也算忙
+ * 3、autoCommit=false时写过之后（事务里），后面的查询也发到主库，直到commit/rollback；
+ * 		在从库上prepare的语句会被ReuseExecutor复用，所以执行时再检查一次：事务里已经写过时
+ * 		在主库上重新prepare，补上记下的设置和参数再执行，这个语句之后都留在主库上
+ * 4、setAutoCommit、setTransactionIsolation等设置先记下来，已经借到的连接立即设置，之后借的连接补上；
+ * 		commit/rollback对借到的连接都执行一遍（从库上只有读，提交不会有副作用）；
+ * 		从库连接额外setReadOnly(true)
+ *
+ * 两个内存库就可以测试，比如H2：
+ * 	new ReadWriteRoutingDataSource(primary, Arrays.asList(replica))，
+ * 	primary、replica各是一个jdbc:h2:mem:xxx的连接池，再在Configuration里注册ReadWriteRoutingInterceptor
+ */
+public class ReadWriteRoutingDataSource implements DataSource {
+
+	private static final Log log = LogFactory.getLog(ReadWriteRoutingDataSource.class);
+
+	/** 按顺序记下、在新连接上重放的设置 */
+	private static final List<String> SETTINGS = Arrays.asList("setAutoCommit", "setTransactionIsolation",
+			"setReadOnly", "setCatalog", "setSchema", "setHoldability");
+
+	private final DataSource primary;
+	private final List<Replica> replicas;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	private final LongAdder primaryStatements = new LongAdder();
+	private final LongAdder replicaStatements = new LongAdder();
+	private final LongAdder fallbacks = new LongAdder();
+
+	public ReadWriteRoutingDataSource(DataSource primary, List<? extends DataSource> replicas) {
+		this.primary = primary;
+		List<Replica> list = new ArrayList<Replica>();
+		for (DataSource replica : replicas) {
+			list.add(new Replica(replica));
+		}
+		this.replicas = Collections.unmodifiableList(list);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return new RoutingConnection().proxy;
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("ReadWriteRoutingDataSource does not support getConnection(username, password)");
+	}
+
+	/**
+	 * 按未结束的会话数从少到多依次尝试
+	 * @return 都连不上时返回null
+	 */
+	private Replica.Lease borrowReplica() {
+		int size = replicas.size();
+		boolean[] tried = new boolean[size];
+		for (int attempt = 0; attempt < size; attempt++) {
+			// 从轮转的位置开始找最少的，一样多时不会总是选第一个
+			int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % size;
+			Replica best = null;
+			int bestIndex = -1;
+			for (int i = 0; i < size; i++) {
+				int index = (start + i) % size;
+				Replica replica = replicas.get(index);
+				if (!tried[index] && (best == null || replica.outstanding.get() < best.outstanding.get())) {
+					best = replica;
+					bestIndex = index;
+				}
+			}
+			tried[bestIndex] = true;
+			try {
+				return best.borrow();
+			} catch (SQLException e) {
+				log.warn("Could not get a connection from replica " + bestIndex + ": " + e.getMessage());
+			}
+		}
+		return null;
+	}
+
+	public DataSource getPrimary() {
+		return primary;
+	}
+
+	public List<DataSource> getReplicas() {
+		List<DataSource> list = new ArrayList<DataSource>();
+		for (Replica replica : replicas) {
+			list.add(replica.dataSource);
+		}
+		return list;
+	}
+
+	/** 发到主库的语句数 */
+	public long getPrimaryStatements() {
+		return primaryStatements.sum();
+	}
+
+	/** 发到从库的语句数 */
+	public long getReplicaStatements() {
+		return replicaStatements.sum();
+	}
+
+	/** 要发到从库、但从库都连不上而改用主库的次数 */
+	public long getFallbacks() {
+		return fallbacks.sum();
+	}
+
+	/** 第index个从库被借出的连接数 */
+	public long getReplicaBorrows(int index) {
+		return replicas.get(index).borrows.sum();
+	}
+
+	/** 第index个从库当前借出去还没还的连接数，也就是正在用这个从库的会话数 */
+	public int getReplicaOutstanding(int index) {
+		return replicas.get(index).outstanding.get();
+	}
+
+	public void resetStats() {
+		primaryStatements.reset();
+		replicaStatements.reset();
+		fallbacks.reset();
+		for (Replica replica : replicas) {
+			replica.borrows.reset();
+		}
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return primary.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		primary.setLogWriter(out);
+		for (Replica replica : replicas) {
+			replica.dataSource.setLogWriter(out);
+		}
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		primary.setLoginTimeout(seconds);
+		for (Replica replica : replicas) {
+			replica.dataSource.setLoginTimeout(seconds);
+		}
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return primary.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return primary.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException(getClass().getName() + " is not a wrapper for " + iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+
+	private static final class Replica {
+
+		final DataSource dataSource;
+		final AtomicInteger outstanding = new AtomicInteger();
+		final LongAdder borrows = new LongAdder();
+
+		Replica(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		Lease borrow() throws SQLException {
+			outstanding.incrementAndGet();
+			try {
+				Connection connection = dataSource.getConnection();
+				borrows.increment();
+				return new Lease(this, connection);
+			} catch (SQLException e) {
+				outstanding.decrementAndGet();
+				throw e;
+			} catch (RuntimeException e) {
+				outstanding.decrementAndGet();
+				throw e;
+			}
+		}
+
+		/** 借到的一个从库连接，close时计数减一 */
+		static final class Lease {
+
+			final Replica replica;
+			final Connection connection;
+
+			Lease(Replica replica, Connection connection) {
+				this.replica = replica;
+				this.connection = connection;
+			}
+
+			void close() throws SQLException {
+				try {
+					connection.close();
+				} finally {
+					replica.outstanding.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 逻辑连接：按需借主库、从库的连接，prepareStatement等按路由选择其中一个
+	 */
+	private final class RoutingConnection implements InvocationHandler {
+
+		private final Connection proxy;
+		private Connection primaryConnection;
+		private Replica.Lease replica;
+		/** 这个会话里从库已经连不上了，不再尝试 */
+		private boolean replicaUnavailable;
+		/** setter ==> 参数，按第一次设置的顺序 */
+		private final Map<String, Object[]> settings = new LinkedHashMap<String, Object[]>();
+		private final Map<String, Method> setters = new LinkedHashMap<String, Method>();
+		private boolean autoCommit = true;
+		/** 事务里写过 */
+		private boolean written;
+		private boolean closed;
+
+		RoutingConnection() {
+			this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] {Connection.class}, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("toString".equals(name)) {
+				return "RoutingConnection[primary=" + primaryConnection + ", replica="
+						+ (replica == null ? null : replica.connection) + "]";
+			}
+			if ("close".equals(name)) {
+				close();
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return closed;
+			}
+			if (closed) {
+				throw new SQLException("Connection is closed");
+			}
+			try {
+				if ("prepareStatement".equals(name) || "prepareCall".equals(name) || "createStatement".equals(name)) {
+					Connection connection = route();
+					Object statement = method.invoke(connection, args);
+					if (replica != null && connection == replica.connection) {
+						return new RoutedStatement(method, args, (Statement) statement).proxy;
+					}
+					return statement;
+				}
+				if (SETTINGS.contains(name)) {
+					set(method, args);
+					return null;
+				}
+				if ("getAutoCommit".equals(name)) {
+					return autoCommit;
+				}
+				if ("commit".equals(name) || ("rollback".equals(name) && args == null)) {
+					endTransaction(method);
+					return null;
+				}
+				return method.invoke(primary(), args);
+			} catch (Throwable t) {
+				throw ExceptionUtil.unwrapThrowable(t);
+			}
+		}
+
+		private Connection route() throws SQLException {
+			RoutingContext context = RoutingContext.current();
+			boolean inTransaction = !autoCommit;
+			if (context != null && context.route == Route.REPLICA && !(written && inTransaction)) {
+				Connection connection = replica();
+				if (connection != null) {
+					replicaStatements.increment();
+					return connection;
+				}
+			}
+			if (context != null && context.write && inTransaction) {
+				written = true;
+			}
+			primaryStatements.increment();
+			return primary();
+		}
+
+		private Connection primary() throws SQLException {
+			if (primaryConnection == null) {
+				Connection connection = primary.getConnection();
+				try {
+					apply(connection);
+				} catch (SQLException e) {
+					connection.close();
+					throw e;
+				}
+				primaryConnection = connection;
+			}
+			return primaryConnection;
+		}
+
+		/**
+		 * @return 没有从库或者从库都连不上时返回null
+		 */
+		private Connection replica() throws SQLException {
+			if (replica != null) {
+				return replica.connection;
+			}
+			if (replicas.isEmpty() || replicaUnavailable) {
+				return null;
+			}
+			Replica.Lease lease = borrowReplica();
+			if (lease == null) {
+				replicaUnavailable = true;
+				fallbacks.increment();
+				return null;
+			}
+			try {
+				apply(lease.connection);
+				lease.connection.setReadOnly(true);
+			} catch (SQLException e) {
+				lease.close();
+				throw e;
+			}
+			replica = lease;
+			return lease.connection;
+		}
+
+		/** 新借到的连接补上之前的设置 */
+		private void apply(Connection connection) throws SQLException {
+			if (connection.getAutoCommit() != autoCommit) {
+				connection.setAutoCommit(autoCommit);
+			}
+			for (Map.Entry<String, Object[]> setting : settings.entrySet()) {
+				if (!"setAutoCommit".equals(setting.getKey())) {
+					invoke(setters.get(setting.getKey()), connection, setting.getValue());
+				}
+			}
+		}
+
+		private void set(Method method, Object[] args) throws SQLException {
+			if (primaryConnection != null) {
+				invoke(method, primaryConnection, args);
+			}
+			if (replica != null && !"setReadOnly".equals(method.getName())) {
+				invoke(method, replica.connection, args);
+			}
+			settings.put(method.getName(), args);
+			setters.put(method.getName(), method);
+			if ("setAutoCommit".equals(method.getName())) {
+				autoCommit = (Boolean) args[0];
+				// 开启或关闭自动提交都会提交当前事务
+				written = false;
+			}
+		}
+
+		private void endTransaction(Method method) throws SQLException {
+			try {
+				if (primaryConnection != null) {
+					invoke(method, primaryConnection, null);
+				}
+				if (replica != null) {
+					invoke(method, replica.connection, null);
+				}
+			} finally {
+				written = false;
+			}
+		}
+
+		private void close() throws SQLException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			SQLException failure = null;
+			if (primaryConnection != null) {
+				try {
+					primaryConnection.close();
+				} catch (SQLException e) {
+					failure = e;
+				}
+			}
+			if (replica != null) {
+				try {
+					replica.close();
+				} catch (SQLException e) {
+					failure = failure == null ? e : failure;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		private void invoke(Method method, Object target, Object[] args) throws SQLException {
+			try {
+				method.invoke(target, args);
+			} catch (Exception e) {
+				Throwable cause = ExceptionUtil.unwrapThrowable(e);
+				if (cause instanceof SQLException) {
+					throw (SQLException) cause;
+				}
+				throw new SQLException(cause);
+			}
+		}
+
+		/**
+		 * 在从库上prepare的语句：记下语句的设置和参数，事务里写过之后执行时改到主库上
+		 */
+		private final class RoutedStatement implements InvocationHandler {
+
+			private final Object proxy;
+			private final Method create;
+			private final Object[] createArgs;
+			private Statement target;
+			private boolean onReplica = true;
+			/** setFetchSize、setQueryTimeout等语句的设置，只留最后一次 */
+			private final Map<String, Object[]> options = new LinkedHashMap<String, Object[]>();
+			private final Map<String, Method> optionSetters = new LinkedHashMap<String, Method>();
+			/** 这次执行的参数（setXxx、registerOutParameter），执行后清空 */
+			private final List<Method> parameterSetters = new ArrayList<Method>();
+			private final List<Object[]> parameters = new ArrayList<Object[]>();
+
+			RoutedStatement(Method create, Object[] createArgs, Statement target) {
+				this.create = create;
+				this.createArgs = createArgs;
+				this.target = target;
+				this.proxy = Proxy.newProxyInstance(Statement.class.getClassLoader(),
+						new Class<?>[] {create.getReturnType()}, this);
+			}
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if ("hashCode".equals(name)) {
+					return System.identityHashCode(proxy);
+				}
+				if ("equals".equals(name)) {
+					return proxy == args[0];
+				}
+				if ("toString".equals(name)) {
+					return "RoutedStatement[" + target + "]";
+				}
+				if ("getConnection".equals(name)) {
+					return RoutingConnection.this.proxy;
+				}
+				boolean execute = name.startsWith("execute");
+				if (onReplica) {
+					if (execute && written && !autoCommit) {
+						reroute();
+					} else if ("clearParameters".equals(name)) {
+						parameterSetters.clear();
+						parameters.clear();
+					} else if (isParameter(method)) {
+						parameterSetters.add(method);
+						parameters.add(args);
+					} else if (name.startsWith("set")) {
+						options.put(name, args);
+						optionSetters.put(name, method);
+					}
+				}
+				try {
+					return method.invoke(target, args);
+				} catch (Throwable t) {
+					throw ExceptionUtil.unwrapThrowable(t);
+				} finally {
+					if (execute && onReplica) {
+						parameterSetters.clear();
+						parameters.clear();
+					}
+				}
+			}
+
+			private boolean isParameter(Method method) {
+				Class<?> type = method.getDeclaringClass();
+				return (type == PreparedStatement.class || type == CallableStatement.class)
+						&& (method.getName().startsWith("set") || "registerOutParameter".equals(method.getName()));
+			}
+
+			private void reroute() throws SQLException {
+				Statement statement;
+				try {
+					statement = (Statement) create.invoke(primary(), createArgs);
+				} catch (Exception e) {
+					Throwable cause = ExceptionUtil.unwrapThrowable(e);
+					throw cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+				}
+				try {
+					for (Map.Entry<String, Object[]> option : options.entrySet()) {
+						RoutingConnection.this.invoke(optionSetters.get(option.getKey()), statement, option.getValue());
+					}
+					for (int i = 0; i < parameters.size(); i++) {
+						RoutingConnection.this.invoke(parameterSetters.get(i), statement, parameters.get(i));
+					}
+				} catch (SQLException e) {
+					statement.close();
+					throw e;
+				}
+				Statement replicaStatement = target;
+				target = statement;
+				onReplica = false;
+				primaryStatements.increment();
+				try {
+					replicaStatement.close();
+				} catch (SQLException e) {
+					log.warn("Could not close replica statement: " + e.getMessage());
+				}
+			}
+		}
+	}
+}
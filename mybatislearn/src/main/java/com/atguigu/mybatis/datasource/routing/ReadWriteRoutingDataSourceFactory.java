@@ -0,0 +1,85 @@
+package com.atguigu.mybatis.datasource.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceFactory;
+
+import com.atguigu.mybatis.datasource.FastPooledDataSourceFactory;
+import com.atguigu.mybatis.datasource.StatementCachingDataSourceFactory;
+
+/**
+ * 一个主库、若干个从库，每个库一个FastPooledDataSource连接池（配置了statementCacheSize时再加上语句缓存）
+ *
+ * 属性：
+ * 		没有前缀的：所有连接池共用（driver、username、maximumPoolSize等，和FastPooledDataSourceFactory一样）
+ * 		primary.xxx：只用于主库
+ * 		replica开头的前缀（replica1.xxx、replica2.xxx）：每个前缀一个从库，按前缀排序
+ * 		poolName默认就是前缀
+ *
+ * 	<dataSource type="com.atguigu.mybatis.datasource.routing.ReadWriteRoutingDataSourceFactory">
+ * 		<property name="driver" value="${jdbc.driver}" />
+ * 		<property name="username" value="${jdbc.username}" />
+ * 		<property name="password" value="${jdbc.password}" />
+ * 		<property name="primary.url" value="${jdbc.url}" />
+ * 		<property name="replica1.url" value="${jdbc.replica.url}" />
+ * 	</dataSource>
+ */
+public class ReadWriteRoutingDataSourceFactory implements DataSourceFactory {
+
+	public static final String PRIMARY = "primary";
+	public static final String REPLICA = "replica";
+
+	private DataSource dataSource;
+
+	@Override
+	public void setProperties(Properties properties) {
+		Properties shared = new Properties();
+		Properties primaryProperties = new Properties();
+		Map<String, Properties> replicaProperties = new TreeMap<String, Properties>();
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key);
+			int dot = key.indexOf('.');
+			String prefix = dot > 0 ? key.substring(0, dot) : "";
+			if (PRIMARY.equals(prefix)) {
+				primaryProperties.setProperty(key.substring(dot + 1), value);
+			} else if (prefix.startsWith(REPLICA)) {
+				Properties replica = replicaProperties.get(prefix);
+				if (replica == null) {
+					replica = new Properties();
+					replicaProperties.put(prefix, replica);
+				}
+				replica.setProperty(key.substring(dot + 1), value);
+			} else {
+				shared.setProperty(key, value);
+			}
+		}
+		DataSource primary = createPool(PRIMARY, shared, primaryProperties);
+		List<DataSource> replicas = new ArrayList<DataSource>();
+		for (Map.Entry<String, Properties> replica : replicaProperties.entrySet()) {
+			replicas.add(createPool(replica.getKey(), shared, replica.getValue()));
+		}
+		dataSource = new ReadWriteRoutingDataSource(primary, replicas);
+	}
+
+	private static DataSource createPool(String name, Properties shared, Properties own) {
+		Properties properties = new Properties();
+		properties.setProperty("poolName", name);
+		properties.putAll(shared);
+		properties.putAll(own);
+		DataSourceFactory factory = properties.containsKey(StatementCachingDataSourceFactory.STATEMENT_CACHE_SIZE)
+				? new StatementCachingDataSourceFactory() : new FastPooledDataSourceFactory();
+		factory.setProperties(properties);
+		return factory.getDataSource();
+	}
+
+	@Override
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+}
@@ -0,0 +1,124 @@
+package com.atguigu.mybatis.datasource.routing;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * 按MappedStatement决定语句发到主库还是从库（配合ReadWriteRoutingDataSource，
+ * 		其他数据源上这个插件只是设置一下ThreadLocal）
+ *
+ * 1、insert/update/delete：主库
+ * 2、select：从库；存储过程（statementType="CALLABLE"）、selectKey、嵌套在写语句里的查询：主库
+ * 3、Mapper接口或方法上的@DataSourceRoute覆盖第2条
+ * 4、事务里已经写过的会话，之后的查询也发到主库（由ReadWriteRoutingDataSource的连接判断）
+ *
+ * 每个语句id的结果只算一次
+ *
+ * 配置：
+ * 	<plugin interceptor="com.atguigu.mybatis.datasource.routing.ReadWriteRoutingInterceptor"></plugin>
+ */
+@Intercepts({
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+	@Signature(type = Executor.class, method = "queryCursor", args = {MappedStatement.class, Object.class, RowBounds.class}),
+	@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
+})
+public class ReadWriteRoutingInterceptor implements Interceptor {
+
+	/** 语句id ==> 路由 */
+	private final ConcurrentMap<String, RoutingContext> routes = new ConcurrentHashMap<String, RoutingContext>();
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+		RoutingContext context = routes.get(ms.getId());
+		if (context == null) {
+			context = resolve(ms);
+			routes.putIfAbsent(ms.getId(), context);
+		}
+		RoutingContext previous = RoutingContext.current();
+		if (previous != null && previous.write) {
+			// 写语句里面的查询（selectKey等）必须和它在同一个连接上
+			context = RoutingContext.WRITE;
+		}
+		RoutingContext.enter(context);
+		try {
+			return invocation.proceed();
+		} finally {
+			RoutingContext.exit(previous);
+		}
+	}
+
+	private RoutingContext resolve(MappedStatement ms) {
+		SqlCommandType type = ms.getSqlCommandType();
+		if (type == SqlCommandType.INSERT || type == SqlCommandType.UPDATE || type == SqlCommandType.DELETE) {
+			return RoutingContext.WRITE;
+		}
+		if (type != SqlCommandType.SELECT || ms.getStatementType() == StatementType.CALLABLE
+				|| ms.getId().endsWith(SelectKeyGenerator.SELECT_KEY_SUFFIX)) {
+			return RoutingContext.PRIMARY_READ;
+		}
+		Route hint = hint(ms.getId());
+		if (hint == Route.PRIMARY) {
+			return RoutingContext.PRIMARY_READ;
+		}
+		return RoutingContext.REPLICA_READ;
+	}
+
+	/**
+	 * 语句id = Mapper接口全类名.方法名；找不到接口（只有XML的namespace）时没有提示
+	 */
+	private static Route hint(String id) {
+		int dot = id.lastIndexOf('.');
+		if (dot < 0) {
+			return null;
+		}
+		Class<?> mapper;
+		try {
+			mapper = Resources.classForName(id.substring(0, dot));
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		String methodName = id.substring(dot + 1);
+		for (Method method : mapper.getMethods()) {
+			DataSourceRoute route = method.getAnnotation(DataSourceRoute.class);
+			if (route != null && method.getName().equals(methodName)) {
+				return route.value();
+			}
+		}
+		DataSourceRoute route = mapper.getAnnotation(DataSourceRoute.class);
+		return route == null ? null : route.value();
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		if (target instanceof Executor) {
+			return Plugin.wrap(target, this);
+		}
+		return target;
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+	}
+}
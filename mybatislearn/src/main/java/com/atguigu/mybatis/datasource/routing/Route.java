@@ -0,0 +1,13 @@
+package com.atguigu.mybatis.datasource.routing;
+
+/**
+ * 语句发到哪个库
+ */
+public enum Route {
+
+	/** 主库 */
+	PRIMARY,
+
+	/** 从库；没有配置从库、从库都连不上、或者当前事务里已经写过时用主库 */
+	REPLICA
+}
@@ -0,0 +1,46 @@
+package com.atguigu.mybatis.datasource.routing;
+
+/**
+ * 当前线程正在执行的语句的路由：ReadWriteRoutingInterceptor在Executor.query/update前后设置，
+ * 		ReadWriteRoutingDataSource的连接在prepareStatement时读取
+ *
+ * 没有设置（没有注册拦截器、直接用JDBC）时发到主库
+ */
+final class RoutingContext {
+
+	static final RoutingContext WRITE = new RoutingContext(Route.PRIMARY, true);
+	static final RoutingContext PRIMARY_READ = new RoutingContext(Route.PRIMARY, false);
+	static final RoutingContext REPLICA_READ = new RoutingContext(Route.REPLICA, false);
+
+	private static final ThreadLocal<RoutingContext> CURRENT = new ThreadLocal<RoutingContext>();
+
+	final Route route;
+	/** insert/update/delete：事务里写过之后，后面的查询也留在主库 */
+	final boolean write;
+
+	private RoutingContext(Route route, boolean write) {
+		this.route = route;
+		this.write = write;
+	}
+
+	static RoutingContext current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * @return 原来的值，执行完之后传给exit
+	 */
+	static RoutingContext enter(RoutingContext context) {
+		RoutingContext previous = CURRENT.get();
+		CURRENT.set(context);
+		return previous;
+	}
+
+	static void exit(RoutingContext previous) {
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+}
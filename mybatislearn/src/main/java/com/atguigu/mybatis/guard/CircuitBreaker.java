@@ -0,0 +1,150 @@
+package com.atguigu.mybatis.guard;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一条语句的熔断器：最近windowSize次执行里慢调用（超时被取消或者超过slowMillis）达到slowCalls次就打开，
+ * 		打开期间直接拒绝，openMillis之后放一次试探调用（半开），试探不慢就关闭，慢就继续打开
+ *
+ * 关闭状态下tryAcquire只读一次volatile，不加锁；记录结果要更新滑动窗口，加锁
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String id;
+	private final int slowCalls;
+	private final long openMillis;
+	private final boolean[] window;
+	private int next;
+	private int count;
+	private int slow;
+	private volatile State state = State.CLOSED;
+	private long openedAt;
+	private boolean trialRunning;
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong opened = new AtomicLong();
+
+	CircuitBreaker(String id, int windowSize, int slowCalls, long openMillis) {
+		this.id = id;
+		this.window = new boolean[windowSize];
+		this.slowCalls = slowCalls;
+		this.openMillis = openMillis;
+	}
+
+	/** @return false表示熔断中，这次调用不执行 */
+	boolean tryAcquire(long now) {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		synchronized (this) {
+			if (state == State.CLOSED) {
+				return true;
+			}
+			if (state == State.OPEN && now - openedAt >= openMillis) {
+				state = State.HALF_OPEN;
+				trialRunning = false;
+			}
+			if (state == State.HALF_OPEN && !trialRunning) {
+				trialRunning = true;
+				return true;
+			}
+		}
+		rejected.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * tryAcquire成功但语句没有执行（缓存命中、执行之前就失败）时调用：半开状态下让出试探的机会
+	 */
+	synchronized void release() {
+		if (state == State.HALF_OPEN) {
+			trialRunning = false;
+		}
+	}
+
+	/** 每次tryAcquire成功、语句执行之后调用一次 */
+	synchronized void record(boolean slowCall, long now) {
+		if (state == State.HALF_OPEN) {
+			if (trialRunning) {
+				trialRunning = false;
+				if (slowCall) {
+					open(now);
+				} else {
+					close();
+				}
+			}
+			return;
+		}
+		if (state == State.OPEN) {
+			// 打开之前就开始执行的调用，结果不再计入
+			return;
+		}
+		if (count == window.length) {
+			if (window[next]) {
+				slow--;
+			}
+		} else {
+			count++;
+		}
+		window[next] = slowCall;
+		if (slowCall) {
+			slow++;
+		}
+		next = (next + 1) % window.length;
+		if (slow >= slowCalls) {
+			open(now);
+		}
+	}
+
+	private void open(long now) {
+		state = State.OPEN;
+		openedAt = now;
+		opened.incrementAndGet();
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		next = 0;
+		count = 0;
+		slow = 0;
+		Arrays.fill(window, false);
+	}
+
+	/** 熔断结束的时间（毫秒），没有打开时为0 */
+	synchronized long getRetryAt() {
+		return state == State.OPEN ? openedAt + openMillis : 0;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/** 熔断期间拒绝的调用数 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/** 打开过的次数 */
+	public long getOpened() {
+		return opened.get();
+	}
+
+	/** 当前窗口里的慢调用数 */
+	public synchronized int getSlowCalls() {
+		return slow;
+	}
+
+	@Override
+	public String toString() {
+		return "CircuitBreaker{id=" + id + ", state=" + state + ", slowCalls=" + getSlowCalls() + "/" + count
+				+ ", opened=" + opened + ", rejected=" + rejected + "}";
+	}
+}
@@ -0,0 +1,32 @@
+package com.atguigu.mybatis.guard;
+
+import java.util.Date;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+
+/**
+ * 语句的熔断器打开，没有访问数据库直接失败；调用方可以降级（返回缓存、默认值）或者稍后重试
+ */
+public class CircuitOpenException extends PersistenceException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String statementId;
+	private final long retryAt;
+
+	public CircuitOpenException(String statementId, long retryAt) {
+		super("Circuit breaker for statement " + statementId + " is open after repeated slow executions"
+				+ (retryAt > 0 ? ", retry after " + new Date(retryAt) : ""));
+		this.statementId = statementId;
+		this.retryAt = retryAt;
+	}
+
+	public String getStatementId() {
+		return statementId;
+	}
+
+	/** 熔断结束、允许试探调用的时间（毫秒），半开状态下为0 */
+	public long getRetryAt() {
+		return retryAt;
+	}
+}
@@ -0,0 +1,48 @@
+package com.atguigu.mybatis.guard;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 时间预算到期时取消正在执行的Statement
+ *
+ * cancel()和finish()用同一把锁：语句先执行完就不会再取消；
+ * 		取消已经开始时finish()等cancel()返回，Statement（可能被StatementCachingDataSource缓存复用）
+ * 		不会在下一次执行时被这次迟到的cancel()打断
+ */
+final class StatementCancelTask implements Runnable {
+
+	private static final Log log = LogFactory.getLog(StatementCancelTask.class);
+
+	private final Statement statement;
+	private final String statementId;
+	private boolean finished;
+	private boolean cancelled;
+
+	StatementCancelTask(Statement statement, String statementId) {
+		this.statement = statement;
+		this.statementId = statementId;
+	}
+
+	@Override
+	public synchronized void run() {
+		if (finished) {
+			return;
+		}
+		cancelled = true;
+		try {
+			statement.cancel();
+		} catch (SQLException e) {
+			log.warn("Could not cancel statement " + statementId + ". Cause: " + e);
+		}
+	}
+
+	/** @return 语句是否被取消过 */
+	synchronized boolean finish() {
+		finished = true;
+		return cancelled;
+	}
+}
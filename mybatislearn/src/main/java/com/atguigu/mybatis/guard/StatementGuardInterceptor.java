@@ -0,0 +1,301 @@
+package com.atguigu.mybatis.guard;
+
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import com.atguigu.mybatis.plugin.StatementHandlers;
+
+/**
+ * 语句级的时间预算和慢查询熔断：
+ * 1、时间预算：语句开始执行时定一个取消任务，到期还没执行完就Statement.cancel()，
+ * 		抛出SQLTimeoutException，连接马上还回连接池，不再被一条慢查询占住
+ * 2、熔断：每条语句一个CircuitBreaker，最近的执行里慢调用太多就打开，之后的调用直接抛CircuitOpenException；
+ * 		熔断检查在Executor上做，还没有借连接、没有prepare；缓存命中的查询不计入慢调用，
+ * 		分步查询等不经过Executor插件的语句在StatementHandler上检查
+ * 	时间预算和取消在StatementHandler上做，只计算真正访问数据库的时间
+ *
+ * 时间预算从哪来（按顺序）：
+ * 	1、插件属性 timeoutMillis.语句id
+ * 	2、映射文件里语句的timeout属性（秒，MyBatis自己也会setQueryTimeout；没写时是settings里的defaultStatementTimeout）
+ * 	3、插件属性 timeoutMillis：所有语句的默认值，0表示不限制
+ * 有的驱动setQueryTimeout要等服务器处理，cancel()是客户端主动取消，两者同时生效时先到期的那个起作用
+ *
+ * 慢调用：被取消，或者执行时间超过slowMillis.语句id / slowMillis（默认等于时间预算，即只有超时才算慢）
+ *
+ * 配置：
+ * 	<plugin interceptor="com.atguigu.mybatis.guard.StatementGuardInterceptor">
+ * 		<property name="timeoutMillis" value="0"/>
+ * 		<property name="timeoutMillis.com.atguigu.mybatis.dao.EmployeeMapper.getEmpsByLastNameLike" value="2000"/>
+ * 		<property name="slowMillis" value="0"/>
+ * 		<property name="circuitBreaker" value="true"/>
+ * 		<property name="circuitBreaker.windowSize" value="20"/>
+ * 		<property name="circuitBreaker.slowCalls" value="5"/>
+ * 		<property name="circuitBreaker.openMillis" value="30000"/>
+ * 	</plugin>
+ *
+ * 批量执行（BatchExecutor）的语句在flushStatements时执行，不经过这里，不受时间预算限制；
+ * 		游标查询只限制executeQuery本身，不限制之后逐行读取的时间
+ */
+@Intercepts({
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+	@Signature(type = Executor.class, method = "queryCursor", args = {MappedStatement.class, Object.class, RowBounds.class}),
+	@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+	@Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class}),
+	@Signature(type = StatementHandler.class, method = "queryCursor", args = Statement.class),
+	@Signature(type = StatementHandler.class, method = "update", args = Statement.class)
+})
+public class StatementGuardInterceptor implements Interceptor {
+
+	private static final Guard NONE = new Guard(0, 0, null);
+
+	/** 当前线程上Executor已经放行、还没有执行的语句，嵌套调用（分步查询等）形成链表 */
+	private static final ThreadLocal<Permit> PERMITS = new ThreadLocal<Permit>();
+
+	private final ConcurrentMap<String, Guard> guards = new ConcurrentHashMap<String, Guard>();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final Properties properties = new Properties();
+	private long timeoutMillis;
+	private long slowMillis;
+	private boolean circuitBreaker = true;
+	private int windowSize = 20;
+	private int slowCalls = 5;
+	private long openMillis = 30000;
+	private volatile ScheduledThreadPoolExecutor scheduler;
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		if (invocation.getTarget() instanceof Executor) {
+			return interceptExecutor(invocation);
+		}
+		return interceptStatementHandler(invocation);
+	}
+
+	/**
+	 * 熔断检查：打开时不借连接直接失败；放行之后由StatementHandler记录这次执行是否慢
+	 */
+	private Object interceptExecutor(Invocation invocation) throws Throwable {
+		MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+		CircuitBreaker breaker = guard(ms).breaker;
+		Permit parent = PERMITS.get();
+		if (breaker == null || (parent != null && parent.statementId.equals(ms.getId()) && !parent.used)) {
+			return invocation.proceed();
+		}
+		if (!breaker.tryAcquire(System.currentTimeMillis())) {
+			throw new CircuitOpenException(ms.getId(), breaker.getRetryAt());
+		}
+		Permit permit = new Permit(ms.getId(), parent);
+		PERMITS.set(permit);
+		try {
+			return invocation.proceed();
+		} finally {
+			if (parent != null) {
+				PERMITS.set(parent);
+			} else {
+				PERMITS.remove();
+			}
+			if (!permit.used) {
+				// 缓存命中或者执行之前就失败了，没有结果可以记录
+				breaker.release();
+			}
+		}
+	}
+
+	private Object interceptStatementHandler(Invocation invocation) throws Throwable {
+		MappedStatement ms = StatementHandlers.mappedStatement((StatementHandler) invocation.getTarget());
+		if (ms == null) {
+			return invocation.proceed();
+		}
+		Guard guard = guard(ms);
+		if (guard == NONE) {
+			return invocation.proceed();
+		}
+		CircuitBreaker breaker = guard.breaker;
+		Permit permit = PERMITS.get();
+		if (permit != null && permit.statementId.equals(ms.getId()) && !permit.used) {
+			permit.used = true;
+		} else if (breaker != null && !breaker.tryAcquire(System.currentTimeMillis())) {
+			// 不经过Executor插件的语句（分步查询、嵌套查询），连接已经被外层的查询借出来了
+			throw new CircuitOpenException(ms.getId(), breaker.getRetryAt());
+		}
+		StatementCancelTask task = null;
+		ScheduledFuture<?> timer = null;
+		if (guard.budgetMillis > 0) {
+			task = new StatementCancelTask((Statement) invocation.getArgs()[0], ms.getId());
+			timer = scheduler().schedule(task, guard.budgetMillis, TimeUnit.MILLISECONDS);
+		}
+		long start = System.nanoTime();
+		Object result = null;
+		Throwable failure = null;
+		try {
+			result = invocation.proceed();
+		} catch (Throwable e) {
+			failure = ExceptionUtil.unwrapThrowable(e);
+		}
+		boolean timedOut = false;
+		if (task != null) {
+			timer.cancel(false);
+			timedOut = task.finish();
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if (timedOut) {
+			cancelled.incrementAndGet();
+		}
+		if (breaker != null) {
+			breaker.record(timedOut || (guard.slowMillis > 0 && elapsedMillis >= guard.slowMillis),
+					System.currentTimeMillis());
+		}
+		if (failure != null) {
+			if (timedOut) {
+				SQLTimeoutException timeout = new SQLTimeoutException("Statement " + ms.getId()
+						+ " exceeded its time budget of " + guard.budgetMillis + "ms and was cancelled");
+				timeout.initCause(failure);
+				throw timeout;
+			}
+			throw failure;
+		}
+		return result;
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		if (target instanceof Executor || target instanceof StatementHandler) {
+			return Plugin.wrap(target, this);
+		}
+		return target;
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+		this.properties.putAll(properties);
+		timeoutMillis = Long.parseLong(properties.getProperty("timeoutMillis", "0"));
+		slowMillis = Long.parseLong(properties.getProperty("slowMillis", "0"));
+		circuitBreaker = Boolean.parseBoolean(properties.getProperty("circuitBreaker", "true"));
+		windowSize = Integer.parseInt(properties.getProperty("circuitBreaker.windowSize", "20"));
+		slowCalls = Integer.parseInt(properties.getProperty("circuitBreaker.slowCalls", "5"));
+		openMillis = Long.parseLong(properties.getProperty("circuitBreaker.openMillis", "30000"));
+		if (windowSize < 1 || slowCalls < 1 || slowCalls > windowSize) {
+			throw new IllegalArgumentException("circuitBreaker.slowCalls must be between 1 and circuitBreaker.windowSize");
+		}
+	}
+
+	private Guard guard(MappedStatement ms) {
+		Guard guard = guards.get(ms.getId());
+		return guard != null ? guard : resolve(ms);
+	}
+
+	/**
+	 * 每条语句第一次执行时算出时间预算和慢调用阈值，之后只是一次map查找
+	 */
+	private Guard resolve(MappedStatement ms) {
+		long budget = timeoutMillis;
+		String configured = properties.getProperty("timeoutMillis." + ms.getId());
+		if (configured != null) {
+			budget = Long.parseLong(configured);
+		} else if (ms.getTimeout() != null && ms.getTimeout() > 0) {
+			budget = TimeUnit.SECONDS.toMillis(ms.getTimeout());
+		}
+		long slow = Long.parseLong(properties.getProperty("slowMillis." + ms.getId(), String.valueOf(slowMillis)));
+		if (slow <= 0) {
+			slow = budget;
+		}
+		Guard guard = NONE;
+		if (budget > 0 || slow > 0) {
+			CircuitBreaker breaker = circuitBreaker ? new CircuitBreaker(ms.getId(), windowSize, slowCalls, openMillis) : null;
+			guard = new Guard(budget, slow, breaker);
+		}
+		Guard previous = guards.putIfAbsent(ms.getId(), guard);
+		return previous != null ? previous : guard;
+	}
+
+	private ScheduledThreadPoolExecutor scheduler() {
+		ScheduledThreadPoolExecutor executor = scheduler;
+		if (executor == null) {
+			synchronized (this) {
+				executor = scheduler;
+				if (executor == null) {
+					executor = new ScheduledThreadPoolExecutor(1, r -> {
+						Thread thread = new Thread(r, "mybatis-statement-guard");
+						thread.setDaemon(true);
+						return thread;
+					});
+					executor.setRemoveOnCancelPolicy(true);
+					scheduler = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/** 语句还没执行过，或者没有时间预算和慢调用阈值时返回null */
+	public CircuitBreaker getCircuitBreaker(String statementId) {
+		Guard guard = guards.get(statementId);
+		return guard == null ? null : guard.breaker;
+	}
+
+	public Collection<CircuitBreaker> getCircuitBreakers() {
+		Collection<CircuitBreaker> breakers = new ArrayList<CircuitBreaker>();
+		for (Guard guard : guards.values()) {
+			if (guard.breaker != null) {
+				breakers.add(guard.breaker);
+			}
+		}
+		return breakers;
+	}
+
+	/** 因为超出时间预算被取消的语句数 */
+	public long getCancelled() {
+		return cancelled.get();
+	}
+
+	private static final class Permit {
+
+		final String statementId;
+		final Permit parent;
+		/** StatementHandler已经执行了这条语句，结果由那里记录 */
+		boolean used;
+
+		Permit(String statementId, Permit parent) {
+			this.statementId = statementId;
+			this.parent = parent;
+		}
+	}
+
+	private static final class Guard {
+
+		final long budgetMillis;
+		final long slowMillis;
+		final CircuitBreaker breaker;
+
+		Guard(long budgetMillis, long slowMillis, CircuitBreaker breaker) {
+			this.budgetMillis = budgetMillis;
+			this.slowMillis = slowMillis;
+			this.breaker = breaker;
+		}
+	}
+}
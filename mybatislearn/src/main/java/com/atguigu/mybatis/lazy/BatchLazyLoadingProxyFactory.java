@@ -0,0 +1,92 @@
+package com.atguigu.mybatis.lazy;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
+import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 批量延迟加载：解决分步查询（select= column=）遍历列表时的N+1问题
+ *
+ * 原来的流程：查出N个部门，每访问一次dept.getEmps()就执行一次getEmpsByDeptId
+ * 现在的流程：第一次访问任何一个部门的emps时，把同一个会话里查出来、emps还没加载的部门的id都收集起来，
+ * 		用一条in查询（getEmpsByDeptIds）一次查出来，再按d_id分给各个部门
+ *
+ * 配置：
+ * 1、<setting name="proxyFactory" value="com.atguigu.mybatis.lazy.BatchLazyLoadingProxyFactory"/>
+ * 2、在properties中为需要批量的分步查询指定对应的in查询和分组属性：
+ * 		batchLazy.分步查询的id = in查询的id:结果中对应分步查询参数的属性
+ * 		<property name="batchLazy.com.atguigu.mybatis.dao.EmployeeMapperPlus.getEmpsByDeptId"
+ * 				value="com.atguigu.mybatis.dao.EmployeeMapperPlus.getEmpsByDeptIds:dept.id"/>
+ * 		in查询的参数是名为list的集合，一次最多MAX_KEYS个
+ *
+ * 没有配置的分步查询、多列传参（column="{a=x,b=y}"）以及在别的线程或者会话关闭之后触发的加载，都按原来的方式逐个加载
+ */
+public class BatchLazyLoadingProxyFactory extends JavassistProxyFactory {
+
+	public static final String PREFIX = "batchLazy.";
+	/** 一条in查询最多带多少个参数 */
+	public static final int MAX_KEYS = 1000;
+
+	private volatile Map<String, BatchStatement> batchStatements;
+
+	@Override
+	public Object createProxy(Object target, ResultLoaderMap lazyLoader, Configuration configuration,
+			ObjectFactory objectFactory, List<Class<?>> constructorArgTypes, List<Object> constructorArgs) {
+		Map<String, BatchStatement> statements = batchStatements(configuration);
+		if (!statements.isEmpty()) {
+			lazyLoader = new BatchResultLoaderMap(lazyLoader, statements, configuration, objectFactory);
+		}
+		return super.createProxy(target, lazyLoader, configuration, objectFactory, constructorArgTypes, constructorArgs);
+	}
+
+	private Map<String, BatchStatement> batchStatements(Configuration configuration) {
+		Map<String, BatchStatement> statements = batchStatements;
+		if (statements == null) {
+			statements = parse(configuration.getVariables());
+			batchStatements = statements;
+		}
+		return statements;
+	}
+
+	static Map<String, BatchStatement> parse(Properties variables) {
+		if (variables == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, BatchStatement> statements = new HashMap<String, BatchStatement>();
+		for (String name : variables.stringPropertyNames()) {
+			if (!name.startsWith(PREFIX)) {
+				continue;
+			}
+			String value = variables.getProperty(name).trim();
+			int colon = value.lastIndexOf(':');
+			if (colon <= 0 || colon == value.length() - 1) {
+				throw new BuilderException("Invalid " + name + "=" + value + ", expected <statementId>:<keyProperty>");
+			}
+			statements.put(name.substring(PREFIX.length()),
+					new BatchStatement(value.substring(0, colon), value.substring(colon + 1)));
+		}
+		return statements;
+	}
+
+	/**
+	 * 一个分步查询对应的in查询
+	 */
+	static final class BatchStatement {
+
+		final String statementId;
+		final String keyProperty;
+
+		BatchStatement(String statementId, String keyProperty) {
+			this.statementId = statementId;
+			this.keyProperty = keyProperty;
+		}
+	}
+}
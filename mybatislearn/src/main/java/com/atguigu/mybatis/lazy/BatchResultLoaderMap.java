@@ -0,0 +1,273 @@
+package com.atguigu.mybatis.lazy;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ResultExtractor;
+import org.apache.ibatis.executor.loader.ResultLoader;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
+import org.apache.ibatis.executor.loader.ResultLoaderMap.LoadPair;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+
+import com.atguigu.mybatis.lazy.BatchLazyLoadingProxyFactory.BatchStatement;
+import com.atguigu.mybatis.plugin.StatementHandlers;
+
+/**
+ * 代理对象持有的ResultLoaderMap：
+ * 		和DefaultResultSetHandler里的原始ResultLoaderMap共用同一个loaderMap（getProperties是final，只能共用），
+ * 		所以之后addLoader加进去的属性这里都能看到；只改写load，把同一会话里的兄弟对象一起加载
+ *
+ * 兄弟对象：同一个线程上创建的、对应属性还没加载、并且是同一个Executor（同一个会话）查出来的对象；
+ * 		用弱引用登记在ThreadLocal里，对象被回收后自动失效
+ */
+final class BatchResultLoaderMap extends ResultLoaderMap {
+
+	private static final Field LOADER_MAP = StatementHandlers.findField(ResultLoaderMap.class, "loaderMap");
+	private static final Field PAIR_PROPERTY = StatementHandlers.findField(LoadPair.class, "property");
+	private static final Field PAIR_META_OBJECT = StatementHandlers.findField(LoadPair.class, "metaResultObject");
+	private static final Field PAIR_RESULT_LOADER = StatementHandlers.findField(LoadPair.class, "resultLoader");
+	private static final Field LOADER_EXECUTOR = StatementHandlers.findField(ResultLoader.class, "executor");
+	private static final Field LOADER_STATEMENT = StatementHandlers.findField(ResultLoader.class, "mappedStatement");
+	private static final Field LOADER_PARAMETER = StatementHandlers.findField(ResultLoader.class, "parameterObject");
+	private static final Field LOADER_TARGET_TYPE = StatementHandlers.findField(ResultLoader.class, "targetType");
+	private static final Field LOADER_THREAD = StatementHandlers.findField(ResultLoader.class, "creatorThreadId");
+
+	/** 登记数超过这个值时清理一次已回收和已加载完的 */
+	private static final int MIN_PRUNE_SIZE = 256;
+
+	private static final ThreadLocal<Registry> REGISTRY = new ThreadLocal<Registry>() {
+		@Override
+		protected Registry initialValue() {
+			return new Registry();
+		}
+	};
+
+	private final Map<String, LoadPair> loaderMap;
+	private final Map<String, BatchStatement> batchStatements;
+	private final Configuration configuration;
+	private final ResultExtractor resultExtractor;
+
+	BatchResultLoaderMap(ResultLoaderMap original, Map<String, BatchStatement> batchStatements,
+			Configuration configuration, ObjectFactory objectFactory) {
+		this.loaderMap = shareLoaderMap(original);
+		this.batchStatements = batchStatements;
+		this.configuration = configuration;
+		this.resultExtractor = new ResultExtractor(configuration, objectFactory);
+		REGISTRY.get().register(this);
+	}
+
+	@Override
+	public boolean load(String property) throws SQLException {
+		String key = property.toUpperCase(Locale.ENGLISH);
+		LoadPair pair = loaderMap.get(key);
+		if (pair != null) {
+			ResultLoader loader = get(PAIR_RESULT_LOADER, pair);
+			if (loader != null) {
+				MappedStatement nested = get(LOADER_STATEMENT, loader);
+				BatchStatement batch = batchStatements.get(nested.getId());
+				if (batch != null && batchable(loader)) {
+					loadBatch(key, loader, nested, batch);
+					return true;
+				}
+			}
+		}
+		return super.load(property);
+	}
+
+	private void loadBatch(String key, ResultLoader loader, MappedStatement nested, BatchStatement batch)
+			throws SQLException {
+		Executor executor = get(LOADER_EXECUTOR, loader);
+		// key -> 等待这个key的对象；自己排在第一个
+		Map<Object, List<BatchResultLoaderMap>> waiting = new LinkedHashMap<Object, List<BatchResultLoaderMap>>();
+		collect(waiting, this, key, nested, executor);
+		Iterator<BatchResultLoaderMap> siblings = REGISTRY.get().iterator();
+		while (siblings.hasNext() && waiting.size() < BatchLazyLoadingProxyFactory.MAX_KEYS) {
+			BatchResultLoaderMap sibling = siblings.next();
+			if (sibling != this) {
+				collect(waiting, sibling, key, nested, executor);
+			}
+		}
+
+		Map<String, Object> parameter = new HashMap<String, Object>();
+		parameter.put("list", new ArrayList<Object>(waiting.keySet()));
+		MappedStatement ms = configuration.getMappedStatement(batch.statementId);
+		List<Object> rows = executor.query(ms, parameter, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+
+		Map<Object, List<Object>> rowsByKey = new HashMap<Object, List<Object>>();
+		for (Object row : rows) {
+			Object rowKey = normalize(configuration.newMetaObject(row).getValue(batch.keyProperty));
+			List<Object> group = rowsByKey.get(rowKey);
+			if (group == null) {
+				group = new ArrayList<Object>();
+				rowsByKey.put(rowKey, group);
+			}
+			group.add(row);
+		}
+
+		Class<?> targetType = get(LOADER_TARGET_TYPE, loader);
+		for (Map.Entry<Object, List<BatchResultLoaderMap>> entry : waiting.entrySet()) {
+			List<Object> group = rowsByKey.get(entry.getKey());
+			for (BatchResultLoaderMap target : entry.getValue()) {
+				// 先移除再赋值，赋值时代理对象不会再触发加载
+				LoadPair pair = target.loaderMap.remove(key);
+				List<Object> value = group == null ? new ArrayList<Object>() : new ArrayList<Object>(group);
+				MetaObject metaObject = get(PAIR_META_OBJECT, pair);
+				String property = get(PAIR_PROPERTY, pair);
+				metaObject.setValue(property, resultExtractor.extractObjectFromList(value, targetType));
+			}
+		}
+	}
+
+	private static void collect(Map<Object, List<BatchResultLoaderMap>> waiting, BatchResultLoaderMap map,
+			String key, MappedStatement nested, Executor executor) {
+		LoadPair pair = map.loaderMap.get(key);
+		if (pair == null) {
+			return;
+		}
+		ResultLoader loader = get(PAIR_RESULT_LOADER, pair);
+		if (loader == null || get(LOADER_STATEMENT, loader) != nested || get(LOADER_EXECUTOR, loader) != executor) {
+			return;
+		}
+		Object parameterKey = parameterKey(get(LOADER_PARAMETER, loader));
+		if (parameterKey == null) {
+			return;
+		}
+		List<BatchResultLoaderMap> maps = waiting.get(parameterKey);
+		if (maps == null) {
+			maps = new ArrayList<BatchResultLoaderMap>(1);
+			waiting.put(parameterKey, maps);
+		}
+		maps.add(map);
+	}
+
+	/**
+	 * 和ResultLoader.selectList一样：换了线程或者会话已关闭时它会新建Executor，这时不做批量
+	 */
+	private static boolean batchable(ResultLoader loader) {
+		Executor executor = get(LOADER_EXECUTOR, loader);
+		long creatorThreadId = BatchResultLoaderMap.<Long>get(LOADER_THREAD, loader);
+		return creatorThreadId == Thread.currentThread().getId() && !executor.isClosed()
+				&& parameterKey(get(LOADER_PARAMETER, loader)) != null;
+	}
+
+	/**
+	 * column="d_id"时参数就是列值；column="{deptId=id}"时是只有一项的Map；多列传参不做批量
+	 */
+	private static Object parameterKey(Object parameterObject) {
+		if (parameterObject instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) parameterObject;
+			return map.size() == 1 ? normalize(map.values().iterator().next()) : null;
+		}
+		return normalize(parameterObject);
+	}
+
+	/**
+	 * 参数和结果里的整数类型可能不同（Integer/Long），统一成Long再比较
+	 */
+	private static Object normalize(Object value) {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return Long.valueOf(((Number) value).longValue());
+		}
+		return value;
+	}
+
+	private boolean pending() {
+		return !loaderMap.isEmpty();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, LoadPair> shareLoaderMap(ResultLoaderMap original) {
+		try {
+			Map<String, LoadPair> shared = (Map<String, LoadPair>) LOADER_MAP.get(original);
+			LOADER_MAP.set(this, shared);
+			return shared;
+		} catch (IllegalAccessException e) {
+			throw new ReflectionException("Could not share loaderMap of " + original, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T get(Field field, Object target) {
+		try {
+			return (T) field.get(target);
+		} catch (IllegalAccessException e) {
+			throw new ReflectionException("Could not read " + field.getName() + " from " + target, e);
+		}
+	}
+
+	/**
+	 * 当前线程上创建的BatchResultLoaderMap
+	 */
+	private static final class Registry {
+
+		private final List<WeakReference<BatchResultLoaderMap>> maps = new ArrayList<WeakReference<BatchResultLoaderMap>>();
+		private int pruneAt = MIN_PRUNE_SIZE;
+
+		void register(BatchResultLoaderMap map) {
+			if (maps.size() >= pruneAt) {
+				prune();
+				pruneAt = Math.max(MIN_PRUNE_SIZE, maps.size() * 2);
+			}
+			maps.add(new WeakReference<BatchResultLoaderMap>(map));
+		}
+
+		private void prune() {
+			Iterator<WeakReference<BatchResultLoaderMap>> it = maps.iterator();
+			while (it.hasNext()) {
+				BatchResultLoaderMap map = it.next().get();
+				if (map == null || !map.pending()) {
+					it.remove();
+				}
+			}
+		}
+
+		Iterator<BatchResultLoaderMap> iterator() {
+			final Iterator<WeakReference<BatchResultLoaderMap>> it = maps.iterator();
+			return new Iterator<BatchResultLoaderMap>() {
+
+				private BatchResultLoaderMap next = advance();
+
+				private BatchResultLoaderMap advance() {
+					while (it.hasNext()) {
+						BatchResultLoaderMap map = it.next().get();
+						if (map != null) {
+							return map;
+						}
+					}
+					return null;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				@Override
+				public BatchResultLoaderMap next() {
+					BatchResultLoaderMap current = next;
+					next = advance();
+					return current;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+}
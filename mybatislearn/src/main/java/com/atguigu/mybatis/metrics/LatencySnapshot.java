@@ -0,0 +1,73 @@
+package com.atguigu.mybatis.metrics;
+
+import java.beans.ConstructorProperties;
+
+import org.HdrHistogram.AbstractHistogram;
+
+/**
+ * 一个延迟直方图的快照，单位微秒
+ */
+public class LatencySnapshot {
+
+	private static final double NANOS_PER_MICRO = 1000.0;
+
+	private final long count;
+	private final double mean;
+	private final double p50;
+	private final double p90;
+	private final double p99;
+	private final double p999;
+	private final double max;
+
+	@ConstructorProperties({"count", "mean", "p50", "p90", "p99", "p999", "max"})
+	public LatencySnapshot(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	public static LatencySnapshot of(AbstractHistogram nanos) {
+		return new LatencySnapshot(nanos.getTotalCount(), nanos.getMean() / NANOS_PER_MICRO,
+				nanos.getValueAtPercentile(50) / NANOS_PER_MICRO, nanos.getValueAtPercentile(90) / NANOS_PER_MICRO,
+				nanos.getValueAtPercentile(99) / NANOS_PER_MICRO, nanos.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+				nanos.getMaxValue() / NANOS_PER_MICRO);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getP50() {
+		return p50;
+	}
+
+	public double getP90() {
+		return p90;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getP999() {
+		return p999;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d, mean=%.1fus, p50=%.1fus, p90=%.1fus, p99=%.1fus, p999=%.1fus, max=%.1fus",
+				count, mean, p50, p90, p99, p999, max);
+	}
+}
@@ -0,0 +1,61 @@
+package com.atguigu.mybatis.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 所有语句的统计快照，按语句id排序
+ */
+public class MetricsSnapshot {
+
+	private final long timestamp;
+	private final Map<String, StatementSnapshot> statements;
+
+	public MetricsSnapshot(long timestamp, List<StatementSnapshot> statements) {
+		this.timestamp = timestamp;
+		Map<String, StatementSnapshot> byId = new TreeMap<String, StatementSnapshot>();
+		for (StatementSnapshot statement : statements) {
+			byId.put(statement.getId(), statement);
+		}
+		this.statements = Collections.unmodifiableMap(byId);
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Map<String, StatementSnapshot> getStatements() {
+		return statements;
+	}
+
+	public StatementSnapshot get(String statementId) {
+		return statements.get(statementId);
+	}
+
+	/**
+	 * p99延迟最高的n条语句：排查延迟毛刺时先看这里
+	 */
+	public List<StatementSnapshot> slowest(int n) {
+		List<StatementSnapshot> sorted = new ArrayList<StatementSnapshot>(statements.values());
+		Collections.sort(sorted, new Comparator<StatementSnapshot>() {
+			@Override
+			public int compare(StatementSnapshot a, StatementSnapshot b) {
+				return Double.compare(b.getLatency().getP99(), a.getLatency().getP99());
+			}
+		});
+		return sorted.subList(0, Math.min(n, sorted.size()));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (StatementSnapshot statement : statements.values()) {
+			sb.append(statement).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,149 @@
+package com.atguigu.mybatis.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * 一条MappedStatement的计数器：
+ * 		写入：LongAdder（按线程分段累加）+ HdrHistogram的Recorder（wait-free），热路径上没有锁
+ * 		读取：snapshot()把Recorder中新记录的部分合并到累计直方图，只有读取方之间互斥
+ *
+ * 内存：每个直方图1微秒到1分钟、2位有效数字，大约20KB；直方图在第一次记录/读取时才创建，
+ * 		只命中缓存、从来不访问数据库的语句没有数据库耗时的直方图
+ */
+final class StatementMetrics {
+
+	/** 1微秒以下不区分 */
+	static final long LOWEST_DISCERNIBLE_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	/** 超过1分钟的记录按1分钟计 */
+	static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+	/** 误差1%以内 */
+	static final int SIGNIFICANT_DIGITS = 2;
+	private static final LatencySnapshot NO_LATENCY = new LatencySnapshot(0, 0, 0, 0, 0, 0, 0);
+
+	private final String id;
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private volatile Recorder latency;
+	private volatile Recorder databaseLatency;
+
+	// 以下只在snapshot()/reset()中访问；区间直方图不保留，读取不频繁，每次读取时新建
+	private Histogram latencyTotal;
+	private Histogram databaseLatencyTotal;
+
+	StatementMetrics(String id) {
+		this.id = id;
+	}
+
+	void recordQuery(long nanos, int resultRows, boolean cacheHit) {
+		calls.increment();
+		rows.add(resultRows);
+		if (cacheHit) {
+			cacheHits.increment();
+		} else {
+			cacheMisses.increment();
+		}
+		latency().recordValue(clamp(nanos));
+	}
+
+	void recordUpdate(long nanos, int affectedRows) {
+		calls.increment();
+		if (affectedRows > 0) {
+			rows.add(affectedRows);
+		}
+		latency().recordValue(clamp(nanos));
+	}
+
+	void recordError(long nanos) {
+		calls.increment();
+		errors.increment();
+		latency().recordValue(clamp(nanos));
+	}
+
+	void recordDatabase(long nanos) {
+		databaseLatency().recordValue(clamp(nanos));
+	}
+
+	synchronized StatementSnapshot snapshot() {
+		latencyTotal = collect(latency, latencyTotal);
+		databaseLatencyTotal = collect(databaseLatency, databaseLatencyTotal);
+		return new StatementSnapshot(id, calls.sum(), errors.sum(), rows.sum(), cacheHits.sum(), cacheMisses.sum(),
+				latency(latencyTotal), latency(databaseLatencyTotal));
+	}
+
+	synchronized void reset() {
+		calls.reset();
+		errors.reset();
+		rows.reset();
+		cacheHits.reset();
+		cacheMisses.reset();
+		if (latency != null) {
+			latency.reset();
+		}
+		if (databaseLatency != null) {
+			databaseLatency.reset();
+		}
+		latencyTotal = null;
+		databaseLatencyTotal = null;
+	}
+
+	private Recorder latency() {
+		Recorder recorder = latency;
+		if (recorder == null) {
+			synchronized (this) {
+				recorder = latency;
+				if (recorder == null) {
+					recorder = newRecorder();
+					latency = recorder;
+				}
+			}
+		}
+		return recorder;
+	}
+
+	private Recorder databaseLatency() {
+		Recorder recorder = databaseLatency;
+		if (recorder == null) {
+			synchronized (this) {
+				recorder = databaseLatency;
+				if (recorder == null) {
+					recorder = newRecorder();
+					databaseLatency = recorder;
+				}
+			}
+		}
+		return recorder;
+	}
+
+	/**
+	 * 把Recorder里新记录的部分加到累计直方图
+	 */
+	private static Histogram collect(Recorder recorder, Histogram total) {
+		if (recorder == null) {
+			return total;
+		}
+		if (total == null) {
+			total = new Histogram(LOWEST_DISCERNIBLE_NANOS, HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+		}
+		total.add(recorder.getIntervalHistogram());
+		return total;
+	}
+
+	private static LatencySnapshot latency(Histogram total) {
+		return total == null || total.getTotalCount() == 0 ? NO_LATENCY : LatencySnapshot.of(total);
+	}
+
+	private static Recorder newRecorder() {
+		return new Recorder(LOWEST_DISCERNIBLE_NANOS, HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+	}
+
+	private static long clamp(long nanos) {
+		return nanos < 0 ? 0 : Math.min(nanos, HIGHEST_TRACKABLE_NANOS);
+	}
+}
@@ -0,0 +1,210 @@
+package com.atguigu.mybatis.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.PluginException;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import com.atguigu.mybatis.plugin.StatementHandlers;
+
+/**
+ * 按MappedStatement id统计延迟、行数和缓存命中：
+ * 1、Executor.query/update：总耗时、返回行数/影响行数、是否命中缓存；
+ * 		Executor.queryCursor：只统计打开游标（执行sql）的耗时，遍历游标的时间和行数不统计
+ * 2、StatementHandler.query/queryCursor/update/batch：真正访问数据库的耗时；
+ * 		同时在当前线程的Frame上做标记，Executor.query返回时没有标记就说明是从一级或二级缓存拿到的
+ *
+ * 读取：
+ * 		snapshot()：在代码里拉取，比如定时打印slowest(10)
+ * 		JMX（jmx=true时注册）：com.atguigu.mybatis:type=StatementMetrics,name=default
+ *
+ * 配置：
+ * 	<plugin interceptor="com.atguigu.mybatis.metrics.StatementMetricsInterceptor">
+ * 		<property name="jmx" value="true"/>
+ * 		<property name="name" value="default"/>
+ * 	</plugin>
+ */
+@Intercepts({
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+	@Signature(type = Executor.class, method = "queryCursor", args = {MappedStatement.class, Object.class, RowBounds.class}),
+	@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+	@Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class}),
+	@Signature(type = StatementHandler.class, method = "queryCursor", args = Statement.class),
+	@Signature(type = StatementHandler.class, method = "update", args = Statement.class),
+	@Signature(type = StatementHandler.class, method = "batch", args = Statement.class)
+})
+public class StatementMetricsInterceptor implements Interceptor, StatementMetricsMXBean {
+
+	public static final String JMX_DOMAIN = "com.atguigu.mybatis";
+	private static final int SLOWEST = 10;
+
+	/** 当前线程上正在执行的Executor调用，嵌套调用（分步查询等）形成链表 */
+	private static final ThreadLocal<Frame> CURRENT = new ThreadLocal<Frame>();
+
+	private final ConcurrentMap<String, StatementMetrics> statements = new ConcurrentHashMap<String, StatementMetrics>();
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		if (invocation.getTarget() instanceof Executor) {
+			return interceptExecutor(invocation);
+		}
+		return interceptStatementHandler(invocation);
+	}
+
+	private Object interceptExecutor(Invocation invocation) throws Throwable {
+		MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+		StatementMetrics metrics = metrics(ms.getId());
+		Frame frame = new Frame(CURRENT.get(), metrics);
+		CURRENT.set(frame);
+		long start = System.nanoTime();
+		try {
+			Object result = invocation.proceed();
+			long elapsed = System.nanoTime() - start;
+			if ("update".equals(invocation.getMethod().getName())) {
+				metrics.recordUpdate(elapsed, (Integer) result);
+			} else {
+				metrics.recordQuery(elapsed, result instanceof List ? ((List<?>) result).size() : 0, !frame.database);
+			}
+			return result;
+		} catch (Throwable e) {
+			metrics.recordError(System.nanoTime() - start);
+			throw e;
+		} finally {
+			if (frame.parent != null) {
+				frame.parent.database |= frame.database;
+				CURRENT.set(frame.parent);
+			} else {
+				CURRENT.remove();
+			}
+		}
+	}
+
+	private Object interceptStatementHandler(Invocation invocation) throws Throwable {
+		Frame frame = CURRENT.get();
+		if (frame != null) {
+			frame.database = true;
+		}
+		long start = System.nanoTime();
+		try {
+			return invocation.proceed();
+		} finally {
+			StatementMetrics metrics = databaseMetrics((StatementHandler) invocation.getTarget(), frame);
+			if (metrics != null) {
+				metrics.recordDatabase(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * 延迟加载的分步查询不经过Executor插件，这时从StatementHandler上取语句id
+	 */
+	private StatementMetrics databaseMetrics(StatementHandler handler, Frame frame) {
+		MappedStatement ms = StatementHandlers.mappedStatement(handler);
+		if (ms != null) {
+			return metrics(ms.getId());
+		}
+		return frame == null ? null : frame.metrics;
+	}
+
+	private StatementMetrics metrics(String id) {
+		StatementMetrics metrics = statements.get(id);
+		if (metrics == null) {
+			StatementMetrics created = new StatementMetrics(id);
+			metrics = statements.putIfAbsent(id, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	public MetricsSnapshot snapshot() {
+		return new MetricsSnapshot(System.currentTimeMillis(), getStatements());
+	}
+
+	@Override
+	public List<StatementSnapshot> getStatements() {
+		List<StatementSnapshot> snapshots = new ArrayList<StatementSnapshot>(statements.size());
+		for (StatementMetrics metrics : statements.values()) {
+			snapshots.add(metrics.snapshot());
+		}
+		return snapshots;
+	}
+
+	@Override
+	public List<StatementSnapshot> getSlowest() {
+		return snapshot().slowest(SLOWEST);
+	}
+
+	@Override
+	public void reset() {
+		for (StatementMetrics metrics : statements.values()) {
+			metrics.reset();
+		}
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		if (target instanceof Executor || target instanceof StatementHandler) {
+			return Plugin.wrap(target, this);
+		}
+		return target;
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+		if (Boolean.parseBoolean(properties.getProperty("jmx", "false"))) {
+			registerMBean(properties.getProperty("name", "default"));
+		}
+	}
+
+	private void registerMBean(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=StatementMetrics,name=" + ObjectName.quote(name));
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+		} catch (JMException e) {
+			throw new PluginException("Could not register StatementMetrics MBean '" + name + "'", e);
+		}
+	}
+
+	private static final class Frame {
+
+		final Frame parent;
+		final StatementMetrics metrics;
+		/** 这次调用期间是否执行过sql */
+		boolean database;
+
+		Frame(Frame parent, StatementMetrics metrics) {
+			this.parent = parent;
+			this.metrics = metrics;
+		}
+	}
+}
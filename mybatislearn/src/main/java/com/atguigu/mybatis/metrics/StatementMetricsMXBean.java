@@ -0,0 +1,15 @@
+package com.atguigu.mybatis.metrics;
+
+import java.util.List;
+
+/**
+ * JMX：com.atguigu.mybatis:type=StatementMetrics,name=配置的name
+ */
+public interface StatementMetricsMXBean {
+
+	List<StatementSnapshot> getStatements();
+
+	List<StatementSnapshot> getSlowest();
+
+	void reset();
+}
@@ -0,0 +1,79 @@
+package com.atguigu.mybatis.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * 一条MappedStatement的统计快照：
+ * 		latency：Executor.query/update的耗时（包括缓存命中）
+ * 		databaseLatency：StatementHandler执行sql + 封装结果的耗时（只有真正访问数据库时才有）
+ * 		rows：查询返回的行数或者增删改影响的行数（BATCH执行器的update不计）
+ * 		cacheHits：没有访问数据库就返回的查询（一级或二级缓存命中）
+ */
+public class StatementSnapshot {
+
+	private final String id;
+	private final long calls;
+	private final long errors;
+	private final long rows;
+	private final long cacheHits;
+	private final long cacheMisses;
+	private final LatencySnapshot latency;
+	private final LatencySnapshot databaseLatency;
+
+	@ConstructorProperties({"id", "calls", "errors", "rows", "cacheHits", "cacheMisses", "latency", "databaseLatency"})
+	public StatementSnapshot(String id, long calls, long errors, long rows, long cacheHits, long cacheMisses,
+			LatencySnapshot latency, LatencySnapshot databaseLatency) {
+		this.id = id;
+		this.calls = calls;
+		this.errors = errors;
+		this.rows = rows;
+		this.cacheHits = cacheHits;
+		this.cacheMisses = cacheMisses;
+		this.latency = latency;
+		this.databaseLatency = databaseLatency;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getCacheHits() {
+		return cacheHits;
+	}
+
+	public long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	public double getCacheHitRatio() {
+		long lookups = cacheHits + cacheMisses;
+		return lookups == 0 ? 0 : (double) cacheHits / lookups;
+	}
+
+	public LatencySnapshot getLatency() {
+		return latency;
+	}
+
+	public LatencySnapshot getDatabaseLatency() {
+		return databaseLatency;
+	}
+
+	@Override
+	public String toString() {
+		return id + " [calls=" + calls + ", errors=" + errors + ", rows=" + rows + ", cacheHits=" + cacheHits
+				+ ", cacheMisses=" + cacheMisses + ", latency={" + latency + "}, databaseLatency={" + databaseLatency
+				+ "}]";
+	}
+}
@@ -0,0 +1,51 @@
+package com.atguigu.mybatis.page;
+
+import java.util.List;
+
+/**
+ * keyset分页的一页数据：
+ * 		nextAfterId：下一页的起点（本页最后一条的id），没有下一页时为null
+ * 		total：总记录数，不统计时为null
+ */
+public class KeysetPage<T> {
+
+	private final List<T> list;
+	private final Integer afterId;
+	private final Integer nextAfterId;
+	private final boolean hasNext;
+	private final Long total;
+
+	public KeysetPage(List<T> list, Integer afterId, Integer nextAfterId, boolean hasNext, Long total) {
+		this.list = list;
+		this.afterId = afterId;
+		this.nextAfterId = nextAfterId;
+		this.hasNext = hasNext;
+		this.total = total;
+	}
+
+	public List<T> getList() {
+		return list;
+	}
+
+	public Integer getAfterId() {
+		return afterId;
+	}
+
+	public Integer getNextAfterId() {
+		return nextAfterId;
+	}
+
+	public boolean isHasNext() {
+		return hasNext;
+	}
+
+	public Long getTotal() {
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "KeysetPage [size=" + list.size() + ", afterId=" + afterId + ", nextAfterId=" + nextAfterId
+				+ ", hasNext=" + hasNext + ", total=" + total + "]";
+	}
+}
@@ -0,0 +1,36 @@
+package com.atguigu.mybatis.page;
+
+import java.util.List;
+
+import com.atguigu.mybatis.bean.Employee;
+import com.atguigu.mybatis.dao.EmployeeMapper;
+
+/**
+ * keyset分页（和PageHelper的offset分页并存）：
+ * 		PageHelper.startPage(pageNum, pageSize)：count(*) + limit offset,size，页码越大越慢
+ * 		KeysetPaging.employees(mapper, afterId, pageSize, count)：where id > afterId order by id limit size+1
+ *
+ * 1、多查一条用来判断是否还有下一页，不需要count就能做"下一页"按钮
+ * 2、count=true时才额外执行countEmps
+ * 3、只能一页一页往后翻，不能直接跳到第N页；客户端保存nextAfterId作为下一次的afterId
+ * 4、调用之前不要PageHelper.startPage，否则这条查询会再被PageInterceptor加上分页
+ */
+public final class KeysetPaging {
+
+	private KeysetPaging() {
+	}
+
+	public static KeysetPage<Employee> employees(EmployeeMapper mapper, Integer afterId, int pageSize, boolean count) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+		}
+		List<Employee> rows = mapper.getEmpsAfterId(afterId, pageSize + 1);
+		boolean hasNext = rows.size() > pageSize;
+		if (hasNext) {
+			rows = rows.subList(0, pageSize);
+		}
+		Integer nextAfterId = hasNext ? rows.get(rows.size() - 1).getId() : null;
+		Long total = count ? mapper.countEmps() : null;
+		return new KeysetPage<Employee>(rows, afterId, nextAfterId, hasNext, total);
+	}
+}
@@ -0,0 +1,105 @@
+package com.atguigu.mybatis.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.PluginException;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * 替代MyFirstPlugin/MySecondPlugin的组合插件：
+ * 1、所有ParameterizeHook共用一层代理，而不是每个插件各包一层
+ * 2、每个MappedStatement第一次执行时解析出要做的动作并缓存，之后只是一次map查找
+ * 3、没有任何hook，或者目标不是StatementHandler时，plugin()直接返回原对象，不创建代理
+ * 4、热路径上不打印日志
+ *
+ * 配置：
+ * 		parameterObject.语句id：替换该语句的参数，见ParameterRewriteHook
+ * 		hooks：逗号分隔的其他ParameterizeHook实现类，按顺序执行
+ */
+@Intercepts(
+		{
+			@Signature(type=StatementHandler.class,method="parameterize",args=java.sql.Statement.class)
+		})
+public class CompositeStatementInterceptor implements Interceptor {
+
+	private static final ParameterizeHook.Action[] NONE = new ParameterizeHook.Action[0];
+
+	private final List<ParameterizeHook> hooks = new ArrayList<ParameterizeHook>();
+	private final ConcurrentMap<String, ParameterizeHook.Action[]> plans =
+			new ConcurrentHashMap<String, ParameterizeHook.Action[]>();
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		StatementHandler handler = (StatementHandler) invocation.getTarget();
+		MappedStatement ms = StatementHandlers.mappedStatement(handler);
+		if (ms != null) {
+			ParameterizeHook.Action[] actions = plans.get(ms.getId());
+			if (actions == null) {
+				actions = resolve(ms, handler);
+			}
+			for (ParameterizeHook.Action action : actions) {
+				action.apply(handler);
+			}
+		}
+		return invocation.proceed();
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		if (target instanceof StatementHandler && !hooks.isEmpty()) {
+			return Plugin.wrap(target, this);
+		}
+		return target;
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+		ParameterRewriteHook rewrite = new ParameterRewriteHook();
+		rewrite.setProperties(properties);
+		if (!rewrite.isEmpty()) {
+			hooks.add(rewrite);
+		}
+		String extra = properties.getProperty("hooks");
+		if (extra != null) {
+			for (String className : extra.split(",")) {
+				if (className.trim().length() > 0) {
+					ParameterizeHook hook = newHook(className.trim());
+					hook.setProperties(properties);
+					hooks.add(hook);
+				}
+			}
+		}
+	}
+
+	private ParameterizeHook.Action[] resolve(MappedStatement ms, StatementHandler handler) {
+		List<ParameterizeHook.Action> actions = new ArrayList<ParameterizeHook.Action>();
+		for (ParameterizeHook hook : hooks) {
+			ParameterizeHook.Action action = hook.resolve(ms, handler);
+			if (action != null) {
+				actions.add(action);
+			}
+		}
+		ParameterizeHook.Action[] resolved = actions.isEmpty() ? NONE : actions.toArray(NONE);
+		ParameterizeHook.Action[] previous = plans.putIfAbsent(ms.getId(), resolved);
+		return previous != null ? previous : resolved;
+	}
+
+	private static ParameterizeHook newHook(String className) {
+		try {
+			return (ParameterizeHook) Resources.classForName(className).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new PluginException("Could not create ParameterizeHook " + className + ". Cause: " + e, e);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.atguigu.mybatis.plugin;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.PluginException;
+
+/**
+ * 替换sql运行时使用的参数（原MyFirstPlugin的功能）：
+ * 		StatementHandler ==> ParameterHandler ==> parameterObject
+ * 只对配置了的语句生效：
+ * 		<property name="parameterObject.com.atguigu.mybatis.dao.EmployeeMapper.getEmpById" value="11"/>
+ * 纯数字的值按Integer处理，其余按字符串
+ */
+public class ParameterRewriteHook implements ParameterizeHook {
+
+	public static final String PREFIX = "parameterObject.";
+
+	private final Map<String, Object> overrides = new HashMap<String, Object>();
+
+	@Override
+	public Action resolve(MappedStatement ms, StatementHandler handler) {
+		if (!overrides.containsKey(ms.getId())) {
+			return null;
+		}
+		final Object value = overrides.get(ms.getId());
+		ParameterHandler parameterHandler = handler.getParameterHandler();
+		if (Proxy.isProxyClass(parameterHandler.getClass())) {
+			throw new PluginException("Cannot rewrite parameterObject of " + ms.getId()
+					+ ": ParameterHandler is wrapped by another plugin");
+		}
+		final Field field = StatementHandlers.findField(parameterHandler.getClass(), "parameterObject");
+		return new Action() {
+			@Override
+			public void apply(StatementHandler handler) throws Exception {
+				field.set(handler.getParameterHandler(), value);
+			}
+		};
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(PREFIX)) {
+				overrides.put(name.substring(PREFIX.length()), parse(properties.getProperty(name)));
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return overrides.isEmpty();
+	}
+
+	private static Object parse(String value) {
+		try {
+			return Integer.valueOf(value);
+		} catch (NumberFormatException e) {
+			return value;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.atguigu.mybatis.plugin;
+
+import java.util.Properties;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * CompositeStatementInterceptor中的一个环节：在StatementHandler.parameterize之前执行
+ */
+public interface ParameterizeHook {
+
+	/**
+	 * 为某个MappedStatement解析出要执行的动作，每个语句只调用一次，结果被缓存
+	 * @return 这个语句不需要处理时返回null
+	 */
+	Action resolve(MappedStatement ms, StatementHandler handler);
+
+	void setProperties(Properties properties);
+
+	interface Action {
+		void apply(StatementHandler handler) throws Exception;
+	}
+}
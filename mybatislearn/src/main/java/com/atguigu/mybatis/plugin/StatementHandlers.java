@@ -0,0 +1,74 @@
+package com.atguigu.mybatis.plugin;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+import org.apache.ibatis.executor.statement.BaseStatementHandler;
+import org.apache.ibatis.executor.statement.RoutingStatementHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.reflection.ReflectionException;
+
+/**
+ * 从StatementHandler上取出MappedStatement：
+ * 		RoutingStatementHandler.delegate ==> BaseStatementHandler.mappedStatement
+ * 两个字段在类加载时解析一次，调用时只有两次Field.get，不再每次走SystemMetaObject
+ * 前面注册的插件已经包了一层代理时，先取出Plugin.target
+ */
+public final class StatementHandlers {
+
+	private static final Field DELEGATE = accessible(RoutingStatementHandler.class, "delegate");
+	private static final Field MAPPED_STATEMENT = accessible(BaseStatementHandler.class, "mappedStatement");
+	private static final Field PLUGIN_TARGET = accessible(Plugin.class, "target");
+
+	private StatementHandlers() {
+	}
+
+	public static MappedStatement mappedStatement(StatementHandler handler) {
+		try {
+			Object target = handler;
+			while (Proxy.isProxyClass(target.getClass())) {
+				InvocationHandler invocationHandler = Proxy.getInvocationHandler(target);
+				if (!(invocationHandler instanceof Plugin)) {
+					return null;
+				}
+				target = PLUGIN_TARGET.get(invocationHandler);
+			}
+			if (target instanceof RoutingStatementHandler) {
+				target = DELEGATE.get(target);
+			}
+			if (target instanceof BaseStatementHandler) {
+				return (MappedStatement) MAPPED_STATEMENT.get(target);
+			}
+			return null;
+		} catch (IllegalAccessException e) {
+			throw new ReflectionException("Could not read mappedStatement from " + handler, e);
+		}
+	}
+
+	/**
+	 * 在类及其父类中查找字段并打开访问权限
+	 */
+	public static Field findField(Class<?> type, String name) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField(name);
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				// 继续在父类中查找
+			}
+		}
+		throw new ReflectionException("There is no field named '" + name + "' in " + type);
+	}
+
+	private static Field accessible(Class<?> type, String name) {
+		try {
+			return findField(type, name);
+		} catch (ReflectionException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.atguigu.mybatis.projection;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 查询时只取部分属性（fetch plan），用法和PageHelper.startPage一样：
+ * 		FetchPlan.start("id", "email");
+ * 		List<Employee> emps = mapper.getEmpsByLastNameLike("%e%");
+ * 		==> select id, email from tbl_employee where last_name like ?
+ *
+ * 1、只对当前线程接下来第一条可以裁剪的select生效（见ProjectionInterceptor），执行后自动清除
+ * 2、没有列出的属性保持null；@MapKey用到的属性、之后还要读的属性都要列出来
+ * 3、分步查询的关联属性（association的select）列出来时，才会查询它用到的外键列
+ * 4、FetchPlan不可变，常用的计划可以定义成常量：start(plan)
+ */
+public final class FetchPlan {
+
+	private static final ThreadLocal<FetchPlan> LOCAL = new ThreadLocal<FetchPlan>();
+
+	private final Set<String> properties;
+	/** 加进CacheKey，按属性排序，同样的属性不同的写法是同一个计划 */
+	private final String key;
+
+	private FetchPlan(Set<String> properties) {
+		this.properties = Collections.unmodifiableSet(properties);
+		this.key = "fetchPlan" + properties;
+	}
+
+	public static FetchPlan of(String... properties) {
+		Set<String> names = new TreeSet<String>();
+		for (String property : properties) {
+			if (property == null || property.trim().length() == 0) {
+				throw new IllegalArgumentException("Fetch plan property must not be empty");
+			}
+			names.add(property.trim());
+		}
+		if (names.isEmpty()) {
+			throw new IllegalArgumentException("Fetch plan must name at least one property");
+		}
+		return new FetchPlan(names);
+	}
+
+	/**
+	 * 当前线程接下来的一条select只查这些属性
+	 */
+	public static FetchPlan start(String... properties) {
+		return start(of(properties));
+	}
+
+	public static FetchPlan start(FetchPlan plan) {
+		LOCAL.set(plan);
+		return plan;
+	}
+
+	/** 取消还没有用掉的计划 */
+	public static void clear() {
+		LOCAL.remove();
+	}
+
+	/** 取出并清除当前线程的计划 */
+	static FetchPlan take() {
+		FetchPlan plan = LOCAL.get();
+		if (plan != null) {
+			LOCAL.remove();
+		}
+		return plan;
+	}
+
+	public Set<String> getProperties() {
+		return properties;
+	}
+
+	String key() {
+		return key;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof FetchPlan && key.equals(((FetchPlan) o).key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "FetchPlan" + properties;
+	}
+}
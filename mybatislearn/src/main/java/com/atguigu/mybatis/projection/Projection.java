@@ -0,0 +1,254 @@
+package com.atguigu.mybatis.projection;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.session.AutoMappingBehavior;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+/**
+ * 一条语句对一张表的投影：表里哪些列会被结果映射用到，每列对应哪个属性
+ *
+ * 和DefaultResultSetHandler的规则一样：
+ * 	1、resultMap里写了的列（包括组合列column="{a=x,b=y}"）都保留
+ * 	2、自动映射打开时，其余的列按列名找属性（mapUnderscoreToCamelCase打开时去掉下划线），
+ * 		属性有setter、有对应的TypeHandler才保留
+ * 	3、其他列（比如没有打开驼峰映射时的last_name、没有对应属性的d_id）本来就不会被映射，去掉后结果对象完全一样
+ */
+final class Projection {
+
+	/** 每条语句最多缓存多少个不同的FetchPlan */
+	static final int MAX_PLANS = 64;
+
+	private final String statementId;
+	private final String table;
+	private final List<Column> columns;
+	/** 不带FetchPlan时的列清单；表里每一列都用得到时为null，不改写 */
+	private final String all;
+	private final ConcurrentMap<FetchPlan, String> narrowed = new ConcurrentHashMap<FetchPlan, String>();
+
+	private Projection(String statementId, String table, List<Column> columns, boolean everyColumn) {
+		this.statementId = statementId;
+		this.table = table;
+		this.columns = columns;
+		this.all = everyColumn ? null : join(columns, null);
+	}
+
+	/**
+	 * 读表的列（DatabaseMetaData），算出要保留的列
+	 * @return 找不到表、表名对应多张表、或者没有一列能映射时返回null
+	 */
+	static Projection resolve(MappedStatement ms, String table, Connection connection) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		Map<String, Integer> tableColumns = tableColumns(metaData, connection, table);
+		if (tableColumns == null || tableColumns.isEmpty()) {
+			return null;
+		}
+		Configuration configuration = ms.getConfiguration();
+		ResultMap resultMap = ms.getResultMaps().get(0);
+		TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+		MetaClass metaClass = MetaClass.forClass(resultMap.getType(), configuration.getReflectorFactory());
+		Map<String, String> explicit = explicitColumns(resultMap);
+		boolean autoMapping = resultMap.getAutoMapping() != null ? resultMap.getAutoMapping()
+				: configuration.getAutoMappingBehavior() != AutoMappingBehavior.NONE;
+		String quote = metaData.getIdentifierQuoteString();
+		List<Column> kept = new ArrayList<Column>();
+		for (Map.Entry<String, Integer> entry : tableColumns.entrySet()) {
+			String column = entry.getKey();
+			String upper = column.toUpperCase(Locale.ENGLISH);
+			String sql = quote(column, quote);
+			if (explicit.containsKey(upper)) {
+				kept.add(new Column(sql, explicit.get(upper)));
+				continue;
+			}
+			if (!autoMapping) {
+				continue;
+			}
+			String property = metaClass.findProperty(column, configuration.isMapUnderscoreToCamelCase());
+			if (property == null || !metaClass.hasSetter(property) || resultMap.getMappedProperties().contains(property)) {
+				continue;
+			}
+			JdbcType jdbcType = JdbcType.forCode(entry.getValue());
+			if (typeHandlerRegistry.hasTypeHandler(metaClass.getSetterType(property), jdbcType)) {
+				kept.add(new Column(sql, property));
+			}
+		}
+		if (kept.isEmpty()) {
+			return null;
+		}
+		return new Projection(ms.getId(), table, kept, kept.size() == tableColumns.size());
+	}
+
+	/**
+	 * @return 替换select *的列清单，不需要改写时返回null
+	 */
+	String columns(FetchPlan plan) {
+		if (plan == null) {
+			return all;
+		}
+		String list = narrowed.get(plan);
+		if (list == null) {
+			list = narrow(plan);
+			if (narrowed.size() >= MAX_PLANS) {
+				narrowed.clear();
+			}
+			narrowed.put(plan, list);
+		}
+		return list;
+	}
+
+	private String narrow(FetchPlan plan) {
+		Set<String> found = new HashSet<String>();
+		for (Column column : columns) {
+			if (column.property != null && plan.getProperties().contains(column.property)) {
+				found.add(column.property);
+			}
+		}
+		for (String property : plan.getProperties()) {
+			if (!found.contains(property)) {
+				throw new ExecutorException("Fetch plan property '" + property + "' is not mapped from any column of "
+						+ table + " by statement " + statementId);
+			}
+		}
+		return join(columns, plan.getProperties());
+	}
+
+	/**
+	 * 构造方法参数（没有属性名）的列总是保留
+	 */
+	private static String join(List<Column> columns, Set<String> properties) {
+		StringBuilder sql = new StringBuilder();
+		for (Column column : columns) {
+			if (properties != null && column.property != null && !properties.contains(column.property)) {
+				continue;
+			}
+			if (sql.length() > 0) {
+				sql.append(", ");
+			}
+			sql.append(column.sql);
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * @return 大写列名 ==> 属性名（嵌套属性取第一段，比如dept.id ==> dept）
+	 */
+	private static Map<String, String> explicitColumns(ResultMap resultMap) {
+		Map<String, String> columns = new LinkedHashMap<String, String>();
+		for (ResultMapping mapping : resultMap.getResultMappings()) {
+			String property = mapping.getProperty();
+			if (property != null && property.indexOf('.') > 0) {
+				property = property.substring(0, property.indexOf('.'));
+			}
+			if (mapping.getColumn() != null) {
+				columns.put(mapping.getColumn().toUpperCase(Locale.ENGLISH), property);
+			}
+			for (ResultMapping composite : mapping.getComposites()) {
+				columns.put(composite.getColumn().toUpperCase(Locale.ENGLISH), property);
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * @return 列名 ==> java.sql.Types，按列的顺序
+	 */
+	private static Map<String, Integer> tableColumns(DatabaseMetaData metaData, Connection connection, String table)
+			throws SQLException {
+		String name = unquote(table);
+		String owner = null;
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			owner = name.substring(0, dot);
+			name = name.substring(dot + 1);
+		}
+		for (String candidate : new String[] {name, name.toUpperCase(Locale.ENGLISH), name.toLowerCase(Locale.ENGLISH)}) {
+			Map<String, Integer> columns = new LinkedHashMap<String, Integer>();
+			String found = null;
+			ResultSet rs = owner != null ? metaData.getColumns(null, null, candidate, null)
+					: metaData.getColumns(connection.getCatalog(), schema(connection), candidate, null);
+			try {
+				while (rs.next()) {
+					// 表名里的_是通配符，所以还要比较一次表名；带库名/用户名时比较一次
+					if (!name.equalsIgnoreCase(rs.getString("TABLE_NAME"))) {
+						continue;
+					}
+					if (owner != null && !owner.equalsIgnoreCase(rs.getString("TABLE_CAT"))
+							&& !owner.equalsIgnoreCase(rs.getString("TABLE_SCHEM"))) {
+						continue;
+					}
+					String qualified = rs.getString("TABLE_CAT") + "." + rs.getString("TABLE_SCHEM") + "." + rs.getString("TABLE_NAME");
+					if (found != null && !found.equals(qualified)) {
+						// 多个库里有同名的表，不知道用的是哪一张
+						return null;
+					}
+					found = qualified;
+					columns.put(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"));
+				}
+			} finally {
+				rs.close();
+			}
+			if (!columns.isEmpty()) {
+				return columns;
+			}
+		}
+		return null;
+	}
+
+	private static String schema(Connection connection) {
+		try {
+			return connection.getSchema();
+		} catch (Throwable e) {
+			// JDBC 4.1之前的驱动没有getSchema
+			return null;
+		}
+	}
+
+	private static String unquote(String table) {
+		StringBuilder name = new StringBuilder(table.length());
+		for (int i = 0; i < table.length(); i++) {
+			char c = table.charAt(i);
+			if (c != '`' && c != '"' && c != '[' && c != ']') {
+				name.append(c);
+			}
+		}
+		return name.toString();
+	}
+
+	private static String quote(String column, String quote) {
+		if (column.matches("[A-Za-z_][A-Za-z0-9_$]*") || quote == null || quote.trim().length() == 0) {
+			return column;
+		}
+		return quote + column + quote;
+	}
+
+	private static final class Column {
+
+		final String sql;
+		/** 对应的属性，构造方法参数为null */
+		final String property;
+
+		Column(String sql, String property) {
+			this.sql = sql;
+			this.property = property;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package com.atguigu.mybatis.projection;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import com.atguigu.mybatis.plugin.StatementHandlers;
+
+/**
+ * select *的列裁剪：把*换成结果映射真正用得到的列，再按FetchPlan只留调用方要的属性
+ *
+ * 1、语句第一次执行时读一次表的列（DatabaseMetaData），按resultType/resultMap算出要保留的列并缓存（见Projection），
+ * 		之后每次执行只是一次正则匹配和字符串拼接
+ * 2、只处理单表的 select * from 表 [where|order by|group by|limit ...]，带别名、join、多张表的sql不改
+ * 3、只处理结果是一个JavaBean的语句：resultType是map或者基本类型、有嵌套结果映射、有discriminator、
+ * 		要按列的顺序调用构造方法时都不裁剪
+ * 4、FetchPlan：查出来的对象少了属性，所以把计划加进CacheKey，一级/二级缓存里不会和完整的结果混在一起
+ * 5、表结构变了（比如在线删了一列）时缓存的列就不对了：裁剪后的sql报语法/列错误（SQLState以42开头）时
+ * 		丢掉这个语句的列缓存，用原来的select *再查一次，下次执行重新读表的列；其他错误（超时、死锁等）不重试
+ *
+ * 配置（在SingleFlightInterceptor之后注册，合并相同查询时CacheKey里已经带上FetchPlan）：
+ * 	<plugin interceptor="com.atguigu.mybatis.projection.ProjectionInterceptor">
+ * 		<!-- 只裁剪这些语句/namespace，逗号分隔；不写表示所有语句 -->
+ * 		<property name="statements" value="com.atguigu.mybatis.dao.EmployeeMapper"/>
+ * 	</plugin>
+ */
+@Intercepts({
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+	@Signature(type = Executor.class, method = "query",
+			args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class})
+})
+public class ProjectionInterceptor implements Interceptor {
+
+	private static final Log log = LogFactory.getLog(ProjectionInterceptor.class);
+
+	/** 最多缓存多少个语句和表的组合（${tableName}这样的语句可能对应很多张表） */
+	static final int MAX_PROJECTIONS = 1024;
+
+	private static final Pattern SELECT_ALL = Pattern.compile(
+			"\\s*select\\s+(\\*)\\s+from\\s+([\\w$.`\"\\[\\]]+)\\s*(?:$|(?=(?:where|order|group|limit|for)\\b))",
+			Pattern.CASE_INSENSITIVE);
+	private static final Field ADDITIONAL_PARAMETERS = StatementHandlers.findField(BoundSql.class, "additionalParameters");
+
+	private final ConcurrentMap<String, Boolean> eligible = new ConcurrentHashMap<String, Boolean>();
+	private final ConcurrentMap<String, Projection> projections = new ConcurrentHashMap<String, Projection>();
+	/** 表的列读不到、或者没有可以裁剪的列的语句和表 */
+	private final Set<String> unprojectable = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> statements = new HashSet<String>();
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		Object[] args = invocation.getArgs();
+		MappedStatement ms = (MappedStatement) args[0];
+		if (!eligible(ms)) {
+			return invocation.proceed();
+		}
+		// 和PageHelper一样，计划只给接下来第一条能裁剪的select用
+		FetchPlan plan = FetchPlan.take();
+		Object parameter = args[1];
+		BoundSql boundSql = args.length == 4 ? ms.getBoundSql(parameter) : (BoundSql) args[5];
+		Matcher matcher = SELECT_ALL.matcher(boundSql.getSql());
+		Projection projection = matcher.lookingAt()
+				? projection(ms, matcher.group(2), (Executor) invocation.getTarget()) : null;
+		String columns = projection == null ? null : projection.columns(plan);
+		if (columns == null) {
+			if (plan != null && log.isDebugEnabled()) {
+				log.debug("Ignored " + plan + ": statement " + ms.getId() + " cannot be projected");
+			}
+			return invocation.proceed();
+		}
+		String sql = boundSql.getSql();
+		BoundSql projected = copy(ms, boundSql, sql.substring(0, matcher.start(1)) + columns + sql.substring(matcher.end(1)));
+		CacheKey key;
+		if (args.length == 4) {
+			// 和CachingExecutor一样按原来的sql算出CacheKey，再调用6个参数的query
+			key = ((Executor) invocation.getTarget()).createCacheKey(ms, parameter, (RowBounds) args[2], boundSql);
+			if (plan != null) {
+				key.update(plan.key());
+			}
+		} else {
+			key = (CacheKey) args[4];
+			if (plan != null && key != CacheKey.NULL_CACHE_KEY) {
+				key.update(plan.key());
+			}
+		}
+		try {
+			return query(invocation, key, projected);
+		} catch (SQLException e) {
+			if (e.getSQLState() == null || !e.getSQLState().startsWith("42")) {
+				throw e;
+			}
+			evict(ms, matcher.group(2));
+			log.warn("Projected query of " + ms.getId() + " failed, retrying with the original sql. Cause: " + e);
+			try {
+				return query(invocation, key, boundSql);
+			} catch (SQLException retry) {
+				retry.addSuppressed(e);
+				throw retry;
+			}
+		}
+	}
+
+	/**
+	 * 4个参数的query改调6个参数的，6个参数的换掉BoundSql继续执行
+	 */
+	private static Object query(Invocation invocation, CacheKey key, BoundSql boundSql) throws Throwable {
+		Object[] args = invocation.getArgs();
+		if (args.length == 4) {
+			return ((Executor) invocation.getTarget()).query((MappedStatement) args[0], args[1], (RowBounds) args[2],
+					(ResultHandler<?>) args[3], key, boundSql);
+		}
+		args[5] = boundSql;
+		try {
+			return invocation.proceed();
+		} catch (Exception e) {
+			// proceed()是反射调用，SQLException包在InvocationTargetException里
+			throw ExceptionUtil.unwrapThrowable(e);
+		}
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		if (target instanceof Executor) {
+			return Plugin.wrap(target, this);
+		}
+		return target;
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+		String value = properties.getProperty("statements");
+		if (value != null) {
+			for (String id : value.split(",")) {
+				if (id.trim().length() > 0) {
+					statements.add(id.trim());
+				}
+			}
+		}
+	}
+
+	/**
+	 * 只看MappedStatement就能判断的条件，每条语句算一次
+	 */
+	private boolean eligible(MappedStatement ms) {
+		Boolean result = eligible.get(ms.getId());
+		if (result == null) {
+			result = ms.getSqlCommandType() == SqlCommandType.SELECT && ms.getStatementType() != StatementType.CALLABLE
+					&& ms.getResultMaps().size() == 1 && included(ms.getId()) && projectable(ms);
+			eligible.put(ms.getId(), result);
+		}
+		return result;
+	}
+
+	private boolean included(String id) {
+		if (statements.isEmpty() || statements.contains(id)) {
+			return true;
+		}
+		int dot = id.lastIndexOf('.');
+		return dot > 0 && statements.contains(id.substring(0, dot));
+	}
+
+	private static boolean projectable(MappedStatement ms) {
+		ResultMap resultMap = ms.getResultMaps().get(0);
+		Class<?> type = resultMap.getType();
+		if (resultMap.hasNestedResultMaps() || resultMap.getDiscriminator() != null || Map.class.isAssignableFrom(type)
+				|| ms.getConfiguration().getTypeHandlerRegistry().hasTypeHandler(type)) {
+			return false;
+		}
+		if (!resultMap.getConstructorResultMappings().isEmpty() || type.isInterface()) {
+			return true;
+		}
+		try {
+			type.getDeclaredConstructor();
+			return true;
+		} catch (NoSuchMethodException e) {
+			// 没有无参构造方法时MyBatis按列的顺序匹配构造方法，少了列就对不上
+			return false;
+		}
+	}
+
+	private Projection projection(MappedStatement ms, String table, Executor executor) throws SQLException {
+		String key = projectionKey(ms, table);
+		Projection projection = projections.get(key);
+		if (projection != null || unprojectable.contains(key)) {
+			return projection;
+		}
+		Connection connection = executor.getTransaction().getConnection();
+		try {
+			projection = Projection.resolve(ms, table, connection);
+		} catch (Exception e) {
+			// 裁剪只是优化，驱动不支持DatabaseMetaData时按原来的sql执行
+			log.warn("Could not read columns of " + table + " for " + ms.getId() + ", not projected. Cause: " + e);
+			projection = null;
+		}
+		if (projections.size() + unprojectable.size() >= MAX_PROJECTIONS) {
+			projections.clear();
+			unprojectable.clear();
+		}
+		if (projection != null) {
+			projections.put(key, projection);
+		} else {
+			if (log.isDebugEnabled()) {
+				log.debug("Columns of " + table + " are unknown or not mapped by " + ms.getId() + ", not projected");
+			}
+			unprojectable.add(key);
+		}
+		return projection;
+	}
+
+	/** 裁剪后的sql执行失败：下次执行重新读表的列 */
+	private void evict(MappedStatement ms, String table) {
+		String key = projectionKey(ms, table);
+		projections.remove(key);
+		unprojectable.remove(key);
+	}
+
+	private static String projectionKey(MappedStatement ms, String table) {
+		return ms.getId() + "@" + table.toLowerCase(Locale.ENGLISH);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BoundSql copy(MappedStatement ms, BoundSql boundSql, String sql) throws IllegalAccessException {
+		BoundSql copy = new BoundSql(ms.getConfiguration(), sql, boundSql.getParameterMappings(), boundSql.getParameterObject());
+		for (Map.Entry<String, Object> entry : ((Map<String, Object>) ADDITIONAL_PARAMETERS.get(boundSql)).entrySet()) {
+			copy.setAdditionalParameter(entry.getKey(), entry.getValue());
+		}
+		return copy;
+	}
+}
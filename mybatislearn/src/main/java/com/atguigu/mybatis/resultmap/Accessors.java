@@ -0,0 +1,223 @@
+package com.atguigu.mybatis.resultmap;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+
+/**
+ * 用LambdaMetafactory为public的setter/getter/无参构造器生成直接调用的函数对象，
+ * JIT可以把它们内联，和手写的emp.setId(...)一样；
+ * 非public的方法、只有字段没有setter的属性等生成失败时，退回MyBatis的Invoker（反射调用）
+ */
+final class Accessors {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private Accessors() {
+	}
+
+	/**
+	 * property可以是一级级联属性，比如dept.id：dept为null时先创建Department再赋值
+	 */
+	static PropertyWriter writer(Class<?> type, String property, ReflectorFactory reflectorFactory,
+			ObjectFactory objectFactory) {
+		MetaClass metaClass = MetaClass.forClass(type, reflectorFactory);
+		int dot = property.indexOf('.');
+		if (dot < 0) {
+			return simpleWriter(type, metaClass, property);
+		}
+		String parent = property.substring(0, dot);
+		Class<?> parentType = metaClass.getSetterType(parent);
+		PropertyWriter child = writer(parentType, property.substring(dot + 1), reflectorFactory, objectFactory);
+		return new PathWriter(getter(type, metaClass, parent), simpleWriter(type, metaClass, parent),
+				constructor(parentType, objectFactory), child);
+	}
+
+	@SuppressWarnings("unchecked")
+	static Supplier<Object> constructor(final Class<?> type, final ObjectFactory objectFactory) {
+		if (objectFactory.getClass() == DefaultObjectFactory.class && Modifier.isPublic(type.getModifiers())) {
+			try {
+				Constructor<?> constructor = type.getConstructor();
+				MethodHandle handle = LOOKUP.unreflectConstructor(constructor);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+						MethodType.methodType(Object.class), handle, MethodType.methodType(type));
+				return (Supplier<Object>) site.getTarget().invoke();
+			} catch (Throwable e) {
+				// 没有public的无参构造器，交给ObjectFactory
+			}
+		}
+		return new Supplier<Object>() {
+			@Override
+			public Object get() {
+				return objectFactory.create(type);
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private static PropertyWriter simpleWriter(Class<?> owner, MetaClass metaClass, String property) {
+		Class<?> type = metaClass.getSetterType(property);
+		Method method = findMethod(owner, "set", property, type);
+		if (method != null) {
+			try {
+				MethodHandle handle = LOOKUP.unreflect(method);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept",
+						MethodType.methodType(BiConsumer.class),
+						MethodType.methodType(void.class, Object.class, Object.class), handle,
+						MethodType.methodType(void.class, method.getDeclaringClass(), boxed(type)));
+				return new LambdaWriter((BiConsumer<Object, Object>) site.getTarget().invoke(), type.isPrimitive());
+			} catch (Throwable e) {
+				// 退回反射
+			}
+		}
+		return new InvokerWriter(metaClass.getSetInvoker(property), type.isPrimitive());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Function<Object, Object> getter(Class<?> owner, MetaClass metaClass, String property) {
+		Class<?> type = metaClass.getGetterType(property);
+		Method method = findMethod(owner, type == boolean.class ? "is" : "get", property, null);
+		if (method != null) {
+			try {
+				MethodHandle handle = LOOKUP.unreflect(method);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply",
+						MethodType.methodType(Function.class),
+						MethodType.methodType(Object.class, Object.class), handle,
+						MethodType.methodType(boxed(type), method.getDeclaringClass()));
+				return (Function<Object, Object>) site.getTarget().invoke();
+			} catch (Throwable e) {
+				// 退回反射
+			}
+		}
+		final Invoker invoker = metaClass.getGetInvoker(property);
+		return new Function<Object, Object>() {
+			@Override
+			public Object apply(Object target) {
+				return invoke(invoker, target, new Object[0]);
+			}
+		};
+	}
+
+	/**
+	 * 按JavaBean命名找public方法；setter的参数类型要和MyBatis解析出来的setter类型一致
+	 */
+	private static Method findMethod(Class<?> owner, String prefix, String property, Class<?> parameterType) {
+		String name = prefix + property.substring(0, 1).toUpperCase(Locale.ENGLISH) + property.substring(1);
+		for (Method method : owner.getMethods()) {
+			if (!method.getName().equals(name)) {
+				continue;
+			}
+			Class<?>[] parameters = method.getParameterTypes();
+			if (parameterType == null ? parameters.length == 0 : parameters.length == 1 && parameters[0] == parameterType) {
+				return Modifier.isPublic(method.getDeclaringClass().getModifiers()) ? method : null;
+			}
+		}
+		return null;
+	}
+
+	private static Class<?> boxed(Class<?> type) {
+		return MethodType.methodType(type).wrap().returnType();
+	}
+
+	static Object invoke(Invoker invoker, Object target, Object[] args) {
+		try {
+			return invoker.invoke(target, args);
+		} catch (Exception e) {
+			throw new ReflectionException("Could not invoke " + invoker + " on " + target, e);
+		}
+	}
+
+	private static final class LambdaWriter implements PropertyWriter {
+
+		private final BiConsumer<Object, Object> setter;
+		private final boolean primitive;
+
+		LambdaWriter(BiConsumer<Object, Object> setter, boolean primitive) {
+			this.setter = setter;
+			this.primitive = primitive;
+		}
+
+		@Override
+		public void write(Object target, Object value) {
+			setter.accept(target, value);
+		}
+
+		@Override
+		public boolean isPrimitive() {
+			return primitive;
+		}
+	}
+
+	private static final class InvokerWriter implements PropertyWriter {
+
+		private final Invoker invoker;
+		private final boolean primitive;
+
+		InvokerWriter(Invoker invoker, boolean primitive) {
+			this.invoker = invoker;
+			this.primitive = primitive;
+		}
+
+		@Override
+		public void write(Object target, Object value) {
+			invoke(invoker, target, new Object[] { value });
+		}
+
+		@Override
+		public boolean isPrimitive() {
+			return primitive;
+		}
+	}
+
+	/**
+	 * 和MetaObject.setValue("dept.id", value)的行为一致：value为null时不创建dept
+	 */
+	private static final class PathWriter implements PropertyWriter {
+
+		private final Function<Object, Object> getter;
+		private final PropertyWriter setter;
+		private final Supplier<Object> factory;
+		private final PropertyWriter child;
+
+		PathWriter(Function<Object, Object> getter, PropertyWriter setter, Supplier<Object> factory, PropertyWriter child) {
+			this.getter = getter;
+			this.setter = setter;
+			this.factory = factory;
+			this.child = child;
+		}
+
+		@Override
+		public void write(Object target, Object value) {
+			Object parent = getter.apply(target);
+			if (parent == null) {
+				if (value == null) {
+					return;
+				}
+				parent = factory.get();
+				setter.write(target, parent);
+			}
+			child.write(parent, value);
+		}
+
+		@Override
+		public boolean isPrimitive() {
+			return child.isPrimitive();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.atguigu.mybatis.resultmap;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import com.atguigu.mybatis.plugin.StatementHandlers;
+
+/**
+ * 编译式结果映射：拦截ResultSetHandler.handleResultSets，
+ * 		第一次执行某个resultMap时按结果集的列生成CompiledRowMapper，之后每行按列号读取、直接调用setter
+ *
+ * 只处理最常见的情况：一个结果集、一个resultMap、没有RowBounds和ResultHandler；
+ * 其他情况以及RowMapperCompiler不支持的resultMap，原样交给DefaultResultSetHandler
+ *
+ * 配置：<plugin interceptor="com.atguigu.mybatis.resultmap.CompiledResultMappingInterceptor"></plugin>
+ */
+@Intercepts({
+	@Signature(type = ResultSetHandler.class, method = "handleResultSets", args = Statement.class)
+})
+public class CompiledResultMappingInterceptor implements Interceptor {
+
+	private static final Field CONFIGURATION = StatementHandlers.findField(DefaultResultSetHandler.class, "configuration");
+	private static final Field MAPPED_STATEMENT = StatementHandlers.findField(DefaultResultSetHandler.class, "mappedStatement");
+	private static final Field ROW_BOUNDS = StatementHandlers.findField(DefaultResultSetHandler.class, "rowBounds");
+	private static final Field RESULT_HANDLER = StatementHandlers.findField(DefaultResultSetHandler.class, "resultHandler");
+
+	/** resultMap id ==> 最近一次编译的结果 */
+	private final ConcurrentMap<String, CompiledRowMapper> mappers = new ConcurrentHashMap<String, CompiledRowMapper>();
+	/** 不支持编译的resultMap id */
+	private final Set<String> unsupported = ConcurrentHashMap.newKeySet();
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		DefaultResultSetHandler handler = (DefaultResultSetHandler) invocation.getTarget();
+		MappedStatement ms = get(MAPPED_STATEMENT, handler);
+		if (!eligible(ms, handler)) {
+			return invocation.proceed();
+		}
+		ResultMap resultMap = ms.getResultMaps().get(0);
+		Configuration configuration = get(CONFIGURATION, handler);
+		if (unsupported.contains(resultMap.getId())) {
+			return invocation.proceed();
+		}
+		if (!RowMapperCompiler.supports(resultMap, configuration)) {
+			unsupported.add(resultMap.getId());
+			return invocation.proceed();
+		}
+		Statement stmt = (Statement) invocation.getArgs()[0];
+		ResultSet rs = stmt.getResultSet();
+		if (rs == null) {
+			return invocation.proceed();
+		}
+		try {
+			CompiledRowMapper mapper = mapper(resultMap, configuration, rs);
+			if (mapper == null) {
+				unsupported.add(resultMap.getId());
+				return invocation.proceed();
+			}
+			List<Object> rows = new ArrayList<Object>();
+			while (rs.next()) {
+				rows.add(mapper.map(rs));
+			}
+			return rows;
+		} finally {
+			rs.close();
+		}
+	}
+
+	private CompiledRowMapper mapper(ResultMap resultMap, Configuration configuration, ResultSet rs) throws SQLException {
+		CompiledRowMapper mapper = mappers.get(resultMap.getId());
+		if (mapper != null && mapper.matches(CompiledRowMapper.labels(rs.getMetaData(), configuration.isUseColumnLabel()))) {
+			return mapper;
+		}
+		mapper = RowMapperCompiler.compile(resultMap, configuration, rs.getMetaData());
+		if (mapper != null) {
+			mappers.put(resultMap.getId(), mapper);
+		}
+		return mapper;
+	}
+
+	private static boolean eligible(MappedStatement ms, DefaultResultSetHandler handler) {
+		if (ms.getResultSets() != null || ms.getStatementType() == StatementType.CALLABLE
+				|| ms.getResultMaps().size() != 1) {
+			return false;
+		}
+		RowBounds rowBounds = get(ROW_BOUNDS, handler);
+		ResultHandler<?> resultHandler = get(RESULT_HANDLER, handler);
+		return resultHandler == null && rowBounds.getOffset() == RowBounds.NO_ROW_OFFSET
+				&& rowBounds.getLimit() == RowBounds.NO_ROW_LIMIT;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T get(Field field, Object target) {
+		try {
+			return (T) field.get(target);
+		} catch (IllegalAccessException e) {
+			throw new ReflectionException("Could not read " + field.getName() + " from " + target, e);
+		}
+	}
+
+	@Override
+	public Object plugin(Object target) {
+		if (target instanceof DefaultResultSetHandler) {
+			return Plugin.wrap(target, this);
+		}
+		return target;
+	}
+
+	@Override
+	public void setProperties(Properties properties) {
+	}
+}
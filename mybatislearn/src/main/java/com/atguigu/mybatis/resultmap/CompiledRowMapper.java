@@ -0,0 +1,69 @@
+package com.atguigu.mybatis.resultmap;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * 为某个resultMap和某组结果列生成的行映射：
+ * 		列在编译时已经解析成列号，每行只有 TypeHandler.getResult(rs, 列号) + setter 两步，
+ * 		不再按列名查找、不再经过MetaObject
+ */
+final class CompiledRowMapper {
+
+	/** 编译时结果集的列名，列变了（比如select *的表加了列）要重新编译 */
+	private final String[] labels;
+	private final Supplier<Object> factory;
+	private final int[] columns;
+	private final TypeHandler<?>[] typeHandlers;
+	private final PropertyWriter[] writers;
+	private final boolean callSettersOnNulls;
+	private final boolean returnInstanceForEmptyRow;
+
+	CompiledRowMapper(String[] labels, Supplier<Object> factory, int[] columns, TypeHandler<?>[] typeHandlers,
+			PropertyWriter[] writers, boolean callSettersOnNulls, boolean returnInstanceForEmptyRow) {
+		this.labels = labels;
+		this.factory = factory;
+		this.columns = columns;
+		this.typeHandlers = typeHandlers;
+		this.writers = writers;
+		this.callSettersOnNulls = callSettersOnNulls;
+		this.returnInstanceForEmptyRow = returnInstanceForEmptyRow;
+	}
+
+	boolean matches(String[] labels) {
+		return Arrays.equals(this.labels, labels);
+	}
+
+	/**
+	 * 和DefaultResultSetHandler.getRowValue一致：
+	 * 		值为null时不调用setter（callSettersOnNulls时非基本类型的属性也赋null）；
+	 * 		一列都没有值时返回null（returnInstanceForEmptyRow时返回空对象）
+	 */
+	Object map(ResultSet rs) throws SQLException {
+		Object row = factory.get();
+		boolean foundValues = false;
+		for (int i = 0; i < columns.length; i++) {
+			Object value = typeHandlers[i].getResult(rs, columns[i]);
+			if (value != null) {
+				writers[i].write(row, value);
+				foundValues = true;
+			} else if (callSettersOnNulls && !writers[i].isPrimitive()) {
+				writers[i].write(row, null);
+			}
+		}
+		return foundValues || returnInstanceForEmptyRow ? row : null;
+	}
+
+	static String[] labels(ResultSetMetaData metaData, boolean useColumnLabel) throws SQLException {
+		String[] labels = new String[metaData.getColumnCount()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = useColumnLabel ? metaData.getColumnLabel(i + 1) : metaData.getColumnName(i + 1);
+		}
+		return labels;
+	}
+}
@@ -0,0 +1,12 @@
+package com.atguigu.mybatis.resultmap;
+
+/**
+ * 给结果对象的一个属性赋值
+ */
+interface PropertyWriter {
+
+	void write(Object target, Object value);
+
+	/** 基本类型的属性不能赋null */
+	boolean isPrimitive();
+}
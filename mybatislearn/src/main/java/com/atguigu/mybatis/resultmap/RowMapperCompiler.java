@@ -0,0 +1,138 @@
+package com.atguigu.mybatis.resultmap;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.session.AutoMappingBehavior;
+import org.apache.ibatis.session.AutoMappingUnknownColumnBehavior;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+/**
+ * 把resultMap（包括resultType生成的内联resultMap）编译成CompiledRowMapper
+ *
+ * 支持：自动映射的列、<id>/<result>映射（包括dept.id这样的一级级联属性）
+ * 不支持（返回null，由MyBatis原来的DefaultResultSetHandler处理）：
+ * 		association/collection嵌套结果集、分步查询、discriminator、constructor、
+ * 		结果类型本身有TypeHandler（resultType="long"等）或者是Map，以及autoMappingUnknownColumnBehavior不是NONE
+ */
+final class RowMapperCompiler {
+
+	private RowMapperCompiler() {
+	}
+
+	static boolean supports(ResultMap resultMap, Configuration configuration) {
+		Class<?> type = resultMap.getType();
+		if (resultMap.hasNestedResultMaps() || resultMap.hasNestedQueries() || resultMap.getDiscriminator() != null
+				|| !resultMap.getConstructorResultMappings().isEmpty()
+				|| configuration.getTypeHandlerRegistry().hasTypeHandler(type)
+				|| Map.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type)
+				|| type.isInterface() || type.isArray()
+				|| configuration.getAutoMappingUnknownColumnBehavior() != AutoMappingUnknownColumnBehavior.NONE) {
+			return false;
+		}
+		for (ResultMapping mapping : resultMap.getPropertyResultMappings()) {
+			String property = mapping.getProperty();
+			if (mapping.getColumn() == null || mapping.isCompositeResult() || mapping.getResultSet() != null
+					|| mapping.getNestedResultMapId() != null || mapping.getNestedQueryId() != null
+					|| mapping.getTypeHandler() == null || mapping.getFlags().contains(ResultFlag.CONSTRUCTOR)
+					|| property == null || property.indexOf('[') >= 0 || property.indexOf('.') != property.lastIndexOf('.')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return 有列找不到合适的TypeHandler时返回null
+	 */
+	static CompiledRowMapper compile(ResultMap resultMap, Configuration configuration, ResultSetMetaData metaData)
+			throws SQLException {
+		String[] labels = CompiledRowMapper.labels(metaData, configuration.isUseColumnLabel());
+		Map<String, Integer> indexes = new HashMap<String, Integer>();
+		for (int i = labels.length - 1; i >= 0; i--) {
+			indexes.put(labels[i].toUpperCase(Locale.ENGLISH), i + 1);
+		}
+
+		Class<?> type = resultMap.getType();
+		MetaClass metaClass = MetaClass.forClass(type, configuration.getReflectorFactory());
+		TypeHandlerRegistry registry = configuration.getTypeHandlerRegistry();
+		List<Integer> columns = new ArrayList<Integer>();
+		List<TypeHandler<?>> typeHandlers = new ArrayList<TypeHandler<?>>();
+		List<PropertyWriter> writers = new ArrayList<PropertyWriter>();
+
+		// 1、自动映射：resultMap里没有写的列按列名找属性（DefaultResultSetHandler也是先自动映射）
+		if (autoMapping(resultMap, configuration)) {
+			for (int i = 0; i < labels.length; i++) {
+				String label = labels[i];
+				if (resultMap.getMappedColumns().contains(label.toUpperCase(Locale.ENGLISH))) {
+					continue;
+				}
+				String property = metaClass.findProperty(label, configuration.isMapUnderscoreToCamelCase());
+				if (property == null || !metaClass.hasSetter(property)
+						|| resultMap.getMappedProperties().contains(property)) {
+					continue;
+				}
+				Class<?> propertyType = metaClass.getSetterType(property);
+				JdbcType jdbcType = JdbcType.forCode(metaData.getColumnType(i + 1));
+				if (!registry.hasTypeHandler(propertyType, jdbcType)) {
+					continue;
+				}
+				TypeHandler<?> typeHandler = registry.getTypeHandler(propertyType, jdbcType);
+				if (typeHandler == null) {
+					typeHandler = registry.getTypeHandler(propertyType);
+				}
+				if (typeHandler == null) {
+					return null;
+				}
+				columns.add(i + 1);
+				typeHandlers.add(typeHandler);
+				writers.add(Accessors.writer(type, property, configuration.getReflectorFactory(),
+						configuration.getObjectFactory()));
+			}
+		}
+
+		// 2、resultMap里写了的列；结果集中没有的列跳过
+		for (ResultMapping mapping : resultMap.getPropertyResultMappings()) {
+			Integer column = indexes.get(mapping.getColumn().toUpperCase(Locale.ENGLISH));
+			if (column == null) {
+				continue;
+			}
+			columns.add(column);
+			typeHandlers.add(mapping.getTypeHandler());
+			writers.add(Accessors.writer(type, mapping.getProperty(), configuration.getReflectorFactory(),
+					configuration.getObjectFactory()));
+		}
+
+		int[] columnArray = new int[columns.size()];
+		for (int i = 0; i < columnArray.length; i++) {
+			columnArray[i] = columns.get(i);
+		}
+		return new CompiledRowMapper(labels, Accessors.constructor(type, configuration.getObjectFactory()), columnArray,
+				typeHandlers.toArray(new TypeHandler<?>[typeHandlers.size()]),
+				writers.toArray(new PropertyWriter[writers.size()]), configuration.isCallSettersOnNulls(),
+				configuration.isReturnInstanceForEmptyRow());
+	}
+
+	/**
+	 * 没有嵌套结果集时PARTIAL和FULL都会自动映射；resultMap上的autoMapping属性优先
+	 */
+	private static boolean autoMapping(ResultMap resultMap, Configuration configuration) {
+		if (resultMap.getAutoMapping() != null) {
+			return resultMap.getAutoMapping();
+		}
+		return configuration.getAutoMappingBehavior() != AutoMappingBehavior.NONE;
+	}
+}
@@ -0,0 +1,467 @@
+package com.atguigu.mybatis.scripting;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 预编译的OGNL表达式：ExpressionCompiler把test、bind、collection里常见的写法解析成这棵树，
+ * 		求值时直接访问绑定的参数，不再经过OGNL的AST和反射访问器
+ *
+ * 运算的结果和OGNL一致（OgnlOps的比较、相等、加法、真假规则），
+ * 		遇到这里没有实现的情况（BigDecimal运算、Character比较、数组比较等）时抛出UNSUPPORTED，
+ * 		调用方改用OGNL再算一次；参数的getter抛出的异常也是一样的处理，由OGNL给出原来的错误信息
+ */
+abstract class CompiledExpression {
+
+	/** 让调用方退回OGNL，不带堆栈，抛出的代价很小 */
+	static final RuntimeException UNSUPPORTED = new IllegalStateException("Not supported by compiled expression") {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	};
+
+	// OgnlOps里的数字类型，顺序决定了混合运算时的提升方向
+	private static final int BOOL = 0;
+	private static final int BYTE = 1;
+	private static final int CHAR = 2;
+	private static final int SHORT = 3;
+	private static final int INT = 4;
+	private static final int LONG = 5;
+	private static final int BIGINT = 6;
+	private static final int FLOAT = 7;
+	private static final int DOUBLE = 8;
+	private static final int BIGDEC = 9;
+	private static final int NONNUMERIC = 10;
+
+	abstract Object evaluate(Map<String, Object> bindings);
+
+	/**
+	 * 和ExpressionEvaluator.evaluateBoolean一样：Boolean取值，数字不为0，其他不为null
+	 */
+	static boolean isTrue(Object value) {
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		if (value instanceof Number) {
+			return new BigDecimal(String.valueOf(value)).compareTo(BigDecimal.ZERO) != 0;
+		}
+		return value != null;
+	}
+
+	/** OgnlOps.booleanValue：and、or、!用的真假规则；字符串只有"true"（不区分大小写）是真 */
+	static boolean booleanValue(Object value) {
+		if (value == null) {
+			return false;
+		}
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		if (value instanceof String) {
+			return Boolean.parseBoolean((String) value);
+		}
+		if (value instanceof Character) {
+			return (Character) value != 0;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue() != 0;
+		}
+		return true;
+	}
+
+	private static int numericType(Object value) {
+		if (value == null || value instanceof String) {
+			return NONNUMERIC;
+		}
+		Class<?> type = value.getClass();
+		if (type == Integer.class) {
+			return INT;
+		}
+		if (type == Long.class) {
+			return LONG;
+		}
+		if (type == Double.class) {
+			return DOUBLE;
+		}
+		if (type == Boolean.class) {
+			return BOOL;
+		}
+		if (type == Short.class) {
+			return SHORT;
+		}
+		if (type == Byte.class) {
+			return BYTE;
+		}
+		if (type == Float.class) {
+			return FLOAT;
+		}
+		if (type == BigDecimal.class) {
+			return BIGDEC;
+		}
+		if (type == BigInteger.class) {
+			return BIGINT;
+		}
+		if (type == Character.class) {
+			return CHAR;
+		}
+		return NONNUMERIC;
+	}
+
+	/** OgnlOps.getNumericType(t1, t2, true) */
+	private static int numericType(int t1, int t2) {
+		if (t1 == t2) {
+			return t1;
+		}
+		if (t1 == NONNUMERIC || t2 == NONNUMERIC || t1 == CHAR || t2 == CHAR) {
+			return NONNUMERIC;
+		}
+		if (t1 >= FLOAT) {
+			if (t2 >= FLOAT) {
+				return Math.max(t1, t2);
+			}
+			if (t2 < INT) {
+				return t1;
+			}
+			if (t2 == BIGINT) {
+				return BIGDEC;
+			}
+			return Math.max(DOUBLE, t1);
+		}
+		if (t2 >= FLOAT) {
+			if (t1 < INT) {
+				return t2;
+			}
+			if (t1 == BIGINT) {
+				return BIGDEC;
+			}
+			return Math.max(DOUBLE, t2);
+		}
+		return Math.max(t1, t2);
+	}
+
+	/** OgnlOps.equal：字符串和数字比较时按数字比较，"0"==0成立 */
+	static boolean isEqual(Object left, Object right) {
+		if (left == right) {
+			return true;
+		}
+		if (left == null || right == null) {
+			return false;
+		}
+		int t1 = numericType(left);
+		int t2 = numericType(right);
+		if (t1 == CHAR || t2 == CHAR || left.getClass().isArray() || right.getClass().isArray()) {
+			throw UNSUPPORTED;
+		}
+		if (t1 == NONNUMERIC && t2 == NONNUMERIC
+				&& (!(left instanceof Comparable) || !(right instanceof Comparable))) {
+			return left.equals(right);
+		}
+		return compare(left, right, t1, t2) == 0;
+	}
+
+	/** OgnlOps.compareWithConversion */
+	static int compare(Object left, Object right) {
+		if (left == null || right == null) {
+			throw UNSUPPORTED;
+		}
+		int t1 = numericType(left);
+		int t2 = numericType(right);
+		if (t1 == CHAR || t2 == CHAR) {
+			throw UNSUPPORTED;
+		}
+		return compare(left, right, t1, t2);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static int compare(Object left, Object right, int t1, int t2) {
+		if (left == right) {
+			return 0;
+		}
+		switch (numericType(t1, t2)) {
+		case BIGINT:
+		case BIGDEC:
+			throw UNSUPPORTED;
+		case NONNUMERIC:
+			if (t1 == NONNUMERIC && t2 == NONNUMERIC) {
+				if (left instanceof Comparable && left.getClass().isAssignableFrom(right.getClass())) {
+					return ((Comparable) left).compareTo(right);
+				}
+				throw UNSUPPORTED;
+			}
+			// 一边是数字：和OGNL一样都转成double
+			return compareDouble(left, right);
+		case FLOAT:
+		case DOUBLE:
+			return compareDouble(left, right);
+		default:
+			long l1 = longValue(left);
+			long l2 = longValue(right);
+			return l1 == l2 ? 0 : (l1 < l2 ? -1 : 1);
+		}
+	}
+
+	private static int compareDouble(Object left, Object right) {
+		double d1 = doubleValue(left);
+		double d2 = doubleValue(right);
+		return d1 == d2 ? 0 : (d1 < d2 ? -1 : 1);
+	}
+
+	/**
+	 * OgnlOps.add：有一边不是数字（包括'%'这样的Character）时拼接字符串；
+	 * 		数字或Character加null时OGNL抛NullPointerException，交给它抛
+	 */
+	static Object add(Object left, Object right) {
+		int t1 = numericType(left);
+		int t2 = numericType(right);
+		switch (numericType(t1, t2)) {
+		case NONNUMERIC:
+			if ((t1 != NONNUMERIC && right == null) || (t2 != NONNUMERIC && left == null)) {
+				throw UNSUPPORTED;
+			}
+			return String.valueOf(left) + String.valueOf(right);
+		case INT:
+			return (int) (longValue(left) + longValue(right));
+		case LONG:
+			return longValue(left) + longValue(right);
+		case DOUBLE:
+			return doubleValue(left) + doubleValue(right);
+		default:
+			throw UNSUPPORTED;
+		}
+	}
+
+	private static double doubleValue(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if (value instanceof Boolean) {
+			return (Boolean) value ? 1 : 0;
+		}
+		String s = value.toString().trim();
+		return s.length() == 0 ? 0.0 : Double.parseDouble(s);
+	}
+
+	private static long longValue(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof Boolean) {
+			return (Boolean) value ? 1 : 0;
+		}
+		return Long.parseLong(value.toString().trim());
+	}
+
+	static final class Literal extends CompiledExpression {
+
+		private final Object value;
+
+		Literal(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		Object evaluate(Map<String, Object> bindings) {
+			return value;
+		}
+	}
+
+	/**
+	 * 第一级名字：和MyBatis的DynamicContext.ContextAccessor一样，
+	 * 		先查绑定的变量（包括参数对象的属性），没有再查Map类型的_parameter
+	 */
+	static final class Variable extends CompiledExpression {
+
+		private final String name;
+
+		Variable(String name) {
+			this.name = name;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		Object evaluate(Map<String, Object> bindings) {
+			Object value = bindings.get(name);
+			if (value != null || bindings.containsKey(name)) {
+				return value;
+			}
+			Object parameter = bindings.get(DynamicContext.PARAMETER_OBJECT_KEY);
+			return parameter instanceof Map ? ((Map) parameter).get(name) : null;
+		}
+	}
+
+	/** a.b：Map取key，其他对象按MyBatis的MetaObject取属性 */
+	static final class Property extends CompiledExpression {
+
+		private final CompiledExpression target;
+		private final String name;
+		private final Configuration configuration;
+
+		Property(CompiledExpression target, String name, Configuration configuration) {
+			this.target = target;
+			this.name = name;
+			this.configuration = configuration;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		Object evaluate(Map<String, Object> bindings) {
+			Object value = target.evaluate(bindings);
+			if (value == null) {
+				// OGNL会报source is null，交给它报错
+				throw UNSUPPORTED;
+			}
+			if (value instanceof Map) {
+				return ((Map) value).get(name);
+			}
+			return configuration.newMetaObject(value).getValue(name);
+		}
+	}
+
+	/** a.trim()、list.size()这样没有参数的方法调用 */
+	static final class MethodCall extends CompiledExpression {
+
+		private final CompiledExpression target;
+		private final String name;
+		private final ConcurrentMap<Class<?>, Method> methods = new ConcurrentHashMap<Class<?>, Method>();
+
+		MethodCall(CompiledExpression target, String name) {
+			this.target = target;
+			this.name = name;
+		}
+
+		@Override
+		Object evaluate(Map<String, Object> bindings) {
+			Object value = target.evaluate(bindings);
+			if (value == null) {
+				throw UNSUPPORTED;
+			}
+			Method method = methods.get(value.getClass());
+			if (method == null) {
+				method = findMethod(value.getClass());
+				methods.put(value.getClass(), method);
+			}
+			try {
+				return method.invoke(value);
+			} catch (Exception e) {
+				throw UNSUPPORTED;
+			}
+		}
+
+		/** 非public类（比如ArrayList.subList的结果）的方法要先打开访问权限 */
+		private Method findMethod(Class<?> type) {
+			try {
+				Method method = type.getMethod(name);
+				if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+					method.setAccessible(true);
+				}
+				return method;
+			} catch (Exception e) {
+				throw UNSUPPORTED;
+			}
+		}
+	}
+
+	static final class Not extends CompiledExpression {
+
+		private final CompiledExpression operand;
+
+		Not(CompiledExpression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		Object evaluate(Map<String, Object> bindings) {
+			return booleanValue(operand.evaluate(bindings)) ? Boolean.FALSE : Boolean.TRUE;
+		}
+	}
+
+	/** OGNL的and、or返回决定结果的那一边的值，不一定是Boolean */
+	static final class Logical extends CompiledExpression {
+
+		private final boolean and;
+		private final CompiledExpression left;
+		private final CompiledExpression right;
+
+		Logical(boolean and, CompiledExpression left, CompiledExpression right) {
+			this.and = and;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Object evaluate(Map<String, Object> bindings) {
+			Object value = left.evaluate(bindings);
+			if (booleanValue(value) != and) {
+				return value;
+			}
+			return right.evaluate(bindings);
+		}
+	}
+
+	static final class Comparison extends CompiledExpression {
+
+		static final int EQ = 0;
+		static final int NE = 1;
+		static final int LT = 2;
+		static final int LE = 3;
+		static final int GT = 4;
+		static final int GE = 5;
+
+		private final int operator;
+		private final CompiledExpression left;
+		private final CompiledExpression right;
+
+		Comparison(int operator, CompiledExpression left, CompiledExpression right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Object evaluate(Map<String, Object> bindings) {
+			Object l = left.evaluate(bindings);
+			Object r = right.evaluate(bindings);
+			switch (operator) {
+			case EQ:
+				return isEqual(l, r);
+			case NE:
+				return !isEqual(l, r);
+			case LT:
+				return compare(l, r) < 0;
+			case LE:
+				return compare(l, r) <= 0;
+			case GT:
+				return compare(l, r) > 0;
+			default:
+				return compare(l, r) >= 0;
+			}
+		}
+	}
+
+	static final class Add extends CompiledExpression {
+
+		private final CompiledExpression left;
+		private final CompiledExpression right;
+
+		Add(CompiledExpression left, CompiledExpression right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Object evaluate(Map<String, Object> bindings) {
+			return add(left.evaluate(bindings), right.evaluate(bindings));
+		}
+	}
+}
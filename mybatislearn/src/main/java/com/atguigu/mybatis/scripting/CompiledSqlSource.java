@@ -0,0 +1,147 @@
+package com.atguigu.mybatis.scripting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 代替DynamicSqlSource：按SQL的形状缓存拼好的SQL文本和参数映射
+ *
+ * DynamicSqlSource每次调用都要：对每个test求一遍OGNL、拼SQL字符串、<where>/<trim>截取前后缀、
+ * 		再用SqlSourceBuilder把#{}解析成?和ParameterMapping（按参数类型反射查javaType、TypeHandler）
+ * 这里每次只跑编译后的判断（SqlNodeCompiler），得到SqlShape；
+ * 		形状见过就直接用缓存的SQL文本和ParameterMapping生成BoundSql，
+ * 		没见过时用原来的SqlNode树完整生成一次（结果和DynamicSqlSource完全一样），再缓存起来
+ *
+ * 以下情况每次都按原来的方式生成：语句里有${}或者不认识的节点；
+ * 		#{item.x}这样经过Map取值的参数（javaType取决于Map里值的类型，形状里没有记录）；
+ * 		形状已经超过MAX_SHAPES个（比如foreach的集合长度每次都不同）
+ */
+public class CompiledSqlSource implements SqlSource {
+
+	public static final int MAX_SHAPES = 256;
+
+	private final Configuration configuration;
+	private final SqlNode rootSqlNode;
+	private final SqlNodeCompiler.CompiledNode compiled;
+	private final ConcurrentMap<SqlShape, Template> templates = new ConcurrentHashMap<SqlShape, Template>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public CompiledSqlSource(Configuration configuration, SqlNode rootSqlNode) {
+		this.configuration = configuration;
+		this.rootSqlNode = rootSqlNode;
+		this.compiled = SqlNodeCompiler.compile(rootSqlNode, configuration);
+	}
+
+	@Override
+	public BoundSql getBoundSql(Object parameterObject) {
+		if (compiled == null) {
+			return render(parameterObject);
+		}
+		DynamicContext context = new DynamicContext(configuration, parameterObject);
+		SqlShape shape = new SqlShape();
+		shape.addType(parameterObject);
+		compiled.apply(context, shape);
+
+		Template template = templates.get(shape);
+		if (template == null) {
+			misses.increment();
+			BoundSql boundSql = render(parameterObject);
+			if (templates.size() < MAX_SHAPES && isStable(boundSql, context.getBindings())) {
+				templates.putIfAbsent(shape, new Template(boundSql.getSql(), boundSql.getParameterMappings()));
+			}
+			return boundSql;
+		}
+		hits.increment();
+		// 和DynamicSqlSource一样每个BoundSql一个列表，分页插件等可能会改它
+		BoundSql boundSql = new BoundSql(configuration, template.sql,
+				new ArrayList<ParameterMapping>(template.parameterMappings), parameterObject);
+		for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
+			boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
+		}
+		return boundSql;
+	}
+
+	/** DynamicSqlSource.getBoundSql */
+	private BoundSql render(Object parameterObject) {
+		DynamicContext context = new DynamicContext(configuration, parameterObject);
+		rootSqlNode.apply(context);
+		SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
+		Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
+		SqlSource sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, context.getBindings());
+		BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+		for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
+			boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
+		}
+		return boundSql;
+	}
+
+	/**
+	 * #{a.b}的a是绑定的变量（_parameter、foreach的元素、bind的变量）时，b的javaType由运行时的值决定：
+	 * 		a是JavaBean时由a的类决定（已经记在形状里），路径上经过Map或集合时取决于里面值的类型，不能缓存
+	 */
+	private boolean isStable(BoundSql boundSql, Map<String, Object> bindings) {
+		for (ParameterMapping mapping : boundSql.getParameterMappings()) {
+			String property = mapping.getProperty();
+			if (property == null || property.indexOf('[') >= 0) {
+				return false;
+			}
+			String[] path = property.split("\\.");
+			if (path.length == 1 || !bindings.containsKey(path[0])) {
+				continue;
+			}
+			Object value = bindings.get(path[0]);
+			for (int i = 1; i < path.length && value != null; i++) {
+				if (value instanceof Map || value instanceof Iterable || value.getClass().isArray()) {
+					return false;
+				}
+				value = i < path.length - 1 ? configuration.newMetaObject(value).getValue(path[i]) : null;
+			}
+		}
+		return true;
+	}
+
+	/** false表示这条语句有${}等，每次都按原来的方式生成 */
+	public boolean isCompiled() {
+		return compiled != null;
+	}
+
+	/** 缓存了的形状数 */
+	public int getShapes() {
+		return templates.size();
+	}
+
+	/** 直接用缓存的SQL文本生成BoundSql的次数 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** 完整生成SQL的次数（不包括不能编译的语句） */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	private static final class Template {
+
+		final String sql;
+		final List<ParameterMapping> parameterMappings;
+
+		Template(String sql, List<ParameterMapping> parameterMappings) {
+			this.sql = sql;
+			this.parameterMappings = parameterMappings;
+		}
+	}
+}
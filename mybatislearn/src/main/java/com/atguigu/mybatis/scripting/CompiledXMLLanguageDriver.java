@@ -0,0 +1,43 @@
+package com.atguigu.mybatis.scripting;
+
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.parsing.XNode;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 编译模式的动态SQL：解析映射文件时（启动阶段）把动态语句的SqlNode树编译好，
+ * 		用CompiledSqlSource代替DynamicSqlSource；没有动态标签的语句还是RawSqlSource，不受影响
+ *
+ * 1、<if>/<when>的test、<bind>的value、<foreach>的collection预先解析成CompiledExpression，不再每次走OGNL
+ * 2、SQL按哪些条件成立（形状）缓存，相同形状的参数直接复用SQL文本和参数映射
+ *
+ * 配置：全局默认
+ * 	<setting name="defaultScriptingLanguage" value="com.atguigu.mybatis.scripting.CompiledXMLLanguageDriver"/>
+ * 或者只给某条语句用：<select id="..." lang="com.atguigu.mybatis.scripting.CompiledXMLLanguageDriver">
+ * 统计：((CompiledSqlSource) configuration.getMappedStatement(id).getSqlSource()).getHits()
+ */
+public class CompiledXMLLanguageDriver extends XMLLanguageDriver {
+
+	@Override
+	public SqlSource createSqlSource(Configuration configuration, XNode script, Class<?> parameterType) {
+		return compile(configuration, super.createSqlSource(configuration, script, parameterType));
+	}
+
+	/** 注解里<script>开头的动态SQL */
+	@Override
+	public SqlSource createSqlSource(Configuration configuration, String script, Class<?> parameterType) {
+		return compile(configuration, super.createSqlSource(configuration, script, parameterType));
+	}
+
+	private static SqlSource compile(Configuration configuration, SqlSource sqlSource) {
+		if (sqlSource instanceof DynamicSqlSource) {
+			SqlNode rootSqlNode = (SqlNode) SystemMetaObject.forObject(sqlSource).getValue("rootSqlNode");
+			return new CompiledSqlSource(configuration, rootSqlNode);
+		}
+		return sqlSource;
+	}
+}
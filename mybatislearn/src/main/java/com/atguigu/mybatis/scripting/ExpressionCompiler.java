@@ -0,0 +1,262 @@
+package com.atguigu.mybatis.scripting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 把OGNL表达式解析成CompiledExpression，只支持映射文件里常见的写法：
+ * 		变量和属性（a.b）、没有参数的方法调用（email.trim()）、
+ * 		null/true/false/数字/字符串常量、== != < <= > >=（以及eq neq lt lte gt gte）、
+ * 		and/&& or/|| not/!、+ 和括号
+ * 其他写法（下标、静态方法、in、三元运算等）返回null，这个表达式继续交给OGNL
+ *
+ * 和OGNL一样，单引号里只有一个字符时（'%'）是Character，不是字符串；
+ * 		!/not只作用于紧跟着的操作数：!a == b是(!a) == b，不是!(a == b)
+ */
+final class ExpressionCompiler {
+
+	private final String expression;
+	private final Configuration configuration;
+	private final List<String> tokens = new ArrayList<String>();
+	private int position;
+
+	private ExpressionCompiler(String expression, Configuration configuration) {
+		this.expression = expression;
+		this.configuration = configuration;
+	}
+
+	/**
+	 * @return 不支持的表达式返回null
+	 */
+	static CompiledExpression compile(String expression, Configuration configuration) {
+		if (expression == null) {
+			return null;
+		}
+		ExpressionCompiler compiler = new ExpressionCompiler(expression, configuration);
+		try {
+			compiler.tokenize();
+			CompiledExpression result = compiler.parseOr();
+			return compiler.position == compiler.tokens.size() ? result : null;
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	private void tokenize() {
+		int i = 0;
+		int length = expression.length();
+		while (i < length) {
+			char c = expression.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (Character.isJavaIdentifierStart(c)) {
+				int start = i;
+				while (i < length && Character.isJavaIdentifierPart(expression.charAt(i))) {
+					i++;
+				}
+				tokens.add(expression.substring(start, i));
+			} else if (c >= '0' && c <= '9') {
+				int start = i;
+				while (i < length && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
+					i++;
+				}
+				tokens.add(expression.substring(start, i));
+			} else if (c == '\'' || c == '"') {
+				int end = expression.indexOf(c, i + 1);
+				if (end < 0 || expression.substring(i + 1, end).indexOf('\\') >= 0) {
+					throw new Unsupported();
+				}
+				tokens.add(expression.substring(i, end + 1));
+				i = end + 1;
+			} else {
+				String two = i + 1 < length ? expression.substring(i, i + 2) : "";
+				if ("==".equals(two) || "!=".equals(two) || "<=".equals(two) || ">=".equals(two)
+						|| "&&".equals(two) || "||".equals(two)) {
+					tokens.add(two);
+					i += 2;
+				} else if ("<>!().+".indexOf(c) >= 0) {
+					tokens.add(String.valueOf(c));
+					i++;
+				} else {
+					throw new Unsupported();
+				}
+			}
+		}
+	}
+
+	private CompiledExpression parseOr() {
+		CompiledExpression left = parseAnd();
+		while (accept("||") || accept("or")) {
+			left = new CompiledExpression.Logical(false, left, parseAnd());
+		}
+		return left;
+	}
+
+	private CompiledExpression parseAnd() {
+		CompiledExpression left = parseComparison();
+		while (accept("&&") || accept("and")) {
+			left = new CompiledExpression.Logical(true, left, parseComparison());
+		}
+		return left;
+	}
+
+	private CompiledExpression parseComparison() {
+		CompiledExpression left = parseAdd();
+		int operator = comparisonOperator(peek());
+		if (operator < 0) {
+			return left;
+		}
+		position++;
+		CompiledExpression right = parseAdd();
+		if (comparisonOperator(peek()) >= 0) {
+			// a == b == c在OGNL里的结合方式不直观，不编译
+			throw new Unsupported();
+		}
+		return new CompiledExpression.Comparison(operator, left, right);
+	}
+
+	private static int comparisonOperator(String token) {
+		if (token == null) {
+			return -1;
+		}
+		if ("==".equals(token) || "eq".equals(token)) {
+			return CompiledExpression.Comparison.EQ;
+		}
+		if ("!=".equals(token) || "neq".equals(token)) {
+			return CompiledExpression.Comparison.NE;
+		}
+		if ("<".equals(token) || "lt".equals(token)) {
+			return CompiledExpression.Comparison.LT;
+		}
+		if ("<=".equals(token) || "lte".equals(token)) {
+			return CompiledExpression.Comparison.LE;
+		}
+		if (">".equals(token) || "gt".equals(token)) {
+			return CompiledExpression.Comparison.GT;
+		}
+		if (">=".equals(token) || "gte".equals(token)) {
+			return CompiledExpression.Comparison.GE;
+		}
+		return -1;
+	}
+
+	private CompiledExpression parseAdd() {
+		CompiledExpression left = parseUnary();
+		while (accept("+")) {
+			left = new CompiledExpression.Add(left, parseUnary());
+		}
+		return left;
+	}
+
+	/** 和OGNL的语法一样，!/not比比较、+的优先级都高 */
+	private CompiledExpression parseUnary() {
+		if (accept("!") || accept("not")) {
+			return new CompiledExpression.Not(parseUnary());
+		}
+		return parsePrimary();
+	}
+
+	private CompiledExpression parsePrimary() {
+		String token = next();
+		if ("(".equals(token)) {
+			CompiledExpression inner = parseOr();
+			expect(")");
+			return inner;
+		}
+		char c = token.charAt(0);
+		if (c == '\'' || c == '"') {
+			String text = token.substring(1, token.length() - 1);
+			if (c == '\'' && text.length() == 1) {
+				return new CompiledExpression.Literal(text.charAt(0));
+			}
+			return new CompiledExpression.Literal(text);
+		}
+		if (c >= '0' && c <= '9') {
+			return new CompiledExpression.Literal(number(token));
+		}
+		if (!Character.isJavaIdentifierStart(c) || isKeyword(token)) {
+			throw new Unsupported();
+		}
+		if ("null".equals(token)) {
+			return new CompiledExpression.Literal(null);
+		}
+		if ("true".equals(token) || "false".equals(token)) {
+			return new CompiledExpression.Literal(Boolean.valueOf(token));
+		}
+		if ("(".equals(peek())) {
+			// 没有对象的函数调用
+			throw new Unsupported();
+		}
+		CompiledExpression result = new CompiledExpression.Variable(token);
+		while (accept(".")) {
+			String name = next();
+			if (!Character.isJavaIdentifierStart(name.charAt(0)) || isKeyword(name)) {
+				throw new Unsupported();
+			}
+			if (accept("(")) {
+				expect(")");
+				result = new CompiledExpression.MethodCall(result, name);
+			} else {
+				result = new CompiledExpression.Property(result, name, configuration);
+			}
+		}
+		return result;
+	}
+
+	/** 十进制的int、long（L结尾）和double；八进制、十六进制、BigDecimal等交给OGNL */
+	private static Object number(String token) {
+		try {
+			if (token.length() > 1 && token.charAt(0) == '0' && token.charAt(1) != '.') {
+				throw new Unsupported();
+			}
+			char last = token.charAt(token.length() - 1);
+			if (last == 'L' || last == 'l') {
+				return Long.valueOf(token.substring(0, token.length() - 1));
+			}
+			if (token.indexOf('.') >= 0) {
+				return Double.valueOf(token);
+			}
+			return Integer.valueOf(token);
+		} catch (NumberFormatException e) {
+			throw new Unsupported();
+		}
+	}
+
+	private static boolean isKeyword(String token) {
+		return "and".equals(token) || "or".equals(token) || "not".equals(token) || "in".equals(token)
+				|| "instanceof".equals(token) || comparisonOperator(token) >= 0;
+	}
+
+	private String peek() {
+		return position < tokens.size() ? tokens.get(position) : null;
+	}
+
+	private String next() {
+		if (position >= tokens.size()) {
+			throw new Unsupported();
+		}
+		return tokens.get(position++);
+	}
+
+	private boolean accept(String token) {
+		if (token.equals(peek())) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(String token) {
+		if (!accept(token)) {
+			throw new Unsupported();
+		}
+	}
+
+	/** 只在解析期间用，不会抛到外面 */
+	private static final class Unsupported extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+	}
+}
@@ -0,0 +1,336 @@
+package com.atguigu.mybatis.scripting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.scripting.xmltags.ChooseSqlNode;
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.scripting.xmltags.ExpressionEvaluator;
+import org.apache.ibatis.scripting.xmltags.ForEachSqlNode;
+import org.apache.ibatis.scripting.xmltags.IfSqlNode;
+import org.apache.ibatis.scripting.xmltags.MixedSqlNode;
+import org.apache.ibatis.scripting.xmltags.OgnlCache;
+import org.apache.ibatis.scripting.xmltags.SetSqlNode;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.scripting.xmltags.StaticTextSqlNode;
+import org.apache.ibatis.scripting.xmltags.TrimSqlNode;
+import org.apache.ibatis.scripting.xmltags.VarDeclSqlNode;
+import org.apache.ibatis.scripting.xmltags.WhereSqlNode;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 把XMLScriptBuilder解析出来的SqlNode树编译成只做判断的CompiledNode树
+ *
+ * CompiledNode不拼SQL，只按和原来的节点相同的顺序：
+ * 		1、算出每个<if>/<when>的结果、<foreach>的元素个数，记到SqlShape里
+ * 		2、和原来一样往DynamicContext里绑定<bind>的变量和<foreach>的__frch_item_N
+ * 			（编号也从context.getUniqueNumber()取，和原来的节点生成的#{__frch_item_N}一一对应）
+ * 		<where>/<set>/<trim>去掉多余的前后缀只取决于里面的判断结果，不需要单独记录
+ *
+ * 有${}的文本（TextSqlNode）拼出来的SQL取决于参数的值，不能按形状缓存；
+ * 		其他插件自定义的SqlNode也不认识，这两种情况返回null，这条语句还按原来的方式执行
+ */
+final class SqlNodeCompiler {
+
+	private final Configuration configuration;
+	private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+
+	private SqlNodeCompiler(Configuration configuration) {
+		this.configuration = configuration;
+	}
+
+	/**
+	 * @return 不能按形状缓存时返回null
+	 */
+	static CompiledNode compile(SqlNode root, Configuration configuration) {
+		try {
+			CompiledNode compiled = new SqlNodeCompiler(configuration).compileNode(root);
+			return compiled != null ? compiled : new Mixed(new CompiledNode[0]);
+		} catch (NotCompilable e) {
+			return null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private CompiledNode compileNode(SqlNode node) {
+		Class<?> type = node.getClass();
+		MetaObject metaObject = SystemMetaObject.forObject(node);
+		if (type == StaticTextSqlNode.class) {
+			return null;
+		}
+		if (type == MixedSqlNode.class) {
+			return mixed((List<SqlNode>) metaObject.getValue("contents"));
+		}
+		if (type == IfSqlNode.class) {
+			return new If(condition((String) metaObject.getValue("test")),
+					compileNode((SqlNode) metaObject.getValue("contents")));
+		}
+		if (type == ChooseSqlNode.class) {
+			List<SqlNode> whens = (List<SqlNode>) metaObject.getValue("ifSqlNodes");
+			If[] branches = new If[whens.size()];
+			for (int i = 0; i < branches.length; i++) {
+				CompiledNode branch = compileNode(whens.get(i));
+				if (!(branch instanceof If)) {
+					throw new NotCompilable();
+				}
+				branches[i] = (If) branch;
+			}
+			SqlNode otherwise = (SqlNode) metaObject.getValue("defaultSqlNode");
+			return new Choose(branches, otherwise != null ? compileNode(otherwise) : null);
+		}
+		if (type == TrimSqlNode.class || type == WhereSqlNode.class || type == SetSqlNode.class) {
+			return compileNode((SqlNode) metaObject.getValue("contents"));
+		}
+		if (type == ForEachSqlNode.class) {
+			String collection = (String) metaObject.getValue("collectionExpression");
+			return new ForEach(collection, ExpressionCompiler.compile(collection, configuration), evaluator,
+					(String) metaObject.getValue("item"), (String) metaObject.getValue("index"),
+					compileNode((SqlNode) metaObject.getValue("contents")));
+		}
+		if (type == VarDeclSqlNode.class) {
+			String expression = (String) metaObject.getValue("expression");
+			return new Bind((String) metaObject.getValue("name"), expression,
+					ExpressionCompiler.compile(expression, configuration));
+		}
+		// TextSqlNode（${}）和不认识的节点
+		throw new NotCompilable();
+	}
+
+	/** 纯文本在编译后的树里没有对应的节点，null表示什么都不做 */
+	private CompiledNode mixed(List<SqlNode> contents) {
+		List<CompiledNode> children = new ArrayList<CompiledNode>();
+		for (SqlNode child : contents) {
+			CompiledNode compiled = compileNode(child);
+			if (compiled != null) {
+				children.add(compiled);
+			}
+		}
+		if (children.isEmpty()) {
+			return null;
+		}
+		return children.size() == 1 ? children.get(0) : new Mixed(children.toArray(new CompiledNode[children.size()]));
+	}
+
+	private Condition condition(String test) {
+		return new Condition(test, ExpressionCompiler.compile(test, configuration), evaluator);
+	}
+
+	abstract static class CompiledNode {
+
+		abstract void apply(DynamicContext context, SqlShape shape);
+	}
+
+	/**
+	 * test表达式：编译不了或者求值时遇到不支持的情况就用MyBatis原来的ExpressionEvaluator
+	 */
+	static final class Condition {
+
+		private final String test;
+		private final CompiledExpression expression;
+		private final ExpressionEvaluator evaluator;
+
+		Condition(String test, CompiledExpression expression, ExpressionEvaluator evaluator) {
+			this.test = test;
+			this.expression = expression;
+			this.evaluator = evaluator;
+		}
+
+		boolean test(Map<String, Object> bindings) {
+			if (expression != null) {
+				try {
+					return CompiledExpression.isTrue(expression.evaluate(bindings));
+				} catch (RuntimeException e) {
+					// 交给OGNL，结果或者报错都和原来一样
+				}
+			}
+			return evaluator.evaluateBoolean(test, bindings);
+		}
+	}
+
+	static final class Mixed extends CompiledNode {
+
+		private final CompiledNode[] children;
+
+		Mixed(CompiledNode[] children) {
+			this.children = children;
+		}
+
+		@Override
+		void apply(DynamicContext context, SqlShape shape) {
+			for (CompiledNode child : children) {
+				child.apply(context, shape);
+			}
+		}
+	}
+
+	static final class If extends CompiledNode {
+
+		private final Condition condition;
+		private final CompiledNode contents;
+
+		If(Condition condition, CompiledNode contents) {
+			this.condition = condition;
+			this.contents = contents;
+		}
+
+		@Override
+		void apply(DynamicContext context, SqlShape shape) {
+			boolean matched = condition.test(context.getBindings());
+			shape.add(matched);
+			if (matched && contents != null) {
+				contents.apply(context, shape);
+			}
+		}
+
+		/** 给<choose>用：只判断不记录 */
+		boolean test(DynamicContext context) {
+			return condition.test(context.getBindings());
+		}
+	}
+
+	/** 记录走了第几个<when>，-1表示<otherwise> */
+	static final class Choose extends CompiledNode {
+
+		private final If[] whens;
+		private final CompiledNode otherwise;
+
+		Choose(If[] whens, CompiledNode otherwise) {
+			this.whens = whens;
+			this.otherwise = otherwise;
+		}
+
+		@Override
+		void apply(DynamicContext context, SqlShape shape) {
+			for (int i = 0; i < whens.length; i++) {
+				if (whens[i].test(context)) {
+					shape.add(i);
+					if (whens[i].contents != null) {
+						whens[i].contents.apply(context, shape);
+					}
+					return;
+				}
+			}
+			shape.add(-1);
+			if (otherwise != null) {
+				otherwise.apply(context, shape);
+			}
+		}
+	}
+
+	/**
+	 * 和ForEachSqlNode绑定同样的变量：item、index以及带编号的__frch_item_N、__frch_index_N
+	 * 		绑定的值的类型决定#{__frch_item_N}的TypeHandler，也要记进形状
+	 */
+	static final class ForEach extends CompiledNode {
+
+		private final String collection;
+		private final CompiledExpression expression;
+		private final ExpressionEvaluator evaluator;
+		private final String item;
+		private final String index;
+		private final CompiledNode contents;
+
+		ForEach(String collection, CompiledExpression expression, ExpressionEvaluator evaluator, String item, String index,
+				CompiledNode contents) {
+			this.collection = collection;
+			this.expression = expression;
+			this.evaluator = evaluator;
+			this.item = item;
+			this.index = index;
+			this.contents = contents;
+		}
+
+		@Override
+		void apply(DynamicContext context, SqlShape shape) {
+			Map<String, Object> bindings = context.getBindings();
+			int i = 0;
+			for (Object o : iterable(bindings)) {
+				int uniqueNumber = context.getUniqueNumber();
+				if (o instanceof Map.Entry) {
+					Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+					bind(context, shape, index, entry.getKey(), uniqueNumber);
+					bind(context, shape, item, entry.getValue(), uniqueNumber);
+				} else {
+					bind(context, shape, index, i, uniqueNumber);
+					bind(context, shape, item, o, uniqueNumber);
+				}
+				if (contents != null) {
+					contents.apply(context, shape);
+				}
+				i++;
+			}
+			shape.add(i);
+			if (i > 0) {
+				// 集合为空时ForEachSqlNode直接返回，不删除变量
+				bindings.remove(item);
+				bindings.remove(index);
+			}
+		}
+
+		private static void bind(DynamicContext context, SqlShape shape, String name, Object value, int uniqueNumber) {
+			if (name != null) {
+				context.bind(name, value);
+				context.bind(ForEachSqlNode.ITEM_PREFIX + name + "_" + uniqueNumber, value);
+				shape.addType(value);
+			}
+		}
+
+		@SuppressWarnings("rawtypes")
+		private Iterable<?> iterable(Map<String, Object> bindings) {
+			if (expression != null) {
+				try {
+					Object value = expression.evaluate(bindings);
+					if (value instanceof Iterable) {
+						return (Iterable<?>) value;
+					}
+					if (value instanceof Map) {
+						return ((Map) value).entrySet();
+					}
+				} catch (RuntimeException e) {
+					// 交给ExpressionEvaluator，数组和报错信息都由它处理
+				}
+			}
+			return evaluator.evaluateIterable(collection, bindings);
+		}
+	}
+
+	static final class Bind extends CompiledNode {
+
+		private final String name;
+		private final String source;
+		private final CompiledExpression expression;
+
+		Bind(String name, String source, CompiledExpression expression) {
+			this.name = name;
+			this.source = source;
+			this.expression = expression;
+		}
+
+		@Override
+		void apply(DynamicContext context, SqlShape shape) {
+			Object value = null;
+			boolean evaluated = false;
+			if (expression != null) {
+				try {
+					value = expression.evaluate(context.getBindings());
+					evaluated = true;
+				} catch (RuntimeException e) {
+					// 交给OGNL
+				}
+			}
+			if (!evaluated) {
+				value = OgnlCache.getValue(source, context.getBindings());
+			}
+			context.bind(name, value);
+			shape.addType(value);
+		}
+	}
+
+	private static final class NotCompilable extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+	}
+}
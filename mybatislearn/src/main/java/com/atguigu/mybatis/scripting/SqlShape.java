@@ -0,0 +1,62 @@
+package com.atguigu.mybatis.scripting;
+
+import java.util.Arrays;
+
+/**
+ * 一次调用的SQL形状：参数类型、每个<if>/<when>是否成立、<foreach>的元素个数、绑定变量的类型
+ * 		形状相同时生成的SQL文本和参数映射（ParameterMapping的javaType、TypeHandler）一定相同
+ */
+final class SqlShape {
+
+	/** null值的类型占位 */
+	private static final Object NULL_TYPE = new Object();
+
+	private Object[] parts = new Object[16];
+	private int size;
+	private int hash = 1;
+
+	void add(Object part) {
+		if (size == parts.length) {
+			parts = Arrays.copyOf(parts, size * 2);
+		}
+		parts[size++] = part;
+		hash = 31 * hash + part.hashCode();
+	}
+
+	void add(boolean decision) {
+		add(decision ? Boolean.TRUE : Boolean.FALSE);
+	}
+
+	void add(int count) {
+		add(Integer.valueOf(count));
+	}
+
+	void addType(Object value) {
+		add(value == null ? NULL_TYPE : value.getClass());
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SqlShape)) {
+			return false;
+		}
+		SqlShape other = (SqlShape) obj;
+		if (hash != other.hash || size != other.size) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (!parts[i].equals(other.parts[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
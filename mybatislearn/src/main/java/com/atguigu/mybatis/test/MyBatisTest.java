@@ -1,22 +1,70 @@
 package com.atguigu.mybatis.test;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
 
 import com.atguigu.mybatis.bean.OraclePage;
+import com.atguigu.mybatis.async.AsyncMapperFactory;
+import com.atguigu.mybatis.async.DepartmentMapperAsync;
+import com.atguigu.mybatis.async.EmployeeMapperAsync;
+import com.atguigu.mybatis.batch.BulkInsertResult;
+import com.atguigu.mybatis.batch.BulkInserter;
+import com.atguigu.mybatis.batch.ChunkListener;
+import com.atguigu.mybatis.batch.ChunkStats;
+import com.atguigu.mybatis.batch.FailedChunk;
+import com.atguigu.mybatis.batch.ParallelBulkLoader;
+import com.atguigu.mybatis.batch.ParallelLoadResult;
+import com.atguigu.mybatis.cache.SingleFlightInterceptor;
+import com.atguigu.mybatis.cache.TinyLfuCache;
+import com.atguigu.mybatis.cache.offheap.OffHeapCache;
+import com.atguigu.mybatis.cache.snapshot.CacheSnapshot;
+import com.atguigu.mybatis.cache.snapshot.WarmStartSqlSessionFactoryBuilder;
+import com.atguigu.mybatis.config.ConfigurationSnapshot;
+import com.atguigu.mybatis.config.LazyConfiguration;
+import com.atguigu.mybatis.config.LazySqlSessionFactoryBuilder;
+import com.atguigu.mybatis.config.SnapshotSqlSessionFactoryBuilder;
+import com.atguigu.mybatis.cursor.Cursors;
+import com.atguigu.mybatis.datasource.FastPooledDataSource;
+import com.atguigu.mybatis.datasource.StatementCachingDataSource;
+import com.atguigu.mybatis.datasource.routing.ReadWriteRoutingDataSource;
+import com.atguigu.mybatis.guard.CircuitOpenException;
+import com.atguigu.mybatis.guard.StatementGuardInterceptor;
+import com.atguigu.mybatis.metrics.StatementMetricsInterceptor;
+import com.atguigu.mybatis.metrics.StatementSnapshot;
+import com.atguigu.mybatis.page.KeysetPage;
+import com.atguigu.mybatis.page.KeysetPaging;
+import com.atguigu.mybatis.projection.FetchPlan;
+import com.atguigu.mybatis.scripting.CompiledSqlSource;
+import com.atguigu.mybatis.scripting.CompiledXMLLanguageDriver;
 import com.atguigu.mybatis.dao.*;
 import com.github.pagehelper.Page;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.Assert;
 import org.junit.Test;
 
 import com.atguigu.mybatis.bean.Department;
+import com.atguigu.mybatis.bean.EmpStatus;
 import com.atguigu.mybatis.bean.Employee;
 
 /**
@@ -41,10 +89,12 @@ import com.atguigu.mybatis.bean.Employee;
 public class MyBatisTest {
 	
 
+	/** 启动时读Configuration快照，不再解析映射文件；快照过期时按XML解析并重写（见SnapshotSqlSessionFactoryBuilder） */
+	private static final ConfigurationSnapshot CONFIG_SNAPSHOT = new ConfigurationSnapshot(new File("target/mybatis-config.snapshot"));
+
 	public SqlSessionFactory getSqlSessionFactory() throws IOException {
 		String resource = "mybatis-config.xml";
-		InputStream inputStream = Resources.getResourceAsStream(resource);
-		return new SqlSessionFactoryBuilder().build(inputStream);
+		return new SnapshotSqlSessionFactoryBuilder(CONFIG_SNAPSHOT).build(resource);
 	}
 
 	/**
@@ -221,6 +271,26 @@ public class MyBatisTest {
 		}
 	}
 
+	/**
+	 * 批量延迟加载：
+	 * 		访问第一个部门的emps时，所有部门的员工用一条in查询查出来，之后的部门不再发sql
+	 * @throws IOException
+	 */
+	@Test
+	public void testBatchLazy() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			DepartmentMapper mapper = openSession.getMapper(DepartmentMapper.class);
+			List<Department> depts = mapper.getDeptsStep();
+			for (Department dept : depts) {
+				System.out.println(dept.getDepartmentName()+"==>"+dept.getEmps().size());
+			}
+		}finally{
+			openSession.close();
+		}
+	}
+
 	@Test
 	public void testDynamicSql() throws IOException{
 		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
@@ -267,15 +337,81 @@ public class MyBatisTest {
 		}
 	}
 
+	/**
+	 * 编译模式的动态SQL（mybatis-config.xml里defaultScriptingLanguage配置了CompiledXMLLanguageDriver）：
+	 * 		带的条件相同（形状相同）的查询，第一次完整拼SQL，之后直接复用拼好的SQL
+	 * @throws IOException
+	 */
+	@Test
+	public void testCompiledDynamicSql() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			EmployeeMapperDynamicSQL mapper = openSession.getMapper(EmployeeMapperDynamicSQL.class);
+			//id和lastName不同，但都只带了这两个条件：where id=? and last_name like ?
+			mapper.getEmpsByConditionIf(new Employee(1, "%e%", null, null));
+			mapper.getEmpsByConditionIf(new Employee(2, "%a%", null, null));
+			mapper.getEmpsByConditionIf(new Employee(3, "%o%", null, null));
+			SqlSource sqlSource = sqlSessionFactory.getConfiguration()
+					.getMappedStatement("com.atguigu.mybatis.dao.EmployeeMapperDynamicSQL.getEmpsByConditionIf").getSqlSource();
+			if (sqlSource instanceof CompiledSqlSource) {
+				CompiledSqlSource compiled = (CompiledSqlSource) sqlSource;
+				System.out.println("shapes=" + compiled.getShapes() + ", hits=" + compiled.getHits() + ", misses=" + compiled.getMisses());
+			}
+		}finally{
+			openSession.close();
+		}
+	}
+
+	/**
+	 * 编译后的test表达式和OGNL的结果必须一样：同一段<if>分别用OGNL（XMLLanguageDriver）和编译模式拼SQL，比较结果
+	 * 		!/not的优先级比==和+都高：!a == b是(!a) == b；字符串的真假按Boolean.parseBoolean
+	 */
+	@Test
+	public void testCompiledExpressionMatchesOgnl(){
+		String[] tests = {"!a == b", "not a == null", "!(a == b)", "!a + b", "!a and b", "not a or !b",
+				"a == b", "a != null and a != ''", "a + b == 'xy'", "a", "!a"};
+		List<Map<String, Object>> parameters = new ArrayList<>();
+		Object[][] values = {{"x", null}, {null, null}, {"true", "y"}, {true, false}, {1, 0}, {"", false}};
+		for (Object[] value : values) {
+			Map<String, Object> parameter = new HashMap<>();
+			parameter.put("a", value[0]);
+			parameter.put("b", value[1]);
+			parameters.add(parameter);
+		}
+		Configuration configuration = new Configuration();
+		for (String test : tests) {
+			String script = "<script>select 1 <if test=\"" + test + "\">where 1=1</if></script>";
+			SqlSource ognl = new XMLLanguageDriver().createSqlSource(configuration, script, Map.class);
+			SqlSource compiled = new CompiledXMLLanguageDriver().createSqlSource(configuration, script, Map.class);
+			for (Map<String, Object> parameter : parameters) {
+				String expected;
+				try {
+					expected = ognl.getBoundSql(parameter).getSql();
+				} catch (RuntimeException e) {
+					//OGNL本身就报错的情况（比如null相加）不比较
+					continue;
+				}
+				Assert.assertEquals(test + " " + parameter, expected, compiled.getBoundSql(parameter).getSql());
+			}
+		}
+	}
+
 	@Test
 	public void testBatchSave() throws IOException{
 		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
 		SqlSession openSession = sqlSessionFactory.openSession();
 		try{
 			EmployeeMapperDynamicSQL mapper = openSession.getMapper(EmployeeMapperDynamicSQL.class);
+			Department dept = new Department();
+			dept.setId(1);
 			List<Employee> emps = new ArrayList<>();
-			emps.add(new Employee(null, "smith0x1", "smith0x1@atguigu.com", "1",new Department(1)));
-			emps.add(new Employee(null, "allen0x1", "allen0x1@atguigu.com", "0",new Department(1)));
+			Employee smith = new Employee(null, "smith0x1", "smith0x1@atguigu.com", "1");
+			smith.setDept(dept);
+			emps.add(smith);
+			Employee allen = new Employee(null, "allen0x1", "allen0x1@atguigu.com", "0");
+			allen.setDept(dept);
+			emps.add(allen);
 			mapper.addEmps(emps);
 			openSession.commit();
 		}finally{
@@ -329,6 +465,8 @@ public class MyBatisTest {
 	 *		2）、导入与第三方缓存整合的适配包；官方有；
 	 *		3）、mapper.xml中使用自定义缓存
 	 *		<cache type="org.mybatis.caches.ehcache.EhcacheCache"></cache>
+	 *		4）、自己实现Cache接口：com.atguigu.mybatis.cache.TinyLfuCache（读不加锁，按字节数淘汰）
+	 *			com.atguigu.mybatis.cache.offheap.OffHeapCache（值编码后放在堆外，POJO不用实现序列化接口）
 	 *
 	 * @throws IOException
 	 *
@@ -383,6 +521,157 @@ public class MyBatisTest {
 		}
 	}
 
+	/**
+	 * TinyLfuCache的命中率：同一个id查10次，第一次之后都从二级缓存中拿
+	 * @throws IOException
+	 */
+	@Test
+	public void testTinyLfuCache() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		for (int i = 0; i < 10; i++) {
+			SqlSession openSession = sqlSessionFactory.openSession();
+			try{
+				openSession.getMapper(EmployeeMapper.class).getEmpById(1);
+			}finally{
+				openSession.close();
+			}
+		}
+		System.out.println(TinyLfuCache.getCache(EmployeeMapper.class.getName()).getStats());
+	}
+
+	/**
+	 * OffHeapCache：部门和它的员工列表编码后放在堆外，readOnly=false时每次取出的都是新对象，
+	 * 		emp.dept和dept本身还是同一个对象（循环引用保留下来）
+	 * @throws IOException
+	 */
+	@Test
+	public void testOffHeapCache() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		Department dept;
+		try{
+			dept = openSession.getMapper(DepartmentMapper.class).getDeptByIdPlus(1);
+		}finally{
+			openSession.close();
+		}
+		OffHeapCache cache = new OffHeapCache("offheap-demo");
+		cache.setReadOnly(false);
+		cache.initialize();
+		cache.putObject("dept:1", dept);
+		Department copy = (Department) cache.getObject("dept:1");
+		System.out.println(copy + " copy:" + (copy != dept) + " emps:" + copy.getEmps());
+		System.out.println(cache.getStats());
+	}
+
+	/**
+	 * 合并并发查询：更新1号员工让缓存失效后，8个线程同时getEmpById(1)，只发一条sql，
+	 * 		其他7个线程拿到的是同一次查询的结果（followers=7）
+	 * @throws Exception
+	 */
+	@Test
+	public void testSingleFlight() throws Exception{
+		final SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			openSession.getMapper(EmployeeMapper.class).updateEmp(new Employee(1, "jerry", "jerry@atguigu.com", "0"));
+			openSession.commit();
+		}finally{
+			openSession.close();
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		for (int i = 0; i < 8; i++) {
+			pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					SqlSession session = sqlSessionFactory.openSession();
+					try{
+						session.getMapper(EmployeeMapper.class).getEmpById(1);
+					}finally{
+						session.close();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+		for (Interceptor interceptor : sqlSessionFactory.getConfiguration().getInterceptors()) {
+			if (interceptor instanceof SingleFlightInterceptor) {
+				SingleFlightInterceptor singleFlight = (SingleFlightInterceptor) interceptor;
+				System.out.println("leaders=" + singleFlight.getLeaders() + ", followers=" + singleFlight.getFollowers());
+			}
+		}
+	}
+
+	/**
+	 * 缓存快照：第一个SqlSessionFactory查询后保存快照（正常是JVM关闭时自动保存），
+	 * 		第二个SqlSessionFactory构建时加载快照，getEmpById(1)不再发sql
+	 * @throws IOException
+	 */
+	@Test
+	public void testCacheSnapshot() throws IOException{
+		CacheSnapshot snapshot = new CacheSnapshot(new File(System.getProperty("java.io.tmpdir"), "mybatis-cache.snapshot"));
+		snapshot.setMaxSnapshotAgeSeconds(600);
+		WarmStartSqlSessionFactoryBuilder builder = new WarmStartSqlSessionFactoryBuilder(snapshot);
+		builder.setSaveOnShutdown(false);
+		SqlSessionFactory sqlSessionFactory = builder.build(Resources.getResourceAsStream("mybatis-config.xml"));
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			openSession.getMapper(EmployeeMapper.class).getEmpById(1);
+		}finally{
+			openSession.close();
+		}
+		System.out.println(snapshot.save(sqlSessionFactory.getConfiguration()));
+
+		SqlSessionFactory restarted = builder.build(Resources.getResourceAsStream("mybatis-config.xml"));
+		System.out.println(builder.getLastLoad());
+		SqlSession openSession2 = restarted.openSession();
+		try{
+			System.out.println(openSession2.getMapper(EmployeeMapper.class).getEmpById(1));
+		}finally{
+			openSession2.close();
+		}
+	}
+
+	/**
+	 * 按表、按主键失效：更新1号员工之后
+	 * 		getDeptById(1)（tbl_dept）、getEmpById(2)（另一个主键）仍然从二级缓存中拿；
+	 * 		getEmpById(1)、getEmps()重新发sql
+	 * @throws IOException
+	 */
+	@Test
+	public void testTableInvalidation() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			openSession.getMapper(DepartmentMapper.class).getDeptById(1);
+			EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+			mapper.getEmpById(1);
+			mapper.getEmpById(2);
+			mapper.getEmps();
+		}finally{
+			openSession.close();
+		}
+
+		SqlSession openSession2 = sqlSessionFactory.openSession();
+		try{
+			openSession2.getMapper(EmployeeMapper.class).updateEmp(new Employee(1, "jerry", "jerry@atguigu.com", "0"));
+			openSession2.commit();
+		}finally{
+			openSession2.close();
+		}
+
+		SqlSession openSession3 = sqlSessionFactory.openSession();
+		try{
+			System.out.println(openSession3.getMapper(DepartmentMapper.class).getDeptById(1));
+			EmployeeMapper mapper = openSession3.getMapper(EmployeeMapper.class);
+			System.out.println(mapper.getEmpById(2));
+			System.out.println(mapper.getEmpById(1));
+			System.out.println(mapper.getEmps().size());
+		}finally{
+			openSession3.close();
+		}
+	}
+
 	@Test
 	public void testFirstLevelCache() throws IOException{
 		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
@@ -454,7 +743,7 @@ public class MyBatisTest {
 	 * @throws IOException
 	 */
 	@Test
-	public void test01() throws IOException {
+	public void testRunningProcess() throws IOException {
 		// 1、获取sqlSessionFactory对象
 		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
 		// 2、获取sqlSession对象
@@ -550,6 +839,28 @@ public class MyBatisTest {
 
 	}
 
+	/**
+	 * keyset分页：不用页码，用上一页最后一条的id往后翻；
+	 * 		第一页afterId传null，之后每次传上一页的nextAfterId
+	 * @throws IOException
+	 */
+	@Test
+	public void testKeysetPage() throws IOException {
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try {
+			EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+			KeysetPage<Employee> page = KeysetPaging.employees(mapper, null, 5, true);
+			System.out.println(page);
+			while (page.isHasNext()) {
+				page = KeysetPaging.employees(mapper, page.getNextAfterId(), 5, false);
+				System.out.println(page);
+			}
+		} finally {
+			openSession.close();
+		}
+	}
+
 	@Test
 	public void testBatch() throws IOException{
 		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
@@ -574,6 +885,336 @@ public class MyBatisTest {
 
 	}
 
+	/**
+	 * 分块批量保存：
+	 * 		每1000行（或者语句估算超过3M）执行一次并提交，每块提交后id已回填；
+	 * 		连接url上加rewriteBatchedStatements=true时自动改用BATCH执行器
+	 * @throws IOException
+	 */
+	@Test
+	public void testBulkInsert() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		List<Employee> emps = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			emps.add(new Employee(UUID.randomUUID().toString().substring(0, 5), "b", "1"));
+		}
+		BulkInserter inserter = new BulkInserter(sqlSessionFactory);
+		inserter.setListener(new ChunkListener() {
+			@Override
+			public void onChunk(ChunkStats stats) {
+				System.out.println(stats);
+			}
+		});
+		BulkInsertResult result = inserter.insert(emps);
+		System.out.println(result);
+		System.out.println("最后一条的id："+emps.get(emps.size()-1).getId());
+	}
+
+	/**
+	 * 多线程加载：4个worker各用一个SqlSession，每5块提交一次；
+	 * 		失败的块重试后仍然失败就记下来，不影响其他块
+	 * @throws IOException
+	 */
+	@Test
+	public void testParallelLoad() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		List<Employee> emps = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			emps.add(new Employee(UUID.randomUUID().toString().substring(0, 5), "b", "1"));
+		}
+		ParallelBulkLoader loader = new ParallelBulkLoader(sqlSessionFactory);
+		loader.setThreads(4);
+		loader.setCommitInterval(5);
+		ParallelLoadResult result = loader.load(emps);
+		System.out.println(result);
+		for (FailedChunk failed : result.getFailures()) {
+			System.out.println(failed);
+		}
+	}
+
+	/**
+	 * 流式查询：
+	 * 		getEmps()会把整张表封装成List放在内存中；getEmpsCursor()逐行读取
+	 * 		Cursors.pipe：读游标的线程和处理数据的线程之间只缓冲固定的行数
+	 * @throws IOException
+	 */
+	@Test
+	public void testCursor() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try{
+			EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+			Cursor<Employee> cursor = mapper.getEmpsCursor();
+			long count = Cursors.pipe(cursor, 1000, new Consumer<Employee>() {
+				@Override
+				public void accept(Employee employee) {
+					//导出一行
+				}
+			}, executor);
+			System.out.println("导出行数："+count);
+		}finally{
+			executor.shutdown();
+			openSession.close();
+		}
+	}
+
+	/**
+	 * 一对多关联的流式读取：getDeptByIdPlus的嵌套结果集要读完整个结果集才交出结果，
+	 * 		getDeptsWithEmps按部门id排序（resultOrdered="true"），每读完一个部门就交出一个Department，
+	 * 		内存里只有当前这一个部门的员工
+	 * @throws IOException
+	 */
+	@Test
+	public void testOrderedNestedStreaming() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			DepartmentMapper mapper = openSession.getMapper(DepartmentMapper.class);
+			mapper.getDeptsWithEmps(new ResultHandler<Department>() {
+				@Override
+				public void handleResult(ResultContext<? extends Department> context) {
+					Department dept = context.getResultObject();
+					System.out.println(dept.getDepartmentName() + "：" + dept.getEmps().size());
+				}
+			});
+			Cursor<Department> cursor = mapper.getDeptsWithEmpsCursor();
+			try{
+				for (Department dept : cursor) {
+					System.out.println(dept.getDepartmentName() + "：" + dept.getEmps());
+				}
+			}finally{
+				cursor.close();
+			}
+		}finally{
+			openSession.close();
+		}
+	}
+
+	/**
+	 * 语句统计：每个语句id的调用次数、p50/p99延迟、行数、缓存命中率；
+	 * 		jvisualvm/jconsole中也可以在com.atguigu.mybatis下看到（jmx=true时）
+	 * @throws IOException
+	 */
+	@Test
+	public void testMetrics() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+			for (int i = 0; i < 100; i++) {
+				mapper.getEmpById(1);
+				openSession.clearCache();
+			}
+			mapper.getEmpById(1);
+		}finally{
+			openSession.close();
+		}
+		for (Interceptor interceptor : sqlSessionFactory.getConfiguration().getInterceptors()) {
+			if (interceptor instanceof StatementMetricsInterceptor) {
+				for (StatementSnapshot statement : ((StatementMetricsInterceptor) interceptor).snapshot().slowest(10)) {
+					System.out.println(statement);
+				}
+			}
+		}
+	}
+
+	/**
+	 * PreparedStatement缓存：每个SqlSession关闭时语句归还到物理连接的缓存，
+	 * 		后面的SqlSession拿到同一个连接时不用再prepare（配合useServerPrepStmts=true）
+	 * @throws IOException
+	 */
+	@Test
+	public void testStatementCache() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		for (int i = 0; i < 5; i++) {
+			SqlSession openSession = sqlSessionFactory.openSession();
+			try{
+				EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+				System.out.println(mapper.getEmpById(1));
+			}finally{
+				openSession.close();
+			}
+		}
+		DataSource dataSource = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource();
+		if (dataSource instanceof StatementCachingDataSource) {
+			StatementCachingDataSource cachingDataSource = (StatementCachingDataSource) dataSource;
+			//第一次未命中，后面4次命中
+			System.out.println("hits=" + cachingDataSource.getHits() + ", misses=" + cachingDataSource.getMisses()
+					+ ", cached=" + cachingDataSource.getCachedStatements());
+		}
+	}
+
+	/**
+	 * FastPooledDataSource：20个线程抢10个连接，看等待时间和使用时间的分布；
+	 * 		忘了关闭的连接超过leakDetectionThreshold会打印借出时的调用栈
+	 * @throws Exception
+	 */
+	@Test
+	public void testConnectionPool() throws Exception{
+		final SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		ExecutorService executor = Executors.newFixedThreadPool(20);
+		for (int i = 0; i < 1000; i++) {
+			executor.submit(() -> {
+				SqlSession openSession = sqlSessionFactory.openSession();
+				try{
+					openSession.getMapper(EmployeeMapper.class).getEmpById(1);
+				}finally{
+					openSession.close();
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		DataSource dataSource = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource();
+		if (dataSource.isWrapperFor(FastPooledDataSource.class)) {
+			System.out.println(dataSource.unwrap(FastPooledDataSource.class).snapshot());
+		}
+	}
+
+	/**
+	 * 读写分离（dev_mysql_rw环境）：查询发到从库；同一个事务里写过之后，查询留在主库，commit之后又回到从库
+	 * @throws IOException
+	 */
+	@Test
+	public void testReadWriteRouting() throws IOException{
+		InputStream inputStream = Resources.getResourceAsStream("mybatis-config.xml");
+		SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(inputStream, "dev_mysql_rw");
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+			//从库
+			Employee employee = mapper.getEmpById(1);
+			employee.setLastName("jerry");
+			//主库
+			mapper.updateEmp(employee);
+			//事务里写过了：主库，能读到刚才的修改
+			System.out.println(mapper.getEmpById(1));
+			openSession.commit();
+			//从库
+			mapper.getEmps();
+		}finally{
+			openSession.close();
+		}
+		ReadWriteRoutingDataSource dataSource = (ReadWriteRoutingDataSource) sqlSessionFactory.getConfiguration()
+				.getEnvironment().getDataSource();
+		System.out.println("primary=" + dataSource.getPrimaryStatements() + ", replica=" + dataSource.getReplicaStatements()
+				+ ", fallbacks=" + dataSource.getFallbacks());
+	}
+
+	/**
+	 * 异步Mapper：getEmpById和getDeptById在两个线程上并行执行，每次调用一个SqlSession
+	 * @throws IOException
+	 */
+	@Test
+	public void testAsyncMapper() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		AsyncMapperFactory asyncMapperFactory = new AsyncMapperFactory(sqlSessionFactory);
+		asyncMapperFactory.setMaxConcurrency(10);
+		try{
+			EmployeeMapperAsync empMapper = asyncMapperFactory.getMapper(EmployeeMapperAsync.class);
+			DepartmentMapperAsync deptMapper = asyncMapperFactory.getMapper(DepartmentMapperAsync.class);
+			CompletableFuture<Employee> employee = empMapper.getEmpById(1);
+			CompletableFuture<Department> department = deptMapper.getDeptById(1);
+			System.out.println(employee.thenCombine(department, (emp, dept) -> emp.getLastName() + "@" + dept.getDepartmentName()).join());
+			System.out.println("emps=" + empMapper.getEmps().join().size() + ", virtual=" + asyncMapperFactory.isUsingVirtualThreads());
+		}finally{
+			asyncMapperFactory.close();
+		}
+	}
+
+	/**
+	 * Configuration快照：第一次按XML解析并写快照，第二次直接读快照，比较两次的语句和耗时
+	 * @throws IOException
+	 */
+	@Test
+	public void testConfigurationSnapshot() throws IOException{
+		ConfigurationSnapshot snapshot = new ConfigurationSnapshot(new File(System.getProperty("java.io.tmpdir"), "mybatis-config.snapshot"));
+		snapshot.getFile().delete();
+		SnapshotSqlSessionFactoryBuilder builder = new SnapshotSqlSessionFactoryBuilder(snapshot);
+		long start = System.nanoTime();
+		SqlSessionFactory parsed = builder.build("mybatis-config.xml");
+		System.out.println(builder.getLastStatus() + "：" + (System.nanoTime() - start) / 1000000 + "ms，快照" + snapshot.getFile().length() + "字节");
+		start = System.nanoTime();
+		SqlSessionFactory loaded = builder.build("mybatis-config.xml");
+		System.out.println(builder.getLastStatus() + "：" + (System.nanoTime() - start) / 1000000 + "ms");
+		System.out.println("语句数：" + parsed.getConfiguration().getMappedStatementNames().size() + " / "
+				+ loaded.getConfiguration().getMappedStatementNames().size());
+		SqlSession openSession = loaded.openSession();
+		try{
+			System.out.println(openSession.getMapper(EmployeeMapper.class).getEmpById(1));
+		}finally{
+			openSession.close();
+		}
+	}
+
+	/**
+	 * 按需构建Mapper：启动时只建索引，getMapper时才解析EmployeeMapper.xml、编译其中所有语句的SQL
+	 * @throws IOException
+	 */
+	@Test
+	public void testLazyConfiguration() throws IOException{
+		SqlSessionFactory sqlSessionFactory = new LazySqlSessionFactoryBuilder().build(Resources.getResourceAsStream("mybatis-config.xml"));
+		LazyConfiguration configuration = (LazyConfiguration) sqlSessionFactory.getConfiguration();
+		System.out.println("索引的语句：" + configuration.getIndexedStatements().size() + "，未构建：" + configuration.getPendingNamespaces());
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+			System.out.println(mapper.getEmpById(1));
+			System.out.println("未构建：" + configuration.getPendingNamespaces());
+		}finally{
+			openSession.close();
+		}
+	}
+
+	/**
+	 * 时间预算和熔断：getEmpsByLastNameLike的timeout="3"，超过3秒被取消；
+	 * 		连续慢调用之后熔断器打开，再调用直接抛CircuitOpenException，不访问数据库
+	 * @throws IOException
+	 */
+	@Test
+	public void testStatementGuard() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+			for (int i = 0; i < 10; i++) {
+				try{
+					System.out.println(mapper.getEmpsByLastNameLike("%e%").size());
+				}catch(CircuitOpenException e){
+					System.out.println("熔断中：" + e.getMessage());
+				}
+				openSession.clearCache();
+			}
+		}finally{
+			openSession.close();
+		}
+		for (Interceptor interceptor : sqlSessionFactory.getConfiguration().getInterceptors()) {
+			if (interceptor instanceof StatementGuardInterceptor) {
+				StatementGuardInterceptor guard = (StatementGuardInterceptor) interceptor;
+				System.out.println("cancelled=" + guard.getCancelled() + ", breakers=" + guard.getCircuitBreakers());
+			}
+		}
+	}
+
+	/**
+	 * 列裁剪：select * 换成Employee用得到的列；FetchPlan只查id和email，其他属性为null
+	 * @throws IOException
+	 */
+	@Test
+	public void testProjection() throws IOException{
+		SqlSessionFactory sqlSessionFactory = getSqlSessionFactory();
+		SqlSession openSession = sqlSessionFactory.openSession();
+		try{
+			EmployeeMapper mapper = openSession.getMapper(EmployeeMapper.class);
+			System.out.println(mapper.getEmpsByLastNameLike("%e%"));
+			FetchPlan.start("id", "email");
+			System.out.println(mapper.getEmpsByLastNameLike("%e%"));
+		}finally{
+			openSession.close();
+		}
+	}
+
 	/**
 	 * oracle分页：
 	 * 		借助rownum：行号；子查询；
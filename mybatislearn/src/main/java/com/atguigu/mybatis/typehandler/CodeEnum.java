@@ -0,0 +1,9 @@
+package com.atguigu.mybatis.typehandler;
+
+/**
+ * 在数据库中按状态码（而不是名字或者ordinal）保存的枚举
+ */
+public interface CodeEnum {
+
+	int getCode();
+}
@@ -0,0 +1,78 @@
+package com.atguigu.mybatis.typehandler;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * 状态码 ==> 枚举对象的查找表，构建一次之后只读，查找时不装箱：
+ * 		状态码范围不大时用数组按(code - min)直接下标访问；
+ * 		范围太稀疏时退化为有序数组上的二分查找
+ */
+public final class CodeEnumTable<E extends Enum<E> & CodeEnum> {
+
+	/** 直接下标表允许的最大跨度 */
+	private static final int MAX_DENSE_RANGE = 4096;
+
+	private final Class<E> type;
+	private final int min;
+	private final E[] dense;
+	private final int[] sortedCodes;
+	private final E[] sortedValues;
+
+	private CodeEnumTable(Class<E> type) {
+		this.type = type;
+		E[] constants = type.getEnumConstants();
+		if (constants == null) {
+			throw new IllegalArgumentException(type + " is not an enum type");
+		}
+		E[] sorted = constants.clone();
+		Arrays.sort(sorted, (a, b) -> Integer.compare(a.getCode(), b.getCode()));
+		int[] codes = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			codes[i] = sorted[i].getCode();
+			if (i > 0 && codes[i] == codes[i - 1]) {
+				throw new IllegalArgumentException("Duplicate code " + codes[i] + " in " + type.getName()
+						+ ": " + sorted[i - 1] + " and " + sorted[i]);
+			}
+		}
+		if (sorted.length > 0 && (long) codes[codes.length - 1] - codes[0] < MAX_DENSE_RANGE) {
+			this.min = codes[0];
+			this.dense = newArray(type, codes[codes.length - 1] - min + 1);
+			for (E e : sorted) {
+				dense[e.getCode() - min] = e;
+			}
+			this.sortedCodes = null;
+			this.sortedValues = null;
+		} else {
+			this.min = 0;
+			this.dense = null;
+			this.sortedCodes = codes;
+			this.sortedValues = sorted;
+		}
+	}
+
+	public static <E extends Enum<E> & CodeEnum> CodeEnumTable<E> of(Class<E> type) {
+		return new CodeEnumTable<E>(type);
+	}
+
+	/**
+	 * @return 没有对应枚举时返回null
+	 */
+	public E lookup(int code) {
+		if (dense != null) {
+			int index = code - min;
+			return index >= 0 && index < dense.length ? dense[index] : null;
+		}
+		int index = Arrays.binarySearch(sortedCodes, code);
+		return index >= 0 ? sortedValues[index] : null;
+	}
+
+	public Class<E> getType() {
+		return type;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E> E[] newArray(Class<E> type, int length) {
+		return (E[]) Array.newInstance(type, length);
+	}
+}
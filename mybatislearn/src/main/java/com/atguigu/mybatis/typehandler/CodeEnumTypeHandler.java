@@ -0,0 +1,66 @@
+package com.atguigu.mybatis.typehandler;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+/**
+ * 通用的状态码枚举处理器，适用于任何实现了CodeEnum的枚举：
+ * 		保存：ps.setInt(状态码)
+ * 		查询：rs.getInt ==> CodeEnumTable查表，不装箱、不打印日志
+ * 		列值为null时返回null；查不到的状态码按UnknownCodePolicy处理
+ *
+ * 可以直接注册：
+ * 		<typeHandler handler="com.atguigu.mybatis.typehandler.CodeEnumTypeHandler" javaType="xxx.XxxEnum"/>
+ * mybatis会把javaType传给Class参数的构造器
+ */
+public class CodeEnumTypeHandler<E extends Enum<E> & CodeEnum> extends BaseTypeHandler<E> {
+
+	private final CodeEnumTable<E> table;
+	private final UnknownCodePolicy<E> unknownCodePolicy;
+
+	public CodeEnumTypeHandler(Class<E> type) {
+		this(type, UnknownCodePolicy.fromSystemProperties(type));
+	}
+
+	public CodeEnumTypeHandler(Class<E> type, UnknownCodePolicy<E> unknownCodePolicy) {
+		if (type == null) {
+			throw new IllegalArgumentException("Type argument cannot be null");
+		}
+		this.table = CodeEnumTable.of(type);
+		this.unknownCodePolicy = unknownCodePolicy;
+	}
+
+	@Override
+	public void setNonNullParameter(PreparedStatement ps, int i, E parameter, JdbcType jdbcType)
+			throws SQLException {
+		ps.setInt(i, parameter.getCode());
+	}
+
+	@Override
+	public E getNullableResult(ResultSet rs, String columnName) throws SQLException {
+		int code = rs.getInt(columnName);
+		return code == 0 && rs.wasNull() ? null : decode(code);
+	}
+
+	@Override
+	public E getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+		int code = rs.getInt(columnIndex);
+		return code == 0 && rs.wasNull() ? null : decode(code);
+	}
+
+	@Override
+	public E getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+		int code = cs.getInt(columnIndex);
+		return code == 0 && cs.wasNull() ? null : decode(code);
+	}
+
+	private E decode(int code) {
+		E value = table.lookup(code);
+		return value != null ? value : unknownCodePolicy.onUnknown(code);
+	}
+}
@@ -1,62 +1,23 @@
 package com.atguigu.mybatis.typehandler;
 
-import java.sql.CallableStatement;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-
-import org.apache.ibatis.type.JdbcType;
-import org.apache.ibatis.type.TypeHandler;
-
 import com.atguigu.mybatis.bean.EmpStatus;
 
 /**
  * 1、实现TypeHandler接口。或者继承BaseTypeHandler
+ * 		这里直接复用CodeEnumTypeHandler：按状态码setInt保存，查询时查表得到枚举对象
+ * 2、数据库中出现EmpStatus里没有的状态码时默认抛出异常，不再悄悄当成LOGOUT；
+ * 		需要兼容旧数据时：-Dmybatis.codeEnum.unknown.com.atguigu.mybatis.bean.EmpStatus=DEFAULT:LOGOUT
  * @author lfy
  *
  */
-public class MyEnumEmpStatusTypeHandler implements TypeHandler<EmpStatus> {
-
-	/**
-	 * 定义当前数据如何保存到数据库中
-	 */
-	@Override
-	public void setParameter(PreparedStatement ps, int i, EmpStatus parameter,
-			JdbcType jdbcType) throws SQLException {
-		// TODO Auto-generated method stub
-		System.out.println("要保存的状态码："+parameter.getCode());
-		ps.setString(i, parameter.getCode().toString());
-	}
-
-	@Override
-	public EmpStatus getResult(ResultSet rs, String columnName)
-			throws SQLException {
-		// TODO Auto-generated method stub
-		//需要根据从数据库中拿到的枚举的状态码返回一个枚举对象
-		int code = rs.getInt(columnName);
-		System.out.println("从数据库中获取的状态码："+code);
-		EmpStatus status = EmpStatus.getEmpStatusByCode(code);
-		return status;
-	}
+public class MyEnumEmpStatusTypeHandler extends CodeEnumTypeHandler<EmpStatus> {
 
-	@Override
-	public EmpStatus getResult(ResultSet rs, int columnIndex)
-			throws SQLException {
-		// TODO Auto-generated method stub
-		int code = rs.getInt(columnIndex);
-		System.out.println("从数据库中获取的状态码："+code);
-		EmpStatus status = EmpStatus.getEmpStatusByCode(code);
-		return status;
+	public MyEnumEmpStatusTypeHandler() {
+		super(EmpStatus.class);
 	}
 
-	@Override
-	public EmpStatus getResult(CallableStatement cs, int columnIndex)
-			throws SQLException {
-		// TODO Auto-generated method stub
-		int code = cs.getInt(columnIndex);
-		System.out.println("从数据库中获取的状态码："+code);
-		EmpStatus status = EmpStatus.getEmpStatusByCode(code);
-		return status;
+	public MyEnumEmpStatusTypeHandler(UnknownCodePolicy<EmpStatus> unknownCodePolicy) {
+		super(EmpStatus.class, unknownCodePolicy);
 	}
 
 }
@@ -0,0 +1,92 @@
+package com.atguigu.mybatis.typehandler;
+
+import org.apache.ibatis.type.TypeException;
+
+/**
+ * 数据库中读到枚举里不存在的状态码时怎么处理：
+ * 		FAIL：抛出TypeException（默认）
+ * 		NULL：返回null
+ * 		DEFAULT：返回指定的枚举对象
+ *
+ * 通过系统属性配置（值为FAIL、NULL或者DEFAULT:枚举名）：
+ * 		-Dmybatis.codeEnum.unknown=NULL  						所有CodeEnum
+ * 		-Dmybatis.codeEnum.unknown.com.atguigu.mybatis.bean.EmpStatus=DEFAULT:LOGOUT	只对某个枚举
+ */
+public final class UnknownCodePolicy<E extends Enum<E> & CodeEnum> {
+
+	public static final String PROPERTY = "mybatis.codeEnum.unknown";
+
+	public enum Mode {
+		FAIL, NULL, DEFAULT
+	}
+
+	private final Class<E> type;
+	private final Mode mode;
+	private final E defaultValue;
+
+	private UnknownCodePolicy(Class<E> type, Mode mode, E defaultValue) {
+		this.type = type;
+		this.mode = mode;
+		this.defaultValue = defaultValue;
+	}
+
+	public static <E extends Enum<E> & CodeEnum> UnknownCodePolicy<E> fail(Class<E> type) {
+		return new UnknownCodePolicy<E>(type, Mode.FAIL, null);
+	}
+
+	public static <E extends Enum<E> & CodeEnum> UnknownCodePolicy<E> returnNull(Class<E> type) {
+		return new UnknownCodePolicy<E>(type, Mode.NULL, null);
+	}
+
+	public static <E extends Enum<E> & CodeEnum> UnknownCodePolicy<E> returnDefault(E defaultValue) {
+		return new UnknownCodePolicy<E>(defaultValue.getDeclaringClass(), Mode.DEFAULT, defaultValue);
+	}
+
+	/**
+	 * 按系统属性解析，先查该枚举自己的配置，再查全局配置，都没有时为FAIL
+	 */
+	public static <E extends Enum<E> & CodeEnum> UnknownCodePolicy<E> fromSystemProperties(Class<E> type) {
+		String value = System.getProperty(PROPERTY + "." + type.getName());
+		if (value == null) {
+			value = System.getProperty(PROPERTY);
+		}
+		return parse(type, value);
+	}
+
+	public static <E extends Enum<E> & CodeEnum> UnknownCodePolicy<E> parse(Class<E> type, String value) {
+		if (value == null || value.trim().length() == 0) {
+			return fail(type);
+		}
+		String[] parts = value.trim().split(":", 2);
+		Mode mode;
+		try {
+			mode = Mode.valueOf(parts[0].trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new TypeException("Unknown policy '" + value + "' for " + type.getName()
+					+ ", expected FAIL, NULL or DEFAULT:<constant>");
+		}
+		if (mode == Mode.DEFAULT) {
+			if (parts.length < 2) {
+				throw new TypeException("Policy DEFAULT for " + type.getName() + " requires a constant, e.g. DEFAULT:"
+						+ type.getEnumConstants()[0].name());
+			}
+			return returnDefault(Enum.valueOf(type, parts[1].trim()));
+		}
+		return new UnknownCodePolicy<E>(type, mode, null);
+	}
+
+	public E onUnknown(int code) {
+		switch (mode) {
+			case NULL:
+				return null;
+			case DEFAULT:
+				return defaultValue;
+			default:
+				throw new TypeException("Unknown code " + code + " for enum " + type.getName());
+		}
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+}